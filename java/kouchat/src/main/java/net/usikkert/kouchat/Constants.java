@@ -95,6 +95,22 @@ public interface Constants
 	 */
 	int NETWORK_PACKET_SIZE = 512;
 
+	/**
+	 * The max number of received packets waiting to be parsed.
+	 */
+	int NETWORK_DISPATCH_QUEUE_SIZE = 256;
+
+	/**
+	 * The number of milliseconds to look for repeats of received packets,
+	 * like when the same packet arrives on several network interfaces.
+	 */
+	int NETWORK_DUPLICATE_WINDOW = 200;
+
+	/**
+	 * The max number of messages waiting to be sent.
+	 */
+	int NETWORK_SEND_QUEUE_SIZE = 256;
+
 	/**
 	 * The multicast address used for sending and receiving
 	 * packets for the main chat.
@@ -124,6 +140,110 @@ public interface Constants
 	 */
 	int MESSAGE_MAX_BYTES = 450;
 
+	/**
+	 * Max number of bytes allowed in a message to the main chat.
+	 * Messages with more than {@link #MESSAGE_MAX_BYTES} are
+	 * sent as several fragments.
+	 */
+	int MESSAGE_MAX_CHAT_BYTES = 8192;
+
+	/**
+	 * Max number of bytes of the text in each fragment of
+	 * a chat message that is too large for one udp packet.
+	 */
+	int MESSAGE_FRAGMENT_BYTES = 400;
+
+	/**
+	 * Messages with a body of more than this number of bytes are
+	 * compressed, if all the receivers support compression.
+	 */
+	int MESSAGE_COMPRESSION_THRESHOLD = 100;
+
+	/**
+	 * The number of milliseconds to wait for the rest of the fragments
+	 * of a chat message, before the fragments received are dropped.
+	 */
+	int NETWORK_REASSEMBLY_TIMEOUT = 10000;
+
+	/**
+	 * The max number of characters in chat messages waiting for more
+	 * fragments. The oldest messages are dropped when there are more.
+	 */
+	int NETWORK_REASSEMBLY_BUFFER_SIZE = 65536;
+
+	/**
+	 * The number of chat messages, topics and away messages to keep,
+	 * so they can be sent again if other users report them missing.
+	 */
+	int NETWORK_RETRANSMIT_BUFFER_SIZE = 128;
+
+	/**
+	 * The minimum number of milliseconds between sending the same message
+	 * again, so several users reporting it missing only get it once.
+	 */
+	int NETWORK_RETRANSMIT_INTERVAL = 250;
+
+	/**
+	 * The shortest number of milliseconds to wait before reporting a missing message.
+	 * The actual wait is random, up to {@link #NETWORK_NACK_MAX_DELAY}, so the first
+	 * user to report it saves the other users from doing the same.
+	 */
+	int NETWORK_NACK_MIN_DELAY = 50;
+
+	/**
+	 * The longest number of milliseconds to wait before reporting a missing message.
+	 */
+	int NETWORK_NACK_MAX_DELAY = 300;
+
+	/**
+	 * The number of milliseconds to wait after logging on before the logon
+	 * is completed. Users that show up after this are unexpected.
+	 */
+	int NETWORK_LOGON_DELAY = 1500;
+
+	/**
+	 * The shortest number of milliseconds between sending changes
+	 * in the writing status of the application user.
+	 */
+	int NETWORK_WRITING_DWELL_TIME = 1000;
+
+	/**
+	 * The highest number of private messages to a user that can be on the way
+	 * without an acknowledgement. Also the number of early messages to keep
+	 * while waiting for a missing private message.
+	 */
+	int NETWORK_PRIVATE_WINDOW_SIZE = 16;
+
+	/**
+	 * The number of milliseconds to wait for the acknowledgement
+	 * of a private message before sending it again.
+	 */
+	int NETWORK_PRIVATE_RETRANSMIT_TIMEOUT = 500;
+
+	/**
+	 * The highest number of times to send a private message
+	 * before giving up on an acknowledgement.
+	 */
+	int NETWORK_PRIVATE_MAX_ATTEMPTS = 5;
+
+	/**
+	 * The default number of bytes to collect from the network
+	 * before writing to a received file.
+	 */
+	int FILE_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * The smallest number of bytes allowed to collect
+	 * before writing to a received file.
+	 */
+	int FILE_BUFFER_MIN_SIZE = 8 * 1024;
+
+	/**
+	 * The largest number of bytes allowed to collect
+	 * before writing to a received file.
+	 */
+	int FILE_BUFFER_MAX_SIZE = 16 * 1024 * 1024;
+
 	/**
 	 * The folder where the application can save files.
 	 */
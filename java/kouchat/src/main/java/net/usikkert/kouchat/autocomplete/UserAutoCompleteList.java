@@ -21,21 +21,28 @@
 
 package net.usikkert.kouchat.autocomplete;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.UserList;
 import net.usikkert.kouchat.util.Tools;
 
 /**
  * This autocompleter has a list of all the users currently online.
  *
+ * <p>The nick names are kept in the same order as in the user list,
+ * and only the changed nick name is updated on each event.</p>
+ *
  * @author Christian Ihle
  */
 public class UserAutoCompleteList implements AutoCompleteList, UserListListener
 {
-	/** The real user list. */
-	private final UserList userList;
+	/** The nick names of the users, in the same order as in the user list. */
+	private final List<String> nicks;
 
-	/** A simple array with users, for use in auto completion. */
+	/** A simple array with users, for use in auto completion. Created when needed. */
 	private String[] users;
 
 	/**
@@ -45,56 +52,63 @@ public class UserAutoCompleteList implements AutoCompleteList, UserListListener
 	 */
 	public UserAutoCompleteList( final UserList userList )
 	{
-		this.userList = userList;
+		nicks = new ArrayList<String>();
+
+		for ( User user : userList )
+		{
+			nicks.add( user.getNick() );
+		}
+
 		userList.addUserListListener( this );
-		updateWords();
 	}
 
 	/**
-	 * Updates the list of users.
+	 * Adds the nick name of the user.
 	 *
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void userAdded( final int pos )
+	public synchronized void userAdded( final int pos, final User user )
 	{
-		updateWords();
+		nicks.add( pos, user.getNick() );
+		users = null;
 	}
 
 	/**
-	 * Updates the list of users.
+	 * Updates the nick name of the user.
 	 *
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void userChanged( final int pos )
+	public synchronized void userChanged( final int pos, final User user )
 	{
-		updateWords();
+		nicks.set( pos, user.getNick() );
+		users = null;
 	}
 
 	/**
-	 * Updates the list of users.
+	 * Moves the nick name of the user to the new position.
 	 *
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void userRemoved( final int pos )
+	public synchronized void userMoved( final int fromPos, final int toPos, final User user )
 	{
-		updateWords();
+		nicks.remove( fromPos );
+		nicks.add( toPos, user.getNick() );
+		users = null;
 	}
 
 	/**
-	 * Iterates through the user list, and adds all the nick names to the
-	 * list of words.
+	 * Removes the nick name of the user.
+	 *
+	 * {@inheritDoc}
 	 */
-	private void updateWords()
+	@Override
+	public synchronized void userRemoved( final int pos, final User user )
 	{
-		users = new String[userList.size()];
-
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			users[i] = userList.get( i ).getNick();
-		}
+		nicks.remove( pos );
+		users = null;
 	}
 
 	/**
@@ -114,8 +128,11 @@ public class UserAutoCompleteList implements AutoCompleteList, UserListListener
 	 * {@inheritDoc}
 	 */
 	@Override
-	public String[] getWordList()
+	public synchronized String[] getWordList()
 	{
+		if ( users == null )
+			users = nicks.toArray( new String[nicks.size()] );
+
 		return users;
 	}
 }
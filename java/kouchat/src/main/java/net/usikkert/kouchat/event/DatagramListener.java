@@ -0,0 +1,44 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.event;
+
+/**
+ * This interface can be used to listen for the raw bytes of messages
+ * sent over the network, before they are decoded.
+ *
+ * <p>The data is only valid during the call, as the buffer is reused
+ * for the next message.</p>
+ *
+ * @author Christian Ihle
+ */
+public interface DatagramListener
+{
+	/**
+	 * Called when a new datagram arrives over the network.
+	 *
+	 * @param data The buffer containing the datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @param ipAddress The ip address of the user that sent the datagram.
+	 */
+	void datagramArrived( byte[] data, int offset, int length, String ipAddress );
+}
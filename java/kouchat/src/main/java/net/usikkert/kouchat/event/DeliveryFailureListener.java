@@ -0,0 +1,42 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.event;
+
+import net.usikkert.kouchat.misc.User;
+
+/**
+ * This interface can be used to listen for private messages
+ * that were never acknowledged by the user they were sent to.
+ *
+ * @author Christian Ihle
+ */
+public interface DeliveryFailureListener
+{
+	/**
+	 * Called when a private message was given up, after being sent
+	 * too many times without an acknowledgement.
+	 *
+	 * @param user The user the message was sent to.
+	 * @param msg The text of the message.
+	 */
+	void messageNotDelivered( User user, String msg );
+}
@@ -21,6 +21,8 @@
 
 package net.usikkert.kouchat.event;
 
+import net.usikkert.kouchat.misc.User;
+
 /**
  * This interface can be used to be notified when
  * the user list is updated.
@@ -34,21 +36,35 @@ public interface UserListListener
 	 *
 	 * @param pos The position in the user list where
 	 * the user was added.
+	 * @param user The user that was added.
 	 */
-	void userAdded( int pos );
+	void userAdded( int pos, User user );
 
 	/**
 	 * A user has updated some of its fields,
 	 * so the ui needs to refresh.
 	 *
 	 * @param pos The position of the changed user in the user list.
+	 * @param user The user that was changed.
+	 */
+	void userChanged( int pos, User user );
+
+	/**
+	 * A user has updated some of its fields, and moved to a new position
+	 * in the user list because of it. The users between the two positions
+	 * have moved one step to make room.
+	 *
+	 * @param fromPos The position of the user before the change.
+	 * @param toPos The position of the user after the change.
+	 * @param user The user that was changed.
 	 */
-	void userChanged( int pos );
+	void userMoved( int fromPos, int toPos, User user );
 
 	/**
 	 * A user has been removed from the user list.
 	 *
 	 * @param pos The position where the user used to be in the user list.
+	 * @param user The user that was removed.
 	 */
-	void userRemoved( int pos );
+	void userRemoved( int pos, User user );
 }
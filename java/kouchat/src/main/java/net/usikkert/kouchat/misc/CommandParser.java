@@ -629,15 +629,14 @@ public class CommandParser
 	private void cmdUsers()
 	{
 		UserList list = controller.getUserList();
-		String userList = "";
+		StringBuilder userList = new StringBuilder();
 
-		for ( int i = 0; i < list.size(); i++ )
+		for ( User user : list )
 		{
-			User user = list.get( i );
-			userList += user.getNick();
+			if ( userList.length() > 0 )
+				userList.append( ", " );
 
-			if ( i < list.size() - 1 )
-				userList += ", ";
+			userList.append( user.getNick() );
 		}
 
 		msgController.showSystemMessage( "Users: " + userList );
@@ -774,7 +773,7 @@ public class CommandParser
 	public void sendFile( final User user, final File file ) throws CommandException
 	{
 		controller.sendFile( user, file );
-		FileSender fileSend = new FileSender( user, file );
+		FileSender fileSend = new FileSender( user, file, controller.getChannelSelector(), controller.getScheduler() );
 		ui.showTransfer( fileSend );
 		tList.addFileSender( fileSend );
 		String size = Tools.byteToString( file.length() );
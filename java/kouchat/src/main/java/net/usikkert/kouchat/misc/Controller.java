@@ -32,12 +32,15 @@ import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.autocomplete.AutoCompleter;
 import net.usikkert.kouchat.autocomplete.CommandAutoCompleteList;
 import net.usikkert.kouchat.autocomplete.UserAutoCompleteList;
+import net.usikkert.kouchat.event.DeliveryFailureListener;
 import net.usikkert.kouchat.event.NetworkConnectionListener;
+import net.usikkert.kouchat.net.ChannelSelector;
 import net.usikkert.kouchat.net.DefaultMessageResponder;
 import net.usikkert.kouchat.net.DefaultPrivateMessageResponder;
 import net.usikkert.kouchat.net.FileReceiver;
 import net.usikkert.kouchat.net.FileSender;
 import net.usikkert.kouchat.net.MessageParser;
+import net.usikkert.kouchat.net.MessageRegistry;
 import net.usikkert.kouchat.net.MessageResponder;
 import net.usikkert.kouchat.net.Messages;
 import net.usikkert.kouchat.net.NetworkService;
@@ -69,6 +72,7 @@ public class Controller implements NetworkConnectionListener
 	private final UserListController userListController;
 	private final NetworkService networkService;
 	private final Messages messages;
+	private final WritingDebouncer writingDebouncer;
 	private final MessageParser msgParser;
 	private final PrivateMessageParser privmsgParser;
 	private final MessageResponder msgResponder;
@@ -111,15 +115,30 @@ public class Controller implements NetworkConnectionListener
 		networkService = new NetworkService();
 		msgResponder = new DefaultMessageResponder( this, ui );
 		privmsgResponder = new DefaultPrivateMessageResponder( this, ui );
-		msgParser = new MessageParser( msgResponder );
+		MessageRegistry messageRegistry = new MessageRegistry();
+		msgParser = new MessageParser( msgResponder, messageRegistry, networkService.getScheduler() );
 		networkService.registerMessageReceiverListener( msgParser );
-		privmsgParser = new PrivateMessageParser( privmsgResponder );
+		privmsgParser = new PrivateMessageParser( privmsgResponder, new MessageRegistry() );
 		networkService.registerUDPReceiverListener( privmsgParser );
-		messages = new Messages( networkService );
+		userListController.getUserList().addUserListListener( privmsgParser );
+		messages = new Messages( networkService, messageRegistry, userListController.getUserList() );
+		writingDebouncer = new WritingDebouncer( messages, Constants.NETWORK_WRITING_DWELL_TIME,
+				networkService.getScheduler() );
 		networkService.registerNetworkConnectionListener( this );
 		msgController = ui.getMessageController();
 
-		new JMXAgent( this, networkService.getConnectionWorker() );
+		messages.registerDeliveryFailureListener( new DeliveryFailureListener()
+		{
+			@Override
+			public void messageNotDelivered( final User user, final String msg )
+			{
+				if ( user.getPrivchat() != null )
+					msgController.showPrivateSystemMessage( user, "Failed to deliver private message: " + msg );
+			}
+		} );
+
+		new JMXAgent( this, networkService.getConnectionWorker(), networkService.getMessageDispatcher(),
+				networkService.getOutboundQueue() );
 		new DayTimer( ui );
 		idleThread.start();
 
@@ -165,7 +184,8 @@ public class Controller implements NetworkConnectionListener
 	 * users are currently writing.
 	 *
 	 * If the user is the application user, messages will be sent to the
-	 * other clients to notify of changes.
+	 * other clients to notify of changes. Quick changes back and forth
+	 * are held back by the {@link WritingDebouncer}.
 	 *
 	 * @param code The user code for the user to update.
 	 * @param writing True if the user is writing.
@@ -177,11 +197,7 @@ public class Controller implements NetworkConnectionListener
 		if ( code == me.getCode() )
 		{
 			chatState.setWrote( writing );
-
-			if ( writing )
-				messages.sendWritingMessage();
-			else
-				messages.sendStoppedWritingMessage();
+			writingDebouncer.writingChanged( writing, System.currentTimeMillis() );
 		}
 	}
 
@@ -330,6 +346,7 @@ public class Controller implements NetworkConnectionListener
 		messages.sendLogoffMessage();
 		chatState.setLoggedOn( false );
 		chatState.setLogonCompleted( false );
+		writingDebouncer.reset();
 		networkService.disconnect();
 		getTopic().resetTopic();
 		if ( removeUsers )
@@ -345,10 +362,8 @@ public class Controller implements NetworkConnectionListener
 	{
 		UserList userList = getUserList();
 
-		for ( int i = 0; i < userList.size(); i++ )
+		for ( User user : userList )
 		{
-			User user = userList.get( i );
-
 			if ( !user.isMe() )
 			{
 				user.setOnline( false );
@@ -360,8 +375,6 @@ public class Controller implements NetworkConnectionListener
 					msgController.showPrivateSystemMessage( user, "You logged off" );
 					user.getPrivchat().setLoggedOff();
 				}
-
-				i--;
 			}
 		}
 	}
@@ -448,12 +461,62 @@ public class Controller implements NetworkConnectionListener
 			throw new CommandException( "You can not send a chat message while away" );
 		else if ( msg.trim().length() == 0 )
 			throw new CommandException( "You can not send an empty chat message" );
-		else if ( Tools.getBytes( msg ) > Constants.MESSAGE_MAX_BYTES )
-			throw new CommandException( "You can not send a chat message with more than " + Constants.MESSAGE_MAX_BYTES + " bytes" );
+		else if ( Tools.getBytes( msg ) > Constants.MESSAGE_MAX_CHAT_BYTES )
+			throw new CommandException( "You can not send a chat message with more than " + Constants.MESSAGE_MAX_CHAT_BYTES + " bytes" );
 		else
 			messages.sendChatMessage( msg );
 	}
 
+	/**
+	 * Sends a chat message, topic or away message again, for the users that did not get it.
+	 *
+	 * @param sequence The sequence number of the message.
+	 */
+	public void resendMessage( final int sequence )
+	{
+		if ( isConnected() )
+			messages.resendMessage( sequence );
+	}
+
+	/**
+	 * Sends a message over the network, asking a user to send a missing message again.
+	 *
+	 * @param userCode The unique code of the user who sent the missing message.
+	 * @param sequence The sequence number of the missing message.
+	 */
+	public void sendNackMessage( final int userCode, final int sequence )
+	{
+		if ( isConnected() )
+			messages.sendNackMessage( userCode, sequence );
+	}
+
+	/**
+	 * Sends a message over the network, telling a user which private messages have arrived.
+	 *
+	 * @param userCode The unique code of the user who sent the private messages.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	public void sendPrivateAckMessage( final int userCode, final int sequence )
+	{
+		User user = getUser( userCode );
+
+		if ( isConnected() && user != null && user.getPrivateChatPort() != 0 )
+			messages.sendPrivateAckMessage( user, sequence );
+	}
+
+	/**
+	 * A user acknowledged the private messages from the application user.
+	 * Private messages waiting for the acknowledgement are sent.
+	 *
+	 * @param userCode The unique code of the user who got the private messages.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	public void privateMessagesAcknowledged( final int userCode, final int sequence )
+	{
+		if ( isConnected() )
+			messages.privateMessagesAcknowledged( userCode, sequence );
+	}
+
 	/**
 	 * Sends a message over the network with the current topic.
 	 */
@@ -520,11 +583,14 @@ public class Controller implements NetworkConnectionListener
 	 * 		to start the file transfer.
 	 * @param fileHash The unique hash code of the file.
 	 * @param fileName The name of the file.
+	 * @param resumeOffset The number of bytes of the file already received,
+	 * 		or 0 to receive the whole file.
 	 * @throws CommandException If the message was not sent successfully.
 	 */
-	public void sendFileAccept( final User user, final int port, final int fileHash, final String fileName ) throws CommandException
+	public void sendFileAccept( final User user, final int port, final int fileHash, final String fileName,
+			final long resumeOffset ) throws CommandException
 	{
-		messages.sendFileAccept( user, port, fileHash, fileName );
+		messages.sendFileAccept( user, port, fileHash, fileName, resumeOffset );
 	}
 
 	/**
@@ -562,6 +628,26 @@ public class Controller implements NetworkConnectionListener
 		return tList;
 	}
 
+	/**
+	 * Gets the selector serving the private chat and file transfer channels.
+	 *
+	 * @return The channel selector.
+	 */
+	public ChannelSelector getChannelSelector()
+	{
+		return networkService.getChannelSelector();
+	}
+
+	/**
+	 * Gets the timer shared by the delayed network tasks.
+	 *
+	 * @return The shared timer.
+	 */
+	public Timer getScheduler()
+	{
+		return networkService.getScheduler();
+	}
+
 	/**
 	 * Gets the list of unidentified users.
 	 *
@@ -654,8 +740,8 @@ public class Controller implements NetworkConnectionListener
 	}
 
 	/**
-	 * This timer task sleeps for 1.5 seconds before updating the
-	 * {@link WaitingList} to set the status to logged on if the
+	 * This timer task sleeps for {@link Constants#NETWORK_LOGON_DELAY} milliseconds
+	 * before updating the {@link WaitingList} to set the status to logged on if the
 	 * client was successful in connecting to the network.
 	 *
 	 * @author Christian Ihle
@@ -670,7 +756,7 @@ public class Controller implements NetworkConnectionListener
 		{
 			try
 			{
-				Thread.sleep( 1500 );
+				Thread.sleep( Constants.NETWORK_LOGON_DELAY );
 			}
 
 			catch ( final InterruptedException e )
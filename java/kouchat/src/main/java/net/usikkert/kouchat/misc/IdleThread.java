@@ -21,6 +21,7 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,12 +30,23 @@ import net.usikkert.kouchat.util.Validate;
 
 /**
  * This thread is responsible for sending a special "idle"
- * message every IDLE_TIME milliseconds to inform other clients
+ * message every IDLE_TIME milliseconds, or less often with many users, to inform other clients
  * that this client is still online. It will also check if
  * other clients have stopped sending these messages,
  * and if that is the case, remove them and show a message
  * in the user interface.
  *
+ * <p>The time between the idle messages grows with the number of users,
+ * so each client gets about the same number of idle messages per minute
+ * on large networks. The time is advertised in the idle message, and other
+ * clients time out this client after missing a number of them. A little
+ * random jitter keeps the clients from sending at the same time.</p>
+ *
+ * <p>The deadlines of the other clients are kept in a {@link UserTimeoutWheel},
+ * and the thread wakes up when the next deadline is due, so only clients that
+ * may have timed out are checked, and timeouts are found without waiting
+ * for the next idle message to be sent.</p>
+ *
  * @author Christian Ihle
  */
 public class IdleThread extends Thread
@@ -44,10 +56,23 @@ public class IdleThread extends Thread
 
 	/**
 	 * Number of milliseconds to wait before the next
-	 * idle message will be sent.
+	 * idle message will be sent, with few users.
 	 */
 	private static final int IDLE_TIME = 15000;
 
+	/**
+	 * The max number of milliseconds between idle messages. Older clients
+	 * time out users after {@link #TIMEOUT}, so there must be room for
+	 * at least one lost idle message.
+	 */
+	private static final int MAX_IDLE_TIME = 50000;
+
+	/** The number of users before the time between idle messages starts to grow. */
+	private static final int IDLE_GROUP_SIZE = 20;
+
+	/** The max random change of the time between idle messages, as a fraction of the time. */
+	private static final double IDLE_JITTER = 0.1;
+
 	/**
 	 * If an idle message has not been received from another
 	 * client in this number of milliseconds, then it's not
@@ -55,11 +80,23 @@ public class IdleThread extends Thread
 	 */
 	private static final int TIMEOUT = 120000;
 
+	/** Number of milliseconds between each check for timed out clients. */
+	private static final int TIMEOUT_TICK = 1000;
+
+	/** Number of idle messages a client can miss before it times out. */
+	private static final int MISSED_IDLE_MESSAGES = TIMEOUT / IDLE_TIME;
+
 	private final Controller controller;
 	private final UserList userList;
 	private final User me;
 	private final MessageController msgController;
 
+	/** Keeps track of when the other clients time out. */
+	private final UserTimeoutWheel timeoutWheel;
+
+	/** Random numbers for the jitter. */
+	private final Random random;
+
 	/** The thread runs while this is true. */
 	private boolean run;
 
@@ -78,6 +115,8 @@ public class IdleThread extends Thread
 		userList = controller.getUserList();
 		me = Settings.getSettings().getMe();
 		msgController = ui.getMessageController();
+		timeoutWheel = new UserTimeoutWheel( userList, TIMEOUT, TIMEOUT_TICK, MISSED_IDLE_MESSAGES );
+		random = new Random();
 
 		run = true;
 		setName( "IdleThread" );
@@ -89,6 +128,7 @@ public class IdleThread extends Thread
 	 * <li>Sends idle messages
 	 * <li>Restarts the network if there are problems
 	 * <li>Removes timed out clients
+	 * <li>Drops messages from unknown users that never identified
 	 */
 	@Override
 	public void run()
@@ -96,30 +136,44 @@ public class IdleThread extends Thread
 		// In case of any error messages during startup
 		me.setLastIdle( System.currentTimeMillis() );
 
+		long nextIdleTime = 0;
+
 		while ( run )
 		{
-			controller.sendIdleMessage();
-			boolean timeout = false;
+			long now = System.currentTimeMillis();
 
-			for ( int i = 0; i < userList.size(); i++ )
+			if ( now >= nextIdleTime )
 			{
-				User temp = userList.get( i );
+				int idleInterval = getIdleInterval( userList.size() );
+				me.setIdleInterval( idleInterval );
+				controller.sendIdleMessage();
+				nextIdleTime = now + addJitter( idleInterval );
+			}
+
+			boolean timeout = false;
 
-				if ( temp.getCode() != me.getCode() && temp.getLastIdle() < System.currentTimeMillis() - TIMEOUT )
+			for ( User temp : timeoutWheel.expireUsers( now ) )
+			{
+				// Only if not removed by another thread in the meantime
+				if ( userList.remove( temp ) )
 				{
-					userList.remove( temp );
 					userTimedOut( temp );
 					timeout = true;
-					i--;
 				}
 			}
 
 			if ( timeout )
 				controller.updateAfterTimeout();
 
+			controller.getWaitingList().expireWaitingUsers();
+
 			try
 			{
-				sleep( IDLE_TIME );
+				long wakeUpTime = Math.min( nextIdleTime, timeoutWheel.getNextCheckTime() );
+				long sleepTime = wakeUpTime - System.currentTimeMillis();
+
+				if ( sleepTime > 0 )
+					sleep( sleepTime );
 			}
 
 			// Sleep interrupted - probably from stopThread()
@@ -130,6 +184,35 @@ public class IdleThread extends Thread
 		}
 	}
 
+	/**
+	 * Gets the number of milliseconds between idle messages. The time grows
+	 * with the number of users, so the number of idle messages on the
+	 * network stays about the same.
+	 *
+	 * @param userCount The number of users, including the application user.
+	 * @return The idle interval.
+	 */
+	static int getIdleInterval( final int userCount )
+	{
+		long idleInterval = (long) IDLE_TIME * userCount / IDLE_GROUP_SIZE;
+
+		return (int) Math.min( MAX_IDLE_TIME, Math.max( IDLE_TIME, idleInterval ) );
+	}
+
+	/**
+	 * Adds a random change of up to {@link #IDLE_JITTER} to the idle interval,
+	 * so clients that started at the same time don't keep sending at the same time.
+	 *
+	 * @param idleInterval The idle interval.
+	 * @return The idle interval, with jitter.
+	 */
+	private long addJitter( final int idleInterval )
+	{
+		int maxJitter = (int) ( idleInterval * IDLE_JITTER );
+
+		return idleInterval - maxJitter + random.nextInt( maxJitter * 2 + 1 );
+	}
+
 	/**
 	 * When a user times out, all current file transfers must
 	 * be canceled, and messages must be shown in the normal
@@ -102,6 +102,9 @@ public final class Settings
 	/** Name of the chosen look and feel. */
 	private String lookAndFeel;
 
+	/** The number of bytes to collect from the network before writing to a received file. */
+	private int fileBufferSize;
+
 	/**
 	 * Private constructor.
 	 *
@@ -127,6 +130,7 @@ public final class Settings
 		sound = true;
 		smileys = true;
 		lookAndFeel = "";
+		fileBufferSize = Constants.FILE_BUFFER_SIZE;
 
 		loadSettings();
 	}
@@ -203,6 +207,8 @@ public final class Settings
 			buffWriter.newLine();
 			buffWriter.write( "lookAndFeel=" + lookAndFeel );
 			buffWriter.newLine();
+			buffWriter.write( "fileBufferSize=" + fileBufferSize );
+			buffWriter.newLine();
 		}
 
 		catch ( final IOException e )
@@ -309,6 +315,19 @@ public final class Settings
 
 			if ( fileContents.getProperty( "smileys" ) != null ) // Defaults to true
 				smileys = Boolean.valueOf( fileContents.getProperty( "smileys" ) );
+
+			if ( fileContents.getProperty( "fileBufferSize" ) != null )
+			{
+				try
+				{
+					setFileBufferSize( Integer.parseInt( fileContents.getProperty( "fileBufferSize" ) ) );
+				}
+
+				catch ( final NumberFormatException e )
+				{
+					LOG.log( Level.WARNING, "Could not read setting for fileBufferSize.." );
+				}
+			}
 		}
 
 		catch ( final FileNotFoundException e )
@@ -486,6 +505,31 @@ public final class Settings
 		this.smileys = smileys;
 	}
 
+	/**
+	 * Gets the number of bytes to collect from the network
+	 * before writing to a received file.
+	 *
+	 * @return The file buffer size.
+	 */
+	public int getFileBufferSize()
+	{
+		return fileBufferSize;
+	}
+
+	/**
+	 * Sets the number of bytes to collect from the network before writing
+	 * to a received file. Larger buffers mean fewer writes, which helps
+	 * on network shares. The size is kept between
+	 * {@link Constants#FILE_BUFFER_MIN_SIZE} and {@link Constants#FILE_BUFFER_MAX_SIZE}.
+	 *
+	 * @param fileBufferSize The file buffer size.
+	 */
+	public void setFileBufferSize( final int fileBufferSize )
+	{
+		this.fileBufferSize = Math.min( Constants.FILE_BUFFER_MAX_SIZE,
+				Math.max( Constants.FILE_BUFFER_MIN_SIZE, fileBufferSize ) );
+	}
+
 	/**
 	 * Gets the chosen look and feel.
 	 *
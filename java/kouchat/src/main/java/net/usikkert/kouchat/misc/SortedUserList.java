@@ -21,9 +21,12 @@
 
 package net.usikkert.kouchat.misc;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.usikkert.kouchat.event.UserListListener;
 
@@ -31,14 +34,39 @@ import net.usikkert.kouchat.event.UserListListener;
  * This is a sorted version of the user list.
  *
  * <p>The users in the list are sorted by nick name,
- * as specified in {@link User#compareTo(User)}.</p>
+ * as specified in {@link User#compareTo(User)}. Users with the same
+ * nick name are kept in the order they were added.</p>
+ *
+ * <p>New and changed users are put directly in the correct position
+ * using a binary search, instead of sorting the whole list. The nick name
+ * of each user is stored when the user is added or set, and the search uses
+ * the stored nick names. This keeps the list consistent while another thread
+ * has changed the nick name of a user, but not yet called {@link #set(int, User)}.
+ * The stored nick name of each user is also kept in a map, so {@link #set(User)}
+ * and {@link #remove(User)} can find the user with a binary search as well.</p>
+ *
+ * <p>The list is safe to use from several threads. The users are kept in
+ * an array that is never changed. Every change creates a new array, so
+ * reading and iterating never blocks and never sees a change halfway.
+ * Changes are done one at a time, and the listeners are notified before
+ * the next change starts, so the events arrive in the same order as
+ * the changes were done.</p>
  *
  * @author Christian Ihle
  */
 public class SortedUserList implements UserList
 {
-	/** The list of users in the chat. */
-	private final List<User> userList;
+	/** Array of no users. */
+	private static final Entry[] NO_USERS = new Entry[0];
+
+	/** The users in the chat. Replaced with a new array on every change. */
+	private volatile Entry[] users;
+
+	/** Lock to do one change at a time. */
+	private final Object writeLock;
+
+	/** The entry of each user in the list. Only used while holding the write lock. */
+	private final IdentityHashMap<User, Entry> entries;
 
 	/** The list of listeners of changes to the user list. */
 	private final List<UserListListener> listeners;
@@ -48,87 +76,177 @@ public class SortedUserList implements UserList
 	 */
 	public SortedUserList()
 	{
-		userList = new ArrayList<User>();
-		listeners = new ArrayList<UserListListener>();
+		users = NO_USERS;
+		writeLock = new Object();
+		entries = new IdentityHashMap<User, Entry>();
+		listeners = new CopyOnWriteArrayList<UserListListener>();
 	}
 
 	/**
-	 * Adds the user, and then sorts the list.
+	 * Adds the user at the correct position in the sorted list.
 	 *
 	 * {@inheritDoc}
 	 */
 	@Override
 	public boolean add( final User user )
 	{
-		boolean success = userList.add( user );
-
-		if ( success )
+		synchronized ( writeLock )
 		{
-			Collections.sort( userList );
-			fireUserAdded( userList.indexOf( user ) );
+			Entry[] current = users;
+			Entry entry = new Entry( user );
+			int pos = findInsertPosition( current, entry );
+			users = insert( current, pos, entry );
+			entries.put( user, entry );
+			fireUserAdded( pos, user );
 		}
 
-		return success;
+		return true;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public User get( final int pos )
 	{
-		if ( pos < userList.size() )
-			return userList.get( pos );
+		Entry[] current = users;
+
+		if ( pos >= 0 && pos < current.length )
+			return current[pos].user;
 		else
 			return null;
 	}
 
-	/** {@inheritDoc} */
+	/**
+	 * Finds the position of the user by going through the list.
+	 * This does not block changes to the list.
+	 *
+	 * {@inheritDoc}
+	 */
 	@Override
 	public int indexOf( final User user )
 	{
-		return userList.indexOf( user );
+		return indexOf( users, user );
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public User remove( final int pos )
 	{
-		User user = userList.remove( pos );
-		fireUserRemoved( pos );
+		synchronized ( writeLock )
+		{
+			Entry[] current = users;
+			User user = current[pos].user;
+			users = delete( current, pos );
+			entries.remove( user );
+			fireUserRemoved( pos, user );
 
-		return user;
+			return user;
+		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public boolean remove( final User user )
 	{
-		int pos = userList.indexOf( user );
-		boolean success = userList.remove( user );
-		fireUserRemoved( pos );
+		synchronized ( writeLock )
+		{
+			Entry[] current = users;
+			int pos = findPosition( current, user );
+
+			if ( pos == -1 )
+				return false;
+
+			users = delete( current, pos );
+			entries.remove( user );
+			fireUserRemoved( pos, user );
 
-		return success;
+			return true;
+		}
 	}
 
 	/**
-	 * Sets the user, and then sorts the list.
+	 * Sets the user, and moves it to the correct position in the sorted list.
+	 * Listeners are notified with {@link UserListListener#userMoved(int, int, User)}
+	 * if the position changed.
+	 *
+	 * <p>If the user is already in the list at another position, because
+	 * another thread changed the list after the position was found, the user
+	 * is updated at the current position instead.</p>
 	 *
 	 * {@inheritDoc}
 	 */
 	@Override
 	public User set( final int pos, final User user )
 	{
-		User oldUser = userList.set( pos, user );
-		Collections.sort( userList );
-		fireUserChanged( userList.indexOf( user ) );
+		synchronized ( writeLock )
+		{
+			Entry[] current = users;
+			int oldPos = pos;
+
+			if ( current[pos].user != user )
+			{
+				int currentPos = indexOf( current, user );
+
+				if ( currentPos != -1 )
+					oldPos = currentPos;
+			}
+
+			User oldUser = current[oldPos].user;
+			Entry[] remaining = delete( current, oldPos );
+			Entry entry = new Entry( user );
+			int newPos = findInsertPosition( remaining, entry );
+			users = insert( remaining, newPos, entry );
+			entries.remove( oldUser );
+			entries.put( user, entry );
+
+			if ( newPos == oldPos )
+				fireUserChanged( newPos, user );
+			else
+				fireUserMoved( oldPos, newPos, user );
+
+			return oldUser;
+		}
+	}
+
+	/**
+	 * Finds the position of the user with a binary search on the nick name
+	 * the user is sorted by, and moves the user to the correct position.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean set( final User user )
+	{
+		synchronized ( writeLock )
+		{
+			int pos = findPosition( users, user );
+
+			if ( pos == -1 )
+				return false;
+
+			set( pos, user );
 
-		return oldUser;
+			return true;
+		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public int size()
 	{
-		return userList.size();
+		return users.length;
+	}
+
+	/**
+	 * Iterates over the users in the list when the iteration started.
+	 * Changes to the list during the iteration are not seen, and
+	 * will not cause any exceptions.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Iterator<User> iterator()
+	{
+		return new SnapshotIterator( users );
 	}
 
 	/** {@inheritDoc} */
@@ -145,16 +263,138 @@ public class SortedUserList implements UserList
 		listeners.remove( listener );
 	}
 
+	/**
+	 * Finds the position of the user in the array.
+	 *
+	 * @param array The array to search.
+	 * @param user The user to find.
+	 * @return The position, or -1 if not found.
+	 */
+	private static int indexOf( final Entry[] array, final User user )
+	{
+		for ( int i = 0; i < array.length; i++ )
+		{
+			if ( array[i].user == user )
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the position of the user in the array, using a binary search
+	 * on the nick name the user was sorted by. Must hold the write lock.
+	 *
+	 * @param array The sorted array.
+	 * @param user The user to find.
+	 * @return The position, or -1 if not found.
+	 */
+	private int findPosition( final Entry[] array, final User user )
+	{
+		Entry entry = entries.get( user );
+
+		if ( entry == null )
+			return -1;
+
+		int low = 0;
+		int high = array.length;
+
+		while ( low < high )
+		{
+			int middle = ( low + high ) >>> 1;
+
+			if ( array[middle].nick.compareToIgnoreCase( entry.nick ) < 0 )
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		// Users with the same nick name are next to each other
+		for ( int i = low; i < array.length && array[i].nick.compareToIgnoreCase( entry.nick ) == 0; i++ )
+		{
+			if ( array[i].user == user )
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the position to insert the user to keep the array sorted.
+	 * The position is after any users with the same nick name.
+	 *
+	 * @param array The sorted array.
+	 * @param entry The user to find the position of.
+	 * @return The position to insert the user.
+	 */
+	private static int findInsertPosition( final Entry[] array, final Entry entry )
+	{
+		int low = 0;
+		int high = array.length;
+
+		while ( low < high )
+		{
+			int middle = ( low + high ) >>> 1;
+
+			if ( array[middle].nick.compareToIgnoreCase( entry.nick ) <= 0 )
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Creates a new array with the user inserted at the position.
+	 *
+	 * @param array The original array.
+	 * @param pos The position to insert the user.
+	 * @param entry The user to insert.
+	 * @return The new array.
+	 */
+	private static Entry[] insert( final Entry[] array, final int pos, final Entry entry )
+	{
+		Entry[] newArray = new Entry[array.length + 1];
+		System.arraycopy( array, 0, newArray, 0, pos );
+		newArray[pos] = entry;
+		System.arraycopy( array, pos, newArray, pos + 1, array.length - pos );
+
+		return newArray;
+	}
+
+	/**
+	 * Creates a new array without the user at the position.
+	 *
+	 * @param array The original array.
+	 * @param pos The position of the user to remove.
+	 * @return The new array.
+	 */
+	private static Entry[] delete( final Entry[] array, final int pos )
+	{
+		if ( pos < 0 || pos >= array.length )
+			throw new IndexOutOfBoundsException( "Position: " + pos + ", size: " + array.length );
+
+		if ( array.length == 1 )
+			return NO_USERS;
+
+		Entry[] newArray = Arrays.copyOf( array, array.length - 1 );
+		System.arraycopy( array, pos + 1, newArray, pos, array.length - pos - 1 );
+
+		return newArray;
+	}
+
 	/**
 	 * Notifies the listeners that a user was added.
 	 *
 	 * @param pos The position where the user was added.
+	 * @param user The user that was added.
 	 */
-	private void fireUserAdded( final int pos )
+	private void fireUserAdded( final int pos, final User user )
 	{
 		for ( UserListListener listener : listeners )
 		{
-			listener.userAdded( pos );
+			listener.userAdded( pos, user );
 		}
 	}
 
@@ -162,12 +402,28 @@ public class SortedUserList implements UserList
 	 * Notifies the listeners that a user was changed.
 	 *
 	 * @param pos The position of the changed user.
+	 * @param user The user that was changed.
 	 */
-	private void fireUserChanged( final int pos )
+	private void fireUserChanged( final int pos, final User user )
 	{
 		for ( UserListListener listener : listeners )
 		{
-			listener.userChanged( pos );
+			listener.userChanged( pos, user );
+		}
+	}
+
+	/**
+	 * Notifies the listeners that a user was changed and moved.
+	 *
+	 * @param fromPos The position of the user before the change.
+	 * @param toPos The position of the user after the change.
+	 * @param user The user that was changed.
+	 */
+	private void fireUserMoved( final int fromPos, final int toPos, final User user )
+	{
+		for ( UserListListener listener : listeners )
+		{
+			listener.userMoved( fromPos, toPos, user );
 		}
 	}
 
@@ -175,12 +431,86 @@ public class SortedUserList implements UserList
 	 * Notifies the listeners that a user was removed.
 	 *
 	 * @param pos The position of the removed user.
+	 * @param user The user that was removed.
 	 */
-	private void fireUserRemoved( final int pos )
+	private void fireUserRemoved( final int pos, final User user )
 	{
 		for ( UserListListener listener : listeners )
 		{
-			listener.userRemoved( pos );
+			listener.userRemoved( pos, user );
+		}
+	}
+
+	/**
+	 * A user in the list, with the nick name the user is sorted by.
+	 */
+	private static final class Entry
+	{
+		/** The user. */
+		private final User user;
+
+		/** The nick name of the user when added to the list. */
+		private final String nick;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param user The user.
+		 */
+		private Entry( final User user )
+		{
+			this.user = user;
+			nick = user.getNick();
+		}
+	}
+
+	/**
+	 * Read only iterator over an array of users that is never changed.
+	 */
+	private static final class SnapshotIterator implements Iterator<User>
+	{
+		/** The users to iterate over. */
+		private final Entry[] snapshot;
+
+		/** The position of the next user. */
+		private int next;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param snapshot The users to iterate over.
+		 */
+		private SnapshotIterator( final Entry[] snapshot )
+		{
+			this.snapshot = snapshot;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean hasNext()
+		{
+			return next < snapshot.length;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public User next()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+
+			return snapshot[next++].user;
+		}
+
+		/**
+		 * Not supported. Use {@link UserList#remove(User)} instead.
+		 *
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException( "Use UserList.remove(User)" );
 		}
 	}
 }
@@ -54,9 +54,24 @@ public class User implements Comparable<User>
 	/** The port to use when connecting to this user's private chat. */
 	private int privateChatPort;
 
+	/** If the user's client can receive messages with a compressed body. */
+	private boolean compressionSupported;
+
+	/** If the user's client can send missing messages again when asked. */
+	private boolean sequencingSupported;
+
+	/** If the user's client acknowledges private messages. */
+	private boolean acknowledgingSupported;
+
+	/** If the user's client can continue file transfers that stopped. */
+	private boolean resumingSupported;
+
 	/** The time when the last idle message came from this user. */
 	private long lastIdle;
 
+	/** The number of milliseconds between the idle messages from this user, or 0 if not known. */
+	private int idleInterval;
+
 	/** The time when this user logged on the chat. */
 	private long logonTime;
 
@@ -195,6 +210,26 @@ public class User implements Comparable<User>
 		this.lastIdle = lastIdle;
 	}
 
+	/**
+	 * Gets the number of milliseconds between the idle messages from this user.
+	 *
+	 * @return The idle interval, or 0 if not known.
+	 */
+	public int getIdleInterval()
+	{
+		return idleInterval;
+	}
+
+	/**
+	 * Sets the number of milliseconds between the idle messages from this user.
+	 *
+	 * @param idleInterval The idle interval, or 0 if not known.
+	 */
+	public void setIdleInterval( final int idleInterval )
+	{
+		this.idleInterval = idleInterval;
+	}
+
 	/**
 	 * Checks if the user is away.
 	 *
@@ -395,6 +430,86 @@ public class User implements Comparable<User>
 		this.privateChatPort = privateChatPort;
 	}
 
+	/**
+	 * Checks if the user's client can receive messages with a compressed body.
+	 *
+	 * @return If the user supports compression.
+	 */
+	public boolean isCompressionSupported()
+	{
+		return compressionSupported;
+	}
+
+	/**
+	 * Sets if the user's client can receive messages with a compressed body.
+	 *
+	 * @param compressionSupported If the user supports compression.
+	 */
+	public void setCompressionSupported( final boolean compressionSupported )
+	{
+		this.compressionSupported = compressionSupported;
+	}
+
+	/**
+	 * Checks if the user's client can send missing messages again when asked.
+	 *
+	 * @return If the user supports sequencing.
+	 */
+	public boolean isSequencingSupported()
+	{
+		return sequencingSupported;
+	}
+
+	/**
+	 * Sets if the user's client can send missing messages again when asked.
+	 *
+	 * @param sequencingSupported If the user supports sequencing.
+	 */
+	public void setSequencingSupported( final boolean sequencingSupported )
+	{
+		this.sequencingSupported = sequencingSupported;
+	}
+
+	/**
+	 * Checks if the user's client acknowledges private messages.
+	 *
+	 * @return If the user supports acknowledging.
+	 */
+	public boolean isAcknowledgingSupported()
+	{
+		return acknowledgingSupported;
+	}
+
+	/**
+	 * Sets if the user's client acknowledges private messages.
+	 *
+	 * @param acknowledgingSupported If the user supports acknowledging.
+	 */
+	public void setAcknowledgingSupported( final boolean acknowledgingSupported )
+	{
+		this.acknowledgingSupported = acknowledgingSupported;
+	}
+
+	/**
+	 * Checks if the user's client can continue file transfers that stopped.
+	 *
+	 * @return If the user supports resuming.
+	 */
+	public boolean isResumingSupported()
+	{
+		return resumingSupported;
+	}
+
+	/**
+	 * Sets if the user's client can continue file transfers that stopped.
+	 *
+	 * @param resumingSupported If the user supports resuming.
+	 */
+	public void setResumingSupported( final boolean resumingSupported )
+	{
+		this.resumingSupported = resumingSupported;
+	}
+
 	/**
 	 * Checks if this user is logged on to the chat.
 	 *
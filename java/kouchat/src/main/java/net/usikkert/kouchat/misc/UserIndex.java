@@ -0,0 +1,287 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.util.IntHashMap;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * An index of the users in a {@link UserList}, for finding users by
+ * unique code or nick name without going through the whole list.
+ *
+ * <p>The index listens for changes to the user list, and is updated
+ * when users are added, changed or removed.</p>
+ *
+ * @author Christian Ihle
+ */
+public class UserIndex implements UserListListener
+{
+	/** The users, with the nick name key they are indexed with, by user code. */
+	private final IntHashMap<IndexedUser> usersByCode;
+
+	/** The users by nick name key. Several users can have the same nick name. */
+	private final Map<String, List<User>> usersByNick;
+
+	/**
+	 * Constructor. Indexes the users already in the list, and
+	 * registers as a listener for changes.
+	 *
+	 * @param userList The user list to index.
+	 */
+	public UserIndex( final UserList userList )
+	{
+		Validate.notNull( userList, "User list can not be null" );
+
+		usersByCode = new IntHashMap<IndexedUser>();
+		usersByNick = new HashMap<String, List<User>>();
+
+		for ( User user : userList )
+		{
+			addUser( user );
+		}
+
+		userList.addUserListListener( this );
+	}
+
+	/**
+	 * Gets a user by the user's unique code.
+	 *
+	 * @param code The unique code of the user to get.
+	 * @return The user, or <code>null</code> if the user was not found.
+	 */
+	public synchronized User getUser( final int code )
+	{
+		IndexedUser indexedUser = usersByCode.get( code );
+
+		if ( indexedUser == null )
+			return null;
+		else
+			return indexedUser.user;
+	}
+
+	/**
+	 * Gets a user by nick name, ignoring case.
+	 *
+	 * @param nickname The nick name of the user to get.
+	 * @return The user, or <code>null</code> if the user was not found.
+	 */
+	public synchronized User getUser( final String nickname )
+	{
+		List<User> users = usersByNick.get( toKey( nickname ) );
+
+		if ( users == null )
+			return null;
+		else
+			return users.get( 0 );
+	}
+
+	/**
+	 * Checks if any user except the application user has the nick name, ignoring case.
+	 *
+	 * @param nickname The nick name to check.
+	 * @return If the nick name is in use.
+	 */
+	public synchronized boolean isNickNameInUse( final String nickname )
+	{
+		List<User> users = usersByNick.get( toKey( nickname ) );
+
+		if ( users != null )
+		{
+			for ( User user : users )
+			{
+				if ( !user.isMe() )
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds the user to the index.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void userAdded( final int pos, final User user )
+	{
+		addUser( user );
+	}
+
+	/**
+	 * Updates the nick name of the user in the index.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void userChanged( final int pos, final User user )
+	{
+		IndexedUser indexedUser = usersByCode.get( user.getCode() );
+
+		if ( indexedUser == null || indexedUser.user != user )
+		{
+			removeUser( user );
+			addUser( user );
+		}
+
+		else if ( !indexedUser.nickKey.equals( toKey( user.getNick() ) ) )
+		{
+			removeNick( indexedUser.nickKey, user );
+			indexedUser.nickKey = addNick( user );
+		}
+	}
+
+	/**
+	 * Updates the nick name of the user in the index.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void userMoved( final int fromPos, final int toPos, final User user )
+	{
+		userChanged( toPos, user );
+	}
+
+	/**
+	 * Removes the user from the index.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void userRemoved( final int pos, final User user )
+	{
+		removeUser( user );
+	}
+
+	/**
+	 * Adds a user to the index.
+	 *
+	 * @param user The user to add.
+	 */
+	private void addUser( final User user )
+	{
+		IndexedUser oldUser = usersByCode.put( user.getCode(), new IndexedUser( user, addNick( user ) ) );
+
+		if ( oldUser != null )
+			removeNick( oldUser.nickKey, oldUser.user );
+	}
+
+	/**
+	 * Removes a user from the index.
+	 *
+	 * @param user The user to remove.
+	 */
+	private void removeUser( final User user )
+	{
+		IndexedUser indexedUser = usersByCode.get( user.getCode() );
+
+		// Don't remove another user with the same code
+		if ( indexedUser != null && indexedUser.user == user )
+		{
+			usersByCode.remove( user.getCode() );
+			removeNick( indexedUser.nickKey, user );
+		}
+	}
+
+	/**
+	 * Adds the user to the nick name index.
+	 *
+	 * @param user The user to add.
+	 * @return The nick name key the user was added with.
+	 */
+	private String addNick( final User user )
+	{
+		String nickKey = toKey( user.getNick() );
+		List<User> users = usersByNick.get( nickKey );
+
+		if ( users == null )
+		{
+			users = new ArrayList<User>( 1 );
+			usersByNick.put( nickKey, users );
+		}
+
+		users.add( user );
+
+		return nickKey;
+	}
+
+	/**
+	 * Removes the user from the nick name index.
+	 *
+	 * @param nickKey The nick name key the user was added with.
+	 * @param user The user to remove.
+	 */
+	private void removeNick( final String nickKey, final User user )
+	{
+		List<User> users = usersByNick.get( nickKey );
+
+		if ( users != null )
+		{
+			users.remove( user );
+
+			if ( users.isEmpty() )
+				usersByNick.remove( nickKey );
+		}
+	}
+
+	/**
+	 * Creates the key to use in the nick name index, so case is ignored.
+	 *
+	 * @param nickname The nick name.
+	 * @return The key.
+	 */
+	private static String toKey( final String nickname )
+	{
+		return nickname.toLowerCase( Locale.ENGLISH );
+	}
+
+	/**
+	 * A user in the index.
+	 */
+	private static final class IndexedUser
+	{
+		/** The user. */
+		private final User user;
+
+		/** The nick name key the user is indexed with. */
+		private String nickKey;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param user The user.
+		 * @param nickKey The nick name key the user is indexed with.
+		 */
+		private IndexedUser( final User user, final String nickKey )
+		{
+			this.user = user;
+			this.nickKey = nickKey;
+		}
+	}
+}
@@ -35,12 +35,16 @@ import net.usikkert.kouchat.event.UserListListener;
  * <p>The {@link List} interface is not extended because all the methods
  * there are not needed.</p>
  *
+ * <p>The user list is changed from the network threads and read from the
+ * user interface, so implementations must be thread safe. Use the iterator
+ * to go through all the users, as the positions can change at any time.</p>
+ *
  * @author Christian Ihle
  */
-public interface UserList
+public interface UserList extends Iterable<User>
 {
 	/**
-	 * Adds a user to the list, and notifies with {@link UserListListener#userAdded(int)}.
+	 * Adds a user to the list, and notifies with {@link UserListListener#userAdded(int, User)}.
 	 *
 	 * @param user The user to add.
 	 * @return If the user was successfully added to the list.
@@ -65,7 +69,7 @@ public interface UserList
 
 	/**
 	 * Removes the user at the specified position from the list,
-	 * and notifies with {@link UserListListener#userRemoved(int)}.
+	 * and notifies with {@link UserListListener#userRemoved(int, User)}.
 	 *
 	 * @param pos The position of the user to remove.
 	 * @return The user that was removed.
@@ -74,7 +78,7 @@ public interface UserList
 
 	/**
 	 * Removes the specified user from the list,
-	 * and notifies with {@link UserListListener#userRemoved(int)}.
+	 * and notifies with {@link UserListListener#userRemoved(int, User)}.
 	 *
 	 * @param user The user to remove.
 	 * @return If the user was successfully removed.
@@ -83,7 +87,9 @@ public interface UserList
 
 	/**
 	 * Sets the specified user at the specified position in the user list,
-	 * and notifies with {@link UserListListener#userChanged(int)}.
+	 * and notifies with {@link UserListListener#userChanged(int, User)}, or
+	 * {@link UserListListener#userMoved(int, int, User)} if the user
+	 * was moved to another position.
 	 *
 	 * @param pos The position to put the user.
 	 * @param user The user to put in the position.
@@ -91,6 +97,16 @@ public interface UserList
 	 */
 	User set( int pos, User user );
 
+	/**
+	 * Finds the user in the list, and sets it again at the position it belongs,
+	 * like {@link #set(int, User)}. Use this after changing a user, when the
+	 * position of the user is not known.
+	 *
+	 * @param user The user that has changed.
+	 * @return If the user was found in the list.
+	 */
+	boolean set( User user );
+
 	/**
 	 * Gets the number for users in the list.
 	 *
@@ -34,6 +34,9 @@ public class UserListController
 	/** The user list. */
 	private final UserList userList;
 
+	/** The index of the users in the user list, by code and nick name. */
+	private final UserIndex userIndex;
+
 	/** The application user. */
 	private final User me;
 
@@ -49,6 +52,7 @@ public class UserListController
 	{
 		settings = Settings.getSettings();
 		userList = new SortedUserList();
+		userIndex = new UserIndex( userList );
 		me = settings.getMe();
 		userList.add( me );
 	}
@@ -61,20 +65,7 @@ public class UserListController
 	 */
 	public User getUser( final int code )
 	{
-		User user = null;
-
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
-
-			if ( temp.getCode() == code )
-			{
-				user = temp;
-				break;
-			}
-		}
-
-		return user;
+		return userIndex.getUser( code );
 	}
 
 	/**
@@ -85,20 +76,7 @@ public class UserListController
 	 */
 	public User getUser( final String nickname )
 	{
-		User user = null;
-
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
-
-			if ( temp.getNick().equalsIgnoreCase( nickname ) )
-			{
-				user = temp;
-				break;
-			}
-		}
-
-		return user;
+		return userIndex.getUser( nickname );
 	}
 
 	/**
@@ -109,16 +87,12 @@ public class UserListController
 	 */
 	public void changeNickName( final int code, final String nickname )
 	{
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
+		User user = userIndex.getUser( code );
 
-			if ( temp.getCode() == code )
-			{
-				temp.setNick( nickname );
-				userList.set( i, temp );
-				break;
-			}
+		if ( user != null )
+		{
+			user.setNick( nickname );
+			userChanged( user );
 		}
 	}
 
@@ -131,38 +105,31 @@ public class UserListController
 	 */
 	public void changeAwayStatus( final int code, final boolean away, final String awaymsg )
 	{
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
+		User user = userIndex.getUser( code );
 
-			if ( temp.getCode() == code )
-			{
-				temp.setAway( away );
-				temp.setAwayMsg( awaymsg );
-				userList.set( i, temp );
-				break;
-			}
+		if ( user != null )
+		{
+			user.setAway( away );
+			user.setAwayMsg( awaymsg );
+			userChanged( user );
 		}
 	}
 
 	/**
-	 * Changes if the user is writing or not.
+	 * Changes if the user is writing or not. The listeners of the user list
+	 * are not notified if the user already had that status.
 	 *
 	 * @param code The unique code of the user.
 	 * @param writing If the user is writing.
 	 */
 	public void changeWriting( final int code, final boolean writing )
 	{
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
+		User user = userIndex.getUser( code );
 
-			if ( temp.getCode() == code )
-			{
-				temp.setWriting( writing );
-				userList.set( i, temp );
-				break;
-			}
+		if ( user != null && user.isWriting() != writing )
+		{
+			user.setWriting( writing );
+			userChanged( user );
 		}
 	}
 
@@ -174,19 +141,25 @@ public class UserListController
 	 */
 	public void changeNewMessage( final int code, final boolean newMsg )
 	{
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
+		User user = userIndex.getUser( code );
 
-			if ( temp.getCode() == code )
-			{
-				temp.setNewPrivMsg( newMsg );
-				userList.set( i, temp );
-				break;
-			}
+		if ( user != null )
+		{
+			user.setNewPrivMsg( newMsg );
+			userChanged( user );
 		}
 	}
 
+	/**
+	 * Notifies the listeners of the user list that the user has changed.
+	 *
+	 * @param user The user that has changed.
+	 */
+	private void userChanged( final User user )
+	{
+		userList.set( user );
+	}
+
 	/**
 	 * Checks if the nick name is in use by any other users.
 	 *
@@ -195,20 +168,7 @@ public class UserListController
 	 */
 	public boolean isNickNameInUse( final String nickname )
 	{
-		boolean inUse = false;
-
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
-
-			if ( temp.getNick().equalsIgnoreCase( nickname ) && !temp.isMe() )
-			{
-				inUse = true;
-				break;
-			}
-		}
-
-		return inUse;
+		return userIndex.isNickNameInUse( nickname );
 	}
 
 	/**
@@ -219,20 +179,7 @@ public class UserListController
 	 */
 	public boolean isNewUser( final int code )
 	{
-		boolean newUser = true;
-
-		for ( int i = 0; i < userList.size(); i++ )
-		{
-			User temp = userList.get( i );
-
-			if ( temp.getCode() == code )
-			{
-				newUser = false;
-				break;
-			}
-		}
-
-		return newUser;
+		return userIndex.getUser( code ) == null;
 	}
 
 	/**
@@ -247,10 +194,8 @@ public class UserListController
 	 */
 	public boolean isTimeoutUsers()
 	{
-		for ( int i = 0; i < userList.size(); i++ )
+		for ( User temp : userList )
 		{
-			User temp = userList.get( i );
-
 			if ( temp.getNick().equals( "" + temp.getCode() ) )
 				return true;
 		}
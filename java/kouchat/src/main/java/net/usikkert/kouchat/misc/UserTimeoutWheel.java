@@ -0,0 +1,304 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.util.IntHashMap;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps track of when the users in the user list will time out,
+ * using a hashed timing wheel.
+ *
+ * <p>The wheel is a ring of slots, one for each tick. A user is put in the
+ * slot for the tick when the user will time out, based on the last idle
+ * time. When a slot is due, the users in it are checked. Users that have
+ * sent an idle message since they were put in the slot are moved to the
+ * slot of their new deadline, and the rest have timed out.</p>
+ *
+ * <p>Updating the idle time of a user is just {@link User#setLastIdle(long)},
+ * and each user is only looked at about once per timeout period, instead of
+ * every time the users are checked. The application user is never
+ * tracked.</p>
+ *
+ * <p>Users that advertise the interval between their idle messages time out
+ * after missing a number of them, so the timeout grows with the interval.
+ * The timeout is never shorter than the default.</p>
+ *
+ * <p>Users are added and removed automatically by listening to
+ * the user list.</p>
+ *
+ * @author Christian Ihle
+ */
+public class UserTimeoutWheel implements UserListListener
+{
+	/** Number of milliseconds without idle messages before a user times out, by default. */
+	private final long timeout;
+
+	/**
+	 * Number of idle messages a user with a known idle interval can miss before
+	 * timing out, or 0 to always use the default timeout.
+	 */
+	private final int missedIdleMessages;
+
+	/** Number of milliseconds in each tick of the wheel. */
+	private final long tickLength;
+
+	/** The slots of the wheel, with the users that are due in each. */
+	private final List<List<User>> slots;
+
+	/** The users tracked by the wheel, by user code. */
+	private final IntHashMap<User> trackedUsers;
+
+	/** The last tick that has been checked. */
+	private long currentTick;
+
+	/**
+	 * Constructor. Starts tracking the users already in the user list,
+	 * and registers as a listener for changes. All users get the same timeout.
+	 *
+	 * @param userList The user list.
+	 * @param timeout Number of milliseconds without idle messages before a user times out.
+	 * @param tickLength Number of milliseconds in each tick of the wheel.
+	 */
+	public UserTimeoutWheel( final UserList userList, final long timeout, final long tickLength )
+	{
+		this( userList, timeout, tickLength, 0 );
+	}
+
+	/**
+	 * Constructor. Starts tracking the users already in the user list,
+	 * and registers as a listener for changes.
+	 *
+	 * @param userList The user list.
+	 * @param timeout Number of milliseconds without idle messages before a user times out, by default.
+	 * @param tickLength Number of milliseconds in each tick of the wheel.
+	 * @param missedIdleMessages Number of idle messages a user with a known idle interval
+	 *                           can miss before timing out, or 0 to always use the default timeout.
+	 */
+	public UserTimeoutWheel( final UserList userList, final long timeout, final long tickLength,
+			final int missedIdleMessages )
+	{
+		Validate.notNull( userList, "User list can not be null" );
+
+		if ( timeout <= 0 || tickLength <= 0 )
+			throw new IllegalArgumentException( "Timeout and tick length must be positive" );
+
+		if ( missedIdleMessages < 0 )
+			throw new IllegalArgumentException( "Missed idle messages can not be negative" );
+
+		this.timeout = timeout;
+		this.missedIdleMessages = missedIdleMessages;
+		this.tickLength = tickLength;
+
+		// Room for any deadline up to one timeout ahead, in addition to the current tick
+		int slotCount = (int) ( ( timeout + tickLength - 1 ) / tickLength ) + 2;
+		slots = new ArrayList<List<User>>( slotCount );
+
+		for ( int i = 0; i < slotCount; i++ )
+		{
+			slots.add( new ArrayList<User>() );
+		}
+
+		trackedUsers = new IntHashMap<User>();
+		currentTick = System.currentTimeMillis() / tickLength;
+
+		for ( User user : userList )
+		{
+			userAdded( -1, user );
+		}
+
+		userList.addUserListListener( this );
+	}
+
+	/**
+	 * Finds the users that have timed out, and stops tracking them.
+	 * Only the slots that are due since the last time are checked.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return The users that have timed out.
+	 */
+	public synchronized List<User> expireUsers( final long now )
+	{
+		List<User> expiredUsers = new ArrayList<User>();
+		long nowTick = now / tickLength;
+
+		// After a long pause every slot is due, but each only needs to be checked once
+		long tick = Math.max( currentTick + 1, nowTick - slots.size() + 1 );
+		currentTick = Math.max( currentTick, nowTick );
+
+		for ( ; tick <= nowTick; tick++ )
+		{
+			List<User> slot = slots.get( slotIndex( tick ) );
+
+			if ( slot.isEmpty() )
+				continue;
+
+			slots.set( slotIndex( tick ), new ArrayList<User>() );
+
+			for ( User user : slot )
+			{
+				// Removed from the user list, or replaced by a user with the same code
+				if ( trackedUsers.get( user.getCode() ) != user )
+					continue;
+
+				long deadline = user.getLastIdle() + getTimeout( user );
+
+				if ( deadline <= now )
+				{
+					trackedUsers.remove( user.getCode() );
+					expiredUsers.add( user );
+				}
+
+				else
+					schedule( user, deadline );
+			}
+		}
+
+		return expiredUsers;
+	}
+
+	/**
+	 * Gets the time when the next slot with users is due. No users will
+	 * time out before then, unless new users are added with an old idle time.
+	 *
+	 * @return The time in milliseconds, or {@link Long#MAX_VALUE} if no users are tracked.
+	 */
+	public synchronized long getNextCheckTime()
+	{
+		for ( long tick = currentTick + 1; tick <= currentTick + slots.size(); tick++ )
+		{
+			if ( !slots.get( slotIndex( tick ) ).isEmpty() )
+				return tick * tickLength;
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Gets the number of users tracked by the wheel.
+	 *
+	 * @return The number of users.
+	 */
+	public synchronized int size()
+	{
+		return trackedUsers.size();
+	}
+
+	/**
+	 * Starts tracking the user, unless it's the application user.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void userAdded( final int pos, final User user )
+	{
+		if ( !user.isMe() )
+		{
+			trackedUsers.put( user.getCode(), user );
+			schedule( user, user.getLastIdle() + getTimeout( user ) );
+		}
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userChanged( final int pos, final User user )
+	{
+		// Changes to the idle time are found when the user is due
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userMoved( final int fromPos, final int toPos, final User user )
+	{
+		// Changes to the idle time are found when the user is due
+	}
+
+	/**
+	 * Stops tracking the user. The user is left in the slot,
+	 * and skipped when the slot is due.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void userRemoved( final int pos, final User user )
+	{
+		if ( trackedUsers.get( user.getCode() ) == user )
+			trackedUsers.remove( user.getCode() );
+	}
+
+	/**
+	 * Gets the number of milliseconds without idle messages before the user times out.
+	 *
+	 * @param user The user.
+	 * @return The timeout of the user.
+	 */
+	private long getTimeout( final User user )
+	{
+		long idleInterval = user.getIdleInterval();
+
+		if ( idleInterval > 0 && missedIdleMessages > 0 )
+			return Math.max( timeout, idleInterval * missedIdleMessages );
+		else
+			return timeout;
+	}
+
+	/**
+	 * Puts the user in the slot for the tick of the deadline. Deadlines that
+	 * have passed are put in the next tick, and deadlines too far ahead are put
+	 * in the last slot, to be moved again when that slot is due.
+	 *
+	 * @param user The user to schedule.
+	 * @param deadline The time in milliseconds when the user will time out.
+	 */
+	private void schedule( final User user, final long deadline )
+	{
+		// Round up, so the slot is never due before the deadline
+		long tick = ( deadline + tickLength - 1 ) / tickLength;
+		tick = Math.max( tick, currentTick + 1 );
+		tick = Math.min( tick, currentTick + slots.size() - 1 );
+
+		slots.get( slotIndex( tick ) ).add( user );
+	}
+
+	/**
+	 * Gets the index of the slot for the tick.
+	 *
+	 * @param tick The tick.
+	 * @return The index in the list of slots.
+	 */
+	private int slotIndex( final long tick )
+	{
+		return (int) ( tick % slots.size() );
+	}
+}
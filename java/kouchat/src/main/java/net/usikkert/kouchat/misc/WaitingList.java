@@ -22,7 +22,14 @@
 package net.usikkert.kouchat.misc;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * This waiting list is used to store unknown users while asking them to
@@ -30,28 +37,65 @@ import java.util.List;
  * By doing this, messages from unknown users can be held back until they
  * have identified themselves.
  *
+ * <p>Messages from a waiting user are kept in a queue, and are delivered
+ * in the same order as they arrived when the user is removed from the
+ * waiting list. If the user does not identify before the timeout,
+ * the messages are dropped. No threads are used for waiting.</p>
+ *
  * @author Christian Ihle
  */
 public class WaitingList
 {
-	private final List<Integer> users;
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( WaitingList.class.getName() );
+
+	/** Default number of milliseconds to wait for a user to identify. */
+	public static final long DEFAULT_TIMEOUT = 2000;
+
+	/** The max number of messages to keep for each waiting user. */
+	public static final int MAX_PENDING_MESSAGES = 50;
+
+	/** The waiting users, with the oldest first. */
+	private final Map<Integer, WaitingUser> users;
+
+	/** Number of milliseconds to wait for a user to identify. */
+	private final long timeout;
 
 	/**
 	 * Constructor.
 	 */
 	public WaitingList()
 	{
-		users = new ArrayList<Integer>();
+		this( DEFAULT_TIMEOUT );
 	}
 
 	/**
-	 * Adds a user to the waiting list.
+	 * Constructor.
+	 *
+	 * @param timeout Number of milliseconds to wait for a user to identify.
+	 */
+	public WaitingList( final long timeout )
+	{
+		users = new LinkedHashMap<Integer, WaitingUser>();
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Adds a user to the waiting list, if not already waiting.
 	 *
 	 * @param userCode The unique code of the user to add.
+	 * @return If the user was added, or <code>false</code> if already waiting.
 	 */
-	public void addWaitingUser( final int userCode )
+	public synchronized boolean addWaitingUser( final int userCode )
 	{
-		users.add( userCode );
+		expireWaitingUsers();
+
+		if ( users.containsKey( userCode ) )
+			return false;
+
+		users.put( userCode, new WaitingUser( System.currentTimeMillis() + timeout ) );
+
+		return true;
 	}
 
 	/**
@@ -60,18 +104,115 @@ public class WaitingList
 	 * @param userCode The unique code of the user to check for.
 	 * @return If the user is on the waiting list.
 	 */
-	public boolean isWaitingUser( final int userCode )
+	public synchronized boolean isWaitingUser( final int userCode )
 	{
-		return users.contains( userCode );
+		return users.containsKey( userCode );
+	}
+
+	/**
+	 * Holds back a message from a waiting user, until the user is removed
+	 * from the waiting list.
+	 *
+	 * @param userCode The unique code of the user who sent the message.
+	 * @param message The message to deliver when the user has identified.
+	 * @return If the message was held back, or <code>false</code> if the user is not waiting.
+	 */
+	public synchronized boolean addPendingMessage( final int userCode, final Runnable message )
+	{
+		Validate.notNull( message, "Message can not be null" );
+		expireWaitingUsers();
+
+		WaitingUser user = users.get( userCode );
+
+		if ( user == null )
+			return false;
+
+		if ( user.messages.size() < MAX_PENDING_MESSAGES )
+			user.messages.add( message );
+		else
+			LOG.log( Level.WARNING, "Too many messages from waiting user " + userCode + ", dropping message" );
+
+		return true;
 	}
 
 	/**
-	 * Removes a user from the waiting list.
+	 * Removes a user from the waiting list, and delivers the
+	 * messages held back from the user.
 	 *
 	 * @param userCode The unique code of the user to remove.
 	 */
 	public void removeWaitingUser( final int userCode )
 	{
-		users.remove( new Integer( userCode ) );
+		WaitingUser user;
+
+		synchronized ( this )
+		{
+			user = users.remove( userCode );
+		}
+
+		// Delivered outside the lock, as delivery can take a while
+		if ( user != null )
+		{
+			for ( Runnable message : user.messages )
+			{
+				message.run();
+			}
+		}
+	}
+
+	/**
+	 * Removes the users that did not identify before the timeout,
+	 * and drops the messages held back from them.
+	 *
+	 * @return The number of users removed.
+	 */
+	public synchronized int expireWaitingUsers()
+	{
+		long now = System.currentTimeMillis();
+		int expired = 0;
+		Iterator<Map.Entry<Integer, WaitingUser>> iterator = users.entrySet().iterator();
+
+		// The oldest users are first, so stop at the first user still waiting
+		while ( iterator.hasNext() )
+		{
+			Map.Entry<Integer, WaitingUser> entry = iterator.next();
+
+			if ( entry.getValue().deadline > now )
+				break;
+
+			iterator.remove();
+			expired++;
+
+			if ( !entry.getValue().messages.isEmpty() )
+			{
+				LOG.log( Level.SEVERE, "Could not find user: " + entry.getKey() + ", dropped "
+						+ entry.getValue().messages.size() + " messages" );
+			}
+		}
+
+		return expired;
+	}
+
+	/**
+	 * A user on the waiting list.
+	 */
+	private static final class WaitingUser
+	{
+		/** When to stop waiting for the user. */
+		private final long deadline;
+
+		/** The messages held back until the user has identified. */
+		private final List<Runnable> messages;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param deadline When to stop waiting for the user.
+		 */
+		private WaitingUser( final long deadline )
+		{
+			this.deadline = deadline;
+			messages = new ArrayList<Runnable>();
+		}
 	}
 }
@@ -0,0 +1,214 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.net.Messages;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Sends the writing status of the application user to the other users,
+ * but not more often than the dwell time allows.
+ *
+ * <p>The writing status flips every time the input field goes from empty
+ * to not empty, and back. The first change is sent at once. Changes within
+ * the dwell time after that are held back, and only the status at the end
+ * of the dwell time is sent, if it's different from the last one sent.
+ * Quickly deleting and writing again is not sent at all.</p>
+ *
+ * @author Christian Ihle
+ */
+public class WritingDebouncer
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( WritingDebouncer.class.getName() );
+
+	/** For sending the writing status. */
+	private final Messages messages;
+
+	/** The shortest number of milliseconds between sending changes. */
+	private final int dwellTime;
+
+	/** The timer that sends held back changes, or <code>null</code> to only send when asked. */
+	private final Timer timer;
+
+	/** The current writing status. */
+	private boolean writing;
+
+	/** The writing status last sent. */
+	private boolean sentWriting;
+
+	/** When the last change was sent, or 0 if nothing is sent yet. */
+	private long sentTime;
+
+	/** When to send the held back change, or 0 if nothing is held back. */
+	private long dueTime;
+
+	/** The number of changes never sent, because they were replaced within the dwell time. */
+	private long skippedChanges;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param messages For sending the writing status.
+	 * @param dwellTime The shortest number of milliseconds between sending changes.
+	 * @param timer The timer to send held back changes with when they are due, or <code>null</code>
+	 *              if they are only sent when {@link #sendDueChange(long)} is called.
+	 */
+	public WritingDebouncer( final Messages messages, final int dwellTime, final Timer timer )
+	{
+		Validate.notNull( messages, "Messages can not be null" );
+		Validate.isTrue( dwellTime >= 0, "Dwell time can not be negative" );
+
+		this.messages = messages;
+		this.dwellTime = dwellTime;
+		this.timer = timer;
+	}
+
+	/**
+	 * The writing status of the application user changed. The change is sent
+	 * at once if nothing was sent within the dwell time, or else held back
+	 * until the dwell time is over.
+	 *
+	 * @param newWriting If the application user is writing.
+	 * @param now The current time, in milliseconds.
+	 */
+	public synchronized void writingChanged( final boolean newWriting, final long now )
+	{
+		if ( newWriting == writing )
+			return;
+
+		writing = newWriting;
+
+		if ( writing == sentWriting )
+		{
+			if ( dueTime != 0 )
+			{
+				dueTime = 0;
+				skippedChanges += 2;
+			}
+		}
+
+		else if ( dueTime == 0 )
+		{
+			if ( sentTime == 0 || now - sentTime >= dwellTime )
+			{
+				send( now );
+			}
+
+			else
+			{
+				dueTime = sentTime + dwellTime;
+				schedule( dueTime );
+			}
+		}
+	}
+
+	/**
+	 * Sends the held back change, if it's due.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	public synchronized void sendDueChange( final long now )
+	{
+		if ( dueTime != 0 && dueTime <= now )
+		{
+			dueTime = 0;
+
+			if ( writing != sentWriting )
+				send( now );
+		}
+	}
+
+	/**
+	 * Forgets the status, like after logging off, without sending anything.
+	 */
+	public synchronized void reset()
+	{
+		writing = false;
+		sentWriting = false;
+		sentTime = 0;
+		dueTime = 0;
+	}
+
+	/**
+	 * Gets the number of changes never sent, because they were replaced
+	 * within the dwell time.
+	 *
+	 * @return The number of skipped changes.
+	 */
+	public synchronized long getSkippedChanges()
+	{
+		return skippedChanges;
+	}
+
+	/**
+	 * Sends the current writing status.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	private void send( final long now )
+	{
+		sentWriting = writing;
+		sentTime = now;
+
+		if ( writing )
+			messages.sendWritingMessage();
+		else
+			messages.sendStoppedWritingMessage();
+	}
+
+	/**
+	 * Schedules the held back change to be sent at the time.
+	 *
+	 * @param time When to send the change.
+	 */
+	private void schedule( final long time )
+	{
+		if ( timer == null )
+			return;
+
+		LOG.log( Level.FINEST, "Holding back writing status" );
+
+		timer.schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				// Don't stop the shared timer
+				try
+				{
+					sendDueChange( System.currentTimeMillis() );
+				}
+
+				catch ( final RuntimeException e )
+				{
+					LOG.log( Level.SEVERE, e.toString(), e );
+				}
+			}
+		}, Math.max( 0, time - System.currentTimeMillis() ) );
+	}
+}
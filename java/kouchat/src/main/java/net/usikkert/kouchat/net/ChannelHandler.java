@@ -0,0 +1,46 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * This interface is used by {@link ChannelSelector} to notify the owner
+ * of a channel that the channel is ready for the operations
+ * it was registered for.
+ *
+ * <p>The handler is called from the selector thread, and must never block.</p>
+ *
+ * @author Christian Ihle
+ */
+public interface ChannelHandler
+{
+	/**
+	 * Called when the channel is ready for one or more of the operations
+	 * it was registered for.
+	 *
+	 * @param key The selection key of the channel.
+	 * @throws IOException If the channel failed. The key is canceled.
+	 */
+	void channelReady( SelectionKey key ) throws IOException;
+}
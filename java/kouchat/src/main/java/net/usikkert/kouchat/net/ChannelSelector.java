@@ -0,0 +1,242 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single thread that waits for activity on all the registered
+ * non-blocking channels, and notifies the {@link ChannelHandler} of
+ * each channel when it's ready.
+ *
+ * <p>This is used instead of one blocking thread per socket, so the number of
+ * threads stays the same no matter how many channels are open. The thread is
+ * started when the first channel is registered, and sleeps in the selector
+ * when there is nothing to do.</p>
+ *
+ * <p>The multicast chat is not served here, as channels can't join
+ * multicast groups in Java 6.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ChannelSelector implements Runnable
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( ChannelSelector.class.getName() );
+
+	/** Channels waiting to be registered by the selector thread. */
+	private final List<Registration> pendingRegistrations;
+
+	/** The selector watching all the channels. */
+	private Selector selector;
+
+	/** The selector thread. */
+	private Thread worker;
+
+	/**
+	 * Constructor.
+	 */
+	public ChannelSelector()
+	{
+		pendingRegistrations = new ArrayList<Registration>();
+	}
+
+	/**
+	 * Registers a channel with the selector. The channel is changed to
+	 * non-blocking mode, and the handler will be notified from the selector
+	 * thread every time the channel is ready for one of the operations.
+	 *
+	 * <p>Registration happens in the selector thread, as registering while
+	 * the selector is waiting would block until there is activity
+	 * on another channel.</p>
+	 *
+	 * @param channel The channel to register.
+	 * @param ops The operations to wait for, as in {@link SelectionKey}.
+	 * @param handler The handler to notify when the channel is ready.
+	 * @throws IOException If the channel or the selector failed.
+	 */
+	public synchronized void register( final SelectableChannel channel, final int ops,
+			final ChannelHandler handler ) throws IOException
+	{
+		channel.configureBlocking( false );
+
+		if ( selector == null )
+			selector = Selector.open();
+
+		pendingRegistrations.add( new Registration( channel, ops, handler ) );
+
+		if ( worker == null || !worker.isAlive() )
+		{
+			LOG.log( Level.FINE, "Starting." );
+			worker = new Thread( this, "ChannelSelectorWorker" );
+			worker.setDaemon( true );
+			worker.start();
+		}
+
+		else
+			selector.wakeup();
+	}
+
+	/**
+	 * Stops watching the channel. The channel itself is not closed.
+	 *
+	 * @param channel The channel to unregister.
+	 */
+	public synchronized void unregister( final SelectableChannel channel )
+	{
+		if ( selector == null )
+			return;
+
+		SelectionKey key = channel.keyFor( selector );
+
+		if ( key != null )
+			key.cancel();
+
+		// Make sure the canceled key is flushed, so the socket is released
+		selector.wakeup();
+	}
+
+	/**
+	 * Waits for activity on the channels, and notifies the handlers.
+	 */
+	@Override
+	public void run()
+	{
+		while ( true )
+		{
+			try
+			{
+				registerPending();
+				selector.select();
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+
+				while ( selectedKeys.hasNext() )
+				{
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					notifyHandler( key );
+				}
+			}
+
+			catch ( final IOException e )
+			{
+				LOG.log( Level.SEVERE, e.toString(), e );
+			}
+		}
+	}
+
+	/**
+	 * Notifies the handler of the key that the channel is ready.
+	 * The key is canceled if the handler fails with an {@link IOException}.
+	 * Other errors from the handler are logged, so they don't stop
+	 * the selector thread and all the other channels with it.
+	 *
+	 * @param key The key of the ready channel.
+	 */
+	private void notifyHandler( final SelectionKey key )
+	{
+		ChannelHandler handler = (ChannelHandler) key.attachment();
+
+		try
+		{
+			if ( key.isValid() )
+				handler.channelReady( key );
+		}
+
+		// The channel was closed by another thread
+		catch ( final CancelledKeyException e )
+		{
+			LOG.log( Level.FINE, e.toString() );
+		}
+
+		catch ( final IOException e )
+		{
+			LOG.log( Level.WARNING, e.toString() );
+			key.cancel();
+		}
+
+		catch ( final RuntimeException e )
+		{
+			LOG.log( Level.SEVERE, e.toString(), e );
+		}
+	}
+
+	/**
+	 * Registers the channels added since the last time.
+	 */
+	private synchronized void registerPending()
+	{
+		for ( Registration registration : pendingRegistrations )
+		{
+			try
+			{
+				registration.channel.register( selector, registration.ops, registration.handler );
+			}
+
+			// Happens if the channel was closed before it was registered
+			catch ( final IOException e )
+			{
+				LOG.log( Level.WARNING, e.toString() );
+			}
+		}
+
+		pendingRegistrations.clear();
+	}
+
+	/**
+	 * A channel waiting to be registered.
+	 */
+	private static final class Registration
+	{
+		/** The channel to register. */
+		private final SelectableChannel channel;
+
+		/** The operations to register for. */
+		private final int ops;
+
+		/** The handler to notify. */
+		private final ChannelHandler handler;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param channel The channel to register.
+		 * @param ops The operations to register for.
+		 * @param handler The handler to notify.
+		 */
+		private Registration( final SelectableChannel channel, final int ops, final ChannelHandler handler )
+		{
+			this.channel = channel;
+			this.ops = ops;
+			this.handler = handler;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import net.usikkert.kouchat.Constants;
+
+/**
+ * Decodes the contents of received datagrams into messages.
+ *
+ * <p>A decoder is bound to a single receive buffer, and reuses the same
+ * charset decoder and character buffer for every datagram. Only the bytes
+ * actually received are decoded, so the only object created for each datagram
+ * is the message itself.</p>
+ *
+ * <p>This class is not thread safe. Each receiver should have its own decoder.</p>
+ *
+ * @author Christian Ihle
+ */
+public class DatagramDecoder
+{
+	/** The receive buffer, wrapped once to avoid a new wrapper for each datagram. */
+	private final ByteBuffer byteBuffer;
+
+	/** Reusable buffer for the decoded characters. */
+	private final CharBuffer charBuffer;
+
+	/** The decoder for the message charset. */
+	private final CharsetDecoder decoder;
+
+	/** The address of the previous datagram. */
+	private InetAddress lastAddress;
+
+	/** The ip address of the previous datagram, as a string. */
+	private String lastIpAddress;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buffer The buffer the datagrams are received into.
+	 * @see Constants#MESSAGE_CHARSET
+	 */
+	public DatagramDecoder( final byte[] buffer )
+	{
+		byteBuffer = ByteBuffer.wrap( buffer );
+
+		// A byte can never decode to more than one character in the message charset
+		charBuffer = CharBuffer.allocate( buffer.length );
+
+		decoder = Charset.forName( Constants.MESSAGE_CHARSET ).newDecoder();
+		decoder.onMalformedInput( CodingErrorAction.REPLACE );
+		decoder.onUnmappableCharacter( CodingErrorAction.REPLACE );
+	}
+
+	/**
+	 * Decodes the message in the first <code>length</code> bytes of the
+	 * receive buffer. Leading and trailing whitespace is removed.
+	 *
+	 * @param length The number of bytes received.
+	 * @return The decoded message.
+	 */
+	public String decodeMessage( final int length )
+	{
+		return decodeMessage( 0, length );
+	}
+
+	/**
+	 * Decodes the message in the specified part of the receive buffer.
+	 * Leading and trailing whitespace is removed.
+	 *
+	 * @param offset Where in the buffer the message starts.
+	 * @param length The number of bytes in the message.
+	 * @return The decoded message.
+	 */
+	public String decodeMessage( final int offset, final int length )
+	{
+		decodeChars( offset, length );
+
+		char[] chars = charBuffer.array();
+		int start = 0;
+		int end = charBuffer.position();
+
+		// Same as String.trim(), without creating the untrimmed string first
+		while ( start < end && chars[start] <= ' ' )
+			start++;
+
+		while ( end > start && chars[end - 1] <= ' ' )
+			end--;
+
+		return new String( chars, start, end - start );
+	}
+
+	/**
+	 * Decodes the specified part of the receive buffer, without removing whitespace.
+	 * Used for decoding single fields of a message.
+	 *
+	 * @param offset Where in the buffer the text starts.
+	 * @param length The number of bytes in the text.
+	 * @return The decoded text.
+	 */
+	public String decode( final int offset, final int length )
+	{
+		decodeChars( offset, length );
+
+		return new String( charBuffer.array(), 0, charBuffer.position() );
+	}
+
+	/**
+	 * Decodes the specified part of the receive buffer into the character buffer.
+	 *
+	 * @param offset Where in the buffer to start.
+	 * @param length The number of bytes to decode.
+	 */
+	private void decodeChars( final int offset, final int length )
+	{
+		byteBuffer.limit( offset + length );
+		byteBuffer.position( offset );
+		charBuffer.clear();
+
+		decoder.reset();
+		decoder.decode( byteBuffer, charBuffer, true );
+		decoder.flush( charBuffer );
+	}
+
+	/**
+	 * Gets the ip address as a string. The string is reused as long as
+	 * datagrams keep arriving from the same address.
+	 *
+	 * @param address The address the datagram was received from.
+	 * @return The ip address.
+	 */
+	public String decodeIpAddress( final InetAddress address )
+	{
+		if ( !address.equals( lastAddress ) )
+		{
+			lastIpAddress = address.getHostAddress();
+			lastAddress = address;
+		}
+
+		return lastIpAddress;
+	}
+}
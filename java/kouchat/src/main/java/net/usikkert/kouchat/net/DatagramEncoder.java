@@ -0,0 +1,120 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import net.usikkert.kouchat.Constants;
+
+/**
+ * Encodes messages into a send buffer that is reused for every datagram.
+ *
+ * <p>The same charset encoder and buffer are used for every message, so
+ * sending a message does not create a new byte array. The buffer has room
+ * for the largest message that fits in a packet. Messages that are too large
+ * are cut at the last whole character that fits, so the receiver never gets
+ * half a character.</p>
+ *
+ * <p>This class is not thread safe. Each sender should have its own encoder.</p>
+ *
+ * @author Christian Ihle
+ */
+public class DatagramEncoder
+{
+	/** The encoder for the message charset. */
+	private final CharsetEncoder encoder;
+
+	/** The send buffer. */
+	private final byte[] buffer;
+
+	/** The send buffer, wrapped once to avoid a new wrapper for each message. */
+	private final ByteBuffer byteBuffer;
+
+	/** If the last message was too large, and had to be cut. */
+	private boolean truncated;
+
+	/**
+	 * Constructor.
+	 *
+	 * @see Constants#MESSAGE_CHARSET
+	 * @see Constants#NETWORK_PACKET_SIZE
+	 */
+	public DatagramEncoder()
+	{
+		encoder = Charset.forName( Constants.MESSAGE_CHARSET ).newEncoder();
+		encoder.onMalformedInput( CodingErrorAction.REPLACE );
+		encoder.onUnmappableCharacter( CodingErrorAction.REPLACE );
+
+		buffer = new byte[Constants.NETWORK_PACKET_SIZE];
+		byteBuffer = ByteBuffer.wrap( buffer );
+	}
+
+	/**
+	 * Encodes the message into the send buffer. If the message is too large
+	 * for a packet, only the characters that fit are encoded.
+	 *
+	 * <p>The encoder stops before a character that does not fit in the
+	 * buffer, so a message is never cut in the middle of a character.</p>
+	 *
+	 * @param message The message to encode.
+	 * @return The number of bytes in the encoded message.
+	 */
+	public int encode( final String message )
+	{
+		byteBuffer.clear();
+		encoder.reset();
+
+		CoderResult result = encoder.encode( CharBuffer.wrap( message ), byteBuffer, true );
+
+		if ( !result.isOverflow() )
+			result = encoder.flush( byteBuffer );
+
+		truncated = result.isOverflow();
+
+		return byteBuffer.position();
+	}
+
+	/**
+	 * Checks if the last message was too large for a packet, and had to be cut.
+	 *
+	 * @return If the last message was cut.
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+
+	/**
+	 * Gets the send buffer, with the last encoded message at the start.
+	 *
+	 * @return The send buffer.
+	 */
+	public byte[] getBuffer()
+	{
+		return buffer;
+	}
+}
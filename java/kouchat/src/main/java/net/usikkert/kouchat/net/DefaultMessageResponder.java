@@ -23,9 +23,11 @@ package net.usikkert.kouchat.net;
 
 import java.io.File;
 import java.util.Date;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.usikkert.kouchat.event.TransferDoneListener;
 import net.usikkert.kouchat.misc.ChatState;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Controller;
@@ -54,6 +56,9 @@ public class DefaultMessageResponder implements MessageResponder
 	private final MessageController msgController;
 	private final ChatState chatState;
 
+	/** Delays the answers to requests sent to everyone. */
+	private final ResponseScheduler responseScheduler;
+
 	/**
 	 * Constructor.
 	 *
@@ -70,12 +75,14 @@ public class DefaultMessageResponder implements MessageResponder
 		tList = controller.getTransferList();
 		wList = controller.getWaitingList();
 		chatState = controller.getChatState();
+		responseScheduler = new ResponseScheduler( controller, new Random(), controller.getScheduler() );
 	}
 
 	/**
 	 * Shows a message from a user in the user interface.
 	 * If the user that sent the message does not yet exist in the user list,
-	 * the user is asked to identify itself before the message is shown.
+	 * the user is asked to identify itself, and the message is held back
+	 * in the waiting list until the user has identified.
 	 *
 	 * @param userCode The unique code of the user who sent the message.
 	 * @param msg The message.
@@ -84,57 +91,45 @@ public class DefaultMessageResponder implements MessageResponder
 	@Override
 	public void messageArrived( final int userCode, final String msg, final int color )
 	{
-		// A little hack to stop messages from showing before the user is logged on
-		final Thread t = new Thread( "DefaultMessageResponderMessageArrived" )
+		final Runnable showMessage = new Runnable()
 		{
 			@Override
 			public void run()
 			{
-				if ( isAlive() )
-				{
-					int counter = 0;
+				final User user = controller.getUser( userCode );
 
-					while ( wList.isWaitingUser( userCode ) && counter < 40 )
-					{
-						counter++;
-						Tools.sleep( 50 );
-					}
+				if ( user == null )
+				{
+					LOG.log( Level.SEVERE, "Could not find user: " + userCode );
 				}
 
-				if ( !controller.isNewUser( userCode ) )
+				else if ( !user.isAway() )
 				{
-					final User user = controller.getUser( userCode );
-
-					if ( !user.isAway() )
-					{
-						msgController.showUserMessage( user.getNick(), msg, color );
+					msgController.showUserMessage( user.getNick(), msg, color );
 
-						// Visible but not in front
-						if ( ui.isVisible() && !ui.isFocused() )
-							me.setNewMsg( true );
+					// Visible but not in front
+					if ( ui.isVisible() && !ui.isFocused() )
+						me.setNewMsg( true );
 
-						ui.notifyMessageArrived( user );
-					}
-				}
-
-				else
-				{
-					LOG.log( Level.SEVERE, "Could not find user: " + userCode );
+					ui.notifyMessageArrived( user );
 				}
 			}
 		};
 
 		if ( controller.isNewUser( userCode ) )
 		{
-			wList.addWaitingUser( userCode );
-			controller.sendExposeMessage();
-			controller.sendGetTopicMessage();
+			// Only ask once, even if the user sends many messages before identifying
+			if ( wList.addWaitingUser( userCode ) )
+			{
+				controller.sendExposeMessage();
+				controller.sendGetTopicMessage();
+			}
 
-			t.start();
+			wList.addPendingMessage( userCode, showMessage );
 		}
 
 		else
-			t.run();
+			showMessage.run();
 	}
 
 	/**
@@ -191,6 +186,7 @@ public class DefaultMessageResponder implements MessageResponder
 
 		controller.getUserList().add( newUser );
 		msgController.showSystemMessage( newUser.getNick() + " logged on from " + newUser.getIpAddress() );
+		wList.removeWaitingUser( newUser.getCode() );
 	}
 
 	/**
@@ -233,11 +229,15 @@ public class DefaultMessageResponder implements MessageResponder
 	@Override
 	public void topicChanged( final int userCode, final String newTopic, final String nick, final long time )
 	{
+		responseScheduler.topicHeard( newTopic, nick, time );
+
 		if ( controller.isNewUser( userCode ) )
 		{
-			wList.addWaitingUser( userCode );
-			controller.sendExposeMessage();
-			controller.sendGetTopicMessage();
+			if ( wList.addWaitingUser( userCode ) )
+			{
+				controller.sendExposeMessage();
+				controller.sendGetTopicMessage();
+			}
 		}
 
 		else
@@ -294,9 +294,6 @@ public class DefaultMessageResponder implements MessageResponder
 			// Usually this happens when someone returns from a timeout
 			if ( chatState.isLogonCompleted() )
 			{
-				if ( wList.isWaitingUser( user.getCode() ) )
-					wList.removeWaitingUser( user.getCode() );
-
 				userShowedUp( user );
 			}
 
@@ -305,6 +302,9 @@ public class DefaultMessageResponder implements MessageResponder
 			{
 				controller.getUserList().add( user );
 			}
+
+			// Show the messages that arrived before the user identified
+			wList.removeWaitingUser( user.getCode() );
 		}
 
 		else
@@ -380,9 +380,11 @@ public class DefaultMessageResponder implements MessageResponder
 	{
 		if ( controller.isNewUser( userCode ) )
 		{
-			wList.addWaitingUser( userCode );
-			controller.sendExposeMessage();
-			controller.sendGetTopicMessage();
+			if ( wList.addWaitingUser( userCode ) )
+			{
+				controller.sendExposeMessage();
+				controller.sendGetTopicMessage();
+			}
 		}
 
 		else
@@ -434,26 +436,30 @@ public class DefaultMessageResponder implements MessageResponder
 	}
 
 	/**
-	 * Updates the idle time of the user,
+	 * Updates the idle time and interval of the user,
 	 * and checks if the user's ip address has changed.
 	 *
 	 * @param userCode The unique code of the user who sent the idle message.
 	 * @param ipAddress The IP address of that user.
+	 * @param idleInterval Milliseconds until the next idle message from the user, or 0 if not known.
 	 */
 	@Override
-	public void userIdle( final int userCode, final String ipAddress )
+	public void userIdle( final int userCode, final String ipAddress, final int idleInterval )
 	{
 		if ( controller.isNewUser( userCode ) )
 		{
-			wList.addWaitingUser( userCode );
-			controller.sendExposeMessage();
-			controller.sendGetTopicMessage();
+			if ( wList.addWaitingUser( userCode ) )
+			{
+				controller.sendExposeMessage();
+				controller.sendGetTopicMessage();
+			}
 		}
 
 		else
 		{
 			final User user = controller.getUser( userCode );
 			user.setLastIdle( System.currentTimeMillis() );
+			user.setIdleInterval( idleInterval );
 
 			if ( !user.getIpAddress().equals( ipAddress ) )
 			{
@@ -464,12 +470,13 @@ public class DefaultMessageResponder implements MessageResponder
 	}
 
 	/**
-	 * Sends the current topic.
+	 * Sends the current topic after a short delay,
+	 * unless another user sends the same topic first.
 	 */
 	@Override
 	public void topicRequested()
 	{
-		controller.sendTopicRequestedMessage();
+		responseScheduler.topicRequested( System.currentTimeMillis() );
 	}
 
 	/**
@@ -485,13 +492,13 @@ public class DefaultMessageResponder implements MessageResponder
 	}
 
 	/**
-	 * Sends information about this client to the other clients.
+	 * Sends information about this client to the other clients,
+	 * at a random time so not everyone answers at once.
 	 */
 	@Override
 	public void exposeRequested()
 	{
-		controller.sendExposingMessage();
-		controller.sendClientInfo();
+		responseScheduler.exposeRequested( controller.getUserList().size(), System.currentTimeMillis() );
 	}
 
 	/**
@@ -505,9 +512,11 @@ public class DefaultMessageResponder implements MessageResponder
 	{
 		if ( controller.isNewUser( userCode ) )
 		{
-			wList.addWaitingUser( userCode );
-			controller.sendExposeMessage();
-			controller.sendGetTopicMessage();
+			if ( wList.addWaitingUser( userCode ) )
+			{
+				controller.sendExposeMessage();
+				controller.sendGetTopicMessage();
+			}
 		}
 
 		else
@@ -552,24 +561,18 @@ public class DefaultMessageResponder implements MessageResponder
 	{
 		if ( controller.isNewUser( userCode ) )
 		{
-			wList.addWaitingUser( userCode );
-			controller.sendExposeMessage();
-			controller.sendGetTopicMessage();
+			if ( wList.addWaitingUser( userCode ) )
+			{
+				controller.sendExposeMessage();
+				controller.sendGetTopicMessage();
+			}
 		}
 
-		new Thread( "DefaultMessageResponderFileSend" )
+		final Thread fileSendThread = new Thread( "DefaultMessageResponderFileSend" )
 		{
 			@Override
 			public void run()
 			{
-				int counter = 0;
-
-				while ( wList.isWaitingUser( userCode ) && counter < 40 )
-				{
-					counter++;
-					Tools.sleep( 50 );
-				}
-
 				if ( !controller.isNewUser( userCode ) )
 				{
 					final String size = Tools.byteToString( byteSize );
@@ -578,8 +581,10 @@ public class DefaultMessageResponder implements MessageResponder
 					final File defaultFile = new File( System.getProperty( "user.home" )
 							+ System.getProperty( "file.separator" )
 							+ fileName );
-					final FileReceiver fileRes = new FileReceiver( tmpUser, defaultFile, byteSize );
+					final FileReceiver fileRes = new FileReceiver( tmpUser, defaultFile, byteSize,
+							controller.getChannelSelector(), controller.getScheduler() );
 					tList.addFileReceiver( fileRes );
+					boolean transferring = false;
 
 					if ( ui.askFileSave( user, fileName, size ) )
 					{
@@ -591,20 +596,40 @@ public class DefaultMessageResponder implements MessageResponder
 
 							try
 							{
+								if ( tmpUser.isResumingSupported() )
+									fileRes.resumePartialFile();
+
 								final int port = fileRes.startServer();
-								controller.sendFileAccept( tmpUser, port, fileHash, fileName );
+								controller.sendFileAccept( tmpUser, port, fileHash, fileName, fileRes.getResumeOffset() );
 
-								if ( fileRes.transfer() )
+								if ( fileRes.getResumeOffset() > 0 )
 								{
-									msgController.showSystemMessage( "Successfully received " + fileName
-											+ " from " + user + ", and saved as " + fileRes.getFile().getName() );
+									msgController.showSystemMessage( "Trying to resume " + fileName + " from "
+											+ Tools.byteToString( fileRes.getResumeOffset() ) );
 								}
 
-								else
+								fileRes.transfer( new TransferDoneListener()
 								{
-									msgController.showSystemMessage( "Failed to receive " + fileName + " from " + user );
-									fileRes.cancel();
-								}
+									@Override
+									public void transferDone( final boolean successful )
+									{
+										if ( successful )
+										{
+											msgController.showSystemMessage( "Successfully received " + fileName
+													+ " from " + user + ", and saved as " + fileRes.getFile().getName() );
+										}
+
+										else
+										{
+											msgController.showSystemMessage( "Failed to receive " + fileName + " from " + user );
+											fileRes.cancel();
+										}
+
+										tList.removeFileReceiver( fileRes );
+									}
+								} );
+
+								transferring = true;
 							}
 
 							// Failed to start the server
@@ -638,7 +663,9 @@ public class DefaultMessageResponder implements MessageResponder
 						controller.sendFileAbort( tmpUser, fileHash, fileName );
 					}
 
-					tList.removeFileReceiver( fileRes );
+					// Removed when done if transferring
+					if ( !transferring )
+						tList.removeFileReceiver( fileRes );
 				}
 
 				else
@@ -646,7 +673,20 @@ public class DefaultMessageResponder implements MessageResponder
 					LOG.log( Level.SEVERE, "Could not find user: " + user );
 				}
 			}
-		} .start();
+		};
+
+		// Wait for the user to identify before asking to receive the file
+		boolean waiting = wList.addPendingMessage( userCode, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				fileSendThread.start();
+			}
+		} );
+
+		if ( !waiting )
+			fileSendThread.start();
 	}
 
 	/**
@@ -688,26 +728,26 @@ public class DefaultMessageResponder implements MessageResponder
 	 * @param fileName The name of the file.
 	 * @param fileHash The hash code of the file.
 	 * @param port The port to use for connecting to the other user.
+	 * @param resumeOffset The number of bytes of the file the user already has,
+	 *                     or 0 to send the whole file.
 	 */
 	@Override
-	public void fileSendAccepted( final int userCode, final String fileName, final int fileHash, final int port )
+	public void fileSendAccepted( final int userCode, final String fileName, final int fileHash, final int port,
+			final long resumeOffset )
 	{
-		new Thread( "DefaultMessageResponderFileSendAccepted" )
+		final User user = controller.getUser( userCode );
+		final FileSender fileSend = tList.getFileSender( user, fileName, fileHash );
+
+		if ( fileSend != null )
 		{
-			@Override
-			public void run()
-			{
-				final User user = controller.getUser( userCode );
-				final FileSender fileSend = tList.getFileSender( user, fileName, fileHash );
+			msgController.showSystemMessage( user.getNick() + " accepted sending of " + fileName );
 
-				if ( fileSend != null )
+			fileSend.transfer( port, resumeOffset, new TransferDoneListener()
+			{
+				@Override
+				public void transferDone( final boolean successful )
 				{
-					msgController.showSystemMessage( user.getNick() + " accepted sending of " + fileName );
-
-					// Give the server some time to set up the connection first
-					Tools.sleep( 200 );
-
-					if ( fileSend.transfer( port ) )
+					if ( successful )
 					{
 						msgController.showSystemMessage( fileName + " successfully sent to " + user.getNick() );
 					}
@@ -719,8 +759,8 @@ public class DefaultMessageResponder implements MessageResponder
 
 					tList.removeFileSender( fileSend );
 				}
-			}
-		} .start();
+			} );
+		}
 	}
 
 	/**
@@ -731,9 +771,15 @@ public class DefaultMessageResponder implements MessageResponder
 	 * @param timeSinceLogon Number of milliseconds since the user logged on.
 	 * @param operatingSystem The user's operating system.
 	 * @param privateChatPort The port to use for sending private chat messages to this user.
+	 * @param compressionSupported If the client can receive messages with a compressed body.
+	 * @param sequencingSupported If the client can send missing messages again when asked.
+	 * @param acknowledgingSupported If the client acknowledges private messages.
+	 * @param resumingSupported If the client can continue file transfers that stopped.
 	 */
 	@Override
-	public void clientInfo( final int userCode, final String client, final long timeSinceLogon, final String operatingSystem, final int privateChatPort )
+	public void clientInfo( final int userCode, final String client, final long timeSinceLogon, final String operatingSystem,
+			final int privateChatPort, final boolean compressionSupported, final boolean sequencingSupported,
+			final boolean acknowledgingSupported, final boolean resumingSupported )
 	{
 		final User user = controller.getUser( userCode );
 
@@ -743,9 +789,36 @@ public class DefaultMessageResponder implements MessageResponder
 			user.setLogonTime( System.currentTimeMillis() - timeSinceLogon );
 			user.setOperatingSystem( operatingSystem );
 			user.setPrivateChatPort( privateChatPort );
+			user.setCompressionSupported( compressionSupported );
+			user.setSequencingSupported( sequencingSupported );
+			user.setAcknowledgingSupported( acknowledgingSupported );
+			user.setResumingSupported( resumingSupported );
 		}
 
 		else
 			LOG.log( Level.SEVERE, "Could not find user: " + userCode );
 	}
+
+	/**
+	 * Sends the missing message again, if it's still available.
+	 *
+	 * @param sequence The sequence number of the missing message.
+	 */
+	@Override
+	public void resendRequested( final int sequence )
+	{
+		controller.resendMessage( sequence );
+	}
+
+	/**
+	 * Asks the user to send the missing message again.
+	 *
+	 * @param userCode The unique code of the user who sent the missing message.
+	 * @param sequence The sequence number of the missing message.
+	 */
+	@Override
+	public void messageMissing( final int userCode, final int sequence )
+	{
+		controller.sendNackMessage( userCode, sequence );
+	}
 }
@@ -109,4 +109,28 @@ public class DefaultPrivateMessageResponder implements PrivateMessageResponder
 			LOG.log( Level.SEVERE, "Could not find user: " + userCode );
 		}
 	}
+
+	/**
+	 * Sends an acknowledgement of the private messages to the user.
+	 *
+	 * @param userCode The unique code for the user that sent the private messages.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	@Override
+	public void messagesReceived( final int userCode, final int sequence )
+	{
+		controller.sendPrivateAckMessage( userCode, sequence );
+	}
+
+	/**
+	 * Sends the private messages that were waiting for the acknowledgement.
+	 *
+	 * @param userCode The unique code for the user that got the private messages.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	@Override
+	public void messagesAcknowledged( final int userCode, final int sequence )
+	{
+		controller.privateMessagesAcknowledged( userCode, sequence );
+	}
 }
@@ -0,0 +1,117 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * This is a JMX MBean for the message dispatcher.
+ *
+ * @author Christian Ihle
+ */
+public class DispatcherInformation implements DispatcherInformationMBean
+{
+	/** The dispatcher to show information about. */
+	private final MessageDispatcher messageDispatcher;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param messageDispatcher The dispatcher to show information about.
+	 */
+	public DispatcherInformation( final MessageDispatcher messageDispatcher )
+	{
+		Validate.notNull( messageDispatcher, "Message dispatcher can not be null" );
+		this.messageDispatcher = messageDispatcher;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getQueueCapacity()
+	{
+		return messageDispatcher.getCapacity();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getQueueDepth()
+	{
+		return messageDispatcher.getQueueDepth();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getPeakQueueDepth()
+	{
+		return messageDispatcher.getPeakQueueDepth();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getDispatchedMessages()
+	{
+		return messageDispatcher.getDispatchedMessages();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getDroppedMessages()
+	{
+		return messageDispatcher.getDroppedMessages();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getDroppedChatMessages()
+	{
+		return messageDispatcher.getDroppedChatMessages();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getSuppressedDuplicates()
+	{
+		return messageDispatcher.getSuppressedDuplicates();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getOverflowPolicy()
+	{
+		return messageDispatcher.getOverflowPolicy().name();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setOverflowPolicy( final String overflowPolicy )
+	{
+		Validate.notEmpty( overflowPolicy, "Overflow policy can not be empty" );
+		messageDispatcher.setOverflowPolicy( OverflowPolicy.valueOf( overflowPolicy.trim().toUpperCase() ) );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void resetCounters()
+	{
+		messageDispatcher.resetCounters();
+	}
+}
@@ -0,0 +1,100 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+/**
+ * This is the JMX MBean interface for the message dispatcher.
+ *
+ * @author Christian Ihle
+ */
+public interface DispatcherInformationMBean
+{
+	/** The name of this MBean. */
+	String NAME = "Dispatcher";
+
+	/**
+	 * Gets the maximum number of messages waiting in the queue.
+	 *
+	 * @return The queue capacity.
+	 */
+	int getQueueCapacity();
+
+	/**
+	 * Gets the number of messages waiting in the queue now.
+	 *
+	 * @return The queue depth.
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Gets the highest number of messages waiting in the queue since the last reset.
+	 *
+	 * @return The peak queue depth.
+	 */
+	int getPeakQueueDepth();
+
+	/**
+	 * Gets the number of messages given to the listeners since the last reset.
+	 *
+	 * @return The number of dispatched messages.
+	 */
+	long getDispatchedMessages();
+
+	/**
+	 * Gets the number of messages dropped because the queue was full.
+	 *
+	 * @return The number of dropped messages.
+	 */
+	long getDroppedMessages();
+
+	/**
+	 * Gets how many of the dropped messages were chat messages.
+	 *
+	 * @return The number of dropped chat messages.
+	 */
+	long getDroppedChatMessages();
+
+	/**
+	 * Gets the number of messages dropped because they arrived more than once.
+	 *
+	 * @return The number of suppressed duplicates.
+	 */
+	long getSuppressedDuplicates();
+
+	/**
+	 * Gets what is done with new messages when the queue is full.
+	 *
+	 * @return The name of the overflow policy.
+	 */
+	String getOverflowPolicy();
+
+	/**
+	 * Changes what is done with new messages when the queue is full.
+	 *
+	 * @param overflowPolicy One of <code>DROP_OLDEST</code>,
+	 *                       <code>DROP_CHAT_KEEP_CONTROL</code> or <code>BLOCK</code>.
+	 */
+	void setOverflowPolicy( String overflowPolicy );
+
+	/** Resets the peak queue depth and the message counters. */
+	void resetCounters();
+}
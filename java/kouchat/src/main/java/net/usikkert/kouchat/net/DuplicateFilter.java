@@ -0,0 +1,248 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.Arrays;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Finds datagrams that arrive more than once within a short time, like when
+ * a host with several network interfaces gets the same multicast packet on
+ * each of them, or a switch sends it back.
+ *
+ * <p>Each datagram is remembered by a 64 bit fingerprint of the bytes
+ * and the ip address of the sender, so the same message from two
+ * different users is not taken for a repeat.
+ * The fingerprints are kept in two generations of fixed size hash tables.
+ * When the current generation is older than the window, or full, it becomes
+ * the previous generation, and the old previous generation is cleared.
+ * A repeat is found if it arrives within one to two windows of the original,
+ * and the memory used never grows.</p>
+ *
+ * <p>The window must be short, as messages that are legally sent twice,
+ * like the same chat line, look exactly the same.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class DuplicateFilter
+{
+	/** The starting value of the FNV-1a hash. */
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	/** The multiplier of the FNV-1a hash. */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** Marks a free place in the hash tables. */
+	private static final long EMPTY = 0;
+
+	/** The fingerprints of the current generation. */
+	private long[] current;
+
+	/** The fingerprints of the previous generation. */
+	private long[] previous;
+
+	/** The number of fingerprints in the current generation. */
+	private int currentCount;
+
+	/** The max number of fingerprints in one generation, to keep the lookups fast. */
+	private final int maxCount;
+
+	/** The number of milliseconds each generation lasts. */
+	private final long window;
+
+	/** When the current generation started. */
+	private long generationStart;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size The size of the hash table of each generation. Must be a power of 2.
+	 * @param window The number of milliseconds each generation lasts.
+	 */
+	public DuplicateFilter( final int size, final long window )
+	{
+		Validate.isTrue( size >= 2 && Integer.bitCount( size ) == 1, "Size must be a power of 2" );
+		Validate.isTrue( window > 0, "Window must be positive" );
+
+		this.window = window;
+		current = new long[size];
+		previous = new long[size];
+		maxCount = size / 4 * 3;
+	}
+
+	/**
+	 * Checks if the datagram has arrived before from the same ip address,
+	 * within the window. If not, the datagram is remembered.
+	 *
+	 * @param ipAddress The ip address of the sender.
+	 * @param data The buffer containing the datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @param now The current time, in milliseconds.
+	 * @return If the datagram is a repeat.
+	 */
+	public boolean isDuplicate( final String ipAddress, final byte[] data, final int offset, final int length,
+			final long now )
+	{
+		Validate.notNull( ipAddress, "Ip address can not be null" );
+
+		if ( now - generationStart >= window || now < generationStart )
+			startGeneration( now );
+
+		long fingerprint = getFingerprint( ipAddress, data, offset, length );
+
+		if ( contains( current, fingerprint ) || contains( previous, fingerprint ) )
+			return true;
+
+		if ( currentCount == maxCount )
+			startGeneration( now );
+
+		add( current, fingerprint );
+		currentCount++;
+
+		return false;
+	}
+
+	/**
+	 * Forgets all the datagrams.
+	 */
+	public void clear()
+	{
+		Arrays.fill( current, EMPTY );
+		Arrays.fill( previous, EMPTY );
+		currentCount = 0;
+	}
+
+	/**
+	 * Makes the current generation the previous, and starts a new one.
+	 * Everything is forgotten if the current generation is too old to
+	 * be useful as the previous.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	private void startGeneration( final long now )
+	{
+		if ( now - generationStart >= window * 2 || now < generationStart )
+		{
+			clear();
+		}
+
+		else
+		{
+			long[] old = previous;
+			previous = current;
+			current = old;
+			Arrays.fill( current, EMPTY );
+			currentCount = 0;
+		}
+
+		generationStart = now;
+	}
+
+	/**
+	 * Creates the fingerprint of the datagram and the ip address of the sender,
+	 * using the 64 bit FNV-1a hash.
+	 *
+	 * @param ipAddress The ip address of the sender.
+	 * @param data The buffer containing the datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @return The fingerprint, never {@link #EMPTY}.
+	 */
+	static long getFingerprint( final String ipAddress, final byte[] data, final int offset, final int length )
+	{
+		long hash = FNV_OFFSET_BASIS;
+
+		for ( int i = 0; i < ipAddress.length(); i++ )
+		{
+			hash ^= ipAddress.charAt( i ) & 0xff;
+			hash *= FNV_PRIME;
+		}
+
+		hash ^= '/';
+		hash *= FNV_PRIME;
+
+		for ( int i = offset; i < offset + length; i++ )
+		{
+			hash ^= data[i] & 0xff;
+			hash *= FNV_PRIME;
+		}
+
+		return hash == EMPTY ? 1 : hash;
+	}
+
+	/**
+	 * Checks if the fingerprint is in the hash table.
+	 *
+	 * @param table The hash table.
+	 * @param fingerprint The fingerprint to look for.
+	 * @return If the fingerprint was found.
+	 */
+	private static boolean contains( final long[] table, final long fingerprint )
+	{
+		int mask = table.length - 1;
+		int index = spread( fingerprint ) & mask;
+
+		while ( table[index] != EMPTY )
+		{
+			if ( table[index] == fingerprint )
+				return true;
+
+			index = ( index + 1 ) & mask;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds the fingerprint to the hash table. There must be room for it.
+	 *
+	 * @param table The hash table.
+	 * @param fingerprint The fingerprint to add.
+	 */
+	private static void add( final long[] table, final long fingerprint )
+	{
+		int mask = table.length - 1;
+		int index = spread( fingerprint ) & mask;
+
+		while ( table[index] != EMPTY )
+		{
+			index = ( index + 1 ) & mask;
+		}
+
+		table[index] = fingerprint;
+	}
+
+	/**
+	 * Mixes the high bits of the fingerprint into the low bits used for the index.
+	 *
+	 * @param fingerprint The fingerprint.
+	 * @return The hash code to find the index from.
+	 */
+	private static int spread( final long fingerprint )
+	{
+		return (int) ( fingerprint ^ ( fingerprint >>> 32 ) );
+	}
+}
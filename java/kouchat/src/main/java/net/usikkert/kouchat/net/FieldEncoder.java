@@ -0,0 +1,90 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * A {@link MessageEncoder} for the usual layout of message bodies:
+ * a number of fields surrounded by brackets, followed by an optional text.
+ *
+ * <p>As an example, the layout <code>"()[]"</code> with text encodes the fields
+ * <code>nick, 123, "text"</code> as <code>(nick)[123]text</code>.</p>
+ *
+ * @author Christian Ihle
+ */
+public class FieldEncoder implements MessageEncoder
+{
+	/** Pairs of brackets to put around the fields. */
+	private final String brackets;
+
+	/** If the last field is a text without brackets. */
+	private final boolean text;
+
+	/** The number of fields to encode. */
+	private final int fieldCount;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param brackets Pairs of brackets to put around the fields, like <code>"()[]"</code>.
+	 * @param text If the last field is a text without brackets.
+	 */
+	public FieldEncoder( final String brackets, final boolean text )
+	{
+		Validate.notNull( brackets, "Brackets can not be null" );
+		Validate.isTrue( brackets.length() % 2 == 0, "Brackets must be in pairs" );
+
+		this.brackets = brackets;
+		this.text = text;
+		fieldCount = brackets.length() / 2 + ( text ? 1 : 0 );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalArgumentException If the number of fields does not match the layout.
+	 */
+	@Override
+	public String encode( final Object... fields )
+	{
+		if ( fields.length != fieldCount )
+			throw new IllegalArgumentException( "Expected " + fieldCount + " fields, got " + fields.length );
+
+		if ( fieldCount == 0 )
+			return "";
+
+		StringBuilder body = new StringBuilder();
+
+		for ( int i = 0; i < brackets.length() / 2; i++ )
+		{
+			body.append( brackets.charAt( i * 2 ) )
+				.append( fields[i] )
+				.append( brackets.charAt( i * 2 + 1 ) );
+		}
+
+		if ( text )
+			body.append( fields[fieldCount - 1] );
+
+		return body.toString();
+	}
+}
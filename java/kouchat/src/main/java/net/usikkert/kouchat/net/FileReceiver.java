@@ -22,24 +22,44 @@
 package net.usikkert.kouchat.net;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.event.FileTransferListener;
+import net.usikkert.kouchat.event.TransferDoneListener;
+import net.usikkert.kouchat.misc.Settings;
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.BufferPool;
 import net.usikkert.kouchat.util.ByteCounter;
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * This is a class for receiving files from other users.
  *
  * <p>To receive a file, a server socket has to be opened,
- * to wait for incoming transfers.</p>
+ * to wait for incoming transfers. The server socket and the connection
+ * from the sender are served by the {@link ChannelSelector}, so neither
+ * waiting for the sender nor receiving the file needs a thread of its own.</p>
+ *
+ * <p>The data from the network is collected in a large direct buffer, and
+ * written to the file when the buffer is full. The size of the buffer is in
+ * the settings. The buffers are reused between transfers. The file is never
+ * longer than the data written to it, so a file left behind by a failed
+ * transfer, or a crash, never looks complete.</p>
+ *
+ * <p>A file cut like that can be used to continue the transfer the next time
+ * the file is sent, as described in {@link ResumeHandshake}.</p>
  *
  * @author Christian Ihle
  */
@@ -48,6 +68,18 @@ public class FileReceiver implements FileTransfer
 	/** The logger. */
 	private static final Logger LOG = Logger.getLogger( FileReceiver.class.getName() );
 
+	/** Number of milliseconds to wait for the sender to connect. */
+	private static final int CONNECT_TIMEOUT = 15000;
+
+	/** The number of bytes to receive between each progress update, if the percent doesn't change. */
+	private static final int UPDATE_BYTES = 256 * 1024;
+
+	/** The highest number of buffers to keep for the next transfers. */
+	private static final int MAX_POOLED_BUFFERS = 4;
+
+	/** The buffers to collect the data from the network in, shared by all the transfers. */
+	private static final BufferPool BUFFER_POOL = new BufferPool( MAX_POOLED_BUFFERS );
+
 	/** The user sending the file. */
 	private final User user;
 
@@ -69,6 +101,9 @@ public class FileReceiver implements FileTransfer
 	/** If the file was successfully received. */
 	private boolean received;
 
+	/** The number of bytes already in the file, to continue the transfer from. */
+	private long resumeOffset;
+
 	/** If the file transfer is canceled. */
 	private boolean cancel;
 
@@ -78,20 +113,53 @@ public class FileReceiver implements FileTransfer
 	/** If the client has rejected the file. */
 	private boolean rejected;
 
+	/** If the file transfer is over. */
+	private boolean done;
+
 	/** The file transfer listener. */
 	private FileTransferListener listener;
 
-	/** The server socket waiting for an incoming connection. */
-	private ServerSocket sSock;
+	/** The listener to notify when the file transfer is over. */
+	private TransferDoneListener doneListener;
+
+	/** The selector serving the server channel and the connection from the sender. */
+	private final ChannelSelector channelSelector;
+
+	/** The timer to stop waiting for the sender with, or <code>null</code> to wait until canceled. */
+	private final Timer timer;
+
+	/** Stops waiting for the sender when the deadline has passed. */
+	private TimerTask timeoutTask;
+
+	/** The server channel waiting for an incoming connection. */
+	private ServerSocketChannel serverChannel;
+
+	/** The channel connected to the other user, when accepted by the selector. */
+	private SocketChannel acceptedChannel;
 
-	/** The socket connection to the other user. */
-	private Socket sock;
+	/** The time when the sender has to be connected. */
+	private long connectDeadline;
 
-	/** The output stream to the file. */
-	private FileOutputStream fos;
+	/** The connection to the other user, while transferring. */
+	private SocketChannel socketChannel;
 
-	/** The input stream from the other user. */
-	private InputStream is;
+	/** The file to write to. */
+	private RandomAccessFile raf;
+
+	/** The channel to write to the file with. */
+	private FileChannel fileChannel;
+
+	/** The buffer to collect the data from the network in. */
+	private ByteBuffer buffer;
+
+	/** The number sent or received during the resume handshake. */
+	private ByteBuffer handshake;
+
+	/** The percent at the last progress update. */
+	private int updatedPercent;
+
+	/** The number of bytes received at the last progress update. */
+	private long lastUpdate;
 
 	/**
 	 * Constructor. Creates a new file receiver.
@@ -99,12 +167,19 @@ public class FileReceiver implements FileTransfer
 	 * @param user The user which sends the file.
 	 * @param file The file the user is sending.
 	 * @param size The size of the file, in bytes.
+	 * @param channelSelector The selector to serve the connections with.
+	 * @param timer The timer to stop waiting for the sender with,
+	 *              or <code>null</code> to wait until canceled.
 	 */
-	public FileReceiver( final User user, final File file, final long size )
+	public FileReceiver( final User user, final File file, final long size,
+			final ChannelSelector channelSelector, final Timer timer )
 	{
+		Validate.notNull( channelSelector, "Channel selector can not be null" );
 		this.user = user;
 		this.file = file;
 		this.size = size;
+		this.channelSelector = channelSelector;
+		this.timer = timer;
 
 		bCounter = new ByteCounter();
 	}
@@ -113,28 +188,36 @@ public class FileReceiver implements FileTransfer
 	 * Starts a server connection which the sender can use to connect
 	 * for transferring the file, and returns the opened port.
 	 *
+	 * <p>The server connection is closed if the sender has not connected
+	 * within 15 seconds. This does not mean that the user only has 15 seconds
+	 * to decide where to save the file. The server is started after the user
+	 * has decided, and waits for an automated response from the sender.
+	 * If nothing has happened to the sender, the response should be very quick.</p>
+	 *
 	 * @return The port which the sender can connect to.
 	 * @throws ServerException If the server could not be started.
 	 */
 	public int startServer() throws ServerException
 	{
 		int port = Constants.NETWORK_FILE_TRANSFER_PORT;
-		boolean done = false;
+		boolean started = false;
 		int counter = 0;
 
-		while ( !done && counter < 10 )
+		while ( !started && counter < 10 )
 		{
 			try
 			{
-				sSock = new ServerSocket( port );
-				TimeoutThread tt = new TimeoutThread();
-				tt.start();
-				done = true;
+				serverChannel = ServerSocketChannel.open();
+				serverChannel.socket().bind( new InetSocketAddress( port ) );
+				connectDeadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+				channelSelector.register( serverChannel, SelectionKey.OP_ACCEPT, new AcceptHandler() );
+				started = true;
 			}
 
 			catch ( final IOException e )
 			{
 				LOG.log( Level.WARNING, "Could not open " + port, e );
+				closeServer();
 				port++;
 			}
 
@@ -144,128 +227,242 @@ public class FileReceiver implements FileTransfer
 			}
 		}
 
-		if ( !done )
+		if ( !started )
 			throw new ServerException( "Could not start server" );
 
 		return port;
 	}
 
 	/**
-	 * Waits for an incoming connection, then receives the
-	 * file from the other user.
+	 * Waits for an incoming connection, then receives the file
+	 * from the other user. Returns at once, and notifies the done
+	 * listener when the file transfer is over.
 	 *
-	 * @return If the file transfer was successful.
+	 * @param doneListener The listener to notify when the file transfer is over.
 	 */
-	public boolean transfer()
+	public synchronized void transfer( final TransferDoneListener doneListener )
 	{
+		Validate.notNull( doneListener, "Done listener can not be null" );
+		this.doneListener = doneListener;
+
 		listener.statusConnecting();
 
 		received = false;
 		cancel = false;
 
-		try
+		// The sender was quick
+		if ( acceptedChannel != null )
 		{
-			if ( sSock != null )
-			{
-				sock = sSock.accept();
-				listener.statusTransferring();
-				fos = new FileOutputStream( file );
-				is = sock.getInputStream();
-
-				byte[] b = new byte[1024];
-				transferred = 0;
-				percent = 0;
-				int tmpTransferred = 0;
-				int tmpPercent = 0;
-				int transCounter = 0;
-				bCounter.prepare();
-
-				while ( !cancel && ( tmpTransferred = is.read( b ) ) != -1 )
-				{
-					fos.write( b, 0, tmpTransferred );
-					transferred += tmpTransferred;
-					percent = (int) ( ( transferred * 100 ) / size );
-					bCounter.addBytes( tmpTransferred );
-					transCounter++;
+			startTransfer();
+		}
 
-					if ( percent > tmpPercent || transCounter >= 250 )
-					{
-						transCounter = 0;
-						tmpPercent = percent;
-						listener.transferUpdate();
-					}
-				}
+		else if ( serverChannel == null )
+		{
+			LOG.log( Level.WARNING, "No connection from " + user.getNick() );
+			finish( false );
+		}
 
-				if ( !cancel && transferred == size )
-				{
-					received = true;
-					listener.statusCompleted();
-				}
+		else if ( timer != null )
+		{
+			timeoutTask = new TimeoutTask();
+			timer.schedule( timeoutTask, Math.max( 0, connectDeadline - System.currentTimeMillis() ) );
+		}
+	}
 
-				else
-				{
-					listener.statusFailed();
-				}
+	/**
+	 * Opens the file, and starts the resume handshake or the receiving of the file
+	 * on the connection accepted from the sender.
+	 */
+	private void startTransfer()
+	{
+		socketChannel = acceptedChannel;
+		listener.statusTransferring();
+
+		try
+		{
+			raf = new RandomAccessFile( file, "rw" );
+			fileChannel = raf.getChannel();
+			transferred = 0;
+			percent = 0;
+			int ops = SelectionKey.OP_READ;
+
+			if ( resumeOffset > 0 )
+			{
+				// Keeps the partial file if the handshake fails
+				fileChannel.position( resumeOffset );
+				handshake = ResumeHandshake.wrapLong( ResumeHandshake.checksum( fileChannel, resumeOffset ) );
+				ops = SelectionKey.OP_WRITE;
 			}
+
+			else
+				startReceiving();
+
+			channelSelector.register( socketChannel, ops, new ReceiveHandler() );
 		}
 
 		catch ( final IOException e )
 		{
 			LOG.log( Level.SEVERE, e.toString() );
-			listener.statusFailed();
+			finish( false );
+		}
+	}
+
+	/**
+	 * Checks where the other user starts sending from.
+	 *
+	 * @param start The position in the file where the transfer starts.
+	 * @throws IOException If the position is invalid.
+	 */
+	private void verifyResume( final long start ) throws IOException
+	{
+		if ( start == 0 )
+		{
+			LOG.log( Level.WARNING, file.getName() + " from " + user.getNick()
+					+ " does not match the partial file, receiving all of it" );
 		}
 
-		finally
+		else if ( start != resumeOffset )
 		{
-			stopReceiver();
-			cleanupConnections();
+			throw new IOException( "Invalid start of file transfer: " + start );
 		}
 
-		return received;
+		fileChannel.position( start );
+		transferred = start;
+		percent = (int) ( ( transferred * 100 ) / size );
 	}
 
 	/**
-	 * Sets all connections to null.
+	 * Gets ready to receive the file from where the transfer starts.
+	 *
+	 * @throws IOException If the file could not be changed.
 	 */
-	private void cleanupConnections()
+	private void startReceiving() throws IOException
 	{
-		is = null;
-		fos = null;
-		sock = null;
-		sSock = null;
+		handshake = null;
+
+		// Removes old data after the start, but never extends the file
+		raf.setLength( transferred );
+		buffer = BUFFER_POOL.acquire( Settings.getSettings().getFileBufferSize() );
+
+		updatedPercent = percent;
+		lastUpdate = 0;
+		bCounter.prepare();
 	}
 
 	/**
-	 * Closes the connection to the user.
+	 * Reads the data the connection has, and writes it to the file when the buffer is full.
+	 * Finishes the file transfer when the sender closes the connection.
+	 *
+	 * @throws IOException If the data could not be read or written.
 	 */
-	private void stopReceiver()
+	private void receiveData() throws IOException
 	{
-		try
+		long readyStart = transferred;
+		int tmpTransferred = 0;
+
+		// Let the other channels have their turn after a while
+		while ( transferred - readyStart < UPDATE_BYTES && ( tmpTransferred = socketChannel.read( buffer ) ) > 0 )
 		{
-			if ( is != null )
-				is.close();
+			if ( !buffer.hasRemaining() )
+				writeBuffer( buffer );
+
+			transferred += tmpTransferred;
+			percent = (int) ( ( transferred * 100 ) / size );
+			bCounter.addBytes( tmpTransferred );
+
+			if ( percent > updatedPercent || transferred - lastUpdate >= UPDATE_BYTES )
+			{
+				lastUpdate = transferred;
+				updatedPercent = percent;
+				listener.transferUpdate();
+			}
 		}
 
-		catch ( final IOException e )
+		if ( tmpTransferred == -1 )
 		{
-			LOG.log( Level.SEVERE, e.toString(), e );
+			writeBuffer( buffer );
+			finish( transferred == size );
+		}
+	}
+
+	/**
+	 * Closes the connection and the file, and notifies the listeners,
+	 * unless the file transfer was over already.
+	 *
+	 * @param successful If the whole file was received.
+	 */
+	private synchronized void finish( final boolean successful )
+	{
+		if ( done || doneListener == null )
+			return;
+
+		done = true;
+		received = successful && !cancel;
+
+		if ( timeoutTask != null )
+			timeoutTask.cancel();
+
+		stopReceiver();
+		saveBuffer();
+		closeFile();
+		cleanupConnections();
+
+		if ( received )
+			listener.statusCompleted();
+
+		// Already notified by cancel()
+		else if ( !cancel )
+			listener.statusFailed();
+
+		doneListener.transferDone( received );
+	}
+
+	/**
+	 * Writes the data in the buffer to the end of the file, and clears the buffer.
+	 *
+	 * @param data The buffer with the data to write.
+	 * @throws IOException If the data could not be written.
+	 */
+	private void writeBuffer( final ByteBuffer data ) throws IOException
+	{
+		data.flip();
+
+		while ( data.hasRemaining() )
+		{
+			fileChannel.write( data );
 		}
 
+		data.clear();
+	}
+
+	/**
+	 * Writes the data left in the buffer to the file, so it can be used
+	 * to continue the transfer later.
+	 */
+	private void saveBuffer()
+	{
 		try
 		{
-			if ( fos != null )
-				fos.flush();
+			if ( buffer != null && fileChannel != null )
+				writeBuffer( buffer );
 		}
 
 		catch ( final IOException e )
 		{
 			LOG.log( Level.SEVERE, e.toString(), e );
 		}
+	}
 
+	/**
+	 * Closes the file, and gives the buffer back to the pool. If the file was not
+	 * received, the file is cut to the data that was written.
+	 */
+	private void closeFile()
+	{
 		try
 		{
-			if ( fos != null )
-				fos.close();
+			if ( fileChannel != null && !received )
+				fileChannel.truncate( fileChannel.position() );
 		}
 
 		catch ( final IOException e )
@@ -275,8 +472,8 @@ public class FileReceiver implements FileTransfer
 
 		try
 		{
-			if ( sock != null )
-				sock.close();
+			if ( raf != null )
+				raf.close();
 		}
 
 		catch ( final IOException e )
@@ -284,16 +481,72 @@ public class FileReceiver implements FileTransfer
 			LOG.log( Level.SEVERE, e.toString(), e );
 		}
 
+		if ( buffer != null )
+		{
+			BUFFER_POOL.release( buffer );
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Unregisters and closes the server channel.
+	 */
+	private synchronized void closeServer()
+	{
+		if ( serverChannel != null )
+		{
+			channelSelector.unregister( serverChannel );
+
+			try
+			{
+				serverChannel.close();
+			}
+
+			catch ( final IOException e )
+			{
+				LOG.log( Level.SEVERE, e.toString(), e );
+			}
+
+			serverChannel = null;
+		}
+	}
+
+	/**
+	 * Sets all connections to null.
+	 */
+	private void cleanupConnections()
+	{
+		raf = null;
+		fileChannel = null;
+		socketChannel = null;
+		acceptedChannel = null;
+		handshake = null;
+	}
+
+	/**
+	 * Closes the connection to the user.
+	 */
+	private void stopReceiver()
+	{
 		try
 		{
-			if ( sSock != null )
-				sSock.close();
+			if ( socketChannel != null )
+			{
+				channelSelector.unregister( socketChannel );
+				socketChannel.close();
+			}
+
+			// Accepted, but the transfer never started
+			else if ( acceptedChannel != null )
+				acceptedChannel.close();
 		}
 
 		catch ( final IOException e )
 		{
 			LOG.log( Level.SEVERE, e.toString(), e );
 		}
+
+		closeServer();
 	}
 
 	/**
@@ -311,13 +564,15 @@ public class FileReceiver implements FileTransfer
 	 * Cancels the file transfer.
 	 */
 	@Override
-	public void cancel()
+	public synchronized void cancel()
 	{
 		cancel = true;
 		stopReceiver();
 
 		if ( listener != null )
 			listener.statusFailed();
+
+		finish( false );
 	}
 
 	/**
@@ -363,6 +618,25 @@ public class FileReceiver implements FileTransfer
 		this.file = file;
 	}
 
+	/**
+	 * Continues the transfer from the end of the file to save to, if it's smaller
+	 * than the file being sent. Only use this if the other user supports resuming.
+	 */
+	public void resumePartialFile()
+	{
+		resumeOffset = ResumeHandshake.getResumeOffset( file, size );
+	}
+
+	/**
+	 * Gets the number of bytes already in the file, to continue the transfer from.
+	 *
+	 * @return The resume offset, or 0 if the whole file is received.
+	 */
+	public long getResumeOffset()
+	{
+		return resumeOffset;
+	}
+
 	/**
 	 * The other user, which sends a file.
 	 *
@@ -468,51 +742,121 @@ public class FileReceiver implements FileTransfer
 	}
 
 	/**
-	 * A thread for closing the server connection if no client
-	 * has connected within 15 seconds.
-	 *
-	 * <p>This does not mean that the user only has 15 seconds to decide
-	 * where to save the file. This timer is started after the user has
-	 * decided, and waits for an automated response from the sender.
-	 * If nothing has happened to the sender, the response should be very quick.</p>
+	 * Accepts the connection from the sender in the selector thread,
+	 * and hands it over to the waiting transfer.
 	 */
-	private class TimeoutThread extends Thread
+	private class AcceptHandler implements ChannelHandler
 	{
 		/**
-		 * Constructor. Sets the name of the thread.
+		 * Accepts the connection, and stops listening for more.
+		 *
+		 * {@inheritDoc}
 		 */
-		public TimeoutThread()
+		@Override
+		public void channelReady( final SelectionKey key ) throws IOException
 		{
-			setName( "TimeoutThread" );
+			SocketChannel socketChannel = ( (ServerSocketChannel) key.channel() ).accept();
+
+			if ( socketChannel != null )
+			{
+				synchronized ( FileReceiver.this )
+				{
+					acceptedChannel = socketChannel;
+					closeServer();
+
+					// Too late
+					if ( done || cancel )
+						stopReceiver();
+
+					else if ( doneListener != null )
+						startTransfer();
+				}
+			}
 		}
+	}
 
+	/**
+	 * Does the resume handshake if needed, and receives the file,
+	 * in the selector thread.
+	 */
+	private class ReceiveHandler implements ChannelHandler
+	{
 		/**
-		 * The thread. Sleeps for 15 seconds, and then closes the
-		 * server connection if it is not already closed.
+		 * Moves the file transfer forward, as far as the connection allows.
+		 *
+		 * {@inheritDoc}
 		 */
 		@Override
-		public void run()
+		public void channelReady( final SelectionKey key )
 		{
-			try
+			synchronized ( FileReceiver.this )
 			{
-				sleep( 15000 );
-			}
+				if ( done )
+					return;
 
-			catch ( final InterruptedException e )
-			{
-				LOG.log( Level.SEVERE, e.toString(), e );
+				try
+				{
+					// Writing the checksum of the partial file
+					if ( handshake != null && key.isWritable() )
+					{
+						if ( ResumeHandshake.writeLong( socketChannel, handshake ) )
+						{
+							handshake = ByteBuffer.allocate( ResumeHandshake.LONG_SIZE );
+							key.interestOps( SelectionKey.OP_READ );
+						}
+					}
+
+					// Reading where the sender starts
+					else if ( handshake != null && key.isReadable() )
+					{
+						if ( ResumeHandshake.readLong( socketChannel, handshake ) )
+						{
+							verifyResume( handshake.getLong( 0 ) );
+							startReceiving();
+							receiveData();
+						}
+					}
+
+					else if ( key.isReadable() )
+					{
+						receiveData();
+					}
+				}
+
+				catch ( final IOException e )
+				{
+					LOG.log( Level.SEVERE, e.toString() );
+					finish( false );
+				}
 			}
+		}
+	}
 
+	/**
+	 * Gives up if the sender has not connected in time.
+	 */
+	private class TimeoutTask extends TimerTask
+	{
+		/**
+		 * Fails the file transfer, unless the sender has connected.
+		 */
+		@Override
+		public void run()
+		{
+			// Don't stop the shared timer
 			try
 			{
-				if ( sSock != null )
+				synchronized ( FileReceiver.this )
 				{
-					sSock.close();
-					sSock = null;
+					if ( socketChannel == null && !done )
+					{
+						LOG.log( Level.WARNING, "No connection from " + user.getNick() + " in time" );
+						finish( false );
+					}
 				}
 			}
 
-			catch ( final IOException e )
+			catch ( final RuntimeException e )
 			{
 				LOG.log( Level.SEVERE, e.toString(), e );
 			}
@@ -24,16 +24,22 @@ package net.usikkert.kouchat.net;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.usikkert.kouchat.event.FileTransferListener;
+import net.usikkert.kouchat.event.TransferDoneListener;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.util.ByteCounter;
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * This is a class for sending files to other users.
@@ -41,6 +47,15 @@ import net.usikkert.kouchat.util.ByteCounter;
  * <p>To send a file, the user at the other end needs to
  * open a server socket so this client can connect.</p>
  *
+ * <p>The connection is served by the {@link ChannelSelector}, so the transfer
+ * does not need a thread of its own. The file is sent with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the operating system can copy the file straight to the socket
+ * without going through the application.</p>
+ *
+ * <p>If the other user already has the first part of the file, the transfer
+ * continues from there, as described in {@link ResumeHandshake}.</p>
+ *
  * @author Christian Ihle
  */
 public class FileSender implements FileTransfer
@@ -48,6 +63,24 @@ public class FileSender implements FileTransfer
 	/** The logger. */
 	private static final Logger LOG = Logger.getLogger( FileSender.class.getName() );
 
+	/** The max number of bytes to send in each call to transferTo. */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/** The number of chunks to send between each progress update, if the percent doesn't change. */
+	private static final int CHUNKS_PER_UPDATE = 4;
+
+	/** The max number of chunks to send each time the connection is ready, so other channels get their turn. */
+	private static final int CHUNKS_PER_READY = 16;
+
+	/** Number of milliseconds to give the other user to set up the server, before connecting. */
+	private static final int CONNECT_DELAY = 200;
+
+	/** Number of milliseconds to wait before trying to connect again. */
+	private static final int CONNECT_RETRY_DELAY = 100;
+
+	/** The max number of times to try to connect. */
+	private static final int MAX_CONNECT_ATTEMPTS = 10;
+
 	/** The user to send a file to. */
 	private final User user;
 
@@ -57,6 +90,12 @@ public class FileSender implements FileTransfer
 	/** Keeps count of the transfer speed. */
 	private final ByteCounter bCounter;
 
+	/** The selector serving the connection to the other user. */
+	private final ChannelSelector channelSelector;
+
+	/** The timer to connect with, or <code>null</code> to connect only once, without waiting. */
+	private final Timer timer;
+
 	/** Percent of the file transferred. */
 	private int percent;
 
@@ -72,28 +111,61 @@ public class FileSender implements FileTransfer
 	/** If still waiting for the file transfer to begin. */
 	private boolean waiting;
 
+	/** If the file transfer is over. */
+	private boolean done;
+
 	/** The file transfer listener. */
 	private FileTransferListener listener;
 
+	/** The listener to notify when the file transfer is over. */
+	private TransferDoneListener doneListener;
+
+	/** The port to connect to. */
+	private int port;
+
+	/** The number of bytes of the file the user already has. */
+	private long resumeOffset;
+
+	/** The number of times connecting has been tried. */
+	private int connectAttempts;
+
+	/** The size of the file when the transfer started. */
+	private long size;
+
+	/** The percent at the last progress update. */
+	private int updatedPercent;
+
+	/** The number of chunks sent since the last progress update. */
+	private int updateChunks;
+
+	/** The number sent or received during the resume handshake. */
+	private ByteBuffer handshake;
+
 	/** The input stream from the file. */
 	private FileInputStream fis;
 
-	/** The output stream to the other user. */
-	private OutputStream os;
+	/** The channel to read the file from. */
+	private FileChannel fileChannel;
 
 	/** The socket connection to the other user. */
-	private Socket sock;
+	private SocketChannel socketChannel;
 
 	/**
 	 * Constructor. Creates a new file sender.
 	 *
 	 * @param user The user to send the file to.
 	 * @param file The file to send.
+	 * @param channelSelector The selector to serve the connection with.
+	 * @param timer The timer to connect with, or <code>null</code> to connect
+	 *              at once, and only try once.
 	 */
-	public FileSender( final User user, final File file )
+	public FileSender( final User user, final File file, final ChannelSelector channelSelector, final Timer timer )
 	{
+		Validate.notNull( channelSelector, "Channel selector can not be null" );
 		this.user = user;
 		this.file = file;
+		this.channelSelector = channelSelector;
+		this.timer = timer;
 
 		bCounter = new ByteCounter();
 		waiting = true;
@@ -101,165 +173,286 @@ public class FileSender implements FileTransfer
 
 	/**
 	 * Connects to the user at the specified port and transfers the file
-	 * to that user.
+	 * to that user. Returns at once, and notifies the done listener
+	 * when the file transfer is over.
 	 *
 	 * @param port The port to use when connecting to the user.
-	 * @return If the file transfer was successful.
+	 * @param resumeOffset The number of bytes of the file the user already has,
+	 *                     or 0 to send the whole file.
+	 * @param doneListener The listener to notify when the file transfer is over.
 	 */
-	public boolean transfer( final int port )
+	public synchronized void transfer( final int port, final long resumeOffset,
+			final TransferDoneListener doneListener )
 	{
-		if ( !cancel )
+		Validate.notNull( doneListener, "Done listener can not be null" );
+
+		if ( cancel )
 		{
-			listener.statusConnecting();
+			doneListener.transferDone( false );
+			return;
+		}
 
-			waiting = false;
-			sent = false;
+		this.port = port;
+		this.resumeOffset = resumeOffset;
+		this.doneListener = doneListener;
 
-			try
-			{
-				int counter = 0;
+		listener.statusConnecting();
+		waiting = false;
+		sent = false;
 
-				while ( sock == null && counter < 10 )
-				{
-					counter++;
+		if ( timer != null )
+			timer.schedule( new ConnectTask(), CONNECT_DELAY );
+		else
+			connect();
+	}
 
-					try
-					{
-						sock = new Socket( InetAddress.getByName( user.getIpAddress() ), port );
-					}
+	/**
+	 * Starts connecting to the user. The selector finishes the connection.
+	 */
+	private synchronized void connect()
+	{
+		if ( done )
+			return;
 
-					catch ( final UnknownHostException e )
-					{
-						LOG.log( Level.SEVERE, e.toString(), e );
-					}
+		connectAttempts++;
+		boolean connected = false;
 
-					catch ( final IOException e )
-					{
-						LOG.log( Level.SEVERE, e.toString(), e );
-					}
+		try
+		{
+			socketChannel = SocketChannel.open();
+			socketChannel.configureBlocking( false );
+			connected = socketChannel.connect(
+					new InetSocketAddress( InetAddress.getByName( user.getIpAddress() ), port ) );
+		}
 
-					try
-					{
-						Thread.sleep( 100 );
-					}
+		catch ( final IOException e )
+		{
+			connectFailed( e );
+			return;
+		}
 
-					catch ( final InterruptedException e )
-					{
-						LOG.log( Level.SEVERE, e.toString(), e );
-					}
-				}
+		try
+		{
+			if ( connected )
+				startTransfer( null );
+			else
+				channelSelector.register( socketChannel, SelectionKey.OP_CONNECT, new SendHandler() );
+		}
 
-				if ( sock != null && !cancel )
-				{
-					listener.statusTransferring();
-					fis = new FileInputStream( file );
-					os = sock.getOutputStream();
-
-					byte[] b = new byte[1024];
-					transferred = 0;
-					percent = 0;
-					int tmpTransferred = 0;
-					int tmpPercent = 0;
-					int transCounter = 0;
-					bCounter.prepare();
-
-					while ( !cancel && ( tmpTransferred = fis.read( b ) ) != -1 )
-					{
-						os.write( b, 0, tmpTransferred );
-						transferred += tmpTransferred;
-						percent = (int) ( ( transferred * 100 ) / file.length() );
-						bCounter.addBytes( tmpTransferred );
-						transCounter++;
+		catch ( final IOException e )
+		{
+			LOG.log( Level.SEVERE, e.toString() );
+			finish( false );
+		}
+	}
 
-						if ( percent > tmpPercent || transCounter >= 250 )
-						{
-							transCounter = 0;
-							tmpPercent = percent;
-							listener.transferUpdate();
-						}
-					}
+	/**
+	 * Tries to connect again a little later, or gives up if
+	 * there have been too many attempts.
+	 *
+	 * @param e The reason the connection failed.
+	 */
+	private void connectFailed( final IOException e )
+	{
+		LOG.log( Level.SEVERE, e.toString(), e );
+		stopSender();
+		socketChannel = null;
 
-					if ( !cancel && transferred == file.length() )
-					{
-						sent = true;
-						listener.statusCompleted();
-					}
+		if ( timer != null && connectAttempts < MAX_CONNECT_ATTEMPTS )
+			timer.schedule( new ConnectTask(), CONNECT_RETRY_DELAY );
+		else
+			finish( false );
+	}
 
-					else
-					{
-						listener.statusFailed();
-					}
-				}
+	/**
+	 * Opens the file, and starts the resume handshake or the sending of the file.
+	 *
+	 * @param key The selection key of the connection, or <code>null</code> if not registered yet.
+	 * @throws IOException If the file could not be opened, or the selector failed.
+	 */
+	private void startTransfer( final SelectionKey key ) throws IOException
+	{
+		listener.statusTransferring();
+		fis = new FileInputStream( file );
+		fileChannel = fis.getChannel();
 
-				else
-				{
-					listener.statusFailed();
-				}
-			}
+		size = fileChannel.size();
+		transferred = 0;
+		percent = 0;
+		int ops = SelectionKey.OP_WRITE;
 
-			catch ( final UnknownHostException e )
-			{
-				LOG.log( Level.SEVERE, e.toString(), e );
-				listener.statusFailed();
-			}
+		if ( resumeOffset > 0 )
+		{
+			handshake = ByteBuffer.allocate( ResumeHandshake.LONG_SIZE );
+			ops = SelectionKey.OP_READ;
+		}
 
-			catch ( final IOException e )
-			{
-				LOG.log( Level.SEVERE, e.toString() );
-				listener.statusFailed();
-			}
+		else
+			startSending();
 
-			finally
-			{
-				stopSender();
-				cleanupConnections();
-			}
+		if ( key != null )
+			key.interestOps( ops );
+		else
+			channelSelector.register( socketChannel, ops, new SendHandler() );
+	}
+
+	/**
+	 * Compares the checksum of the end of the partial file at the other user
+	 * with the same bytes in the file, and prepares to tell the user where the transfer starts.
+	 *
+	 * @param checksum The checksum from the other user.
+	 * @throws IOException If the file could not be read.
+	 */
+	private void verifyResume( final long checksum ) throws IOException
+	{
+		long start = 0;
+
+		if ( resumeOffset < size && ResumeHandshake.checksum( fileChannel, resumeOffset ) == checksum )
+		{
+			start = resumeOffset;
+			LOG.log( Level.FINE, "Resuming " + file.getName() + " to " + user.getNick() + " from " + start );
 		}
 
-		return sent;
+		else
+		{
+			LOG.log( Level.WARNING, "The partial file at " + user.getNick() + " does not match "
+					+ file.getName() + ", sending all of it" );
+		}
+
+		transferred = start;
+		handshake = ResumeHandshake.wrapLong( start );
 	}
 
 	/**
-	 * Sets all connections to null.
+	 * Gets ready to send the file from where the transfer starts.
 	 */
-	private void cleanupConnections()
+	private void startSending()
 	{
-		fis = null;
-		os = null;
-		sock = null;
+		handshake = null;
+
+		if ( transferred > 0 )
+			percent = (int) ( ( transferred * 100 ) / size );
+
+		updatedPercent = percent;
+		updateChunks = 0;
+		bCounter.prepare();
 	}
 
 	/**
-	 * Closes the connection to the user.
+	 * Sends chunks of the file until the connection is full,
+	 * or the file is sent.
+	 *
+	 * @throws IOException If the file could not be sent.
 	 */
-	private void stopSender()
+	private void sendChunks() throws IOException
 	{
-		try
-		{
-			if ( fis != null )
-				fis.close();
-		}
+		int chunks = 0;
 
-		catch ( final IOException e )
+		while ( transferred < size )
 		{
-			LOG.log( Level.SEVERE, e.toString(), e );
+			// Let the other channels have their turn
+			if ( chunks == CHUNKS_PER_READY )
+				return;
+
+			long tmpTransferred = fileChannel.transferTo( transferred,
+					Math.min( CHUNK_SIZE, size - transferred ), socketChannel );
+
+			if ( tmpTransferred == 0 )
+			{
+				// No more room in the connection
+				if ( fileChannel.size() > transferred )
+					return;
+
+				// The file is shorter than when the transfer started
+				break;
+			}
+
+			transferred += tmpTransferred;
+			percent = (int) ( ( transferred * 100 ) / size );
+			bCounter.addBytes( tmpTransferred );
+			updateChunks++;
+			chunks++;
+
+			if ( percent > updatedPercent || updateChunks >= CHUNKS_PER_UPDATE )
+			{
+				updateChunks = 0;
+				updatedPercent = percent;
+				listener.transferUpdate();
+			}
 		}
 
+		finish( transferred == file.length() );
+	}
+
+	/**
+	 * Finishes connecting, and starts the file transfer.
+	 * Tries to connect again if the connection failed.
+	 *
+	 * @param key The selection key of the connection.
+	 * @throws IOException If the file transfer could not be started.
+	 */
+	private void finishConnecting( final SelectionKey key ) throws IOException
+	{
 		try
 		{
-			if ( os != null )
-				os.flush();
+			socketChannel.finishConnect();
 		}
 
 		catch ( final IOException e )
 		{
-			LOG.log( Level.SEVERE, e.toString(), e );
+			connectFailed( e );
+			return;
 		}
 
+		startTransfer( key );
+	}
+
+	/**
+	 * Closes the connection and the file, and notifies the listeners,
+	 * unless the file transfer was over already.
+	 *
+	 * @param successful If the whole file was sent.
+	 */
+	private synchronized void finish( final boolean successful )
+	{
+		if ( done || doneListener == null )
+			return;
+
+		done = true;
+		sent = successful && !cancel;
+		stopSender();
+		cleanupConnections();
+
+		if ( sent )
+			listener.statusCompleted();
+
+		// Already notified by cancel()
+		else if ( !cancel )
+			listener.statusFailed();
+
+		doneListener.transferDone( sent );
+	}
+
+	/**
+	 * Sets all connections to null.
+	 */
+	private void cleanupConnections()
+	{
+		fis = null;
+		fileChannel = null;
+		socketChannel = null;
+		handshake = null;
+	}
+
+	/**
+	 * Closes the connection to the user.
+	 */
+	private void stopSender()
+	{
 		try
 		{
-			if ( os != null )
-				os.close();
+			if ( fis != null )
+				fis.close();
 		}
 
 		catch ( final IOException e )
@@ -269,8 +462,11 @@ public class FileSender implements FileTransfer
 
 		try
 		{
-			if ( sock != null )
-				sock.close();
+			if ( socketChannel != null )
+			{
+				channelSelector.unregister( socketChannel );
+				socketChannel.close();
+			}
 		}
 
 		catch ( final IOException e )
@@ -294,11 +490,12 @@ public class FileSender implements FileTransfer
 	 * Cancels the file transfer.
 	 */
 	@Override
-	public void cancel()
+	public synchronized void cancel()
 	{
 		cancel = true;
 		stopSender();
 		listener.statusFailed();
+		finish( false );
 	}
 
 	/**
@@ -411,4 +608,90 @@ public class FileSender implements FileTransfer
 		this.listener = listener;
 		listener.statusWaiting();
 	}
+
+	/**
+	 * Connects to the user from the timer.
+	 */
+	private class ConnectTask extends TimerTask
+	{
+		/**
+		 * Starts connecting, unless the transfer was canceled while waiting.
+		 */
+		@Override
+		public void run()
+		{
+			// Don't stop the shared timer
+			try
+			{
+				connect();
+			}
+
+			catch ( final RuntimeException e )
+			{
+				LOG.log( Level.SEVERE, e.toString(), e );
+			}
+		}
+	}
+
+	/**
+	 * Moves the file transfer forward in the selector thread,
+	 * every time the connection is ready.
+	 */
+	private class SendHandler implements ChannelHandler
+	{
+		/**
+		 * Finishes connecting, does the resume handshake if needed,
+		 * and sends as much of the file as the connection takes.
+		 *
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void channelReady( final SelectionKey key )
+		{
+			synchronized ( FileSender.this )
+			{
+				if ( done )
+					return;
+
+				try
+				{
+					if ( key.isConnectable() )
+					{
+						finishConnecting( key );
+					}
+
+					// Reading the checksum from the receiver
+					else if ( handshake != null && key.isReadable() )
+					{
+						if ( ResumeHandshake.readLong( socketChannel, handshake ) )
+						{
+							verifyResume( handshake.getLong( 0 ) );
+							key.interestOps( SelectionKey.OP_WRITE );
+						}
+					}
+
+					// Writing where the transfer starts
+					else if ( handshake != null && key.isWritable() )
+					{
+						if ( ResumeHandshake.writeLong( socketChannel, handshake ) )
+						{
+							startSending();
+							sendChunks();
+						}
+					}
+
+					else if ( key.isWritable() )
+					{
+						sendChunks();
+					}
+				}
+
+				catch ( final IOException e )
+				{
+					LOG.log( Level.SEVERE, e.toString() );
+					finish( false );
+				}
+			}
+		}
+	}
 }
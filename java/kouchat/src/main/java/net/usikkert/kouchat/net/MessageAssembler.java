@@ -0,0 +1,294 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Puts together chat messages that were sent as several fragments.
+ *
+ * <p>The fragments of each message are kept until all of them have arrived.
+ * Messages still missing fragments after the timeout are dropped, and so are
+ * the oldest messages when the fragments waiting take up more than the
+ * max number of characters. Old messages are dropped when new
+ * fragments arrive, so no thread of its own is needed.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MessageAssembler
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( MessageAssembler.class.getName() );
+
+	/** The max number of fragments in one message. */
+	public static final int MAX_FRAGMENTS = 64;
+
+	/**
+	 * The flag after the type of fragments with a text ending in whitespace.
+	 * The whitespace at the end of a message is removed when it's received,
+	 * so the text of those fragments is sent with {@link #TERMINATOR} after it.
+	 */
+	public static final String TERMINATOR_FLAG = "+t";
+
+	/** The character after the text of fragments with the {@link #TERMINATOR_FLAG}. */
+	public static final char TERMINATOR = '.';
+
+	/** The messages waiting for more fragments, oldest first. */
+	private final LinkedHashMap<Long, PartialMessage> partialMessages;
+
+	/** Milliseconds to wait for all the fragments of a message. */
+	private final long timeout;
+
+	/** The max number of characters in the fragments waiting. */
+	private final int maxChars;
+
+	/** The number of characters in the fragments waiting. */
+	private int waitingChars;
+
+	/** The number of messages dropped before all the fragments arrived. */
+	private long droppedCount;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param timeout Milliseconds to wait for all the fragments of a message.
+	 * @param maxChars The max number of characters in the fragments waiting.
+	 */
+	public MessageAssembler( final long timeout, final int maxChars )
+	{
+		Validate.isTrue( timeout > 0, "Timeout must be positive" );
+		Validate.isTrue( maxChars > 0, "Max characters must be positive" );
+
+		this.timeout = timeout;
+		this.maxChars = maxChars;
+		partialMessages = new LinkedHashMap<Long, PartialMessage>();
+	}
+
+	/**
+	 * Adds a fragment of a message. Returns the complete message
+	 * if this was the last fragment missing.
+	 *
+	 * <p>Fragments with an invalid index or count, and fragments
+	 * that have already arrived, are ignored.</p>
+	 *
+	 * @param code The user code of the sender.
+	 * @param id The id of the message, unique for the sender.
+	 * @param index The position of the fragment in the message, starting at 0.
+	 * @param count The number of fragments in the message.
+	 * @param text The text of the fragment.
+	 * @param now The current time, in milliseconds.
+	 * @return The complete message, or <code>null</code> if fragments are still missing.
+	 */
+	public String addFragment( final int code, final int id, final int index, final int count,
+			final String text, final long now )
+	{
+		dropExpired( now );
+
+		if ( count < 1 || count > MAX_FRAGMENTS || index < 0 || index >= count )
+		{
+			LOG.log( Level.WARNING, "Invalid fragment " + index + " of " + count + " from " + code );
+			return null;
+		}
+
+		Long key = createKey( code, id );
+		PartialMessage message = partialMessages.get( key );
+
+		if ( message == null )
+		{
+			if ( count == 1 )
+				return text;
+
+			message = new PartialMessage( count, now );
+			partialMessages.put( key, message );
+		}
+
+		else if ( message.fragments.length != count || message.fragments[index] != null )
+		{
+			LOG.log( Level.FINE, "Ignoring fragment " + index + " of " + count + " from " + code );
+			return null;
+		}
+
+		message.fragments[index] = text;
+		message.received++;
+		message.chars += text.length();
+		waitingChars += text.length();
+
+		if ( message.received == count )
+		{
+			partialMessages.remove( key );
+			waitingChars -= message.chars;
+
+			return message.join();
+		}
+
+		dropOldest();
+
+		return null;
+	}
+
+	/**
+	 * Gets the number of messages waiting for more fragments.
+	 *
+	 * @return The number of messages waiting.
+	 */
+	public int getWaitingCount()
+	{
+		return partialMessages.size();
+	}
+
+	/**
+	 * Gets the number of characters in the fragments waiting.
+	 *
+	 * @return The number of characters waiting.
+	 */
+	public int getWaitingChars()
+	{
+		return waitingChars;
+	}
+
+	/**
+	 * Gets the number of messages dropped before all the fragments arrived.
+	 *
+	 * @return The number of dropped messages.
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 * Drops the messages that have waited longer than the timeout.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	private void dropExpired( final long now )
+	{
+		Iterator<PartialMessage> iterator = partialMessages.values().iterator();
+
+		while ( iterator.hasNext() )
+		{
+			PartialMessage message = iterator.next();
+
+			if ( now - message.started < timeout )
+				break;
+
+			LOG.log( Level.FINE, "Fragments timed out: " + message.received + " of " + message.fragments.length );
+			drop( iterator, message );
+		}
+	}
+
+	/**
+	 * Drops the oldest messages until the fragments waiting
+	 * take up no more than the max number of characters.
+	 */
+	private void dropOldest()
+	{
+		Iterator<PartialMessage> iterator = partialMessages.values().iterator();
+
+		while ( waitingChars > maxChars && iterator.hasNext() )
+		{
+			PartialMessage message = iterator.next();
+			LOG.log( Level.WARNING, "Too many fragments waiting, dropping the oldest message" );
+			drop( iterator, message );
+		}
+	}
+
+	/**
+	 * Removes the message from the waiting messages.
+	 *
+	 * @param iterator The iterator over the waiting messages, at the message.
+	 * @param message The message to drop.
+	 */
+	private void drop( final Iterator<PartialMessage> iterator, final PartialMessage message )
+	{
+		iterator.remove();
+		waitingChars -= message.chars;
+		droppedCount++;
+	}
+
+	/**
+	 * Creates the key of a message from the user code of
+	 * the sender and the id of the message.
+	 *
+	 * @param code The user code of the sender.
+	 * @param id The id of the message.
+	 * @return The key.
+	 */
+	private static Long createKey( final int code, final int id )
+	{
+		return ( (long) code << 32 ) | ( id & 0xffffffffL );
+	}
+
+	/**
+	 * A message waiting for more fragments.
+	 */
+	private static final class PartialMessage
+	{
+		/** The text of the fragments, or <code>null</code> for the missing fragments. */
+		private final String[] fragments;
+
+		/** When the first fragment arrived. */
+		private final long started;
+
+		/** The number of fragments received. */
+		private int received;
+
+		/** The number of characters in the fragments received. */
+		private int chars;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param count The number of fragments in the message.
+		 * @param started When the first fragment arrived.
+		 */
+		private PartialMessage( final int count, final long started )
+		{
+			fragments = new String[count];
+			this.started = started;
+		}
+
+		/**
+		 * Puts the fragments together.
+		 *
+		 * @return The complete message.
+		 */
+		private String join()
+		{
+			StringBuilder message = new StringBuilder( chars );
+
+			for ( String fragment : fragments )
+			{
+				message.append( fragment );
+			}
+
+			return message.toString();
+		}
+	}
+}
@@ -0,0 +1,665 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DatagramListener;
+import net.usikkert.kouchat.event.ReceiverListener;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * A bounded queue between the network receivers and the message parsers.
+ *
+ * <p>The receivers only copy the received bytes into a free slot in the queue,
+ * and go straight back to the socket. A separate thread gives the bytes
+ * to the parsers, which decode only what they need. This way a slow parser, like when the user
+ * interface is busy, does not stop the receivers from emptying the socket
+ * while the kernel drops packets.</p>
+ *
+ * <p>The queue is a ring buffer with room for a fixed number of packets,
+ * allocated once. What happens when the queue is full is decided
+ * by the {@link OverflowPolicy}. Receivers running on the {@link ChannelSelector}
+ * thread must never block, so for them {@link OverflowPolicy#BLOCK} works
+ * like {@link OverflowPolicy#DROP_CHAT_KEEP_CONTROL}.</p>
+ *
+ * <p>Packets that arrive more than once from the same ip address within
+ * a short time are dropped by the {@link DuplicateFilter} before they take
+ * a place in the queue. Packets with a sequence number are not filtered,
+ * as the {@link SequenceTracker} already finds the repeats of those.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MessageDispatcher implements Runnable
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( MessageDispatcher.class.getName() );
+
+	/** The size of the hash tables of the duplicate filter. */
+	private static final int DUPLICATE_FILTER_SIZE = 1024;
+
+	/** The max number of messages in the queue. */
+	private final int capacity;
+
+	/** The bytes of all the messages in the queue, one packet size per slot. */
+	private final byte[] slots;
+
+	/** The number of bytes in the message of each slot. */
+	private final int[] lengths;
+
+	/** The ip address of the sender of each slot. */
+	private final String[] ipAddresses;
+
+	/** The listener to give the message in each slot to. */
+	private final DatagramListener[] targets;
+
+	/** The message being given to a listener, copied out of the queue. */
+	private final byte[] workBuffer;
+
+	/** Decodes the message in the work buffer, for listeners that want a string. */
+	private final DatagramDecoder workDecoder;
+
+	/** Finds packets that arrive more than once. */
+	private final DuplicateFilter duplicateFilter;
+
+	/** What to do when the queue is full. */
+	private volatile OverflowPolicy overflowPolicy;
+
+	/** The slot of the oldest message in the queue. */
+	private int head;
+
+	/** The number of messages in the queue. */
+	private int count;
+
+	/** The highest number of messages in the queue since the counters were reset. */
+	private int peakCount;
+
+	/** The number of messages given to the listeners. */
+	private long dispatchedMessages;
+
+	/** The number of messages dropped because the queue was full. */
+	private long droppedMessages;
+
+	/** The number of chat messages dropped because the queue was full. */
+	private long droppedChatMessages;
+
+	/** The number of repeated messages dropped by the duplicate filter. */
+	private long suppressedDuplicates;
+
+	/** The thread giving the messages to the listeners. */
+	private Thread worker;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @see Constants#NETWORK_DISPATCH_QUEUE_SIZE
+	 */
+	public MessageDispatcher()
+	{
+		this( Constants.NETWORK_DISPATCH_QUEUE_SIZE, OverflowPolicy.DROP_CHAT_KEEP_CONTROL );
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity The max number of messages in the queue.
+	 * @param overflowPolicy What to do when the queue is full.
+	 */
+	public MessageDispatcher( final int capacity, final OverflowPolicy overflowPolicy )
+	{
+		Validate.isTrue( capacity > 0, "Capacity must be more than 0" );
+		Validate.notNull( overflowPolicy, "Overflow policy can not be null" );
+
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+
+		slots = new byte[capacity * Constants.NETWORK_PACKET_SIZE];
+		lengths = new int[capacity];
+		ipAddresses = new String[capacity];
+		targets = new DatagramListener[capacity];
+		workBuffer = new byte[Constants.NETWORK_PACKET_SIZE];
+		workDecoder = new DatagramDecoder( workBuffer );
+		duplicateFilter = new DuplicateFilter( DUPLICATE_FILTER_SIZE, Constants.NETWORK_DUPLICATE_WINDOW );
+	}
+
+	/**
+	 * Creates a listener for a receiver, which puts the datagrams in the queue
+	 * to be given to the target listener by the dispatcher thread.
+	 * The messages are decoded before they are given to the target.
+	 *
+	 * @param target The listener to give the messages to.
+	 * @return A listener to register with a receiver.
+	 */
+	public DatagramListener createListener( final ReceiverListener target )
+	{
+		Validate.notNull( target, "Target listener can not be null" );
+
+		return createListener( new DecodingListener( target ), true );
+	}
+
+	/**
+	 * Creates a listener for a receiver, which puts the datagrams in the queue
+	 * to be given to the target listener by the dispatcher thread.
+	 * The target gets the bytes of the messages, which are only
+	 * valid during the call.
+	 *
+	 * @param target The listener to give the messages to.
+	 * @param mayBlock If the receiver can wait for room in the queue. Use <code>false</code>
+	 *                 for receivers running on the {@link ChannelSelector} thread.
+	 * @return A listener to register with a receiver.
+	 */
+	public DatagramListener createListener( final DatagramListener target, final boolean mayBlock )
+	{
+		Validate.notNull( target, "Target listener can not be null" );
+
+		return new DatagramListener()
+		{
+			@Override
+			public void datagramArrived( final byte[] data, final int offset, final int length, final String ipAddress )
+			{
+				dispatch( data, offset, length, ipAddress, target, mayBlock );
+			}
+		};
+	}
+
+	/**
+	 * Copies the datagram into the queue, applying the overflow policy if the queue is full.
+	 * Repeats of datagrams without a sequence number that just arrived
+	 * from the same ip address are dropped.
+	 *
+	 * @param data The buffer containing the datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @param ipAddress The ip address of the sender.
+	 * @param target The listener to give the message to.
+	 * @param mayBlock If the caller can wait for room in the queue.
+	 * @return If the message was added to the queue.
+	 */
+	public synchronized boolean dispatch( final byte[] data, final int offset, final int length,
+			final String ipAddress, final DatagramListener target, final boolean mayBlock )
+	{
+		if ( !isSequenced( data, offset, length )
+				&& duplicateFilter.isDuplicate( ipAddress, data, offset, length, System.currentTimeMillis() ) )
+		{
+			suppressedDuplicates++;
+			return false;
+		}
+
+		if ( count == capacity && !makeRoom( data, offset, length, mayBlock ) )
+			return false;
+
+		int slot = ( head + count ) % capacity;
+		int size = Math.min( length, Constants.NETWORK_PACKET_SIZE );
+		System.arraycopy( data, offset, slots, slot * Constants.NETWORK_PACKET_SIZE, size );
+		lengths[slot] = size;
+		ipAddresses[slot] = ipAddress;
+		targets[slot] = target;
+		count++;
+
+		if ( count > peakCount )
+			peakCount = count;
+
+		notifyAll();
+
+		return true;
+	}
+
+	/**
+	 * Makes room for a new message in the full queue, as specified by the overflow policy.
+	 *
+	 * @param data The buffer containing the new datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @param mayBlock If the caller can wait for room in the queue.
+	 * @return If there is room for the new message, or <code>false</code> if it was dropped.
+	 */
+	private boolean makeRoom( final byte[] data, final int offset, final int length, final boolean mayBlock )
+	{
+		switch ( overflowPolicy )
+		{
+			case BLOCK :
+				if ( !mayBlock )
+					return dropChatKeepControl( data, offset, length );
+
+				while ( count == capacity && worker != null && overflowPolicy == OverflowPolicy.BLOCK )
+				{
+					try
+					{
+						wait();
+					}
+
+					catch ( final InterruptedException e )
+					{
+						LOG.log( Level.FINE, e.toString() );
+						break;
+					}
+				}
+
+				if ( count < capacity )
+					return true;
+
+				// The policy was changed while waiting
+				else if ( overflowPolicy != OverflowPolicy.BLOCK )
+					return makeRoom( data, offset, length, mayBlock );
+
+				// Nobody is emptying the queue
+				countDropped( isChatMessage( data, offset, length ) );
+				return false;
+
+			case DROP_CHAT_KEEP_CONTROL :
+				return dropChatKeepControl( data, offset, length );
+
+			default :
+				dropOldest();
+				return true;
+		}
+	}
+
+	/**
+	 * Makes room for a new control message by dropping the oldest chat message,
+	 * or the oldest message if there are only control messages in the queue.
+	 * A new chat message is dropped.
+	 *
+	 * @param data The buffer containing the new datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @return If there is room for the new message, or <code>false</code> if it was dropped.
+	 */
+	private boolean dropChatKeepControl( final byte[] data, final int offset, final int length )
+	{
+		if ( isChatMessage( data, offset, length ) )
+		{
+			countDropped( true );
+			return false;
+		}
+
+		int chatSlot = findOldestChatMessage();
+
+		if ( chatSlot != -1 )
+		{
+			removeSlot( chatSlot );
+			countDropped( true );
+			return true;
+		}
+
+		dropOldest();
+		return true;
+	}
+
+	/**
+	 * Drops the oldest message in the queue.
+	 */
+	private void dropOldest()
+	{
+		countDropped( isChatMessage( slots, head * Constants.NETWORK_PACKET_SIZE, lengths[head] ) );
+		clearSlot( head );
+		head = ( head + 1 ) % capacity;
+		count--;
+	}
+
+	/**
+	 * Finds the slot of the oldest chat message in the queue.
+	 *
+	 * @return The slot, or -1 if there are no chat messages in the queue.
+	 */
+	private int findOldestChatMessage()
+	{
+		for ( int i = 0; i < count; i++ )
+		{
+			int slot = ( head + i ) % capacity;
+
+			if ( isChatMessage( slots, slot * Constants.NETWORK_PACKET_SIZE, lengths[slot] ) )
+				return slot;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Removes the message in a slot by moving all the newer messages one slot back.
+	 *
+	 * @param slot The slot to remove.
+	 */
+	private void removeSlot( final int slot )
+	{
+		int current = slot;
+		int last = ( head + count - 1 ) % capacity;
+
+		while ( current != last )
+		{
+			int next = ( current + 1 ) % capacity;
+			System.arraycopy( slots, next * Constants.NETWORK_PACKET_SIZE,
+					slots, current * Constants.NETWORK_PACKET_SIZE, lengths[next] );
+			lengths[current] = lengths[next];
+			ipAddresses[current] = ipAddresses[next];
+			targets[current] = targets[next];
+			current = next;
+		}
+
+		clearSlot( last );
+		count--;
+	}
+
+	/**
+	 * Removes the references from a slot that is no longer in use.
+	 *
+	 * @param slot The slot to clear.
+	 */
+	private void clearSlot( final int slot )
+	{
+		ipAddresses[slot] = null;
+		targets[slot] = null;
+	}
+
+	/**
+	 * Updates the counters of dropped messages.
+	 *
+	 * @param chat If the dropped message was a chat message.
+	 */
+	private void countDropped( final boolean chat )
+	{
+		droppedMessages++;
+
+		if ( chat )
+			droppedChatMessages++;
+
+		if ( LOG.isLoggable( Level.FINE ) )
+			LOG.log( Level.FINE, "Queue full, dropped message number " + droppedMessages );
+	}
+
+	/**
+	 * Takes the oldest message from the queue, and gives it to the listener.
+	 * Waits for new messages when the queue is empty.
+	 */
+	@Override
+	public void run()
+	{
+		while ( true )
+		{
+			DatagramListener target = null;
+			String ipAddress = null;
+			int length = 0;
+
+			synchronized ( this )
+			{
+				while ( count == 0 && worker == Thread.currentThread() )
+				{
+					try
+					{
+						wait();
+					}
+
+					catch ( final InterruptedException e )
+					{
+						LOG.log( Level.FINE, e.toString() );
+					}
+				}
+
+				if ( worker != Thread.currentThread() )
+					break;
+
+				// The slot can be reused as soon as the lock is released
+				length = lengths[head];
+				System.arraycopy( slots, head * Constants.NETWORK_PACKET_SIZE, workBuffer, 0, length );
+				ipAddress = ipAddresses[head];
+				target = targets[head];
+				clearSlot( head );
+				head = ( head + 1 ) % capacity;
+				count--;
+				dispatchedMessages++;
+
+				// Wake up any blocked receivers
+				notifyAll();
+			}
+
+			try
+			{
+				target.datagramArrived( workBuffer, 0, length, ipAddress );
+			}
+
+			// Don't let a failing listener stop all the other messages
+			catch ( final RuntimeException e )
+			{
+				LOG.log( Level.SEVERE, e.toString(), e );
+			}
+		}
+
+		LOG.log( Level.FINE, "Stopped." );
+	}
+
+	/**
+	 * Starts the thread giving the messages to the listeners, if not already started.
+	 */
+	public synchronized void start()
+	{
+		if ( worker == null )
+		{
+			LOG.log( Level.FINE, "Starting." );
+			worker = new Thread( this, "MessageDispatcherWorker" );
+			worker.setDaemon( true );
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the thread giving the messages to the listeners.
+	 * Messages still in the queue are kept until the thread is started again.
+	 */
+	public synchronized void stop()
+	{
+		worker = null;
+		notifyAll();
+	}
+
+	/**
+	 * Checks if the message in the datagram is a chat message.
+	 *
+	 * @param data The buffer containing the datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @return If the message type is one of the chat message types.
+	 */
+	static boolean isChatMessage( final byte[] data, final int offset, final int length )
+	{
+		int end = offset + length;
+		int typeStart = offset;
+
+		while ( typeStart < end && data[typeStart] != '!' )
+			typeStart++;
+
+		typeStart++;
+		int typeEnd = typeStart;
+
+		while ( typeEnd < end && data[typeEnd] != '#' && data[typeEnd] != '+' )
+			typeEnd++;
+
+		if ( typeEnd >= end )
+			return false;
+
+		MessageType type = MessageType.lookup( data, typeStart, typeEnd - typeStart );
+
+		return type == MessageType.MSG || type == MessageType.MSGPART || type == MessageType.PRIVMSG;
+	}
+
+	/**
+	 * Checks if the message in the datagram has a sequence number,
+	 * marked with {@link RetransmitBuffer#SEQUENCE_FLAG} after the type.
+	 *
+	 * @param data The buffer containing the datagram.
+	 * @param offset Where in the buffer the datagram starts.
+	 * @param length The number of bytes in the datagram.
+	 * @return If the message has a sequence number.
+	 */
+	static boolean isSequenced( final byte[] data, final int offset, final int length )
+	{
+		int end = offset + length;
+		int flagStart = offset;
+
+		while ( flagStart < end && data[flagStart] != '!' )
+			flagStart++;
+
+		for ( ; flagStart < end - 1 && data[flagStart] != '#'; flagStart++ )
+		{
+			if ( data[flagStart] == RetransmitBuffer.SEQUENCE_FLAG.charAt( 0 )
+					&& data[flagStart + 1] == RetransmitBuffer.SEQUENCE_FLAG.charAt( 1 ) )
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the max number of messages in the queue.
+	 *
+	 * @return The capacity of the queue.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of messages waiting in the queue.
+	 *
+	 * @return The queue depth.
+	 */
+	public synchronized int getQueueDepth()
+	{
+		return count;
+	}
+
+	/**
+	 * Gets the highest number of messages in the queue since the counters were reset.
+	 *
+	 * @return The peak queue depth.
+	 */
+	public synchronized int getPeakQueueDepth()
+	{
+		return peakCount;
+	}
+
+	/**
+	 * Gets the number of messages given to the listeners.
+	 *
+	 * @return The number of dispatched messages.
+	 */
+	public synchronized long getDispatchedMessages()
+	{
+		return dispatchedMessages;
+	}
+
+	/**
+	 * Gets the number of messages dropped because the queue was full.
+	 *
+	 * @return The number of dropped messages.
+	 */
+	public synchronized long getDroppedMessages()
+	{
+		return droppedMessages;
+	}
+
+	/**
+	 * Gets the number of chat messages dropped because the queue was full.
+	 *
+	 * @return The number of dropped chat messages.
+	 */
+	public synchronized long getDroppedChatMessages()
+	{
+		return droppedChatMessages;
+	}
+
+	/**
+	 * Gets the number of repeated messages dropped by the duplicate filter.
+	 *
+	 * @return The number of suppressed duplicates.
+	 */
+	public synchronized long getSuppressedDuplicates()
+	{
+		return suppressedDuplicates;
+	}
+
+	/**
+	 * Resets the peak queue depth, and the counters of dispatched, dropped
+	 * and suppressed messages.
+	 */
+	public synchronized void resetCounters()
+	{
+		peakCount = count;
+		dispatchedMessages = 0;
+		droppedMessages = 0;
+		droppedChatMessages = 0;
+		suppressedDuplicates = 0;
+	}
+
+	/**
+	 * Gets what to do when the queue is full.
+	 *
+	 * @return The overflow policy.
+	 */
+	public OverflowPolicy getOverflowPolicy()
+	{
+		return overflowPolicy;
+	}
+
+	/**
+	 * Sets what to do when the queue is full.
+	 *
+	 * @param overflowPolicy The new overflow policy.
+	 */
+	public synchronized void setOverflowPolicy( final OverflowPolicy overflowPolicy )
+	{
+		Validate.notNull( overflowPolicy, "Overflow policy can not be null" );
+		this.overflowPolicy = overflowPolicy;
+
+		// Let any blocked receivers try again with the new policy
+		notifyAll();
+	}
+
+	/**
+	 * Decodes the messages in the work buffer for a listener that wants strings.
+	 * Only used from the dispatcher thread.
+	 */
+	private final class DecodingListener implements DatagramListener
+	{
+		/** The listener to give the decoded messages to. */
+		private final ReceiverListener target;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param target The listener to give the decoded messages to.
+		 */
+		private DecodingListener( final ReceiverListener target )
+		{
+			this.target = target;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void datagramArrived( final byte[] data, final int offset, final int length, final String ipAddress )
+		{
+			target.messageArrived( workDecoder.decodeMessage( offset, length ), ipAddress );
+		}
+	}
+}
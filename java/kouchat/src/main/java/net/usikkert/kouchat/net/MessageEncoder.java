@@ -0,0 +1,41 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+/**
+ * Creates the body of messages of a single {@link MessageType}.
+ * The body is the part of the message after the <code>:</code>.
+ *
+ * <p>Encoders are registered in a {@link MessageRegistry}.</p>
+ *
+ * @author Christian Ihle
+ */
+public interface MessageEncoder
+{
+	/**
+	 * Creates the body of a message from the fields.
+	 *
+	 * @param fields The fields of the message, in the order specified by the encoder.
+	 * @return The body of the message.
+	 */
+	String encode( Object... fields );
+}
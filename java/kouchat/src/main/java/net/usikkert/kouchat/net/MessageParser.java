@@ -21,17 +21,28 @@
 
 package net.usikkert.kouchat.net;
 
+import java.util.Random;
+import java.util.Timer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import net.usikkert.kouchat.event.ReceiverListener;
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DatagramListener;
+import net.usikkert.kouchat.event.MissingMessageListener;
 import net.usikkert.kouchat.misc.Settings;
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * This class listens for multicast messages from the network,
  * and parses them into a format the {@link MessageResponder} can use.
  *
+ * <p>The messages are parsed directly from the received bytes with a
+ * {@link MessageReader}, and only the fields used by the responder
+ * are decoded into strings. Messages from other users are given to the
+ * {@link MessageHandler} registered for the message type in the
+ * {@link MessageRegistry}.</p>
+ *
  * <p>The supported message types:</p>
  *
  * <ul>
@@ -53,11 +64,16 @@ import net.usikkert.kouchat.misc.User;
  *   <li>SENDFILEABORT</li>
  *   <li>SENDFILE</li>
  *   <li>CLIENT</li>
+ *   <li>MSGPART</li>
+ *   <li>NACK</li>
  * </ul>
  *
+ * <p>Messages with a sequence number that already arrived are dropped, and
+ * missing messages are reported by the {@link SequenceTracker}.</p>
+ *
  * @author Christian Ihle
  */
-public class MessageParser implements ReceiverListener
+public class MessageParser implements DatagramListener
 {
 	/** The logger. */
 	private static final Logger LOG = Logger.getLogger( MessageParser.class.getName() );
@@ -65,9 +81,24 @@ public class MessageParser implements ReceiverListener
 	/** To handle the different kind of messages parsed here. */
 	private final MessageResponder responder;
 
+	/** The handlers of the messages from other users. */
+	private final MessageRegistry registry;
+
 	/** The application settings. */
 	private final Settings settings;
 
+	/** Reads the fields of the messages. */
+	private final MessageReader reader;
+
+	/** Puts together chat messages sent as fragments. */
+	private final MessageAssembler assembler;
+
+	/** Keeps track of the sequence numbers of the messages from each user. */
+	private final SequenceTracker sequenceTracker;
+
+	/** Decompresses chat messages sent as compressed fragments. Created when first needed. */
+	private PayloadCompressor compressor;
+
 	/** If logged on to the chat or not. */
 	private boolean loggedOn;
 
@@ -78,253 +109,587 @@ public class MessageParser implements ReceiverListener
 	 */
 	public MessageParser( final MessageResponder responder )
 	{
+		this( responder, new MessageRegistry(), null );
+	}
+
+	/**
+	 * Constructor. Registers handlers for the supported message types.
+	 *
+	 * @param responder To handle the different kind of messages parsed here.
+	 * @param registry The registry to add the handlers to.
+	 * @param timer The timer to report missing messages with, or <code>null</code>
+	 *              to not report them.
+	 */
+	public MessageParser( final MessageResponder responder, final MessageRegistry registry, final Timer timer )
+	{
+		Validate.notNull( registry, "Message registry can not be null" );
+
 		this.responder = responder;
+		this.registry = registry;
 		settings = Settings.getSettings();
+		reader = new MessageReader();
+		assembler = new MessageAssembler( Constants.NETWORK_REASSEMBLY_TIMEOUT,
+				Constants.NETWORK_REASSEMBLY_BUFFER_SIZE );
+
+		sequenceTracker = new SequenceTracker( new MissingMessageListener()
+		{
+			@Override
+			public void messageMissing( final int userCode, final int sequence )
+			{
+				responder.messageMissing( userCode, sequence );
+			}
+		}, new Random(), timer, Constants.NETWORK_NACK_MIN_DELAY, Constants.NETWORK_NACK_MAX_DELAY );
+
+		registerHandlers();
 	}
 
 	/**
-	 * The parser. Checks what kind of message it is,
-	 * and then gives the correct data to the responder for
-	 * more processing.
+	 * The parser. Checks who sent the message, and then gives it to
+	 * the handler for the message type, or to the responder if it
+	 * was sent by this client.
 	 *
-	 * @param message The raw message to parse.
+	 * @param data The buffer containing the raw message to parse.
+	 * @param offset Where in the buffer the message starts.
+	 * @param length The number of bytes in the message.
 	 * @param ipAddress The IP address of the user who sent the message.
 	 */
 	@Override
-	public void messageArrived( final String message, final String ipAddress )
+	public void datagramArrived( final byte[] data, final int offset, final int length, final String ipAddress )
 	{
 		try
 		{
-			int exclamation = message.indexOf( "!" );
-			int hash = message.indexOf( "#" );
-			int colon = message.indexOf( ":" );
-
-			int msgCode = Integer.parseInt( message.substring( 0, exclamation ) );
-			String type = message.substring( exclamation + 1, hash );
-			String msgNick = message.substring( hash + 1, colon );
-			String msg = message.substring( colon + 1, message.length() );
+			reader.read( data, offset, length );
 
+			int msgCode = reader.getCode();
+			MessageType type = reader.getType();
 			User tempme = settings.getMe();
 
 			if ( msgCode != tempme.getCode() && loggedOn )
 			{
-				if ( type.equals( "MSG" ) )
-				{
-					int leftBracket = msg.indexOf( "[" );
-					int rightBracket = msg.indexOf( "]" );
-					int rgb = Integer.parseInt( msg.substring( leftBracket + 1, rightBracket ) );
+				if ( isFirstArrival( msgCode ) )
+					registry.handle( reader, ipAddress );
+			}
 
-					responder.messageArrived( msgCode, msg.substring( rightBracket + 1, msg.length() ), rgb );
-				}
+			else if ( msgCode == tempme.getCode() && type == MessageType.LOGON )
+			{
+				responder.meLogOn( ipAddress );
+				loggedOn = true;
+			}
 
-				else if ( type.equals( "LOGON" ) )
-				{
-					User newUser = new User( msgNick, msgCode );
-					newUser.setIpAddress( ipAddress );
-					newUser.setLastIdle( System.currentTimeMillis() );
-					newUser.setLogonTime( System.currentTimeMillis() );
+			else if ( msgCode == tempme.getCode() && type == MessageType.IDLE && loggedOn )
+			{
+				responder.meIdle( ipAddress );
+			}
+		}
 
-					responder.userLogOn( newUser );
-				}
+		catch ( final StringIndexOutOfBoundsException e )
+		{
+			LOG.log( Level.SEVERE, e.toString(), e );
+		}
 
-				else if ( type.equals( "EXPOSING" ) )
-				{
-					User user = new User( msgNick, msgCode );
-					user.setIpAddress( ipAddress );
-					user.setAwayMsg( msg );
+		catch ( final NumberFormatException e )
+		{
+			LOG.log( Level.SEVERE, e.toString(), e );
+		}
+	}
 
-					if ( msg.length() > 0 )
-						user.setAway( true );
+	/**
+	 * Checks if this is the first time the message arrived.
+	 * Messages without a sequence number always are.
+	 *
+	 * @param msgCode The user code of the sender.
+	 * @return If the message has not arrived before.
+	 */
+	private boolean isFirstArrival( final int msgCode )
+	{
+		int sequence = reader.getSequence();
 
-					user.setLastIdle( System.currentTimeMillis() );
-					user.setLogonTime( System.currentTimeMillis() );
+		if ( sequence == -1 || reader.getType() == null )
+			return true;
 
-					responder.userExposing( user );
-				}
+		if ( sequenceTracker.messageArrived( msgCode, sequence, System.currentTimeMillis() ) )
+			return true;
 
-				else if ( type.equals( "LOGOFF" ) )
-				{
-					responder.userLogOff( msgCode );
-				}
+		LOG.log( Level.FINE, "Dropping message " + sequence + " from " + msgCode + " that already arrived" );
 
-				else if ( type.equals( "AWAY" ) )
-				{
-					responder.awayChanged( msgCode, true, msg );
-				}
+		return false;
+	}
 
-				else if ( type.equals( "BACK" ) )
-				{
-					responder.awayChanged( msgCode, false, "" );
-				}
+	/**
+	 * Registers the handlers of the messages from other users.
+	 */
+	private void registerHandlers()
+	{
+		registry.registerHandler( MessageType.MSG, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseMessage( msgReader, msgReader.getCode() );
+			}
+		} );
 
-				else if ( type.equals( "EXPOSE" ) )
-				{
-					responder.exposeRequested();
-				}
+		registry.registerHandler( MessageType.LOGON, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				User newUser = new User( msgReader.getNick(), msgReader.getCode() );
+				newUser.setIpAddress( ipAddress );
+				newUser.setLastIdle( System.currentTimeMillis() );
+				newUser.setLogonTime( System.currentTimeMillis() );
 
-				else if ( type.equals( "NICKCRASH" ) )
-				{
-					if ( tempme.getNick().equals( msg ) )
-					{
-						responder.nickCrash();
-					}
-				}
+				responder.userLogOn( newUser );
+			}
+		} );
 
-				else if ( type.equals( "WRITING" ) )
-				{
-					responder.writingChanged( msgCode, true );
-				}
+		registry.registerHandler( MessageType.EXPOSING, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				User user = new User( msgReader.getNick(), msgReader.getCode() );
+				user.setIpAddress( ipAddress );
+				user.setAwayMsg( msgReader.getString( 0 ) );
 
-				else if ( type.equals( "STOPPEDWRITING" ) )
-				{
-					responder.writingChanged( msgCode, false );
-				}
+				if ( msgReader.getBodyLength() > 0 )
+					user.setAway( true );
 
-				else if ( type.equals( "GETTOPIC" ) )
-				{
-					responder.topicRequested();
-				}
+				user.setLastIdle( System.currentTimeMillis() );
+				user.setLogonTime( System.currentTimeMillis() );
 
-				else if ( type.equals( "TOPIC" ) )
-				{
-					int leftBracket = msg.indexOf( "[" );
-					int rightBracket = msg.indexOf( "]" );
-					int leftPara = msg.indexOf( "(" );
-					int rightPara = msg.indexOf( ")" );
-
-					if ( rightBracket != -1 && leftBracket != -1 )
-					{
-						String theNick = msg.substring( leftPara + 1, rightPara );
-						long theTime = Long.parseLong( msg.substring( leftBracket + 1, rightBracket ) );
-						String theTopic = null;
-
-						if ( msg.length() > rightBracket + 1 )
-						{
-							theTopic = msg.substring( rightBracket + 1, msg.length() );
-						}
-
-						responder.topicChanged( msgCode, theTopic, theNick, theTime );
-					}
-				}
+				responder.userExposing( user );
+			}
+		} );
 
-				else if ( type.equals( "NICK" ) )
-				{
-					responder.nickChanged( msgCode, msgNick );
-				}
+		registry.registerHandler( MessageType.LOGOFF, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				sequenceTracker.removeSender( msgReader.getCode() );
+				responder.userLogOff( msgReader.getCode() );
+			}
+		} );
 
-				else if ( type.equals( "IDLE" ) )
-				{
-					responder.userIdle( msgCode, ipAddress );
-				}
+		registry.registerHandler( MessageType.AWAY, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				responder.awayChanged( msgReader.getCode(), true, msgReader.getString( 0 ) );
+			}
+		} );
 
-				else if ( type.equals( "SENDFILEACCEPT" ) )
-				{
-					int leftPara = msg.indexOf( "(" );
-					int rightPara = msg.indexOf( ")" );
-					int fileCode = Integer.parseInt( msg.substring( leftPara + 1, rightPara ) );
-
-					if ( fileCode == tempme.getCode() )
-					{
-						int leftCurly = msg.indexOf( "{" );
-						int rightCurly = msg.indexOf( "}" );
-						int leftBracket = msg.indexOf( "[" );
-						int rightBracket = msg.indexOf( "]" );
-						int port = Integer.parseInt( msg.substring( leftBracket + 1, rightBracket ) );
-						int fileHash = Integer.parseInt( msg.substring( leftCurly + 1, rightCurly ) );
-						String fileName = msg.substring( rightCurly + 1, msg.length() );
-
-						responder.fileSendAccepted( msgCode, fileName, fileHash, port );
-					}
-				}
+		registry.registerHandler( MessageType.BACK, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				responder.awayChanged( msgReader.getCode(), false, "" );
+			}
+		} );
 
-				else if ( type.equals( "SENDFILEABORT" ) )
-				{
-					int leftPara = msg.indexOf( "(" );
-					int rightPara = msg.indexOf( ")" );
-					int fileCode = Integer.parseInt( msg.substring( leftPara + 1, rightPara ) );
-
-					if ( fileCode == tempme.getCode() )
-					{
-						int leftCurly = msg.indexOf( "{" );
-						int rightCurly = msg.indexOf( "}" );
-						String fileName = msg.substring( rightCurly + 1, msg.length() );
-						int fileHash = Integer.parseInt( msg.substring( leftCurly + 1, rightCurly ) );
-
-						responder.fileSendAborted( msgCode, fileName, fileHash );
-					}
-				}
+		registry.registerHandler( MessageType.EXPOSE, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				responder.exposeRequested();
+			}
+		} );
 
-				else if ( type.equals( "SENDFILE" ) )
+		registry.registerHandler( MessageType.NICKCRASH, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				if ( settings.getMe().getNick().equals( msgReader.getString( 0 ) ) )
 				{
-					int leftPara = msg.indexOf( "(" );
-					int rightPara = msg.indexOf( ")" );
-					int fileCode = Integer.parseInt( msg.substring( leftPara + 1, rightPara ) );
-
-					if ( fileCode == tempme.getCode() )
-					{
-						int leftCurly = msg.indexOf( "{" );
-						int rightCurly = msg.indexOf( "}" );
-						int leftBracket = msg.indexOf( "[" );
-						int rightBracket = msg.indexOf( "]" );
-						long byteSize = Long.parseLong( msg.substring( leftBracket + 1, rightBracket ) );
-						String fileName = msg.substring( rightCurly + 1, msg.length() );
-						int fileHash = Integer.parseInt( msg.substring( leftCurly + 1, rightCurly ) );
-
-						responder.fileSend( msgCode, byteSize, fileName, msgNick, fileHash );
-					}
+					responder.nickCrash();
 				}
+			}
+		} );
 
-				else if ( type.equals( "CLIENT" ) )
-				{
-					int leftPara = msg.indexOf( "(" );
-					int rightPara = msg.indexOf( ")" );
-					int leftBracket = msg.indexOf( "[" );
-					int rightBracket = msg.indexOf( "]" );
-					int leftCurly = msg.indexOf( "{" );
-					int rightCurly = msg.indexOf( "}" );
-					int lessThan = msg.indexOf( "<" );
-					int greaterThan = msg.indexOf( ">" );
-
-					String client = msg.substring( leftPara + 1, rightPara );
-					long timeSinceLogon = Long.parseLong( msg.substring( leftBracket + 1, rightBracket ) );
-					String operatingSystem = msg.substring( leftCurly + 1, rightCurly );
-
-					int privateChatPort = 0;
-
-					try
-					{
-						privateChatPort = Integer.parseInt( msg.substring( lessThan + 1, greaterThan ) );
-					}
-
-					catch ( final NumberFormatException e )
-					{
-						LOG.log( Level.WARNING, e.toString() );
-					}
-
-					responder.clientInfo( msgCode, client, timeSinceLogon, operatingSystem, privateChatPort );
-				}
+		registry.registerHandler( MessageType.WRITING, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				responder.writingChanged( msgReader.getCode(), true );
 			}
+		} );
 
-			else if ( msgCode == tempme.getCode() && type.equals( "LOGON" ) )
+		registry.registerHandler( MessageType.STOPPEDWRITING, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
 			{
-				responder.meLogOn( ipAddress );
-				loggedOn = true;
+				responder.writingChanged( msgReader.getCode(), false );
 			}
+		} );
 
-			else if ( msgCode == tempme.getCode() && type.equals( "IDLE" ) && loggedOn )
+		registry.registerHandler( MessageType.GETTOPIC, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
 			{
-				responder.meIdle( ipAddress );
+				responder.topicRequested();
 			}
+		} );
+
+		registry.registerHandler( MessageType.TOPIC, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseTopic( msgReader, msgReader.getCode() );
+			}
+		} );
+
+		registry.registerHandler( MessageType.NICK, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				responder.nickChanged( msgReader.getCode(), msgReader.getNick() );
+			}
+		} );
+
+		registry.registerHandler( MessageType.IDLE, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseIdle( msgReader, msgReader.getCode(), ipAddress );
+			}
+		} );
+
+		registry.registerHandler( MessageType.SENDFILEACCEPT, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseSendFileAccept( msgReader, msgReader.getCode(), settings.getMe() );
+			}
+		} );
+
+		registry.registerHandler( MessageType.SENDFILEABORT, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseSendFileAbort( msgReader, msgReader.getCode(), settings.getMe() );
+			}
+		} );
+
+		registry.registerHandler( MessageType.SENDFILE, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseSendFile( msgReader, msgReader.getCode(), settings.getMe() );
+			}
+		} );
+
+		registry.registerHandler( MessageType.CLIENT, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseClient( msgReader, msgReader.getCode() );
+			}
+		} );
+
+		registry.registerHandler( MessageType.MSGPART, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseMessagePart( msgReader, msgReader.getCode() );
+			}
+		} );
+
+		registry.registerHandler( MessageType.NACK, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				parseNack( msgReader );
+			}
+		} );
+	}
+
+	/**
+	 * Parses a chat message: <code>[rgb]message</code>.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 */
+	private void parseMessage( final MessageReader msgReader, final int msgCode )
+	{
+		int leftBracket = msgReader.indexOf( '[' );
+		int rightBracket = msgReader.indexOf( ']' );
+		int rgb = msgReader.getInt( leftBracket + 1, rightBracket );
+
+		responder.messageArrived( msgCode, msgReader.getString( rightBracket + 1 ), rgb );
+	}
+
+	/**
+	 * Parses a fragment of a chat message: <code>(id)[index]{count}&lt;rgb&gt;text</code>.
+	 * The chat message is given to the responder when all the fragments have arrived,
+	 * after it's decompressed if the fragments were compressed.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 */
+	private void parseMessagePart( final MessageReader msgReader, final int msgCode )
+	{
+		int leftPara = msgReader.indexOf( '(' );
+		int rightPara = msgReader.indexOf( ')' );
+		int leftBracket = msgReader.indexOf( '[' );
+		int rightBracket = msgReader.indexOf( ']' );
+		int leftCurly = msgReader.indexOf( '{' );
+		int rightCurly = msgReader.indexOf( '}' );
+		int lessThan = msgReader.indexOf( '<' );
+		int greaterThan = msgReader.indexOf( '>' );
+
+		int id = msgReader.getInt( leftPara + 1, rightPara );
+		int index = msgReader.getInt( leftBracket + 1, rightBracket );
+		int count = msgReader.getInt( leftCurly + 1, rightCurly );
+		int rgb = msgReader.getInt( lessThan + 1, greaterThan );
+		String text = msgReader.getString( greaterThan + 1 );
+
+		if ( msgReader.isTerminated() && text.length() > 0 )
+			text = text.substring( 0, text.length() - 1 );
+
+		String message = assembler.addFragment( msgCode, id, index, count, text, System.currentTimeMillis() );
+
+		if ( message != null && msgReader.isCompressed() )
+		{
+			if ( compressor == null )
+				compressor = new PayloadCompressor();
+
+			message = compressor.decompress( message, Constants.MESSAGE_MAX_CHAT_BYTES );
+
+			if ( message == null )
+				LOG.log( Level.WARNING, "Invalid compressed message from " + msgCode );
 		}
 
-		catch ( final StringIndexOutOfBoundsException e )
+		if ( message != null )
+			responder.messageArrived( msgCode, message, rgb );
+	}
+
+	/**
+	 * Parses an idle message: <code>[interval]</code>. Older clients
+	 * send an empty body, and the interval is then unknown.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 * @param ipAddress The IP address of the sender.
+	 */
+	private void parseIdle( final MessageReader msgReader, final int msgCode, final String ipAddress )
+	{
+		int leftBracket = msgReader.indexOf( '[' );
+		int rightBracket = msgReader.indexOf( ']' );
+		int idleInterval = 0;
+
+		if ( leftBracket != -1 && rightBracket != -1 )
+			idleInterval = Math.max( 0, msgReader.getInt( leftBracket + 1, rightBracket ) );
+
+		responder.userIdle( msgCode, ipAddress, idleInterval );
+	}
+
+	/**
+	 * Parses a report of a missing message: <code>(code)[sequence]</code>.
+	 * The message is sent again if it's from the application user. If it's from
+	 * another user, our own report of the same message is postponed.
+	 *
+	 * @param msgReader The reader of the message.
+	 */
+	private void parseNack( final MessageReader msgReader )
+	{
+		int leftPara = msgReader.indexOf( '(' );
+		int rightPara = msgReader.indexOf( ')' );
+		int leftBracket = msgReader.indexOf( '[' );
+		int rightBracket = msgReader.indexOf( ']' );
+
+		int userCode = msgReader.getInt( leftPara + 1, rightPara );
+		int sequence = msgReader.getInt( leftBracket + 1, rightBracket );
+
+		if ( userCode == settings.getMe().getCode() )
+			responder.resendRequested( sequence );
+		else
+			sequenceTracker.missingReported( userCode, sequence, System.currentTimeMillis() );
+	}
+
+	/**
+	 * Parses a topic: <code>(nick)[time]topic</code>.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 */
+	private void parseTopic( final MessageReader msgReader, final int msgCode )
+	{
+		int leftBracket = msgReader.indexOf( '[' );
+		int rightBracket = msgReader.indexOf( ']' );
+		int leftPara = msgReader.indexOf( '(' );
+		int rightPara = msgReader.indexOf( ')' );
+
+		if ( rightBracket != -1 && leftBracket != -1 )
 		{
-			LOG.log( Level.SEVERE, e.toString(), e );
+			String theNick = msgReader.getString( leftPara + 1, rightPara );
+			long theTime = msgReader.getLong( leftBracket + 1, rightBracket );
+			String theTopic = null;
+
+			if ( msgReader.getBodyLength() > rightBracket + 1 )
+			{
+				theTopic = msgReader.getString( rightBracket + 1 );
+			}
+
+			responder.topicChanged( msgCode, theTopic, theNick, theTime );
+		}
+	}
+
+	/**
+	 * Parses an accepted file transfer: <code>(code)[port]{hash}file</code>.
+	 * The sender might have a resume offset in the header, to continue an earlier transfer.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 * @param tempme The application user.
+	 */
+	private void parseSendFileAccept( final MessageReader msgReader, final int msgCode, final User tempme )
+	{
+		int leftPara = msgReader.indexOf( '(' );
+		int rightPara = msgReader.indexOf( ')' );
+		int fileCode = msgReader.getInt( leftPara + 1, rightPara );
+
+		if ( fileCode == tempme.getCode() )
+		{
+			int leftCurly = msgReader.indexOf( '{' );
+			int rightCurly = msgReader.indexOf( '}' );
+			int leftBracket = msgReader.indexOf( '[' );
+			int rightBracket = msgReader.indexOf( ']' );
+			int port = msgReader.getInt( leftBracket + 1, rightBracket );
+			int fileHash = msgReader.getInt( leftCurly + 1, rightCurly );
+			String fileName = msgReader.getString( rightCurly + 1 );
+			long resumeOffset = Math.max( 0, msgReader.getResumeOffset() );
+
+			responder.fileSendAccepted( msgCode, fileName, fileHash, port, resumeOffset );
+		}
+	}
+
+	/**
+	 * Parses an aborted file transfer: <code>(code){hash}file</code>.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 * @param tempme The application user.
+	 */
+	private void parseSendFileAbort( final MessageReader msgReader, final int msgCode, final User tempme )
+	{
+		int leftPara = msgReader.indexOf( '(' );
+		int rightPara = msgReader.indexOf( ')' );
+		int fileCode = msgReader.getInt( leftPara + 1, rightPara );
+
+		if ( fileCode == tempme.getCode() )
+		{
+			int leftCurly = msgReader.indexOf( '{' );
+			int rightCurly = msgReader.indexOf( '}' );
+			String fileName = msgReader.getString( rightCurly + 1 );
+			int fileHash = msgReader.getInt( leftCurly + 1, rightCurly );
+
+			responder.fileSendAborted( msgCode, fileName, fileHash );
+		}
+	}
+
+	/**
+	 * Parses a file transfer request: <code>(code)[size]{hash}file</code>.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 * @param tempme The application user.
+	 */
+	private void parseSendFile( final MessageReader msgReader, final int msgCode, final User tempme )
+	{
+		int leftPara = msgReader.indexOf( '(' );
+		int rightPara = msgReader.indexOf( ')' );
+		int fileCode = msgReader.getInt( leftPara + 1, rightPara );
+
+		if ( fileCode == tempme.getCode() )
+		{
+			int leftCurly = msgReader.indexOf( '{' );
+			int rightCurly = msgReader.indexOf( '}' );
+			int leftBracket = msgReader.indexOf( '[' );
+			int rightBracket = msgReader.indexOf( ']' );
+			long byteSize = msgReader.getLong( leftBracket + 1, rightBracket );
+			String fileName = msgReader.getString( rightCurly + 1 );
+			int fileHash = msgReader.getInt( leftCurly + 1, rightCurly );
+
+			responder.fileSend( msgCode, byteSize, fileName, msgReader.getNick(), fileHash );
+		}
+	}
+
+	/**
+	 * Parses client information: <code>(client)[time]{os}&lt;port&gt;features</code>.
+	 * Old clients don't send the features.
+	 *
+	 * @param msgReader The reader of the message.
+	 * @param msgCode The user code of the sender.
+	 */
+	private void parseClient( final MessageReader msgReader, final int msgCode )
+	{
+		int leftPara = msgReader.indexOf( '(' );
+		int rightPara = msgReader.indexOf( ')' );
+		int leftBracket = msgReader.indexOf( '[' );
+		int rightBracket = msgReader.indexOf( ']' );
+		int leftCurly = msgReader.indexOf( '{' );
+		int rightCurly = msgReader.indexOf( '}' );
+		int lessThan = msgReader.indexOf( '<' );
+		int greaterThan = msgReader.indexOf( '>' );
+
+		String client = msgReader.getString( leftPara + 1, rightPara );
+		long timeSinceLogon = msgReader.getLong( leftBracket + 1, rightBracket );
+		String operatingSystem = msgReader.getString( leftCurly + 1, rightCurly );
+
+		int privateChatPort = 0;
+
+		try
+		{
+			privateChatPort = msgReader.getInt( lessThan + 1, greaterThan );
 		}
 
 		catch ( final NumberFormatException e )
 		{
-			LOG.log( Level.SEVERE, e.toString(), e );
+			LOG.log( Level.WARNING, e.toString() );
 		}
+
+		String features = msgReader.getString( greaterThan + 1 );
+		boolean compressionSupported = hasFeature( features, PayloadCompressor.FEATURE );
+		boolean sequencingSupported = hasFeature( features, RetransmitBuffer.FEATURE );
+		boolean acknowledgingSupported = hasFeature( features, PrivateSendWindow.FEATURE );
+		boolean resumingSupported = hasFeature( features, ResumeHandshake.FEATURE );
+
+		responder.clientInfo( msgCode, client, timeSinceLogon, operatingSystem, privateChatPort,
+				compressionSupported, sequencingSupported, acknowledgingSupported, resumingSupported );
+	}
+
+	/**
+	 * Checks if a feature is in the list of features from the client information.
+	 *
+	 * @param features The features, separated by spaces.
+	 * @param feature The feature to look for.
+	 * @return If the feature is in the list.
+	 */
+	static boolean hasFeature( final String features, final String feature )
+	{
+		for ( String supported : features.split( " " ) )
+		{
+			if ( supported.equals( feature ) )
+				return true;
+		}
+
+		return false;
 	}
 }
@@ -0,0 +1,595 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.Constants;
+
+/**
+ * Reads messages in the format used by {@link Messages} directly from
+ * the received bytes.
+ *
+ * <p>A message looks like this: <code>code!TYPE#nick:body</code>.
+ * The whole message is scanned once, to find the user code, the type,
+ * the nick name and the position of the first bracket of each kind in the body.
+ * Nothing is decoded until a field is asked for, so only the strings
+ * that are actually used are created.</p>
+ *
+ * <p>The positions in the body work the same way as <code>indexOf()</code>
+ * on the body as a string. Invalid positions give a
+ * {@link StringIndexOutOfBoundsException}, and invalid numbers give a
+ * {@link NumberFormatException}, just like <code>substring()</code> and
+ * <code>Integer.parseInt()</code>.</p>
+ *
+ * <p>The type can be followed by flags, each starting with a <code>+</code>.
+ * A compressed body, marked with {@link PayloadCompressor#TYPE_FLAG},
+ * is decompressed into a buffer of the reader, and read from there.
+ * A sequence number is marked with {@link RetransmitBuffer#SEQUENCE_FLAG},
+ * and where to resume a file transfer with {@link ResumeHandshake#RESUME_FLAG}.
+ * Fragments with a text followed by a terminator are marked with
+ * {@link MessageAssembler#TERMINATOR_FLAG}.
+ * Messages with an invalid compressed body, or an unknown flag,
+ * get an unknown type. Fragments are not decompressed, as only
+ * the whole message can be.</p>
+ *
+ * <p>This class is not thread safe, and the data must not change while
+ * the message is being read.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MessageReader
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( MessageReader.class.getName() );
+
+	/** The size of the buffer for decompressed messages. */
+	private static final int INFLATED_SIZE = Constants.NETWORK_PACKET_SIZE + Constants.MESSAGE_MAX_CHAT_BYTES;
+
+	/** The characters to remember the first position of in the body. */
+	private static final String BRACKETS = "()[]{}<>";
+
+	/** The index in {@link #firstBracket} of each bracket character, or -1. */
+	private static final int[] BRACKET_INDEX = new int[128];
+
+	static
+	{
+		for ( int i = 0; i < BRACKET_INDEX.length; i++ )
+		{
+			BRACKET_INDEX[i] = -1;
+		}
+
+		for ( int i = 0; i < BRACKETS.length(); i++ )
+		{
+			BRACKET_INDEX[BRACKETS.charAt( i )] = i;
+		}
+	}
+
+	/** The first position of each bracket character in the body. */
+	private final int[] firstBracket;
+
+	/** The data containing the message. */
+	private byte[] data;
+
+	/** Decodes the fields in the data. */
+	private DatagramDecoder decoder;
+
+	/** The data last given to the reader. */
+	private byte[] sourceData;
+
+	/** Decodes the fields in the data last given to the reader. */
+	private DatagramDecoder sourceDecoder;
+
+	/** Decompresses compressed bodies. Created when first needed. */
+	private PayloadCompressor compressor;
+
+	/** The buffer with the last decompressed message. Created when first needed. */
+	private byte[] inflatedData;
+
+	/** Decodes the fields in the decompressed message. */
+	private DatagramDecoder inflatedDecoder;
+
+	/** If the body of the message was compressed. */
+	private boolean compressed;
+
+	/** If the text of the message is followed by a terminator. */
+	private boolean terminated;
+
+	/** The sequence number of the message, or -1 if it has none. */
+	private int sequence;
+
+	/** The sequence number of the oldest private message not acknowledged, or -1 if the message has none. */
+	private int base;
+
+	/** Where to resume an accepted file transfer, or -1 if the message has no offset. */
+	private long resumeOffset;
+
+	/** The user code of the sender. */
+	private int code;
+
+	/** The type of message, or <code>null</code> if unknown. */
+	private MessageType type;
+
+	/** Where the nick name starts. */
+	private int nickStart;
+
+	/** Where the nick name ends. */
+	private int nickEnd;
+
+	/** Where the body starts. */
+	private int bodyStart;
+
+	/** The length of the body. */
+	private int bodyLength;
+
+	/**
+	 * Constructor.
+	 */
+	public MessageReader()
+	{
+		firstBracket = new int[BRACKETS.length()];
+	}
+
+	/**
+	 * Reads the message in the specified part of the data.
+	 * Leading and trailing whitespace is ignored.
+	 *
+	 * @param newData The data containing the message.
+	 * @param offset Where in the data the message starts.
+	 * @param length The number of bytes in the message.
+	 * @throws StringIndexOutOfBoundsException If the message is missing one of the separators.
+	 * @throws NumberFormatException If the user code is not a number.
+	 */
+	public void read( final byte[] newData, final int offset, final int length )
+	{
+		if ( newData != sourceData )
+		{
+			sourceData = newData;
+			sourceDecoder = new DatagramDecoder( newData );
+		}
+
+		data = sourceData;
+		decoder = sourceDecoder;
+
+		int start = offset;
+		int end = offset + length;
+
+		// Same as String.trim()
+		while ( start < end && ( data[start] & 0xff ) <= ' ' )
+			start++;
+
+		while ( end > start && ( data[end - 1] & 0xff ) <= ' ' )
+			end--;
+
+		int exclamation = find( '!', start, end );
+		int hash = find( '#', exclamation + 1, end );
+		int colon = find( ':', hash + 1, end );
+
+		int typeEnd = exclamation + 1;
+
+		while ( typeEnd < hash && data[typeEnd] != '+' )
+			typeEnd++;
+
+		code = (int) parseNumber( start, exclamation, Integer.MIN_VALUE, Integer.MAX_VALUE );
+		type = MessageType.lookup( data, exclamation + 1, typeEnd - exclamation - 1 );
+		compressed = false;
+		terminated = false;
+		sequence = -1;
+		base = -1;
+		resumeOffset = -1;
+		nickStart = hash + 1;
+		nickEnd = colon;
+		bodyStart = colon + 1;
+		bodyLength = end - bodyStart;
+
+		if ( typeEnd < hash && type != null )
+			readFlags( typeEnd, hash );
+
+		if ( compressed && type != null )
+			readCompressed( start );
+
+		for ( int i = 0; i < firstBracket.length; i++ )
+		{
+			firstBracket[i] = -1;
+		}
+
+		for ( int i = bodyStart; i < bodyStart + bodyLength; i++ )
+		{
+			int b = data[i];
+
+			if ( b >= 0 )
+			{
+				int bracket = BRACKET_INDEX[b];
+
+				if ( bracket != -1 && firstBracket[bracket] == -1 )
+					firstBracket[bracket] = i - bodyStart;
+			}
+		}
+	}
+
+	/**
+	 * Reads the flags after the type. The type is set to unknown
+	 * if one of the flags is unknown.
+	 *
+	 * @param flagsStart Where in the data the first flag starts.
+	 * @param hash Where in the data the flags end.
+	 * @throws NumberFormatException If the sequence number, base or resume offset is invalid.
+	 */
+	private void readFlags( final int flagsStart, final int hash )
+	{
+		int flagStart = flagsStart;
+
+		while ( flagStart < hash )
+		{
+			int flagEnd = flagStart + 1;
+
+			while ( flagEnd < hash && data[flagEnd] != '+' )
+				flagEnd++;
+
+			int flagLength = flagEnd - flagStart;
+
+			if ( flagLength == PayloadCompressor.TYPE_FLAG.length()
+					&& data[flagStart + 1] == PayloadCompressor.TYPE_FLAG.charAt( 1 ) )
+			{
+				compressed = true;
+			}
+
+			else if ( flagLength == MessageAssembler.TERMINATOR_FLAG.length()
+					&& data[flagStart + 1] == MessageAssembler.TERMINATOR_FLAG.charAt( 1 ) )
+			{
+				terminated = true;
+			}
+
+			else if ( flagLength > RetransmitBuffer.SEQUENCE_FLAG.length()
+					&& data[flagStart + 1] == RetransmitBuffer.SEQUENCE_FLAG.charAt( 1 ) )
+			{
+				int numberStart = flagStart + RetransmitBuffer.SEQUENCE_FLAG.length();
+				sequence = (int) parseNumber( numberStart, flagEnd, 0, Integer.MAX_VALUE );
+			}
+
+			else if ( flagLength > PrivateSendWindow.BASE_FLAG.length()
+					&& data[flagStart + 1] == PrivateSendWindow.BASE_FLAG.charAt( 1 ) )
+			{
+				int numberStart = flagStart + PrivateSendWindow.BASE_FLAG.length();
+				base = (int) parseNumber( numberStart, flagEnd, 0, Integer.MAX_VALUE );
+			}
+
+			else if ( flagLength > ResumeHandshake.RESUME_FLAG.length()
+					&& data[flagStart + 1] == ResumeHandshake.RESUME_FLAG.charAt( 1 ) )
+			{
+				int numberStart = flagStart + ResumeHandshake.RESUME_FLAG.length();
+				resumeOffset = parseNumber( numberStart, flagEnd, 0, Long.MAX_VALUE );
+			}
+
+			else
+			{
+				type = null;
+				return;
+			}
+
+			flagStart = flagEnd;
+		}
+	}
+
+	/**
+	 * Decompresses the body, and continues reading from the buffer with
+	 * the decompressed message. The type is set to unknown if the body
+	 * can't be decompressed. Fragments are left as they are.
+	 *
+	 * @param start Where in the data the message starts.
+	 */
+	private void readCompressed( final int start )
+	{
+		if ( type == MessageType.MSGPART )
+			return;
+
+		if ( compressor == null )
+		{
+			compressor = new PayloadCompressor();
+			inflatedData = new byte[INFLATED_SIZE];
+			inflatedDecoder = new DatagramDecoder( inflatedData );
+		}
+
+		int headerLength = bodyStart - start;
+		int inflatedLength = -1;
+
+		if ( headerLength < inflatedData.length )
+		{
+			inflatedLength = compressor.decompress( data, bodyStart, bodyLength,
+					inflatedData, headerLength, inflatedData.length - headerLength );
+		}
+
+		if ( inflatedLength == -1 )
+		{
+			LOG.log( Level.WARNING, "Invalid compressed message from " + code );
+			type = null;
+			return;
+		}
+
+		System.arraycopy( data, start, inflatedData, 0, headerLength );
+		data = inflatedData;
+		decoder = inflatedDecoder;
+		nickStart -= start;
+		nickEnd -= start;
+		bodyStart = headerLength;
+		bodyLength = inflatedLength;
+	}
+
+	/**
+	 * Checks if the body of the message was compressed.
+	 *
+	 * @return If the body was compressed.
+	 */
+	public boolean isCompressed()
+	{
+		return compressed;
+	}
+
+	/**
+	 * Checks if the text of the message is followed by a terminator,
+	 * to keep the whitespace at the end of the text.
+	 *
+	 * @return If the text is terminated.
+	 */
+	public boolean isTerminated()
+	{
+		return terminated;
+	}
+
+	/**
+	 * Gets the sequence number of the message.
+	 *
+	 * @return The sequence number, or -1 if the message has none.
+	 */
+	public int getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * Gets the sequence number of the oldest private message the sender
+	 * is waiting for an acknowledgement of.
+	 *
+	 * @return The base, or -1 if the message has none.
+	 */
+	public int getBase()
+	{
+		return base;
+	}
+
+	/**
+	 * Gets the number of bytes of the file the sender already has,
+	 * in a message accepting a file transfer.
+	 *
+	 * @return The resume offset, or -1 if the message has none.
+	 */
+	public long getResumeOffset()
+	{
+		return resumeOffset;
+	}
+
+	/**
+	 * Finds the first position of a separator.
+	 *
+	 * @param separator The separator to find.
+	 * @param from Where to start looking.
+	 * @param to Where to stop looking.
+	 * @return The position of the separator.
+	 * @throws StringIndexOutOfBoundsException If the separator was not found.
+	 */
+	private int find( final char separator, final int from, final int to )
+	{
+		for ( int i = from; i < to; i++ )
+		{
+			if ( data[i] == separator )
+				return i;
+		}
+
+		throw new StringIndexOutOfBoundsException( "Missing '" + separator + "' in message" );
+	}
+
+	/**
+	 * Gets the user code of the sender.
+	 *
+	 * @return The user code.
+	 */
+	public int getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * Gets the type of message.
+	 *
+	 * @return The type, or <code>null</code> if it's an unknown type.
+	 */
+	public MessageType getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Gets the nick name of the sender.
+	 *
+	 * @return The nick name.
+	 */
+	public String getNick()
+	{
+		return decoder.decode( nickStart, nickEnd - nickStart );
+	}
+
+	/**
+	 * Gets the number of bytes in the body.
+	 *
+	 * @return The length of the body.
+	 */
+	public int getBodyLength()
+	{
+		return bodyLength;
+	}
+
+	/**
+	 * Finds the first position of a character in the body.
+	 * The positions of brackets are found when the message is read,
+	 * and other characters are searched for.
+	 *
+	 * @param character An ascii character.
+	 * @return The position in the body, or -1 if not found.
+	 */
+	public int indexOf( final char character )
+	{
+		if ( character < BRACKET_INDEX.length && BRACKET_INDEX[character] != -1 )
+			return firstBracket[BRACKET_INDEX[character]];
+
+		for ( int i = 0; i < bodyLength; i++ )
+		{
+			if ( data[bodyStart + i] == character )
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets the body from the position to the end.
+	 *
+	 * @param from The position in the body to start from.
+	 * @return The text.
+	 */
+	public String getString( final int from )
+	{
+		return getString( from, bodyLength );
+	}
+
+	/**
+	 * Gets the body between the positions.
+	 *
+	 * @param from The position in the body to start from.
+	 * @param to The position in the body to stop before.
+	 * @return The text.
+	 */
+	public String getString( final int from, final int to )
+	{
+		checkRange( from, to );
+
+		return decoder.decode( bodyStart + from, to - from );
+	}
+
+	/**
+	 * Gets the number in the body between the positions.
+	 *
+	 * @param from The position in the body to start from.
+	 * @param to The position in the body to stop before.
+	 * @return The number.
+	 * @throws NumberFormatException If it's not a valid int.
+	 */
+	public int getInt( final int from, final int to )
+	{
+		checkRange( from, to );
+
+		return (int) parseNumber( bodyStart + from, bodyStart + to, Integer.MIN_VALUE, Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Gets the number in the body between the positions.
+	 *
+	 * @param from The position in the body to start from.
+	 * @param to The position in the body to stop before.
+	 * @return The number.
+	 * @throws NumberFormatException If it's not a valid long.
+	 */
+	public long getLong( final int from, final int to )
+	{
+		checkRange( from, to );
+
+		return parseNumber( bodyStart + from, bodyStart + to, Long.MIN_VALUE, Long.MAX_VALUE );
+	}
+
+	/**
+	 * Checks that the positions are inside the body, like <code>substring()</code> does.
+	 *
+	 * @param from The position in the body to start from.
+	 * @param to The position in the body to stop before.
+	 * @throws StringIndexOutOfBoundsException If the positions are invalid.
+	 */
+	private void checkRange( final int from, final int to )
+	{
+		if ( from < 0 || to > bodyLength || from > to )
+			throw new StringIndexOutOfBoundsException( "Invalid range " + from + "-" + to + " in message" );
+	}
+
+	/**
+	 * Parses a decimal number with an optional minus sign,
+	 * with the same rules as <code>Long.parseLong()</code>.
+	 *
+	 * @param from Where in the data the number starts.
+	 * @param to Where in the data the number ends.
+	 * @param min The smallest valid number.
+	 * @param max The largest valid number.
+	 * @return The number.
+	 * @throws NumberFormatException If it's not a valid number.
+	 */
+	private long parseNumber( final int from, final int to, final long min, final long max )
+	{
+		boolean negative = from < to && data[from] == '-';
+		int start = negative ? from + 1 : from;
+
+		if ( start >= to )
+			throw numberFormatException( from, to );
+
+		long limit = negative ? min : -max;
+		long multiplyLimit = limit / 10;
+		long result = 0;
+
+		// Accumulates negatively, as the negative range is the largest
+		for ( int i = start; i < to; i++ )
+		{
+			int digit = data[i] - '0';
+
+			if ( digit < 0 || digit > 9 || result < multiplyLimit )
+				throw numberFormatException( from, to );
+
+			result *= 10;
+
+			if ( result < limit + digit )
+				throw numberFormatException( from, to );
+
+			result -= digit;
+		}
+
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Creates an exception for an invalid number.
+	 *
+	 * @param from Where in the data the number starts.
+	 * @param to Where in the data the number ends.
+	 * @return The exception to throw.
+	 */
+	private NumberFormatException numberFormatException( final int from, final int to )
+	{
+		return new NumberFormatException( "For input string: \""
+				+ decoder.decode( from, to - from ) + "\"" );
+	}
+}
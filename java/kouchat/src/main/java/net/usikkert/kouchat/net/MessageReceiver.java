@@ -30,6 +30,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DatagramListener;
 import net.usikkert.kouchat.event.ReceiverListener;
 import net.usikkert.kouchat.misc.ErrorHandler;
 
@@ -53,6 +54,9 @@ public class MessageReceiver implements Runnable
 	/** The listener getting all the messages received here. */
 	private ReceiverListener listener;
 
+	/** The listener getting the raw bytes of all the messages received here. */
+	private DatagramListener datagramListener;
+
 	/** If connected to the network or not. */
 	private boolean connected;
 
@@ -62,6 +66,15 @@ public class MessageReceiver implements Runnable
 	/** The error handler for registering important messages. */
 	private final ErrorHandler errorHandler;
 
+	/** The buffer every packet is received into. */
+	private final byte[] buffer;
+
+	/** The packet reused for every message received. */
+	private final DatagramPacket packet;
+
+	/** Decodes the messages in the received packets. */
+	private final DatagramDecoder decoder;
+
 	/** The port to receive messages on. */
 	private final int port;
 
@@ -90,6 +103,9 @@ public class MessageReceiver implements Runnable
 	{
 		this.port = port;
 		errorHandler = ErrorHandler.getErrorHandler();
+		buffer = new byte[Constants.NETWORK_PACKET_SIZE];
+		packet = new DatagramPacket( buffer, buffer.length );
+		decoder = new DatagramDecoder( buffer );
 
 		try
 		{
@@ -114,18 +130,12 @@ public class MessageReceiver implements Runnable
 		{
 			try
 			{
-				DatagramPacket packet = new DatagramPacket(
-						new byte[Constants.NETWORK_PACKET_SIZE], Constants.NETWORK_PACKET_SIZE );
-
 				if ( connected )
 				{
+					packet.setLength( buffer.length );
 					mcSocket.receive( packet );
-					String ip = packet.getAddress().getHostAddress();
-					String message = new String( packet.getData(), Constants.MESSAGE_CHARSET ).trim();
-					LOG.log( Level.FINE, "Message arrived from " + ip + ": " + message );
-
-					if ( listener != null )
-						listener.messageArrived( message, ip );
+					String ip = decoder.decodeIpAddress( packet.getAddress() );
+					notifyListener( packet.getLength(), ip );
 				}
 			}
 
@@ -140,6 +150,31 @@ public class MessageReceiver implements Runnable
 		}
 	}
 
+	/**
+	 * Gives the received message to the datagram listener if registered,
+	 * or else decodes the message for the normal listener.
+	 *
+	 * @param length The number of bytes received.
+	 * @param ip The ip address of the sender.
+	 */
+	private void notifyListener( final int length, final String ip )
+	{
+		if ( datagramListener != null )
+		{
+			datagramListener.datagramArrived( buffer, 0, length, ip );
+		}
+
+		else if ( listener != null )
+		{
+			String message = decoder.decodeMessage( length );
+
+			if ( LOG.isLoggable( Level.FINE ) )
+				LOG.log( Level.FINE, "Message arrived from " + ip + ": " + message );
+
+			listener.messageArrived( message, ip );
+		}
+	}
+
 	/**
 	 * Starts the thread that listens for messages.
 	 */
@@ -255,4 +290,15 @@ public class MessageReceiver implements Runnable
 	{
 		this.listener = listener;
 	}
+
+	/**
+	 * Registers as the listener to receive the raw bytes of all the messages
+	 * from the network. The bytes are not decoded when this listener is registered.
+	 *
+	 * @param datagramListener The listener to register.
+	 */
+	public void registerDatagramListener( final DatagramListener datagramListener )
+	{
+		this.datagramListener = datagramListener;
+	}
 }
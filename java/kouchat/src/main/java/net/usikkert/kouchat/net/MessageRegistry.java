@@ -0,0 +1,173 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps the {@link MessageEncoder} and {@link MessageHandler} of each {@link MessageType}.
+ *
+ * <p>Encoders for all the existing message types are registered when the
+ * registry is created. Handlers are registered by the parsers. Looking up
+ * the encoder or handler of a type is a single array access, so the cost
+ * does not grow with the number of message types.</p>
+ *
+ * <p>To add a new message type, add it to {@link MessageType}, and register
+ * an encoder and a handler for it.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MessageRegistry
+{
+	/** The encoder of each message type, by ordinal. */
+	private final MessageEncoder[] encoders;
+
+	/** The handler of each message type, by ordinal. */
+	private final MessageHandler[] handlers;
+
+	/**
+	 * Constructor. Registers the encoders of the existing message types.
+	 */
+	public MessageRegistry()
+	{
+		encoders = new MessageEncoder[MessageType.values().length];
+		handlers = new MessageHandler[MessageType.values().length];
+
+		MessageEncoder empty = new FieldEncoder( "", false );
+		MessageEncoder textOnly = new FieldEncoder( "", true );
+
+		registerEncoder( MessageType.MSG, new FieldEncoder( "[]", true ) );
+		registerEncoder( MessageType.LOGON, empty );
+		registerEncoder( MessageType.EXPOSING, textOnly );
+		registerEncoder( MessageType.LOGOFF, empty );
+		registerEncoder( MessageType.AWAY, textOnly );
+		registerEncoder( MessageType.BACK, empty );
+		registerEncoder( MessageType.EXPOSE, empty );
+		registerEncoder( MessageType.NICKCRASH, textOnly );
+		registerEncoder( MessageType.WRITING, empty );
+		registerEncoder( MessageType.STOPPEDWRITING, empty );
+		registerEncoder( MessageType.GETTOPIC, empty );
+		registerEncoder( MessageType.TOPIC, new FieldEncoder( "()[]", true ) );
+		registerEncoder( MessageType.NICK, empty );
+		registerEncoder( MessageType.IDLE, new FieldEncoder( "[]", false ) );
+		registerEncoder( MessageType.SENDFILEACCEPT, new FieldEncoder( "()[]{}", true ) );
+		registerEncoder( MessageType.SENDFILEABORT, new FieldEncoder( "(){}", true ) );
+		registerEncoder( MessageType.SENDFILE, new FieldEncoder( "()[]{}", true ) );
+		registerEncoder( MessageType.CLIENT, new FieldEncoder( "()[]{}<>", true ) );
+		registerEncoder( MessageType.PRIVMSG, new FieldEncoder( "()[]", true ) );
+		registerEncoder( MessageType.MSGPART, new FieldEncoder( "()[]{}<>", true ) );
+		registerEncoder( MessageType.NACK, new FieldEncoder( "()[]", false ) );
+		registerEncoder( MessageType.PRIVACK, new FieldEncoder( "()[]", false ) );
+	}
+
+	/**
+	 * Registers the encoder to use for a message type, replacing any existing encoder.
+	 *
+	 * @param type The message type.
+	 * @param encoder The encoder to use.
+	 */
+	public void registerEncoder( final MessageType type, final MessageEncoder encoder )
+	{
+		Validate.notNull( type, "Message type can not be null" );
+		Validate.notNull( encoder, "Encoder can not be null" );
+
+		encoders[type.ordinal()] = encoder;
+	}
+
+	/**
+	 * Registers the handler to use for a message type, replacing any existing handler.
+	 *
+	 * @param type The message type.
+	 * @param handler The handler to use.
+	 */
+	public void registerHandler( final MessageType type, final MessageHandler handler )
+	{
+		Validate.notNull( type, "Message type can not be null" );
+		Validate.notNull( handler, "Handler can not be null" );
+
+		handlers[type.ordinal()] = handler;
+	}
+
+	/**
+	 * Gets the encoder of a message type.
+	 *
+	 * @param type The message type.
+	 * @return The encoder, or <code>null</code> if none is registered.
+	 */
+	public MessageEncoder getEncoder( final MessageType type )
+	{
+		return encoders[type.ordinal()];
+	}
+
+	/**
+	 * Gets the handler of a message type.
+	 *
+	 * @param type The message type.
+	 * @return The handler, or <code>null</code> if none is registered.
+	 */
+	public MessageHandler getHandler( final MessageType type )
+	{
+		return handlers[type.ordinal()];
+	}
+
+	/**
+	 * Creates the body of a message with the encoder of the message type.
+	 *
+	 * @param type The message type.
+	 * @param fields The fields of the message.
+	 * @return The body of the message.
+	 * @throws IllegalArgumentException If no encoder is registered for the type.
+	 */
+	public String encode( final MessageType type, final Object... fields )
+	{
+		MessageEncoder encoder = getEncoder( type );
+
+		if ( encoder == null )
+			throw new IllegalArgumentException( "No encoder registered for " + type );
+
+		return encoder.encode( fields );
+	}
+
+	/**
+	 * Gives the message to the handler of the message type.
+	 *
+	 * @param reader The reader of the message, with the header already read.
+	 * @param ipAddress The IP address of the user who sent the message.
+	 * @return If a handler was registered for the message type.
+	 */
+	public boolean handle( final MessageReader reader, final String ipAddress )
+	{
+		MessageType type = reader.getType();
+
+		if ( type == null )
+			return false;
+
+		MessageHandler handler = handlers[type.ordinal()];
+
+		if ( handler == null )
+			return false;
+
+		handler.messageArrived( reader, ipAddress );
+
+		return true;
+	}
+}
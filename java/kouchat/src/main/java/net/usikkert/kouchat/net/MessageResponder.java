@@ -135,8 +135,9 @@ public interface MessageResponder
 	 *
 	 * @param userCode The unique code of the user who sent the idle message.
 	 * @param ipAddress The IP address of that user.
+	 * @param idleInterval Milliseconds until the next idle message from the user, or 0 if not known.
 	 */
-	void userIdle( int userCode, String ipAddress );
+	void userIdle( int userCode, String ipAddress, int idleInterval );
 
 	/**
 	 * A user is asking the application user to receive a file.
@@ -165,8 +166,10 @@ public interface MessageResponder
 	 * @param fileName The name of the file.
 	 * @param fileHash The hash code of the file.
 	 * @param port The port to use for connecting to the other user.
+	 * @param resumeOffset The number of bytes of the file the user already has,
+	 *                     or 0 to send the whole file.
 	 */
-	void fileSendAccepted( int userCode, String fileName, int fileHash, int port );
+	void fileSendAccepted( int userCode, String fileName, int fileHash, int port, long resumeOffset );
 
 	/**
 	 * A user has sent information about it's client.
@@ -176,6 +179,28 @@ public interface MessageResponder
 	 * @param timeSinceLogon Number of milliseconds since the user logged on.
 	 * @param operatingSystem The user's operating system.
 	 * @param privateChatPort The port to use for sending private chat messages to this user.
+	 * @param compressionSupported If the client can receive messages with a compressed body.
+	 * @param sequencingSupported If the client can send missing messages again when asked.
+	 * @param acknowledgingSupported If the client acknowledges private messages.
+	 * @param resumingSupported If the client can continue file transfers that stopped.
 	 */
-	void clientInfo( int userCode, String client, long timeSinceLogon, String operatingSystem, int privateChatPort );
+	void clientInfo( int userCode, String client, long timeSinceLogon, String operatingSystem,
+			int privateChatPort, boolean compressionSupported, boolean sequencingSupported,
+			boolean acknowledgingSupported, boolean resumingSupported );
+
+	/**
+	 * A user is missing a message from the application user,
+	 * and wants it sent again.
+	 *
+	 * @param sequence The sequence number of the missing message.
+	 */
+	void resendRequested( int sequence );
+
+	/**
+	 * A message from a user is missing, and should be asked for again.
+	 *
+	 * @param userCode The unique code of the user who sent the missing message.
+	 * @param sequence The sequence number of the missing message.
+	 */
+	void messageMissing( int userCode, int sequence );
 }
@@ -57,6 +57,12 @@ public class MessageSender
 	/** The port to send messages to. */
 	private final int port;
 
+	/** Encodes the messages into the reused send buffer. */
+	private final DatagramEncoder encoder;
+
+	/** The packet used for every message. */
+	private DatagramPacket packet;
+
 	/**
 	 * Default constructor.
 	 *
@@ -82,10 +88,12 @@ public class MessageSender
 	{
 		this.port = port;
 		errorHandler = ErrorHandler.getErrorHandler();
+		encoder = new DatagramEncoder();
 
 		try
 		{
 			address = InetAddress.getByName( ipAddress );
+			packet = new DatagramPacket( encoder.getBuffer(), 0, address, port );
 		}
 
 		catch ( final IOException e )
@@ -99,6 +107,7 @@ public class MessageSender
 
 	/**
 	 * Sends a multicast packet to other clients over the network.
+	 * The message is encoded into a send buffer that is reused for every packet.
 	 *
 	 * @param message The message to send in the packet.
 	 * @return If the message was sent or not.
@@ -111,18 +120,18 @@ public class MessageSender
 		{
 			try
 			{
-				byte[] encodedMsg = message.getBytes( Constants.MESSAGE_CHARSET );
-				int size = encodedMsg.length;
+				int size = encoder.encode( message );
 
-				if ( size > Constants.NETWORK_PACKET_SIZE )
+				if ( encoder.isTruncated() )
 				{
-					LOG.log( Level.WARNING, "Message was " + size + " bytes, which is too large.\n"
-							+ " The receiver might not get the complete message.\n'" + message + "'" );
+					LOG.log( Level.WARNING, "Message was too large, and was cut to " + size + " bytes.\n'"
+							+ message + "'" );
 				}
 
-				DatagramPacket packet = new DatagramPacket( encodedMsg, size, address, port );
+				packet.setData( encoder.getBuffer(), 0, size );
 				mcSocket.send( packet );
-				LOG.log( Level.FINE, "Sent message: " + message );
+				if ( LOG.isLoggable( Level.FINE ) )
+					LOG.log( Level.FINE, "Sent message: " + message );
 
 				return true;
 			}
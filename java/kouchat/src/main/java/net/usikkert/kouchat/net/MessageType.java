@@ -0,0 +1,203 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+/**
+ * The types of messages sent between the clients.
+ *
+ * <p>The type is the part of a message between the <code>!</code> and
+ * the <code>#</code>, and can be looked up directly from the received
+ * bytes without creating a string first.</p>
+ *
+ * @author Christian Ihle
+ */
+public enum MessageType
+{
+	/** A chat message to everyone. */
+	MSG,
+
+	/** A user logged on. */
+	LOGON,
+
+	/** A user showing that it's logged on, as a response to {@link #EXPOSE}. */
+	EXPOSING,
+
+	/** A user logged off. */
+	LOGOFF,
+
+	/** A user went away. */
+	AWAY,
+
+	/** A user came back from away. */
+	BACK,
+
+	/** Asks all the users to expose themselves. */
+	EXPOSE,
+
+	/** A user is already using the nick name of the receiver. */
+	NICKCRASH,
+
+	/** A user started writing. */
+	WRITING,
+
+	/** A user stopped writing. */
+	STOPPEDWRITING,
+
+	/** Asks for the current topic. */
+	GETTOPIC,
+
+	/** The current topic. */
+	TOPIC,
+
+	/** A user changed nick name. */
+	NICK,
+
+	/** A user is still logged on. */
+	IDLE,
+
+	/** A user accepted a file transfer. */
+	SENDFILEACCEPT,
+
+	/** A user aborted a file transfer. */
+	SENDFILEABORT,
+
+	/** A user wants to send a file. */
+	SENDFILE,
+
+	/** Information about the client of a user. */
+	CLIENT,
+
+	/** A private chat message. */
+	PRIVMSG,
+
+	/**
+	 * A fragment of a chat message too large for one packet. Clients
+	 * that don't know this type ignore the whole message.
+	 */
+	MSGPART,
+
+	/**
+	 * Asks a user to send a missing message again.
+	 * Sent to everyone, so other users missing the same message can wait.
+	 */
+	NACK,
+
+	/** Tells a user which private chat messages have arrived. */
+	PRIVACK;
+
+	/** The types, grouped by the length of the name. */
+	private static final MessageType[][] TYPES_BY_LENGTH;
+
+	static
+	{
+		int maxLength = 0;
+
+		for ( MessageType type : values() )
+		{
+			maxLength = Math.max( maxLength, type.token.length );
+		}
+
+		TYPES_BY_LENGTH = new MessageType[maxLength + 1][];
+
+		for ( MessageType type : values() )
+		{
+			MessageType[] sameLength = TYPES_BY_LENGTH[type.token.length];
+
+			if ( sameLength == null )
+			{
+				sameLength = new MessageType[] { type };
+			}
+
+			else
+			{
+				MessageType[] longer = new MessageType[sameLength.length + 1];
+				System.arraycopy( sameLength, 0, longer, 0, sameLength.length );
+				longer[sameLength.length] = type;
+				sameLength = longer;
+			}
+
+			TYPES_BY_LENGTH[type.token.length] = sameLength;
+		}
+	}
+
+	/** The name of the type, as it's sent over the network. */
+	private final byte[] token;
+
+	/**
+	 * Constructor.
+	 */
+	private MessageType()
+	{
+		token = new byte[name().length()];
+
+		for ( int i = 0; i < token.length; i++ )
+		{
+			token[i] = (byte) name().charAt( i );
+		}
+	}
+
+	/**
+	 * Finds the message type with the name in the specified part of the data.
+	 * Only types with the same length as the name are compared.
+	 *
+	 * @param data The data containing the name of the type.
+	 * @param offset Where in the data the name starts.
+	 * @param length The length of the name.
+	 * @return The message type, or <code>null</code> if it's an unknown type.
+	 */
+	public static MessageType lookup( final byte[] data, final int offset, final int length )
+	{
+		if ( length < 0 || length >= TYPES_BY_LENGTH.length )
+			return null;
+
+		MessageType[] sameLength = TYPES_BY_LENGTH[length];
+
+		if ( sameLength == null )
+			return null;
+
+		for ( MessageType type : sameLength )
+		{
+			if ( type.matches( data, offset ) )
+				return type;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks if the data at the offset is the name of this type.
+	 *
+	 * @param data The data to check.
+	 * @param offset Where in the data the name starts.
+	 * @return If the name matches.
+	 */
+	private boolean matches( final byte[] data, final int offset )
+	{
+		for ( int i = 0; i < token.length; i++ )
+		{
+			if ( data[offset + i] != token[i] )
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -22,21 +22,52 @@
 package net.usikkert.kouchat.net;
 
 import java.io.File;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DeliveryFailureListener;
+import net.usikkert.kouchat.event.SendFailureListener;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Settings;
 import net.usikkert.kouchat.misc.Topic;
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
 /**
  * This class gives access to sending the different kinds of messages
  * that this application supports. Both multicast, and normal udp.
  *
+ * <p>The messages are queued by the network service, and sent by another
+ * thread. A message that can't be queued is reported at once, while
+ * a message that fails to send later makes the network be checked.</p>
+ *
+ * <p>Chat messages too large for one packet are split into
+ * {@link MessageType#MSGPART} fragments, and put together again
+ * by the {@link MessageAssembler} of the receivers.</p>
+ *
+ * <p>Large chat messages, topics and away messages are compressed
+ * when all the users support compression, and private messages when the
+ * receiver supports it. See {@link PayloadCompressor}.</p>
+ *
+ * <p>Chat messages, topics and away status changes get a sequence number when
+ * all the users support it, and are kept in a {@link RetransmitBuffer}.
+ * Receivers that find a gap in the sequence numbers send a
+ * {@link MessageType#NACK}, and the message is sent again from the buffer.</p>
+ *
  * @author Christian Ihle
  */
 public class Messages
 {
+	/** The max number of bytes in the sequence flags: the sequence number, and the base of private messages. */
+	private static final int SEQUENCE_FLAG_MAX_BYTES = RetransmitBuffer.SEQUENCE_FLAG.length()
+			+ PrivateSendWindow.BASE_FLAG.length() + 2 * String.valueOf( Integer.MAX_VALUE ).length();
+
 	/** The network service used for sending the actual messages. */
 	private final NetworkService networkService;
 
@@ -46,27 +77,106 @@ public class Messages
 	/** Settings. */
 	private final Settings settings;
 
+	/** The encoders of the message types. */
+	private final MessageRegistry registry;
+
+	/** The headers of the message types, by type ordinal. Cleared when the nick name changes. */
+	private final String[] headerCache;
+
+	/** The nick name used in the cached headers. */
+	private String headerNick;
+
+	/** The id of the last chat message sent as fragments. */
+	private final AtomicInteger lastFragmentedId;
+
+	/** Compresses the bodies of large messages. */
+	private final PayloadCompressor compressor;
+
+	/** The users to check for compression and sequencing support, or <code>null</code>. */
+	private final UserList userList;
+
+	/** The last messages sent with a sequence number. */
+	private final RetransmitBuffer retransmitBuffer;
+
+	/** Sends private messages to users that acknowledge them. */
+	private final ReliablePrivateSender privateSender;
+
 	/**
 	 * Constructor.
 	 *
 	 * @param networkService The network service used for sending the actual messages.
 	 */
 	public Messages( final NetworkService networkService )
+	{
+		this( networkService, new MessageRegistry() );
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param networkService The network service used for sending the actual messages.
+	 * @param registry The encoders of the message types.
+	 */
+	public Messages( final NetworkService networkService, final MessageRegistry registry )
+	{
+		this( networkService, registry, null );
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param networkService The network service used for sending the actual messages.
+	 * @param registry The encoders of the message types.
+	 * @param userList The users to check for compression and sequencing support before
+	 *                 compressing or sequencing messages to everyone, or <code>null</code>
+	 *                 to never do either.
+	 */
+	public Messages( final NetworkService networkService, final MessageRegistry registry, final UserList userList )
 	{
 		Validate.notNull( networkService, "Network service can not be null" );
+		Validate.notNull( registry, "Message registry can not be null" );
 		this.networkService = networkService;
+		this.registry = registry;
+		this.userList = userList;
+		compressor = new PayloadCompressor();
+		retransmitBuffer = new RetransmitBuffer( Constants.NETWORK_RETRANSMIT_BUFFER_SIZE,
+				Constants.NETWORK_RETRANSMIT_INTERVAL );
+		privateSender = new ReliablePrivateSender( networkService, new Random(), networkService.getScheduler() );
+		headerCache = new String[MessageType.values().length];
+		lastFragmentedId = new AtomicInteger();
 		settings = Settings.getSettings();
 		me = settings.getMe();
+
+		if ( userList != null )
+			userList.addUserListListener( privateSender );
+
+		networkService.registerSendFailureListener( new SendFailureListener()
+		{
+			@Override
+			public void sendFailed( final String message )
+			{
+				checkNetwork();
+			}
+		} );
 	}
 
 	/**
-	 * Sends a message notifying other clients that this client is still alive.
+	 * Sends a message notifying other clients that this client is still alive: <code>[interval]</code>.
+	 * The interval is the number of milliseconds until the next idle message,
+	 * and is left out if not known.
 	 *
 	 * <p>Note: the network will be checked if this fails!</p>
 	 */
 	public void sendIdleMessage()
 	{
-		String msg = createMessage( "IDLE" );
+		int idleInterval = me.getIdleInterval();
+		String msg;
+
+		if ( idleInterval > 0 )
+			msg = createMessage( MessageType.IDLE, idleInterval );
+		else
+			msg = getHeader( MessageType.IDLE );
+
 		boolean sent = networkService.sendMulticastMsg( msg );
 
 		if ( !sent )
@@ -83,7 +193,7 @@ public class Messages
 	public void sendTopicChangeMessage( final Topic topic )
 	{
 		String msg = createTopicMessage( topic );
-		boolean sent = networkService.sendMulticastMsg( msg );
+		boolean sent = sendSequencedMessage( msg );
 
 		if ( !sent )
 			checkNetwork();
@@ -97,7 +207,7 @@ public class Messages
 	public void sendTopicRequestedMessage( final Topic topic )
 	{
 		String msg = createTopicMessage( topic );
-		networkService.sendMulticastMsg( msg );
+		sendSequencedMessage( msg );
 	}
 
 	/**
@@ -109,8 +219,8 @@ public class Messages
 	 */
 	public void sendAwayMessage( final String awayMsg )
 	{
-		String msg = createMessage( "AWAY" ) + awayMsg;
-		boolean sent = networkService.sendMulticastMsg( msg );
+		String msg = createCompressibleMessage( MessageType.AWAY, isCompressionSupportedByAll(), awayMsg );
+		boolean sent = sendSequencedMessage( msg );
 
 		if ( !sent )
 			checkNetwork();
@@ -123,8 +233,8 @@ public class Messages
 	 */
 	public void sendBackMessage()
 	{
-		String msg = createMessage( "BACK" );
-		boolean sent = networkService.sendMulticastMsg( msg );
+		String msg = createMessage( MessageType.BACK );
+		boolean sent = sendSequencedMessage( msg );
 
 		if ( !sent )
 			checkNetwork();
@@ -132,6 +242,8 @@ public class Messages
 
 	/**
 	 * Sends a normal chat message, that is part of the main chat.
+	 * Messages with more than {@link Constants#MESSAGE_MAX_BYTES} are
+	 * sent as fragments.
 	 *
 	 * <p>Note: the network will be checked, and the user notified if this fails!</p>
 	 *
@@ -140,11 +252,20 @@ public class Messages
 	 */
 	public void sendChatMessage( final String chatMsg ) throws CommandException
 	{
-		String msg = createMessage( "MSG" )
-				+ "[" + settings.getOwnColor() + "]"
-				+ chatMsg;
+		boolean sent;
+		String body = registry.encode( MessageType.MSG, settings.getOwnColor(), chatMsg );
+		String msg = createCompressedMessage( MessageType.MSG, body, isCompressionSupportedByAll() );
 
-		boolean sent = networkService.sendMulticastMsg( msg );
+		if ( msg == null && Tools.getBytes( chatMsg ) > Constants.MESSAGE_MAX_BYTES )
+			sent = sendChatFragments( chatMsg, isCompressionSupportedByAll() );
+
+		else
+		{
+			if ( msg == null )
+				msg = addHeader( MessageType.MSG, body );
+
+			sent = sendSequencedMessage( msg );
+		}
 
 		if ( !sent )
 		{
@@ -158,7 +279,7 @@ public class Messages
 	 */
 	public void sendLogonMessage()
 	{
-		String msg = createMessage( "LOGON" );
+		String msg = createMessage( MessageType.LOGON );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -167,7 +288,7 @@ public class Messages
 	 */
 	public void sendLogoffMessage()
 	{
-		String msg = createMessage( "LOGOFF" );
+		String msg = createMessage( MessageType.LOGOFF );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -176,7 +297,7 @@ public class Messages
 	 */
 	public void sendExposeMessage()
 	{
-		String msg = createMessage( "EXPOSE" );
+		String msg = createMessage( MessageType.EXPOSE );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -185,7 +306,7 @@ public class Messages
 	 */
 	public void sendExposingMessage()
 	{
-		String msg = createMessage( "EXPOSING" ) + me.getAwayMsg();
+		String msg = createCompressibleMessage( MessageType.EXPOSING, isCompressionSupportedByAll(), me.getAwayMsg() );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -194,7 +315,7 @@ public class Messages
 	 */
 	public void sendGetTopicMessage()
 	{
-		String msg = createMessage( "GETTOPIC" );
+		String msg = createMessage( MessageType.GETTOPIC );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -203,7 +324,7 @@ public class Messages
 	 */
 	public void sendWritingMessage()
 	{
-		String msg = createMessage( "WRITING" );
+		String msg = createMessage( MessageType.WRITING );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -212,7 +333,7 @@ public class Messages
 	 */
 	public void sendStoppedWritingMessage()
 	{
-		String msg = createMessage( "STOPPEDWRITING" );
+		String msg = createMessage( MessageType.STOPPEDWRITING );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -225,13 +346,40 @@ public class Messages
 	 */
 	public void sendNickMessage( final String newNick )
 	{
-		String msg = createMessage( "NICK", newNick );
+		String msg = createNickMessage( newNick );
 		boolean sent = networkService.sendMulticastMsg( msg );
 
 		if ( !sent )
 			checkNetwork();
 	}
 
+	/**
+	 * Sends a message asking a user to send a missing message again: <code>(code)[sequence]</code>.
+	 *
+	 * @param userCode The user code of the user who sent the missing message.
+	 * @param sequence The sequence number of the missing message.
+	 */
+	public void sendNackMessage( final int userCode, final int sequence )
+	{
+		String msg = createMessage( MessageType.NACK, userCode, sequence );
+		networkService.sendMulticastMsg( msg );
+	}
+
+	/**
+	 * Sends a message again, exactly as it was sent the first time.
+	 * Nothing is sent if the message is no longer in the buffer,
+	 * or was just sent again because another user asked for it.
+	 *
+	 * @param sequence The sequence number of the message.
+	 */
+	public void resendMessage( final int sequence )
+	{
+		String msg = retransmitBuffer.getRetransmit( sequence, System.currentTimeMillis() );
+
+		if ( msg != null )
+			networkService.sendMulticastMsg( msg );
+	}
+
 	/**
 	 * Sends a message to inform that another user has logged on with
 	 * the same nick name as this user.
@@ -240,7 +388,7 @@ public class Messages
 	 */
 	public void sendNickCrashMessage( final String crashNick )
 	{
-		String msg = createMessage( "NICKCRASH" ) + crashNick;
+		String msg = createMessage( MessageType.NICKCRASH, crashNick );
 		networkService.sendMulticastMsg( msg );
 	}
 
@@ -253,10 +401,7 @@ public class Messages
 	 */
 	public void sendFileAbort( final User user, final int fileHash, final String fileName )
 	{
-		String msg = createMessage( "SENDFILEABORT" )
-				+ "(" + user.getCode() + ")"
-				+ "{" + fileHash + "}"
-				+ fileName;
+		String msg = createMessage( MessageType.SENDFILEABORT, user.getCode(), fileHash, fileName );
 
 		boolean sent = networkService.sendMulticastMsg( msg );
 
@@ -275,16 +420,17 @@ public class Messages
 	 * 		       to start the file transfer.
 	 * @param fileHash The unique hash code of the file.
 	 * @param fileName The name of the file.
+	 * @param resumeOffset The number of bytes of the file already received,
+	 *                     or 0 to receive the whole file.
 	 * @throws CommandException If the message was not sent successfully.
 	 */
-	public void sendFileAccept( final User user, final int port,
-			final int fileHash, final String fileName ) throws CommandException
+	public void sendFileAccept( final User user, final int port, final int fileHash,
+			final String fileName, final long resumeOffset ) throws CommandException
 	{
-		String msg = createMessage( "SENDFILEACCEPT" )
-				+ "(" + user.getCode() + ")"
-				+ "[" + port + "]"
-				+ "{" + fileHash + "}"
-				+ fileName;
+		String msg = createMessage( MessageType.SENDFILEACCEPT, user.getCode(), port, fileHash, fileName );
+
+		if ( resumeOffset > 0 )
+			msg = ResumeHandshake.addFlag( msg, resumeOffset );
 
 		boolean sent = networkService.sendMulticastMsg( msg );
 
@@ -306,11 +452,8 @@ public class Messages
 	 */
 	public void sendFile( final User user, final File file ) throws CommandException
 	{
-		String msg = createMessage( "SENDFILE" )
-				+ "(" + user.getCode() + ")"
-				+ "[" + file.length() + "]"
-				+ "{" + file.hashCode() + "}"
-				+ file.getName();
+		String msg = createMessage( MessageType.SENDFILE,
+				user.getCode(), file.length(), file.hashCode(), file.getName() );
 
 		boolean sent = networkService.sendMulticastMsg( msg );
 
@@ -329,21 +472,25 @@ public class Messages
 	 *   <li>Client uptime.</li>
 	 *   <li>Operating system.</li>
 	 *   <li>Port to connect to for private chat.</li>
+	 *   <li>Supported features, like compression, sequencing, acknowledging and resuming.</li>
 	 * </ul>
 	 */
 	public void sendClient()
 	{
-		String msg = createMessage( "CLIENT" )
-				+ "(" + me.getClient() + ")"
-				+ "[" + ( System.currentTimeMillis() - me.getLogonTime() ) + "]"
-				+ "{" + me.getOperatingSystem() + "}"
-				+ "<" + me.getPrivateChatPort() + ">";
+		String msg = createMessage( MessageType.CLIENT,
+				me.getClient(),
+				System.currentTimeMillis() - me.getLogonTime(),
+				me.getOperatingSystem(),
+				me.getPrivateChatPort(),
+				PayloadCompressor.FEATURE + " " + RetransmitBuffer.FEATURE + " " + PrivateSendWindow.FEATURE
+						+ " " + ResumeHandshake.FEATURE );
 
 		networkService.sendMulticastMsg( msg );
 	}
 
 	/**
-	 * Sends a private message to a user.
+	 * Sends a private message to a user. If the user acknowledges private messages,
+	 * the message is sent with a sequence number, and sent again until acknowledged.
 	 *
 	 * <p>Note: the network will be checked, and the user notified if this fails!</p>
 	 *
@@ -353,12 +500,15 @@ public class Messages
 	 */
 	public void sendPrivateMessage( final String privMsg, final User user ) throws CommandException
 	{
-		String msg = createMessage( "PRIVMSG" )
-				+ "(" + user.getCode() + ")"
-				+ "[" + settings.getOwnColor() + "]"
-				+ privMsg;
+		String msg = createCompressibleMessage( MessageType.PRIVMSG, user.isCompressionSupported(),
+				user.getCode(), settings.getOwnColor(), privMsg );
+
+		boolean sent;
 
-		boolean sent = networkService.sendUDPMsg( msg, user.getIpAddress(), user.getPrivateChatPort() );
+		if ( user.isAcknowledgingSupported() )
+			sent = privateSender.send( user, msg, privMsg, System.currentTimeMillis() );
+		else
+			sent = networkService.sendUDPMsg( msg, user.getIpAddress(), user.getPrivateChatPort() );
 
 		if ( !sent )
 		{
@@ -368,15 +518,368 @@ public class Messages
 	}
 
 	/**
-	 * Creates the standard part of all messages, with the specified type
-	 * as the message type.
+	 * Sends a message telling a user that all the private messages up to and including
+	 * the sequence number have arrived: <code>(code)[sequence]</code>.
+	 *
+	 * @param user The user who sent the private messages.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	public void sendPrivateAckMessage( final User user, final int sequence )
+	{
+		String msg = createMessage( MessageType.PRIVACK, user.getCode(), sequence );
+		networkService.sendUDPMsg( msg, user.getIpAddress(), user.getPrivateChatPort() );
+	}
+
+	/**
+	 * A user acknowledged the private messages up to and including the sequence number.
+	 * Private messages waiting for the acknowledgement are sent.
+	 *
+	 * @param userCode The unique code of the user.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	public void privateMessagesAcknowledged( final int userCode, final int sequence )
+	{
+		privateSender.acknowledged( userCode, sequence, System.currentTimeMillis() );
+	}
+
+	/**
+	 * Sets the listener for private messages that were never acknowledged.
+	 *
+	 * @param listener The listener to notify.
+	 */
+	public void registerDeliveryFailureListener( final DeliveryFailureListener listener )
+	{
+		privateSender.registerDeliveryFailureListener( listener );
+	}
+
+	/**
+	 * Sends a chat message as fragments: <code>(id)[index]{count}&lt;rgb&gt;text</code>.
+	 * If the receivers support it, the text is compressed before it's split.
+	 * Fragments before the last that end in whitespace get a terminator,
+	 * so the whitespace is not removed by the receivers.
+	 * Stops at the first fragment that could not be sent.
+	 *
+	 * @param chatMsg The message for the main chat.
+	 * @param compressionSupported If all the receivers support compression.
+	 * @return If all the fragments were sent.
+	 */
+	private boolean sendChatFragments( final String chatMsg, final boolean compressionSupported )
+	{
+		String header = getHeader( MessageType.MSGPART );
+		String text = chatMsg;
+
+		if ( compressionSupported )
+		{
+			String compressed = compressor.compress( chatMsg, Tools.getBytes( chatMsg ) - 1 );
+
+			if ( compressed != null )
+			{
+				header = createCompressedHeader( MessageType.MSGPART );
+				text = compressed;
+			}
+		}
+
+		List<String> fragments = splitMessage( text, Constants.MESSAGE_FRAGMENT_BYTES );
+		int id = lastFragmentedId.incrementAndGet();
+		int color = settings.getOwnColor();
+
+		for ( int i = 0; i < fragments.size(); i++ )
+		{
+			String fragment = fragments.get( i );
+			String fragmentHeader = header;
+
+			if ( i < fragments.size() - 1 && fragment.charAt( fragment.length() - 1 ) <= ' ' )
+			{
+				fragmentHeader = addTerminatorFlag( header );
+				fragment += MessageAssembler.TERMINATOR;
+			}
+
+			String msg = fragmentHeader + registry.encode( MessageType.MSGPART, id, i, fragments.size(), color, fragment );
+
+			if ( !sendSequencedMessage( msg ) )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sends a message to everyone, with a sequence number if all the users support it.
+	 * Messages with a sequence number are added to the retransmit buffer.
+	 *
+	 * <p>The sequence numbers are given out and the messages queued in the same
+	 * order. The send queue keeps messages with a sequence number in that order,
+	 * also control messages, so the receivers see the numbers in order unless
+	 * packets are lost.</p>
+	 *
+	 * <p>A message is only added to the retransmit buffer when it was queued.
+	 * If the queue rejects it, the sequence number is given back, so the
+	 * receivers don't see a gap and ask for a message that was never sent.</p>
+	 *
+	 * @param msg The complete message, without a sequence number.
+	 * @return If the message was queued.
+	 */
+	private boolean sendSequencedMessage( final String msg )
+	{
+		if ( !isSequencingSupportedByAll() )
+			return networkService.sendMulticastMsg( msg );
+
+		synchronized ( retransmitBuffer )
+		{
+			int sequence = retransmitBuffer.nextSequence();
+			String sequencedMsg = addSequence( msg, sequence );
+
+			if ( !networkService.sendMulticastMsg( sequencedMsg ) )
+			{
+				retransmitBuffer.releaseSequence( sequence );
+				return false;
+			}
+
+			retransmitBuffer.add( sequence, sequencedMsg );
+
+			return true;
+		}
+	}
+
+	/**
+	 * Adds the terminator flag to the end of the type of the message.
+	 *
+	 * @param msg The message header.
+	 * @return The header with the terminator flag.
+	 */
+	private static String addTerminatorFlag( final String msg )
+	{
+		int hash = msg.indexOf( '#' );
+
+		return msg.substring( 0, hash ) + MessageAssembler.TERMINATOR_FLAG + msg.substring( hash );
+	}
+
+	/**
+	 * Adds the sequence flag to the end of the type of the message.
+	 *
+	 * @param msg The complete message.
+	 * @param sequence The sequence number.
+	 * @return The message with the sequence number.
+	 */
+	static String addSequence( final String msg, final int sequence )
+	{
+		int hash = msg.indexOf( '#' );
+
+		return msg.substring( 0, hash ) + RetransmitBuffer.SEQUENCE_FLAG + sequence + msg.substring( hash );
+	}
+
+	/**
+	 * Splits the text into fragments of at most the specified number of
+	 * bytes. Characters are never split.
+	 *
+	 * <p>The receivers remove whitespace at the end of a message, so the
+	 * fragments are cut before whitespace at the end when possible, to keep
+	 * it at the start of the next fragment instead. Fragments of only whitespace
+	 * can't be cut, and are sent with a terminator instead.</p>
+	 *
+	 * @param text The text to split.
+	 * @param maxBytes Max number of bytes in each fragment.
+	 * @return The fragments, in order.
+	 */
+	static List<String> splitMessage( final String text, final int maxBytes )
+	{
+		List<String> fragments = new ArrayList<String>();
+		int length = text.length();
+		int start = 0;
+
+		while ( start < length )
+		{
+			int end = start;
+			int bytes = 0;
+
+			while ( end < length )
+			{
+				int charBytes = Tools.getCharBytes( text, end );
+
+				if ( bytes + charBytes > maxBytes && end > start )
+					break;
+
+				bytes += charBytes;
+				end += charBytes == 4 ? 2 : 1;
+			}
+
+			if ( end < length )
+			{
+				int cut = end;
+
+				while ( cut > start && text.charAt( cut - 1 ) <= ' ' )
+					cut--;
+
+				if ( cut > start )
+					end = cut;
+			}
+
+			fragments.add( text.substring( start, end ) );
+			start = end;
+		}
+
+		return fragments;
+	}
+
+	/**
+	 * Creates a complete message of the specified type. The body is created
+	 * from the fields by the encoder registered for the message type.
 	 *
 	 * @param type The message type.
-	 * @return The standard part of the message.
+	 * @param fields The fields of the body.
+	 * @return The new message.
+	 */
+	private String createMessage( final MessageType type, final Object... fields )
+	{
+		return addHeader( type, registry.encode( type, fields ) );
+	}
+
+	/**
+	 * Creates a complete message of the specified type, like
+	 * {@link #createMessage(MessageType, Object...)}, but with
+	 * a compressed body if the receivers support compression.
+	 *
+	 * @param type The message type.
+	 * @param compressionSupported If all the receivers support compression.
+	 * @param fields The fields of the body.
+	 * @return The new message.
+	 */
+	private String createCompressibleMessage( final MessageType type, final boolean compressionSupported,
+			final Object... fields )
+	{
+		String body = registry.encode( type, fields );
+		String msg = createCompressedMessage( type, body, compressionSupported );
+
+		if ( msg != null )
+			return msg;
+		else
+			return addHeader( type, body );
+	}
+
+	/**
+	 * Creates a message with a compressed body. The body is only compressed
+	 * if it's larger than {@link Constants#MESSAGE_COMPRESSION_THRESHOLD},
+	 * and the compressed message is smaller and fits in one packet.
+	 *
+	 * @param type The message type.
+	 * @param body The body to compress.
+	 * @param compressionSupported If all the receivers support compression.
+	 * @return The new message, or <code>null</code> if the body was not compressed.
 	 */
-	private String createMessage( final String type )
+	private String createCompressedMessage( final MessageType type, final String body,
+			final boolean compressionSupported )
 	{
-		return createMessage( type, me.getNick() );
+		if ( !compressionSupported )
+			return null;
+
+		int bodyBytes = Tools.getBytes( body );
+
+		if ( bodyBytes <= Constants.MESSAGE_COMPRESSION_THRESHOLD )
+			return null;
+
+		String header = createCompressedHeader( type );
+		int maxBytes = Math.min( bodyBytes - 1,
+				Constants.NETWORK_PACKET_SIZE - Tools.getBytes( header ) - SEQUENCE_FLAG_MAX_BYTES );
+		String compressed = compressor.compress( body, maxBytes );
+
+		if ( compressed != null )
+			return header + compressed;
+		else
+			return null;
+	}
+
+	/**
+	 * Creates the header of a message with a compressed body.
+	 *
+	 * @param type The message type.
+	 * @return The header, with the compression flag after the type.
+	 */
+	private String createCompressedHeader( final MessageType type )
+	{
+		return me.getCode() + "!" + type + PayloadCompressor.TYPE_FLAG + "#" + me.getNick() + ":";
+	}
+
+	/**
+	 * Checks if all the other users support compression.
+	 *
+	 * @return If compression is supported by all the users.
+	 */
+	private boolean isCompressionSupportedByAll()
+	{
+		if ( userList == null )
+			return false;
+
+		for ( User user : userList )
+		{
+			if ( !user.isMe() && !user.isCompressionSupported() )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks if all the other users support sequencing.
+	 *
+	 * @return If sequencing is supported by all the users.
+	 */
+	private boolean isSequencingSupportedByAll()
+	{
+		if ( userList == null )
+			return false;
+
+		for ( User user : userList )
+		{
+			if ( !user.isMe() && !user.isSequencingSupported() )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds the header of the message type to the body.
+	 *
+	 * @param type The message type.
+	 * @param body The body of the message.
+	 * @return The complete message.
+	 */
+	private String addHeader( final MessageType type, final String body )
+	{
+		String header = getHeader( type );
+
+		if ( body.length() == 0 )
+			return header;
+		else
+			return header + body;
+	}
+
+	/**
+	 * Gets the header for a message of the specified type from the application user.
+	 * The headers are cached, and created again after the nick name changes.
+	 *
+	 * @param type The type of message to get the header for.
+	 * @return The message header.
+	 */
+	private synchronized String getHeader( final MessageType type )
+	{
+		String nick = me.getNick();
+
+		if ( !nick.equals( headerNick ) )
+		{
+			Arrays.fill( headerCache, null );
+			headerNick = nick;
+		}
+
+		String header = headerCache[type.ordinal()];
+
+		if ( header == null )
+		{
+			header = createHeader( type, nick );
+			headerCache[type.ordinal()] = header;
+		}
+
+		return header;
 	}
 
 	/**
@@ -387,11 +890,23 @@ public class Messages
 	 * @param nick The nick name to use in the message.
 	 * @return The standard part of the message.
 	 */
-	private String createMessage( final String type, final String nick )
+	private String createHeader( final MessageType type, final String nick )
 	{
 		return me.getCode() + "!" + type + "#" + nick + ":";
 	}
 
+	/**
+	 * Creates a new message for changing the nick name.
+	 * The new nick name is used in the header.
+	 *
+	 * @param newNick The new nick name.
+	 * @return The new message.
+	 */
+	private String createNickMessage( final String newNick )
+	{
+		return createHeader( MessageType.NICK, newNick ) + registry.encode( MessageType.NICK );
+	}
+
 	/**
 	 * Creates a new message for sending the topic.
 	 *
@@ -400,10 +915,8 @@ public class Messages
 	 */
 	private String createTopicMessage( final Topic topic )
 	{
-		return createMessage( "TOPIC" )
-				+ "(" + topic.getNick() + ")"
-				+ "[" + topic.getTime() + "]"
-				+ topic.getTopic();
+		return createCompressibleMessage( MessageType.TOPIC, isCompressionSupportedByAll(),
+				topic.getNick(), topic.getTime(), topic.getTopic() );
 	}
 
 	/**
@@ -22,9 +22,11 @@
 package net.usikkert.kouchat.net;
 
 import java.net.NetworkInterface;
+import java.util.Timer;
 
+import net.usikkert.kouchat.event.DatagramListener;
 import net.usikkert.kouchat.event.NetworkConnectionListener;
-import net.usikkert.kouchat.event.ReceiverListener;
+import net.usikkert.kouchat.event.SendFailureListener;
 
 /**
  * This class has services for connecting to the network.
@@ -33,6 +35,9 @@ import net.usikkert.kouchat.event.ReceiverListener;
  */
 public class NetworkService implements NetworkConnectionListener
 {
+	/** Max number of milliseconds to wait for queued messages to be sent when the network goes down. */
+	private static final long SEND_FLUSH_TIMEOUT = 1000;
+
 	/** The thread responsible for keeping the network connection up. */
 	private final ConnectionWorker connectionWorker;
 
@@ -48,6 +53,18 @@ public class NetworkService implements NetworkConnectionListener
 	/** The private message receiver. */
 	private final UDPReceiver udpReceiver;
 
+	/** The queue between the receivers and the message parsers. */
+	private final MessageDispatcher messageDispatcher;
+
+	/** The selector serving the private chat and file transfer channels. */
+	private final ChannelSelector channelSelector;
+
+	/** The queue between the code sending messages and the senders. */
+	private final OutboundQueue outboundQueue;
+
+	/** The timer shared by the delayed network tasks. */
+	private final Timer scheduler;
+
 	/**
 	 * Constructor.
 	 */
@@ -56,8 +73,12 @@ public class NetworkService implements NetworkConnectionListener
 		messageReceiver = new MessageReceiver();
 		messageSender = new MessageSender();
 		connectionWorker = new ConnectionWorker();
-		udpReceiver = new UDPReceiver();
+		messageDispatcher = new MessageDispatcher();
+		channelSelector = new ChannelSelector();
+		udpReceiver = new UDPReceiver( channelSelector );
 		udpSender = new UDPSender();
+		outboundQueue = new OutboundQueue( messageSender, udpSender );
+		scheduler = new Timer( "NetworkScheduler", true );
 		connectionWorker.registerNetworkConnectionListener( this );
 	}
 
@@ -87,6 +108,51 @@ public class NetworkService implements NetworkConnectionListener
 		return connectionWorker;
 	}
 
+	/**
+	 * Gets the queue between the receivers and the message parsers.
+	 *
+	 * @return The message dispatcher.
+	 */
+	public MessageDispatcher getMessageDispatcher()
+	{
+		return messageDispatcher;
+	}
+
+	/**
+	 * Gets the queue between the code sending messages and the senders.
+	 *
+	 * @return The outbound queue.
+	 */
+	public OutboundQueue getOutboundQueue()
+	{
+		return outboundQueue;
+	}
+
+	/**
+	 * Gets the selector serving the private chat and file transfer channels.
+	 *
+	 * @return The channel selector.
+	 */
+	public ChannelSelector getChannelSelector()
+	{
+		return channelSelector;
+	}
+
+	/**
+	 * Gets the timer shared by the delayed network tasks, like reporting missing
+	 * messages and sending answers later. This way the number of threads
+	 * does not grow with the number of features needing a timer.
+	 *
+	 * <p>The tasks must be short, and must not throw exceptions,
+	 * as that stops the timer for all the other tasks.</p>
+	 *
+	 * @return The shared timer.
+	 */
+	public Timer getScheduler()
+	{
+		return scheduler;
+	}
+
 	/**
 	 * Checks if the connection thread is alive.
 	 *
@@ -119,46 +185,61 @@ public class NetworkService implements NetworkConnectionListener
 
 	/**
 	 * Register a listener for incoming messages from the network.
+	 * The messages are given to the listener through the message dispatcher.
 	 *
 	 * @param listener The listener to register.
 	 */
-	public void registerMessageReceiverListener( final ReceiverListener listener )
+	public void registerMessageReceiverListener( final DatagramListener listener )
 	{
-		messageReceiver.registerReceiverListener( listener );
+		messageReceiver.registerDatagramListener( messageDispatcher.createListener( listener, true ) );
 	}
 
 	/**
 	 * Register a listener for incoming UDP messages from the network.
+	 * The messages are given to the listener through the message dispatcher.
+	 * The UDP receiver runs on the selector thread, so it never waits for room in the queue.
 	 *
 	 * @param listener The listener to register.
 	 */
-	public void registerUDPReceiverListener( final ReceiverListener listener )
+	public void registerUDPReceiverListener( final DatagramListener listener )
+	{
+		udpReceiver.registerDatagramListener( messageDispatcher.createListener( listener, false ) );
+	}
+
+	/**
+	 * Sets the listener to notify when a queued message fails to send.
+	 *
+	 * @param listener The listener to notify.
+	 */
+	public void registerSendFailureListener( final SendFailureListener listener )
 	{
-		udpReceiver.registerReceiverListener( listener );
+		outboundQueue.setSendFailureListener( listener );
 	}
 
 	/**
 	 * Send a message with multicast, to all users.
+	 * The message is queued, and sent by the sender thread.
 	 *
 	 * @param message The message to send.
-	 * @return If the message was sent or not.
+	 * @return If the message was queued or not.
 	 */
 	public boolean sendMulticastMsg( final String message )
 	{
-		return messageSender.send( message );
+		return outboundQueue.sendMulticast( message );
 	}
 
 	/**
 	 * Send a message with UDP, to a single user.
+	 * The message is queued, and sent by the sender thread.
 	 *
 	 * @param message The message to send.
 	 * @param ip The ip address of the user.
 	 * @param port The port to send the message to.
-	 * @return If the message was sent or not.
+	 * @return If the message was queued or not.
 	 */
 	public boolean sendUDPMsg( final String message, final String ip, final int port )
 	{
-		return udpSender.send( message, ip, port );
+		return outboundQueue.sendUDP( message, ip, port );
 	}
 
 	/**
@@ -171,13 +252,15 @@ public class NetworkService implements NetworkConnectionListener
 	}
 
 	/**
-	 * Stops all senders and receivers.
+	 * Stops all senders and receivers. Messages already queued
+	 * get a chance to be sent first.
 	 *
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void networkWentDown( final boolean silent )
 	{
+		outboundQueue.stop( SEND_FLUSH_TIMEOUT );
 		udpSender.stopSender();
 		udpReceiver.stopReceiver();
 		messageSender.stopSender();
@@ -192,10 +275,12 @@ public class NetworkService implements NetworkConnectionListener
 	@Override
 	public void networkCameUp( final boolean silent )
 	{
+		messageDispatcher.start();
 		udpSender.startSender();
 		udpReceiver.startReceiver();
 		NetworkInterface currentNetworkInterface = connectionWorker.getCurrentNetworkInterface();
 		messageSender.startSender( currentNetworkInterface );
 		messageReceiver.startReceiver( currentNetworkInterface );
+		outboundQueue.start();
 	}
 }
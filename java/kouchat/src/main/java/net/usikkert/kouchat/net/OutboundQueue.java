@@ -0,0 +1,670 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.SendFailureListener;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * A bounded queue between the code sending messages and the network senders.
+ *
+ * <p>Sending a message only puts it in the queue, and a separate thread
+ * sends it with the {@link MessageSender} or the {@link UDPSender}.
+ * This way the user interface or the idle thread never waits for a slow
+ * socket. Messages that fail to send are reported to the
+ * {@link SendFailureListener} from the sender thread.</p>
+ *
+ * <p>Control messages, like idle and logon messages, are sent before
+ * bulk messages, like chat and writing messages. When the queue is full,
+ * new bulk messages are rejected, while new control messages replace the
+ * oldest bulk message in the queue.</p>
+ *
+ * <p>Some control messages are still queued after the bulk messages, to keep
+ * their order:</p>
+ *
+ * <ul>
+ *   <li>Messages with a sequence number, like topic and away messages, so all
+ *       the messages with a sequence number are sent in the order they were
+ *       numbered. Otherwise the receivers would see a gap in the numbers, and
+ *       ask for messages that are only waiting in the queue.</li>
+ *   <li>Logoff and nick messages, which change the user the earlier chat
+ *       messages are shown as coming from.</li>
+ * </ul>
+ *
+ * <p>They still make room for themselves when the queue is full.</p>
+ *
+ * @author Christian Ihle
+ */
+public class OutboundQueue implements Runnable
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( OutboundQueue.class.getName() );
+
+	/** The message types sent with lower priority. */
+	private static final MessageType[] BULK_TYPES = {
+		MessageType.MSG, MessageType.MSGPART, MessageType.PRIVMSG,
+		MessageType.WRITING, MessageType.STOPPEDWRITING
+	};
+
+	/** The control message types queued after the bulk messages, to keep their order. */
+	private static final MessageType[] ORDERED_TYPES = {
+		MessageType.LOGOFF, MessageType.NICK
+	};
+
+	/** Sends the multicast messages. */
+	private final MessageSender messageSender;
+
+	/** Sends the private messages. */
+	private final UDPSender udpSender;
+
+	/** The max number of messages in the queue. */
+	private final int capacity;
+
+	/** Control messages waiting to be sent, oldest first. */
+	private final LinkedList<QueuedMessage> controlMessages;
+
+	/** Bulk messages waiting to be sent, oldest first. */
+	private final LinkedList<QueuedMessage> bulkMessages;
+
+	/** The listener to notify of messages that failed to send. */
+	private SendFailureListener sendFailureListener;
+
+	/** The thread sending the messages. */
+	private Thread worker;
+
+	/** If new messages are accepted. */
+	private boolean accepting;
+
+	/** If the worker is sending a message now. */
+	private boolean sending;
+
+	/** The highest number of messages in the queue since the counters were reset. */
+	private int peakDepth;
+
+	/** The number of messages sent successfully. */
+	private long sentMessages;
+
+	/** The number of messages the senders failed to send. */
+	private long failedMessages;
+
+	/** The number of messages rejected or dropped because the queue was full or stopped. */
+	private long droppedMessages;
+
+	/** The number of messages taken from the queue to be sent. */
+	private long takenMessages;
+
+	/** The total time the taken messages waited in the queue, in nanoseconds. */
+	private long totalQueueLatency;
+
+	/** The longest time a taken message waited in the queue, in nanoseconds. */
+	private long maxQueueLatency;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param messageSender Sends the multicast messages.
+	 * @param udpSender Sends the private messages.
+	 * @see Constants#NETWORK_SEND_QUEUE_SIZE
+	 */
+	public OutboundQueue( final MessageSender messageSender, final UDPSender udpSender )
+	{
+		this( messageSender, udpSender, Constants.NETWORK_SEND_QUEUE_SIZE );
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param messageSender Sends the multicast messages.
+	 * @param udpSender Sends the private messages.
+	 * @param capacity The max number of messages in the queue.
+	 */
+	public OutboundQueue( final MessageSender messageSender, final UDPSender udpSender, final int capacity )
+	{
+		Validate.notNull( messageSender, "Message sender can not be null" );
+		Validate.notNull( udpSender, "UDP sender can not be null" );
+		Validate.isTrue( capacity > 0, "Capacity must be more than 0" );
+
+		this.messageSender = messageSender;
+		this.udpSender = udpSender;
+		this.capacity = capacity;
+
+		controlMessages = new LinkedList<QueuedMessage>();
+		bulkMessages = new LinkedList<QueuedMessage>();
+	}
+
+	/**
+	 * Queues a message to send with multicast, to all users.
+	 *
+	 * @param message The message to send.
+	 * @return If the message was queued. Messages are not queued
+	 *         when the queue is stopped or full.
+	 */
+	public boolean sendMulticast( final String message )
+	{
+		return enqueue( new QueuedMessage( message, null, 0 ) );
+	}
+
+	/**
+	 * Queues a message to send with UDP, to a single user.
+	 *
+	 * @param message The message to send.
+	 * @param ip The ip address of the user.
+	 * @param port The port to send the message to.
+	 * @return If the message was queued. Messages are not queued
+	 *         when the queue is stopped or full.
+	 */
+	public boolean sendUDP( final String message, final String ip, final int port )
+	{
+		return enqueue( new QueuedMessage( message, ip, port ) );
+	}
+
+	/**
+	 * Puts the message in the queue for its priority, making room
+	 * for control messages if the queue is full.
+	 *
+	 * @param queuedMessage The message to queue.
+	 * @return If the message was queued.
+	 */
+	private synchronized boolean enqueue( final QueuedMessage queuedMessage )
+	{
+		if ( !accepting )
+		{
+			droppedMessages++;
+			return false;
+		}
+
+		if ( getQueueDepth() == capacity )
+		{
+			if ( queuedMessage.bulk || bulkMessages.isEmpty() )
+			{
+				droppedMessages++;
+				logDropped( queuedMessage.message );
+				return false;
+			}
+
+			QueuedMessage dropped = removeOldestBulkMessage();
+
+			if ( dropped == null )
+			{
+				droppedMessages++;
+				logDropped( queuedMessage.message );
+				return false;
+			}
+
+			droppedMessages++;
+			logDropped( dropped.message );
+		}
+
+		if ( queuedMessage.bulk || queuedMessage.ordered )
+			bulkMessages.addLast( queuedMessage );
+		else
+			controlMessages.addLast( queuedMessage );
+
+		peakDepth = Math.max( peakDepth, getQueueDepth() );
+		notifyAll();
+
+		return true;
+	}
+
+	/**
+	 * Removes the oldest bulk message from the queue. Control messages
+	 * queued among the bulk messages to keep their order are kept.
+	 *
+	 * @return The removed message, or <code>null</code> if there are only control messages.
+	 */
+	private QueuedMessage removeOldestBulkMessage()
+	{
+		Iterator<QueuedMessage> iterator = bulkMessages.iterator();
+
+		while ( iterator.hasNext() )
+		{
+			QueuedMessage queuedMessage = iterator.next();
+
+			if ( queuedMessage.bulk )
+			{
+				iterator.remove();
+				return queuedMessage;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Logs a message dropped because the queue is full. Only the type and length
+	 * are logged as a warning, so the text of private messages is not written
+	 * to the log unless fine logging is enabled.
+	 *
+	 * @param message The dropped message.
+	 */
+	private void logDropped( final String message )
+	{
+		LOG.log( Level.WARNING, "Send queue full, dropped " + getType( message )
+				+ " message of " + message.length() + " characters" );
+
+		if ( LOG.isLoggable( Level.FINE ) )
+			LOG.log( Level.FINE, "Dropped message: " + message );
+	}
+
+	/**
+	 * Gets the type of the message, like <code>MSG</code>, without the flags.
+	 *
+	 * @param message The message.
+	 * @return The type, or an empty string if the message has no type.
+	 */
+	static String getType( final String message )
+	{
+		int exclamation = message.indexOf( '!' );
+		int hash = message.indexOf( '#' );
+
+		if ( exclamation == -1 || hash < exclamation )
+			return "";
+
+		int plus = message.indexOf( '+', exclamation );
+		int typeEnd = plus != -1 && plus < hash ? plus : hash;
+
+		return message.substring( exclamation + 1, typeEnd );
+	}
+
+	/**
+	 * Sends the messages in the queue, control messages first.
+	 * Waits for new messages when the queue is empty.
+	 */
+	@Override
+	public void run()
+	{
+		while ( true )
+		{
+			QueuedMessage queuedMessage = null;
+
+			synchronized ( this )
+			{
+				sending = false;
+				notifyAll();
+
+				while ( getQueueDepth() == 0 && worker == Thread.currentThread() )
+				{
+					try
+					{
+						wait();
+					}
+
+					catch ( final InterruptedException e )
+					{
+						LOG.log( Level.FINE, e.toString() );
+					}
+				}
+
+				if ( worker != Thread.currentThread() )
+					break;
+
+				if ( !controlMessages.isEmpty() )
+					queuedMessage = controlMessages.removeFirst();
+				else
+					queuedMessage = bulkMessages.removeFirst();
+
+				long latency = System.nanoTime() - queuedMessage.queuedTime;
+				takenMessages++;
+				totalQueueLatency += latency;
+				maxQueueLatency = Math.max( maxQueueLatency, latency );
+				sending = true;
+			}
+
+			send( queuedMessage );
+		}
+
+		LOG.log( Level.FINE, "Stopped." );
+	}
+
+	/**
+	 * Sends the message, and notifies the listener if it failed.
+	 *
+	 * @param queuedMessage The message to send.
+	 */
+	private void send( final QueuedMessage queuedMessage )
+	{
+		boolean sent = false;
+
+		try
+		{
+			if ( queuedMessage.ip == null )
+				sent = messageSender.send( queuedMessage.message );
+			else
+				sent = udpSender.send( queuedMessage.message, queuedMessage.ip, queuedMessage.port );
+		}
+
+		// Don't let a failing sender stop all the other messages
+		catch ( final RuntimeException e )
+		{
+			LOG.log( Level.SEVERE, e.toString(), e );
+		}
+
+		SendFailureListener listener = null;
+
+		synchronized ( this )
+		{
+			if ( sent )
+			{
+				sentMessages++;
+			}
+
+			else
+			{
+				failedMessages++;
+				listener = sendFailureListener;
+			}
+		}
+
+		if ( listener != null )
+			listener.sendFailed( queuedMessage.message );
+	}
+
+	/**
+	 * Starts the thread sending the messages, if not already started.
+	 * Messages are only accepted while the thread is running.
+	 */
+	public synchronized void start()
+	{
+		accepting = true;
+
+		if ( worker == null )
+		{
+			LOG.log( Level.FINE, "Starting." );
+			worker = new Thread( this, "OutboundQueueWorker" );
+			worker.setDaemon( true );
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the thread sending the messages. New messages are rejected
+	 * at once, while the messages already in the queue are given some time
+	 * to be sent. Any messages left after that are dropped.
+	 *
+	 * @param flushTimeout Max number of milliseconds to wait for the queue to be sent.
+	 */
+	public synchronized void stop( final long flushTimeout )
+	{
+		if ( worker == null )
+			return;
+
+		accepting = false;
+		long deadline = System.currentTimeMillis() + flushTimeout;
+
+		while ( getQueueDepth() > 0 || sending )
+		{
+			long timeLeft = deadline - System.currentTimeMillis();
+
+			if ( timeLeft <= 0 )
+				break;
+
+			try
+			{
+				wait( timeLeft );
+			}
+
+			catch ( final InterruptedException e )
+			{
+				LOG.log( Level.FINE, e.toString() );
+				break;
+			}
+		}
+
+		worker = null;
+		droppedMessages += getQueueDepth();
+		controlMessages.clear();
+		bulkMessages.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Sets the listener to notify when a message fails to send.
+	 *
+	 * @param listener The listener, or <code>null</code> to remove the listener.
+	 */
+	public synchronized void setSendFailureListener( final SendFailureListener listener )
+	{
+		sendFailureListener = listener;
+	}
+
+	/**
+	 * Checks if the message is a bulk message, which is sent after the control messages.
+	 *
+	 * @param message The message to check.
+	 * @return If the message type is one of the bulk message types.
+	 */
+	static boolean isBulkMessage( final String message )
+	{
+		return hasType( message, BULK_TYPES );
+	}
+
+	/**
+	 * Checks if the message is a control message that must be sent
+	 * in order with the bulk messages.
+	 *
+	 * @param message The message to check.
+	 * @return If the message has a sequence number, or is one of the ordered message types.
+	 */
+	static boolean isOrderedMessage( final String message )
+	{
+		return isSequencedMessage( message ) || hasType( message, ORDERED_TYPES );
+	}
+
+	/**
+	 * Checks if the type of the message is one of the types.
+	 *
+	 * @param message The message to check.
+	 * @param types The message types to look for.
+	 * @return If the message type is one of the types.
+	 */
+	private static boolean hasType( final String message, final MessageType[] types )
+	{
+		int typeStart = message.indexOf( '!' ) + 1;
+
+		if ( typeStart == 0 )
+			return false;
+
+		int typeEnd = message.indexOf( '#', typeStart );
+
+		if ( typeEnd == -1 )
+			return false;
+
+		int flagStart = message.indexOf( '+', typeStart );
+
+		if ( flagStart != -1 && flagStart < typeEnd )
+			typeEnd = flagStart;
+
+		for ( MessageType type : types )
+		{
+			String name = type.name();
+
+			if ( name.length() == typeEnd - typeStart && message.regionMatches( typeStart, name, 0, name.length() ) )
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks if the message has a sequence number, marked with
+	 * {@link RetransmitBuffer#SEQUENCE_FLAG} after the type.
+	 *
+	 * @param message The message to check.
+	 * @return If the message has a sequence number.
+	 */
+	static boolean isSequencedMessage( final String message )
+	{
+		int exclamation = message.indexOf( '!' );
+		int hash = message.indexOf( '#' );
+
+		if ( exclamation == -1 || hash < exclamation )
+			return false;
+
+		int flag = message.indexOf( RetransmitBuffer.SEQUENCE_FLAG, exclamation );
+
+		return flag != -1 && flag < hash;
+	}
+
+	/**
+	 * Gets the max number of messages in the queue.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of messages waiting in the queue.
+	 *
+	 * @return The queue depth.
+	 */
+	public synchronized int getQueueDepth()
+	{
+		return controlMessages.size() + bulkMessages.size();
+	}
+
+	/**
+	 * Gets the highest number of messages in the queue since the counters were reset.
+	 *
+	 * @return The peak queue depth.
+	 */
+	public synchronized int getPeakQueueDepth()
+	{
+		return peakDepth;
+	}
+
+	/**
+	 * Gets the number of messages sent successfully.
+	 *
+	 * @return The number of sent messages.
+	 */
+	public synchronized long getSentMessages()
+	{
+		return sentMessages;
+	}
+
+	/**
+	 * Gets the number of messages the senders failed to send.
+	 *
+	 * @return The number of failed messages.
+	 */
+	public synchronized long getFailedMessages()
+	{
+		return failedMessages;
+	}
+
+	/**
+	 * Gets the number of messages rejected or dropped because the queue was full or stopped.
+	 *
+	 * @return The number of dropped messages.
+	 */
+	public synchronized long getDroppedMessages()
+	{
+		return droppedMessages;
+	}
+
+	/**
+	 * Gets the average time the messages waited in the queue before they were sent.
+	 *
+	 * @return The average queue latency in microseconds.
+	 */
+	public synchronized long getAverageQueueLatency()
+	{
+		if ( takenMessages == 0 )
+			return 0;
+
+		return totalQueueLatency / takenMessages / 1000;
+	}
+
+	/**
+	 * Gets the longest time a message waited in the queue before it was sent.
+	 *
+	 * @return The max queue latency in microseconds.
+	 */
+	public synchronized long getMaxQueueLatency()
+	{
+		return maxQueueLatency / 1000;
+	}
+
+	/**
+	 * Resets the peak queue depth, the message counters and the latencies.
+	 */
+	public synchronized void resetCounters()
+	{
+		peakDepth = getQueueDepth();
+		sentMessages = 0;
+		failedMessages = 0;
+		droppedMessages = 0;
+		takenMessages = 0;
+		totalQueueLatency = 0;
+		maxQueueLatency = 0;
+	}
+
+	/**
+	 * A message waiting in the queue.
+	 */
+	private static final class QueuedMessage
+	{
+		/** The message to send. */
+		private final String message;
+
+		/** The ip address to send a private message to, or <code>null</code> for multicast. */
+		private final String ip;
+
+		/** The port to send a private message to. */
+		private final int port;
+
+		/** If this is a bulk message. */
+		private final boolean bulk;
+
+		/** If this is a control message that is sent in order with the bulk messages. */
+		private final boolean ordered;
+
+		/** When the message was queued, from {@link System#nanoTime()}. */
+		private final long queuedTime;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param message The message to send.
+		 * @param ip The ip address to send a private message to, or <code>null</code> for multicast.
+		 * @param port The port to send a private message to.
+		 */
+		private QueuedMessage( final String message, final String ip, final int port )
+		{
+			this.message = message;
+			this.ip = ip;
+			this.port = port;
+			bulk = isBulkMessage( message );
+			ordered = isOrderedMessage( message );
+			queuedTime = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+/**
+ * What {@link MessageDispatcher} does with new messages when the queue is full.
+ *
+ * @author Christian Ihle
+ */
+public enum OverflowPolicy
+{
+	/** Drops the oldest message in the queue to make room for the new message. */
+	DROP_OLDEST,
+
+	/**
+	 * Drops chat messages before control messages. A new chat message is dropped,
+	 * while a new control message replaces the oldest chat message in the queue.
+	 * The oldest message is dropped if the queue only contains control messages.
+	 */
+	DROP_CHAT_KEEP_CONTROL,
+
+	/**
+	 * Blocks the receiver until there is room in the queue. Receivers that must
+	 * never block get {@link #DROP_CHAT_KEEP_CONTROL} instead.
+	 */
+	BLOCK
+}
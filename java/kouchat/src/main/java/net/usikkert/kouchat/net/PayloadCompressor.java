@@ -0,0 +1,255 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.usikkert.kouchat.Constants;
+
+/**
+ * Compresses and decompresses the body of messages.
+ *
+ * <p>The body is compressed with deflate, and encoded with base64 to keep
+ * the message as text. A message with a compressed body has
+ * {@link #TYPE_FLAG} after the message type, like
+ * <code>123!MSG+z#nick:body</code>. Clients that don't support
+ * compression ignore the message, as the type is unknown to them.</p>
+ *
+ * <p>Compression is only used when the base64 text is smaller than the
+ * original body, which is usually the case for texts of some length.</p>
+ *
+ * <p>For {@link MessageType#MSGPART} the flag means that the text of the
+ * whole chat message was compressed before it was split into fragments.
+ * The fragments are put together before the text is decompressed.</p>
+ *
+ * @author Christian Ihle
+ */
+public class PayloadCompressor
+{
+	/** Added after the message type of messages with a compressed body. */
+	public static final String TYPE_FLAG = "+z";
+
+	/** The name of this feature in the client information. */
+	public static final String FEATURE = "deflate";
+
+	/** The characters used in base64. */
+	private static final char[] BASE64 =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	/** The value of each base64 character, or -1. */
+	private static final byte[] BASE64_VALUE = new byte[128];
+
+	static
+	{
+		for ( int i = 0; i < BASE64_VALUE.length; i++ )
+		{
+			BASE64_VALUE[i] = -1;
+		}
+
+		for ( int i = 0; i < BASE64.length; i++ )
+		{
+			BASE64_VALUE[BASE64[i]] = (byte) i;
+		}
+	}
+
+	/** The charset used for the bodies. */
+	private final Charset charset;
+
+	/** Compresses the bodies. */
+	private final Deflater deflater;
+
+	/** Decompresses the bodies. */
+	private final Inflater inflater;
+
+	/** The compressed bytes, before base64 encoding or after base64 decoding. */
+	private final byte[] buffer;
+
+	/**
+	 * Constructor.
+	 */
+	public PayloadCompressor()
+	{
+		charset = Charset.forName( Constants.MESSAGE_CHARSET );
+		deflater = new Deflater( Deflater.BEST_COMPRESSION, true );
+		inflater = new Inflater( true );
+		buffer = new byte[Constants.MESSAGE_MAX_CHAT_BYTES];
+	}
+
+	/**
+	 * Compresses the body.
+	 *
+	 * @param body The body to compress.
+	 * @param maxBytes Max number of bytes in the compressed body.
+	 * @return The compressed body, or <code>null</code> if it would have more than maxBytes.
+	 */
+	public synchronized String compress( final String body, final int maxBytes )
+	{
+		int maxCompressed = Math.min( maxBytes * 3 / 4, buffer.length - 1 );
+
+		if ( maxCompressed <= 0 )
+			return null;
+
+		deflater.reset();
+		deflater.setInput( body.getBytes( charset ) );
+		deflater.finish();
+
+		// The buffer is one byte larger than allowed, to find out if there is more
+		int length = deflater.deflate( buffer, 0, maxCompressed + 1 );
+
+		if ( !deflater.finished() || length > maxCompressed )
+			return null;
+
+		return encodeBase64( length );
+	}
+
+	/**
+	 * Decompresses a text.
+	 *
+	 * @param compressed The compressed text.
+	 * @param maxBytes Max number of bytes in the decompressed text.
+	 * @return The decompressed text, or <code>null</code> if the compressed text
+	 *         is invalid or has more than maxBytes bytes when decompressed.
+	 */
+	public String decompress( final String compressed, final int maxBytes )
+	{
+		byte[] data = compressed.getBytes( charset );
+		byte[] out = new byte[maxBytes];
+		int length = decompress( data, 0, data.length, out, 0, maxBytes );
+
+		if ( length == -1 )
+			return null;
+		else
+			return new String( out, 0, length, charset );
+	}
+
+	/**
+	 * Decompresses the body in the data.
+	 *
+	 * @param data The data containing the compressed body.
+	 * @param offset Where in the data the body starts.
+	 * @param length The number of bytes in the body.
+	 * @param out Where to put the decompressed body.
+	 * @param outOffset Where in out to start.
+	 * @param maxLength Max number of bytes to put in out.
+	 * @return The number of decompressed bytes, or -1 if the body is invalid
+	 *         or has more than maxLength bytes when decompressed.
+	 */
+	public synchronized int decompress( final byte[] data, final int offset, final int length,
+			final byte[] out, final int outOffset, final int maxLength )
+	{
+		int compressedLength = decodeBase64( data, offset, length );
+
+		if ( compressedLength == -1 )
+			return -1;
+
+		inflater.reset();
+		inflater.setInput( buffer, 0, compressedLength );
+
+		try
+		{
+			int inflated = inflater.inflate( out, outOffset, maxLength );
+
+			if ( !inflater.finished() )
+				return -1;
+
+			return inflated;
+		}
+
+		catch ( final DataFormatException e )
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Encodes the compressed bytes in the buffer with base64, without padding.
+	 *
+	 * @param length The number of bytes in the buffer.
+	 * @return The base64 text.
+	 */
+	private String encodeBase64( final int length )
+	{
+		char[] chars = new char[( length * 4 + 2 ) / 3];
+		int pos = 0;
+
+		for ( int i = 0; i < length; i += 3 )
+		{
+			int bits = ( buffer[i] & 0xff ) << 16;
+
+			if ( i + 1 < length )
+				bits |= ( buffer[i + 1] & 0xff ) << 8;
+			if ( i + 2 < length )
+				bits |= buffer[i + 2] & 0xff;
+
+			chars[pos++] = BASE64[bits >>> 18];
+			chars[pos++] = BASE64[( bits >>> 12 ) & 0x3f];
+
+			if ( i + 1 < length )
+				chars[pos++] = BASE64[( bits >>> 6 ) & 0x3f];
+			if ( i + 2 < length )
+				chars[pos++] = BASE64[bits & 0x3f];
+		}
+
+		return new String( chars );
+	}
+
+	/**
+	 * Decodes base64 without padding into the buffer.
+	 *
+	 * @param data The data containing the base64 text.
+	 * @param offset Where in the data the text starts.
+	 * @param length The number of bytes in the text.
+	 * @return The number of decoded bytes, or -1 if the text is invalid.
+	 */
+	private int decodeBase64( final byte[] data, final int offset, final int length )
+	{
+		if ( length % 4 == 1 || length * 3 / 4 > buffer.length )
+			return -1;
+
+		int pos = 0;
+		int bits = 0;
+		int bitCount = 0;
+
+		for ( int i = offset; i < offset + length; i++ )
+		{
+			int b = data[i];
+			int value = b >= 0 ? BASE64_VALUE[b] : -1;
+
+			if ( value == -1 )
+				return -1;
+
+			bits = ( bits << 6 ) | value;
+			bitCount += 6;
+
+			if ( bitCount >= 8 )
+			{
+				bitCount -= 8;
+				buffer[pos++] = (byte) ( bits >>> bitCount );
+			}
+		}
+
+		return pos;
+	}
+}
@@ -0,0 +1,128 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps the resolved addresses of the users last sent to, so a private
+ * conversation doesn't need to resolve the ip address for every message.
+ *
+ * <p>The addresses are cached by the ip address of the user, so a user that
+ * gets a new ip address is resolved again. When the cache is full, the address
+ * used the longest time ago is removed.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class PeerAddressCache
+{
+	/** The addresses, by ip address. In the order they were last used. */
+	private final LinkedHashMap<String, InetAddress> addresses;
+
+	/** The highest number of addresses to keep. */
+	private final int size;
+
+	/** The number of times an address was resolved, because it was not in the cache. */
+	private long resolvedAddresses;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size The highest number of addresses to keep.
+	 */
+	public PeerAddressCache( final int size )
+	{
+		Validate.isTrue( size > 0, "Size must be positive" );
+
+		this.size = size;
+		addresses = new LinkedHashMap<String, InetAddress>( 16, 0.75f, true );
+	}
+
+	/**
+	 * Gets the address of the ip address, from the cache if possible.
+	 *
+	 * @param ip The ip address of the user.
+	 * @return The resolved address.
+	 * @throws UnknownHostException If the ip address could not be resolved.
+	 */
+	public InetAddress getAddress( final String ip ) throws UnknownHostException
+	{
+		InetAddress address = addresses.get( ip );
+
+		if ( address == null )
+		{
+			address = InetAddress.getByName( ip );
+			resolvedAddresses++;
+
+			if ( addresses.size() >= size )
+				removeOldest();
+
+			addresses.put( ip, address );
+		}
+
+		return address;
+	}
+
+	/**
+	 * Removes all the addresses.
+	 */
+	public void clear()
+	{
+		addresses.clear();
+	}
+
+	/**
+	 * Gets the number of addresses in the cache.
+	 *
+	 * @return The number of addresses.
+	 */
+	public int getCachedAddresses()
+	{
+		return addresses.size();
+	}
+
+	/**
+	 * Gets the number of times an address was resolved, because it was not in the cache.
+	 *
+	 * @return The number of resolved addresses.
+	 */
+	public long getResolvedAddresses()
+	{
+		return resolvedAddresses;
+	}
+
+	/**
+	 * Removes the address used the longest time ago.
+	 */
+	private void removeOldest()
+	{
+		Map.Entry<String, InetAddress> oldest = addresses.entrySet().iterator().next();
+		addresses.remove( oldest.getKey() );
+	}
+}
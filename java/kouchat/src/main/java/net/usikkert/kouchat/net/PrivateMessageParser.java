@@ -24,9 +24,13 @@ package net.usikkert.kouchat.net;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import net.usikkert.kouchat.event.ReceiverListener;
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DatagramListener;
+import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.misc.Settings;
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.IntHashMap;
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * This class listens for udp messages from the network,
@@ -36,11 +40,19 @@ import net.usikkert.kouchat.misc.User;
  *
  * <ul>
  *   <li>PRIVMSG</li>
+ *   <li>PRIVACK</li>
  * </ul>
  *
+ * <p>Private messages with a sequence number are put back in the order they
+ * were sent by a {@link PrivateReceiveWindow} for each user, and acknowledged.
+ * The window of a user is dropped when the user is removed from the user list.</p>
+ *
+ * <p>The messages are given to the {@link MessageHandler} registered
+ * for the message type in the {@link MessageRegistry}.</p>
+ *
  * @author Christian Ihle
  */
-public class PrivateMessageParser implements ReceiverListener
+public class PrivateMessageParser implements DatagramListener, UserListListener
 {
 	/** The logger. */
 	private static final Logger LOG = Logger.getLogger( PrivateMessageParser.class.getName() );
@@ -48,6 +60,15 @@ public class PrivateMessageParser implements ReceiverListener
 	private final Settings settings;
 	private final PrivateMessageResponder privmsgResponder;
 
+	/** The handlers of the private messages. */
+	private final MessageRegistry registry;
+
+	/** Reads the fields of the messages. */
+	private final MessageReader reader;
+
+	/** The private messages with a sequence number from each user, by user code. */
+	private final IntHashMap<PrivateReceiveWindow> receiveWindows;
+
 	/**
 	 * Constructor.
 	 *
@@ -55,8 +76,134 @@ public class PrivateMessageParser implements ReceiverListener
 	 */
 	public PrivateMessageParser( final PrivateMessageResponder privmsgResponder )
 	{
+		this( privmsgResponder, new MessageRegistry() );
+	}
+
+	/**
+	 * Constructor. Registers handlers for the supported message types.
+	 *
+	 * @param privmsgResponder The private message responder.
+	 * @param registry The registry to add the handlers to.
+	 */
+	public PrivateMessageParser( final PrivateMessageResponder privmsgResponder, final MessageRegistry registry )
+	{
+		Validate.notNull( registry, "Message registry can not be null" );
+
 		this.privmsgResponder = privmsgResponder;
+		this.registry = registry;
 		settings = Settings.getSettings();
+		reader = new MessageReader();
+		receiveWindows = new IntHashMap<PrivateReceiveWindow>();
+
+		registry.registerHandler( MessageType.PRIVMSG, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				int leftBracket = msgReader.indexOf( '[' );
+				int rightBracket = msgReader.indexOf( ']' );
+				int rgb = msgReader.getInt( leftBracket + 1, rightBracket );
+				String privmsg = msgReader.getString( rightBracket + 1 );
+
+				if ( msgReader.getSequence() == -1 )
+					privmsgResponder.messageArrived( msgReader.getCode(), privmsg, rgb );
+				else
+					sequencedMessageArrived( msgReader, privmsg, rgb );
+			}
+		} );
+
+		registry.registerHandler( MessageType.PRIVACK, new MessageHandler()
+		{
+			@Override
+			public void messageArrived( final MessageReader msgReader, final String ipAddress )
+			{
+				int leftBracket = msgReader.indexOf( '[' );
+				int rightBracket = msgReader.indexOf( ']' );
+				int sequence = msgReader.getInt( leftBracket + 1, rightBracket );
+
+				privmsgResponder.messagesAcknowledged( msgReader.getCode(), sequence );
+			}
+		} );
+	}
+
+	/**
+	 * Gives a private message with a sequence number to the receive window of the user,
+	 * and acknowledges the messages that are now given to the responder.
+	 *
+	 * @param msgReader The reader with the message.
+	 * @param privmsg The text of the message.
+	 * @param rgb The color of the message.
+	 */
+	private void sequencedMessageArrived( final MessageReader msgReader, final String privmsg, final int rgb )
+	{
+		int code = msgReader.getCode();
+		int sequence = msgReader.getSequence();
+		int base = msgReader.getBase() == -1 ? sequence : msgReader.getBase();
+		int acknowledged;
+
+		synchronized ( receiveWindows )
+		{
+			PrivateReceiveWindow window = receiveWindows.get( code );
+
+			if ( window == null )
+			{
+				window = new PrivateReceiveWindow( code, privmsgResponder, Constants.NETWORK_PRIVATE_WINDOW_SIZE );
+				receiveWindows.put( code, window );
+			}
+
+			acknowledged = window.messageArrived( sequence, base, privmsg, rgb );
+		}
+
+		if ( acknowledged != -1 )
+			privmsgResponder.messagesReceived( code, acknowledged );
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userAdded( final int pos, final User user )
+	{
+		// A window is created when the first message arrives
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userChanged( final int pos, final User user )
+	{
+		// The windows are by user code, which never changes
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userMoved( final int fromPos, final int toPos, final User user )
+	{
+		// The windows are by user code, which never changes
+	}
+
+	/**
+	 * Drops the receive window of the user, so the windows
+	 * don't grow with every user ever seen.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userRemoved( final int pos, final User user )
+	{
+		synchronized ( receiveWindows )
+		{
+			receiveWindows.remove( user.getCode() );
+		}
 	}
 
 	/**
@@ -66,36 +213,22 @@ public class PrivateMessageParser implements ReceiverListener
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void messageArrived( final String message, final String ipAddress )
+	public void datagramArrived( final byte[] data, final int offset, final int length, final String ipAddress )
 	{
 		try
 		{
-			int exclamation = message.indexOf( "!" );
-			int hash = message.indexOf( "#" );
-			int colon = message.indexOf( ":" );
-
-			int fromCode = Integer.parseInt( message.substring( 0, exclamation ) );
-
-			String type = message.substring( exclamation + 1, hash );
-			String msg = message.substring( colon + 1, message.length() );
+			reader.read( data, offset, length );
 
-			int leftPara = msg.indexOf( "(" );
-			int rightPara = msg.indexOf( ")" );
-			int toCode = Integer.parseInt( msg.substring( leftPara + 1, rightPara ) );
+			int fromCode = reader.getCode();
+			int leftPara = reader.indexOf( '(' );
+			int rightPara = reader.indexOf( ')' );
+			int toCode = reader.getInt( leftPara + 1, rightPara );
 
 			User tempme = settings.getMe();
 
 			if ( fromCode != tempme.getCode() && toCode == tempme.getCode() )
 			{
-				if ( type.equals( "PRIVMSG" ) )
-				{
-					int leftBracket = msg.indexOf( "[" );
-					int rightBracket = msg.indexOf( "]" );
-					int rgb = Integer.parseInt( msg.substring( leftBracket + 1, rightBracket ) );
-					String privmsg = msg.substring( rightBracket + 1, msg.length() );
-
-					privmsgResponder.messageArrived( fromCode, privmsg, rgb );
-				}
+				registry.handle( reader, ipAddress );
 			}
 		}
 
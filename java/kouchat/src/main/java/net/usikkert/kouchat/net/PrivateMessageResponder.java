@@ -39,4 +39,22 @@ public interface PrivateMessageResponder
 	 * @param color The color to show the message in.
 	 */
 	void messageArrived( int userCode, String msg, int color );
+
+	/**
+	 * The private messages from a user have arrived in order, up to and including
+	 * the sequence number, and should be acknowledged.
+	 *
+	 * @param userCode The unique code for the user that sent the private messages.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	void messagesReceived( int userCode, int sequence );
+
+	/**
+	 * A user acknowledged the private messages from the application user,
+	 * up to and including the sequence number.
+	 *
+	 * @param userCode The unique code for the user that got the private messages.
+	 * @param sequence The sequence number of the last private message that arrived in order.
+	 */
+	void messagesAcknowledged( int userCode, int sequence );
 }
@@ -0,0 +1,175 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.Arrays;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * The private messages received from one user, put back in the order
+ * they were sent before they are given to the {@link PrivateMessageResponder}.
+ *
+ * <p>Messages that arrive early are kept until the messages before them arrive.
+ * The first message from the user tells where the conversation starts, with the
+ * base: the oldest message the user is still waiting for an acknowledgement of.
+ * Messages before the base are given up by the user, so they are skipped.
+ * A base more than a window behind the next message means the user started
+ * a new conversation, so the window starts over from there.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class PrivateReceiveWindow
+{
+	/** The unique code of the user sending the messages. */
+	private final int userCode;
+
+	/** Gets the messages in order. */
+	private final PrivateMessageResponder responder;
+
+	/** The highest number of messages to keep while waiting for a missing message. */
+	private final int windowSize;
+
+	/** The messages that arrived early, by sequence number modulo the window size. */
+	private final String[] texts;
+
+	/** The colors of the messages that arrived early. */
+	private final int[] colors;
+
+	/** The sequence number of the next message to give to the responder, or -1 before the first message. */
+	private int expected;
+
+	/** The number of messages that arrived more than once. */
+	private long duplicates;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param userCode The unique code of the user sending the messages.
+	 * @param responder Gets the messages in order.
+	 * @param windowSize The highest number of messages to keep while waiting for a missing message.
+	 */
+	public PrivateReceiveWindow( final int userCode, final PrivateMessageResponder responder, final int windowSize )
+	{
+		Validate.notNull( responder, "Private message responder can not be null" );
+		Validate.isTrue( windowSize > 0, "Window size must be positive" );
+
+		this.userCode = userCode;
+		this.responder = responder;
+		this.windowSize = windowSize;
+
+		texts = new String[windowSize];
+		colors = new int[windowSize];
+		expected = -1;
+	}
+
+	/**
+	 * A message arrived. The message is given to the responder, together with the
+	 * early messages after it, if it's the next message in the conversation.
+	 * Messages that are already given to the responder are ignored.
+	 *
+	 * @param sequence The sequence number of the message.
+	 * @param base The sequence number of the oldest message the user is waiting
+	 *             for an acknowledgement of.
+	 * @param text The text of the message.
+	 * @param color The color of the message.
+	 * @return The sequence number of the last message given to the responder,
+	 *         to acknowledge. Can be -1 if none are given to the responder yet.
+	 */
+	public int messageArrived( final int sequence, final int base, final String text, final int color )
+	{
+		if ( expected == -1 || expected - base > windowSize )
+		{
+			Arrays.fill( texts, null );
+			expected = base;
+		}
+
+		if ( base - expected > 0 )
+		{
+			for ( int i = 0; i < windowSize && expected != base; i++ )
+			{
+				deliverSlot( getSlot( expected ) );
+				expected++;
+			}
+
+			expected = base;
+		}
+
+		int slot = getSlot( sequence );
+
+		if ( sequence - expected < 0 || ( sequence - expected < windowSize && texts[slot] != null ) )
+		{
+			duplicates++;
+		}
+
+		else if ( sequence - expected < windowSize )
+		{
+			texts[slot] = text;
+			colors[slot] = color;
+		}
+
+		while ( texts[getSlot( expected )] != null )
+		{
+			deliverSlot( getSlot( expected ) );
+			expected++;
+		}
+
+		return expected - 1;
+	}
+
+	/**
+	 * Gets the number of messages that arrived more than once.
+	 *
+	 * @return The number of duplicates.
+	 */
+	public long getDuplicates()
+	{
+		return duplicates;
+	}
+
+	/**
+	 * Gives the message in the slot to the responder, if there is one, and clears the slot.
+	 *
+	 * @param slot The slot of the message.
+	 */
+	private void deliverSlot( final int slot )
+	{
+		if ( texts[slot] != null )
+		{
+			responder.messageArrived( userCode, texts[slot], colors[slot] );
+			texts[slot] = null;
+		}
+	}
+
+	/**
+	 * Gets the slot in the window of the sequence number.
+	 *
+	 * @param sequence The sequence number.
+	 * @return The slot.
+	 */
+	private int getSlot( final int sequence )
+	{
+		return ( sequence & Integer.MAX_VALUE ) % windowSize;
+	}
+}
@@ -0,0 +1,359 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * The private messages sent to one user, that the user has not
+ * acknowledged yet.
+ *
+ * <p>Each message gets the next sequence number in the conversation, and is sent
+ * with the sequence number of the oldest message not acknowledged yet, the base.
+ * Up to a window of messages can be on the way at the same time. Messages
+ * beyond the window wait, and are sent when the user acknowledges the first
+ * messages. A message that is not acknowledged in time is sent again,
+ * and given up after too many attempts.</p>
+ *
+ * <p>The acknowledgements are cumulative: acknowledging a sequence number
+ * means that all the messages up to and including that number have arrived.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class PrivateSendWindow
+{
+	/** The name of the feature in the client info of clients that acknowledge private messages. */
+	public static final String FEATURE = "ack";
+
+	/** The flag after the type of private messages with the oldest sequence number not acknowledged. */
+	public static final String BASE_FLAG = "+b";
+
+	/** The user the messages are sent to. */
+	private User user;
+
+	/** The highest number of messages not acknowledged at the same time. */
+	private final int windowSize;
+
+	/** The number of milliseconds to wait for an acknowledgement before sending again. */
+	private final int retransmitTimeout;
+
+	/** The highest number of times to send a message. */
+	private final int maxAttempts;
+
+	/** The highest number of messages waiting for room in the window. */
+	private final int maxPending;
+
+	/** The messages in the window, by sequence number modulo the window size. */
+	private final String[] messages;
+
+	/** The texts of the messages in the window, to tell the user about failures. */
+	private final String[] texts;
+
+	/** When the messages in the window were last sent. */
+	private final long[] sentTimes;
+
+	/** The number of times the messages in the window were sent. */
+	private final int[] attempts;
+
+	/** The messages waiting for room in the window. */
+	private final LinkedList<String> pendingMessages;
+
+	/** The texts of the messages waiting for room in the window. */
+	private final LinkedList<String> pendingTexts;
+
+	/** The texts of the messages given up since last time. */
+	private final List<String> failedTexts;
+
+	/** The sequence number of the oldest message not acknowledged. */
+	private int base;
+
+	/** The sequence number to give the next message. */
+	private int nextSequence;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param user The user the messages are sent to.
+	 * @param firstSequence The sequence number of the first message.
+	 * @param windowSize The highest number of messages not acknowledged at the same time.
+	 * @param retransmitTimeout The number of milliseconds to wait for an acknowledgement before sending again.
+	 * @param maxAttempts The highest number of times to send a message.
+	 * @param maxPending The highest number of messages waiting for room in the window.
+	 */
+	public PrivateSendWindow( final User user, final int firstSequence, final int windowSize,
+			final int retransmitTimeout, final int maxAttempts, final int maxPending )
+	{
+		Validate.notNull( user, "User can not be null" );
+		Validate.isTrue( windowSize > 0, "Window size must be positive" );
+		Validate.isTrue( retransmitTimeout > 0, "Retransmit timeout must be positive" );
+		Validate.isTrue( maxAttempts > 0, "Max attempts must be positive" );
+		Validate.isTrue( maxPending >= 0, "Max pending can not be negative" );
+
+		this.user = user;
+		base = firstSequence;
+		nextSequence = firstSequence;
+		this.windowSize = windowSize;
+		this.retransmitTimeout = retransmitTimeout;
+		this.maxAttempts = maxAttempts;
+		this.maxPending = maxPending;
+
+		messages = new String[windowSize];
+		texts = new String[windowSize];
+		sentTimes = new long[windowSize];
+		attempts = new int[windowSize];
+		pendingMessages = new LinkedList<String>();
+		pendingTexts = new LinkedList<String>();
+		failedTexts = new ArrayList<String>();
+	}
+
+	/**
+	 * Adds a message to send. The message is sent the next time
+	 * {@link #getTransmits(long)} is called, if there is room in the window.
+	 *
+	 * @param msg The complete message, without sequence numbers.
+	 * @param text The text of the message, to tell the user if it fails.
+	 * @return If the message was added, or <code>false</code> if too many messages are waiting.
+	 */
+	public boolean add( final String msg, final String text )
+	{
+		if ( pendingMessages.size() >= maxPending )
+			return false;
+
+		pendingMessages.add( msg );
+		pendingTexts.add( text );
+
+		return true;
+	}
+
+	/**
+	 * Gets the messages to send now, with sequence numbers. That is the messages
+	 * not acknowledged in time, and the waiting messages there is room for in the window.
+	 * Messages sent too many times are given up, and can be found with {@link #takeFailed()}.
+	 *
+	 * @param now The current time, in milliseconds.
+	 * @return The messages to send, in the order to send them.
+	 */
+	public List<String> getTransmits( final long now )
+	{
+		for ( int sequence = base; sequence != nextSequence; sequence++ )
+		{
+			int slot = getSlot( sequence );
+
+			if ( messages[slot] != null && isDue( slot, now ) && attempts[slot] >= maxAttempts )
+			{
+				failedTexts.add( texts[slot] );
+				clearSlot( slot );
+			}
+		}
+
+		moveBase();
+		List<String> transmits = new ArrayList<String>();
+
+		for ( int sequence = base; sequence != nextSequence; sequence++ )
+		{
+			int slot = getSlot( sequence );
+
+			if ( messages[slot] != null && isDue( slot, now ) )
+			{
+				attempts[slot]++;
+				sentTimes[slot] = now;
+				transmits.add( addFlags( messages[slot], sequence, base ) );
+			}
+		}
+
+		while ( !pendingMessages.isEmpty() && nextSequence - base < windowSize )
+		{
+			int sequence = nextSequence++;
+			int slot = getSlot( sequence );
+
+			messages[slot] = pendingMessages.removeFirst();
+			texts[slot] = pendingTexts.removeFirst();
+			attempts[slot] = 1;
+			sentTimes[slot] = now;
+			transmits.add( addFlags( messages[slot], sequence, base ) );
+		}
+
+		return transmits;
+	}
+
+	/**
+	 * The user acknowledged all the messages up to and including the sequence number.
+	 * Acknowledgements of messages not sent yet are ignored.
+	 *
+	 * @param sequence The sequence number of the last message that arrived in order.
+	 */
+	public void acknowledged( final int sequence )
+	{
+		if ( sequence - base < 0 || sequence - nextSequence >= 0 )
+			return;
+
+		for ( int i = base; i != sequence + 1; i++ )
+		{
+			clearSlot( getSlot( i ) );
+		}
+
+		base = sequence + 1;
+		moveBase();
+	}
+
+	/**
+	 * Gets the texts of the messages given up since the last time,
+	 * and forgets them.
+	 *
+	 * @return The texts of the failed messages.
+	 */
+	public List<String> takeFailed()
+	{
+		List<String> failed = new ArrayList<String>( failedTexts );
+		failedTexts.clear();
+
+		return failed;
+	}
+
+	/**
+	 * Checks if all the messages are acknowledged or given up.
+	 *
+	 * @return If there is nothing more to send.
+	 */
+	public boolean isIdle()
+	{
+		return base == nextSequence && pendingMessages.isEmpty();
+	}
+
+	/**
+	 * Gets the number of messages sent, but not acknowledged yet.
+	 *
+	 * @return The number of unacknowledged messages.
+	 */
+	public int getUnacknowledgedCount()
+	{
+		int count = 0;
+
+		for ( int sequence = base; sequence != nextSequence; sequence++ )
+		{
+			if ( messages[getSlot( sequence )] != null )
+				count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the number of messages waiting for room in the window.
+	 *
+	 * @return The number of waiting messages.
+	 */
+	public int getPendingCount()
+	{
+		return pendingMessages.size();
+	}
+
+	/**
+	 * Gets the user the messages are sent to.
+	 *
+	 * @return The user.
+	 */
+	public User getUser()
+	{
+		return user;
+	}
+
+	/**
+	 * Sets the user the messages are sent to, like when the user comes back
+	 * after a timeout with a new address.
+	 *
+	 * @param user The user.
+	 */
+	public void setUser( final User user )
+	{
+		Validate.notNull( user, "User can not be null" );
+		this.user = user;
+	}
+
+	/**
+	 * Adds the sequence flag and the base flag to the end of the type of the message.
+	 *
+	 * @param msg The complete message.
+	 * @param sequence The sequence number of the message.
+	 * @param base The sequence number of the oldest message not acknowledged.
+	 * @return The message with the flags.
+	 */
+	static String addFlags( final String msg, final int sequence, final int base )
+	{
+		int hash = msg.indexOf( '#' );
+
+		return msg.substring( 0, hash ) + RetransmitBuffer.SEQUENCE_FLAG + sequence
+				+ BASE_FLAG + base + msg.substring( hash );
+	}
+
+	/**
+	 * Moves the base past the messages that are acknowledged or given up.
+	 */
+	private void moveBase()
+	{
+		while ( base != nextSequence && messages[getSlot( base )] == null )
+		{
+			base++;
+		}
+	}
+
+	/**
+	 * Checks if the message in the slot has waited long enough for an acknowledgement.
+	 *
+	 * @param slot The slot of the message.
+	 * @param now The current time, in milliseconds.
+	 * @return If the message should be sent again.
+	 */
+	private boolean isDue( final int slot, final long now )
+	{
+		return now - sentTimes[slot] >= retransmitTimeout;
+	}
+
+	/**
+	 * Removes the message in the slot.
+	 *
+	 * @param slot The slot to clear.
+	 */
+	private void clearSlot( final int slot )
+	{
+		messages[slot] = null;
+		texts[slot] = null;
+	}
+
+	/**
+	 * Gets the slot in the window of the sequence number.
+	 *
+	 * @param sequence The sequence number.
+	 * @return The slot.
+	 */
+	private int getSlot( final int sequence )
+	{
+		return ( sequence & Integer.MAX_VALUE ) % windowSize;
+	}
+}
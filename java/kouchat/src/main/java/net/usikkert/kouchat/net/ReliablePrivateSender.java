@@ -0,0 +1,338 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DeliveryFailureListener;
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.IntHashMap;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Sends private messages to users that acknowledge them, and sends
+ * them again until they are acknowledged.
+ *
+ * <p>There is one {@link PrivateSendWindow} for each user, so the sequence
+ * numbers of a conversation keep going up as long as the application runs.
+ * Several messages can be on the way at the same time, so pasting many lines
+ * doesn't wait for an acknowledgement between each line.</p>
+ *
+ * <p>The window of a user is dropped when the user is removed from the user list.
+ * A user that comes back gets a new window, starting at a random sequence number,
+ * so it's unlikely to look like messages the user already got from the old window.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ReliablePrivateSender implements UserListListener
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( ReliablePrivateSender.class.getName() );
+
+	/** The highest number of messages to a user waiting for room in the window. */
+	private static final int MAX_PENDING = 64;
+
+	/** The number of milliseconds between looking for messages to send again. */
+	private static final int CHECK_INTERVAL = 100;
+
+	/** The first sequence numbers are below this, so the numbers stay positive. */
+	private static final int FIRST_SEQUENCE_LIMIT = 1 << 30;
+
+	/** The network service used for sending the actual messages. */
+	private final NetworkService networkService;
+
+	/** Random numbers for the first sequence number of each window. */
+	private final Random random;
+
+	/** The windows, by user code. */
+	private final IntHashMap<PrivateSendWindow> windowMap;
+
+	/** The windows, for going through them all. */
+	private final List<PrivateSendWindow> windowList;
+
+	/** The timer that sends messages again, or <code>null</code> to only send when asked. */
+	private final Timer timer;
+
+	/** If the timer has a check scheduled. */
+	private boolean checkScheduled;
+
+	/** The listener for messages that were given up. */
+	private DeliveryFailureListener listener;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param networkService The network service used for sending the actual messages.
+	 * @param random Random numbers for the first sequence number of each window.
+	 * @param timer The timer to send the messages again with when they are due, or <code>null</code>
+	 *              if they are only sent again when {@link #sendDueMessages(long)} is called.
+	 */
+	public ReliablePrivateSender( final NetworkService networkService, final Random random, final Timer timer )
+	{
+		Validate.notNull( networkService, "Network service can not be null" );
+		Validate.notNull( random, "Random can not be null" );
+
+		this.networkService = networkService;
+		this.random = random;
+		this.timer = timer;
+
+		windowMap = new IntHashMap<PrivateSendWindow>();
+		windowList = new ArrayList<PrivateSendWindow>();
+	}
+
+	/**
+	 * Sends a private message to a user, or keeps it until there is room in the window.
+	 * The messages in the window are sent to the address of the user given here from now on.
+	 *
+	 * @param user The user to send the message to.
+	 * @param msg The complete message, without sequence numbers.
+	 * @param text The text of the message, to tell the user if it fails.
+	 * @param now The current time, in milliseconds.
+	 * @return If the message was accepted, or <code>false</code> if too many messages are waiting.
+	 */
+	public synchronized boolean send( final User user, final String msg, final String text, final long now )
+	{
+		PrivateSendWindow window = windowMap.get( user.getCode() );
+
+		if ( window == null )
+		{
+			window = new PrivateSendWindow( user, random.nextInt( FIRST_SEQUENCE_LIMIT ),
+					Constants.NETWORK_PRIVATE_WINDOW_SIZE, Constants.NETWORK_PRIVATE_RETRANSMIT_TIMEOUT,
+					Constants.NETWORK_PRIVATE_MAX_ATTEMPTS, MAX_PENDING );
+			windowMap.put( user.getCode(), window );
+			windowList.add( window );
+		}
+
+		else if ( window.getUser() != user )
+		{
+			window.setUser( user );
+		}
+
+		if ( !window.add( msg, text ) )
+			return false;
+
+		transmit( window, now );
+		schedule();
+
+		return true;
+	}
+
+	/**
+	 * A user acknowledged all the messages up to and including the sequence number.
+	 * Messages waiting for room in the window are sent.
+	 *
+	 * @param userCode The unique code of the user.
+	 * @param sequence The sequence number of the last message that arrived in order.
+	 * @param now The current time, in milliseconds.
+	 */
+	public synchronized void acknowledged( final int userCode, final int sequence, final long now )
+	{
+		PrivateSendWindow window = windowMap.get( userCode );
+
+		if ( window != null )
+		{
+			window.acknowledged( sequence );
+			transmit( window, now );
+		}
+	}
+
+	/**
+	 * Sends the messages not acknowledged in time again, and tells
+	 * the listener about the messages that were given up.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	public void sendDueMessages( final long now )
+	{
+		List<User> failedUsers = new ArrayList<User>();
+		List<String> failedTexts = new ArrayList<String>();
+		DeliveryFailureListener currentListener;
+
+		synchronized ( this )
+		{
+			checkScheduled = false;
+
+			for ( PrivateSendWindow window : windowList )
+			{
+				if ( window.isIdle() )
+					continue;
+
+				transmit( window, now );
+
+				for ( String text : window.takeFailed() )
+				{
+					failedUsers.add( window.getUser() );
+					failedTexts.add( text );
+				}
+
+				if ( !window.isIdle() )
+					schedule();
+			}
+
+			currentListener = listener;
+		}
+
+		for ( int i = 0; i < failedUsers.size(); i++ )
+		{
+			User user = failedUsers.get( i );
+			LOG.log( Level.WARNING, "Private message to " + user.getNick() + " was not acknowledged: "
+					+ failedTexts.get( i ) );
+
+			if ( currentListener != null )
+				currentListener.messageNotDelivered( user, failedTexts.get( i ) );
+		}
+	}
+
+	/**
+	 * Gets the number of messages sent to the user, but not acknowledged yet.
+	 *
+	 * @param userCode The unique code of the user.
+	 * @return The number of unacknowledged messages.
+	 */
+	public synchronized int getUnacknowledgedCount( final int userCode )
+	{
+		PrivateSendWindow window = windowMap.get( userCode );
+
+		if ( window == null )
+			return 0;
+
+		return window.getUnacknowledgedCount();
+	}
+
+	/**
+	 * Sets the listener for messages that were given up.
+	 *
+	 * @param listener The listener to notify.
+	 */
+	public synchronized void registerDeliveryFailureListener( final DeliveryFailureListener listener )
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userAdded( final int pos, final User user )
+	{
+		// A window is created when the first message is sent
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userChanged( final int pos, final User user )
+	{
+		// The address is read from the user when sending
+	}
+
+	/**
+	 * Not used.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userMoved( final int fromPos, final int toPos, final User user )
+	{
+		// The address is read from the user when sending
+	}
+
+	/**
+	 * Drops the window of the user, and the messages not acknowledged yet.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void userRemoved( final int pos, final User user )
+	{
+		PrivateSendWindow window = windowMap.remove( user.getCode() );
+
+		if ( window != null )
+		{
+			windowList.remove( window );
+
+			if ( !window.isIdle() )
+				LOG.log( Level.FINE, "Dropped unacknowledged private messages to " + user.getNick() );
+		}
+	}
+
+	/**
+	 * Sends the messages from the window that should be sent now.
+	 * Messages that could not be queued are sent again later.
+	 *
+	 * @param window The window with the messages.
+	 * @param now The current time, in milliseconds.
+	 */
+	private void transmit( final PrivateSendWindow window, final long now )
+	{
+		User user = window.getUser();
+
+		for ( String msg : window.getTransmits( now ) )
+		{
+			networkService.sendUDPMsg( msg, user.getIpAddress(), user.getPrivateChatPort() );
+		}
+	}
+
+	/**
+	 * Schedules a check for messages to send again, if not already scheduled.
+	 */
+	private void schedule()
+	{
+		if ( timer == null || checkScheduled )
+			return;
+
+		checkScheduled = true;
+
+		timer.schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				// Don't stop the shared timer
+				try
+				{
+					sendDueMessages( System.currentTimeMillis() );
+				}
+
+				catch ( final RuntimeException e )
+				{
+					LOG.log( Level.SEVERE, e.toString(), e );
+				}
+			}
+		}, CHECK_INTERVAL );
+	}
+}
@@ -0,0 +1,255 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.Topic;
+import net.usikkert.kouchat.misc.WaitingList;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Delays the answers to requests sent to everyone, so all the users
+ * don't answer at the same time.
+ *
+ * <p>The current topic is sent after a short random delay, and not at all
+ * if another user sends the same topic first, as everyone got that answer.
+ * Information about this client is sent at a random time within a window
+ * that grows with the number of users, so the answers are spread out on
+ * large networks. The window is shorter than the {@link WaitingList} timeout,
+ * so users waiting for the answer get it in time, and well below
+ * {@link Constants#NETWORK_LOGON_DELAY}, so a user logging on has heard from
+ * everyone before it starts to treat new users as unexpected.</p>
+ *
+ * <p>Requests that arrive while an answer is waiting to be sent are
+ * answered by the same answer.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ResponseScheduler
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( ResponseScheduler.class.getName() );
+
+	/** The shortest delay before sending the topic. */
+	private static final int TOPIC_MIN_DELAY = 20;
+
+	/** The longest delay before sending the topic. */
+	private static final int TOPIC_MAX_DELAY = 120;
+
+	/** The number of milliseconds to add to the exposing window for each user. */
+	private static final int EXPOSING_DELAY_PER_USER = 5;
+
+	/** The shortest window to send information about this client in. */
+	private static final int EXPOSING_MIN_WINDOW = 100;
+
+	/**
+	 * The longest window to send information about this client in. Leaves time
+	 * for the queues and the network before the logon delay is over.
+	 */
+	private static final int EXPOSING_MAX_WINDOW = 1000;
+
+	/** The controller, for sending the answers. */
+	private final Controller controller;
+
+	/** Random numbers for the delays. */
+	private final Random random;
+
+	/** The timer that sends the answers, or <code>null</code> to only send when asked. */
+	private final Timer timer;
+
+	/** When to send the topic, or 0 if not waiting to send it. */
+	private long topicDueTime;
+
+	/** When to send information about this client, or 0 if not waiting to send it. */
+	private long exposingDueTime;
+
+	/** The number of topic answers skipped, because another user sent the same topic. */
+	private long suppressedTopics;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param controller The controller, for sending the answers.
+	 * @param random Random numbers for the delays.
+	 * @param timer The timer to send the answers with when they are due, or <code>null</code>
+	 *              if they are only sent when {@link #sendDueResponses(long)} is called.
+	 */
+	public ResponseScheduler( final Controller controller, final Random random, final Timer timer )
+	{
+		Validate.notNull( controller, "Controller can not be null" );
+		Validate.notNull( random, "Random can not be null" );
+
+		this.controller = controller;
+		this.random = random;
+		this.timer = timer;
+	}
+
+	/**
+	 * Another user asked for the topic. The topic is sent after a short random delay.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	public synchronized void topicRequested( final long now )
+	{
+		if ( topicDueTime != 0 )
+			return;
+
+		topicDueTime = now + TOPIC_MIN_DELAY + random.nextInt( TOPIC_MAX_DELAY - TOPIC_MIN_DELAY + 1 );
+		schedule( topicDueTime );
+	}
+
+	/**
+	 * A topic arrived from another user. If it's the same as the topic waiting
+	 * to be sent, the other users already have it, and it's not sent.
+	 *
+	 * @param topic The topic text, or <code>null</code> if there is no topic.
+	 * @param nick The nick name of the user who set the topic.
+	 * @param time When the topic was set.
+	 */
+	public synchronized void topicHeard( final String topic, final String nick, final long time )
+	{
+		if ( topicDueTime == 0 )
+			return;
+
+		Topic currentTopic = controller.getTopic();
+		String topicText = topic == null ? "" : topic;
+
+		if ( topicText.equals( currentTopic.getTopic() ) && nick.equals( currentTopic.getNick() )
+				&& time == currentTopic.getTime() )
+		{
+			LOG.log( Level.FINE, "Same topic sent by another user, skipping" );
+			topicDueTime = 0;
+			suppressedTopics++;
+		}
+	}
+
+	/**
+	 * Another user asked everyone to identify. The information about this client
+	 * is sent at a random time within a window that grows with the number of users.
+	 *
+	 * @param userCount The number of users.
+	 * @param now The current time, in milliseconds.
+	 */
+	public synchronized void exposeRequested( final int userCount, final long now )
+	{
+		if ( exposingDueTime != 0 )
+			return;
+
+		exposingDueTime = now + random.nextInt( getExposingWindow( userCount ) );
+		schedule( exposingDueTime );
+	}
+
+	/**
+	 * Sends the answers that are due.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	public void sendDueResponses( final long now )
+	{
+		boolean sendTopic = false;
+		boolean sendExposing = false;
+
+		synchronized ( this )
+		{
+			if ( topicDueTime != 0 && topicDueTime <= now )
+			{
+				topicDueTime = 0;
+				sendTopic = true;
+			}
+
+			if ( exposingDueTime != 0 && exposingDueTime <= now )
+			{
+				exposingDueTime = 0;
+				sendExposing = true;
+			}
+		}
+
+		if ( sendExposing )
+		{
+			controller.sendExposingMessage();
+			controller.sendClientInfo();
+		}
+
+		if ( sendTopic )
+			controller.sendTopicRequestedMessage();
+	}
+
+	/**
+	 * Gets the number of topic answers skipped, because another user sent the same topic.
+	 *
+	 * @return The number of suppressed topics.
+	 */
+	public synchronized long getSuppressedTopics()
+	{
+		return suppressedTopics;
+	}
+
+	/**
+	 * Gets the number of milliseconds to spread the information about
+	 * the clients over.
+	 *
+	 * @param userCount The number of users.
+	 * @return The exposing window.
+	 */
+	static int getExposingWindow( final int userCount )
+	{
+		long window = (long) userCount * EXPOSING_DELAY_PER_USER;
+
+		return (int) Math.min( EXPOSING_MAX_WINDOW, Math.max( EXPOSING_MIN_WINDOW, window ) );
+	}
+
+	/**
+	 * Schedules the answers to be sent at the time.
+	 *
+	 * @param dueTime When to send the answers.
+	 */
+	private void schedule( final long dueTime )
+	{
+		if ( timer == null )
+			return;
+
+		timer.schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				// Don't stop the shared timer
+				try
+				{
+					sendDueResponses( System.currentTimeMillis() );
+				}
+
+				catch ( final RuntimeException e )
+				{
+					LOG.log( Level.SEVERE, e.toString(), e );
+				}
+			}
+		}, Math.max( 0, dueTime - System.currentTimeMillis() ) );
+	}
+}
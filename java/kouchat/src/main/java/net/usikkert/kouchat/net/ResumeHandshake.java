@@ -0,0 +1,176 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Utility methods for continuing a file transfer that stopped before it was done.
+ *
+ * <p>When the receiver already has the first part of the file, it accepts the
+ * transfer with {@link #RESUME_FLAG} and the number of bytes it has. This is
+ * only done when the sender has {@link #FEATURE} in the client info.
+ * When the sender connects, the receiver starts by sending a checksum of the
+ * last bytes of the partial file. The sender compares it with the checksum of the
+ * same bytes in the real file, and answers with the position it will send from:
+ * the offset if they match, or 0 if the partial file is from another file.
+ * The file data follows after that.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class ResumeHandshake
+{
+	/** The name of the feature in the client info of clients that can resume file transfers. */
+	public static final String FEATURE = "resume";
+
+	/** The flag after the type of accepted file transfers that should continue from an offset. */
+	public static final String RESUME_FLAG = "+r";
+
+	/** The number of bytes in the numbers sent during the handshake. */
+	public static final int LONG_SIZE = 8;
+
+	/** The max number of bytes before the offset to compare. */
+	static final int VERIFY_BYTES = 64 * 1024;
+
+	/**
+	 * Private constructor. Only static methods here.
+	 */
+	private ResumeHandshake()
+	{
+
+	}
+
+	/**
+	 * Finds where to continue receiving a file. A file that is empty,
+	 * or not smaller than the file being sent, is received from the start.
+	 *
+	 * @param file The file to save to.
+	 * @param size The size of the file being sent.
+	 * @return The number of bytes already received, or 0 to start over.
+	 */
+	public static long getResumeOffset( final File file, final long size )
+	{
+		if ( !file.isFile() )
+			return 0;
+
+		long length = file.length();
+
+		return length < size ? length : 0;
+	}
+
+	/**
+	 * Adds the resume flag to the end of the type of the message.
+	 *
+	 * @param msg The complete message.
+	 * @param offset Where to continue the file transfer.
+	 * @return The message with the flag.
+	 */
+	static String addFlag( final String msg, final long offset )
+	{
+		int hash = msg.indexOf( '#' );
+
+		return msg.substring( 0, hash ) + RESUME_FLAG + offset + msg.substring( hash );
+	}
+
+	/**
+	 * Calculates the checksum of up to {@link #VERIFY_BYTES} bytes
+	 * just before the offset in the file.
+	 *
+	 * @param fileChannel The file to read from.
+	 * @param offset Where to stop reading.
+	 * @return The checksum.
+	 * @throws IOException If the file could not be read,
+	 *                     or is shorter than the offset.
+	 */
+	public static long checksum( final FileChannel fileChannel, final long offset ) throws IOException
+	{
+		int length = (int) Math.min( offset, VERIFY_BYTES );
+		ByteBuffer buffer = ByteBuffer.allocate( length );
+		long position = offset - length;
+
+		while ( buffer.hasRemaining() )
+		{
+			int read = fileChannel.read( buffer, position + buffer.position() );
+
+			if ( read == -1 )
+				throw new EOFException( "The file is shorter than " + offset + " bytes" );
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update( buffer.array() );
+
+		return crc.getValue();
+	}
+
+	/**
+	 * Creates a buffer with a number to write to the other user.
+	 *
+	 * @param value The number to write.
+	 * @return The buffer, ready for {@link #writeLong(WritableByteChannel, ByteBuffer)}.
+	 */
+	public static ByteBuffer wrapLong( final long value )
+	{
+		ByteBuffer buffer = ByteBuffer.allocate( LONG_SIZE );
+		buffer.putLong( 0, value );
+
+		return buffer;
+	}
+
+	/**
+	 * Writes as much of the number as the channel takes, without waiting for more room.
+	 *
+	 * @param channel The connection to the other user.
+	 * @param buffer The number to write, from {@link #wrapLong(long)}.
+	 * @return If the whole number has been written.
+	 * @throws IOException If the number could not be written.
+	 */
+	public static boolean writeLong( final WritableByteChannel channel, final ByteBuffer buffer ) throws IOException
+	{
+		channel.write( buffer );
+
+		return !buffer.hasRemaining();
+	}
+
+	/**
+	 * Reads as much of a number as the channel has, without waiting for more.
+	 * Get the number with <code>buffer.getLong( 0 )</code> when the whole number is read.
+	 *
+	 * @param channel The connection to the other user.
+	 * @param buffer The buffer to collect the number in, with room for {@link #LONG_SIZE} bytes.
+	 * @return If the whole number has been read.
+	 * @throws IOException If the number could not be read, or the connection was closed.
+	 */
+	public static boolean readLong( final ReadableByteChannel channel, final ByteBuffer buffer ) throws IOException
+	{
+		if ( channel.read( buffer ) == -1 )
+			throw new EOFException( "The connection was closed" );
+
+		return !buffer.hasRemaining();
+	}
+}
@@ -0,0 +1,173 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps the last messages sent with a sequence number, so they can be sent
+ * again when another client reports that a message is missing.
+ *
+ * <p>The messages are kept exactly as they were sent, so nothing needs
+ * to be created again to send them. The buffer is a ring, and the oldest
+ * message is replaced when a new message is added to a full buffer.</p>
+ *
+ * <p>Several clients may report the same missing message at about the
+ * same time. The message is only sent again once within the minimum
+ * interval, so the other reports are ignored.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class RetransmitBuffer
+{
+	/** The flag after the type of messages with a sequence number, followed by the number. */
+	public static final String SEQUENCE_FLAG = "+s";
+
+	/** The name of the feature in the client info of clients that support sequencing. */
+	public static final String FEATURE = "seq";
+
+	/** The messages, by sequence number modulo the capacity. */
+	private final String[] messages;
+
+	/** The sequence number of each message. */
+	private final int[] sequences;
+
+	/** When each message was last sent again. */
+	private final long[] retransmitTimes;
+
+	/** If each message has been sent again. */
+	private final boolean[] retransmitted;
+
+	/** The minimum number of milliseconds between sending the same message. */
+	private final long minInterval;
+
+	/** The last sequence number given out. */
+	private int lastSequence;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity The max number of messages to keep.
+	 * @param minInterval The minimum number of milliseconds between sending the same message.
+	 */
+	public RetransmitBuffer( final int capacity, final long minInterval )
+	{
+		Validate.isTrue( capacity > 0, "Capacity must be positive" );
+		Validate.isTrue( minInterval >= 0, "Interval can not be negative" );
+
+		messages = new String[capacity];
+		sequences = new int[capacity];
+		retransmitTimes = new long[capacity];
+		retransmitted = new boolean[capacity];
+		this.minInterval = minInterval;
+	}
+
+	/**
+	 * Gets the next sequence number. The first is 1.
+	 *
+	 * @return The next sequence number.
+	 */
+	public synchronized int nextSequence()
+	{
+		lastSequence++;
+
+		if ( lastSequence <= 0 )
+			lastSequence = 1;
+
+		return lastSequence;
+	}
+
+	/**
+	 * Gives back the last sequence number, if it was not used after all.
+	 * The same number is then given out next time.
+	 *
+	 * @param sequence The sequence number from {@link #nextSequence()}.
+	 */
+	public synchronized void releaseSequence( final int sequence )
+	{
+		if ( sequence == lastSequence )
+			lastSequence--;
+	}
+
+	/**
+	 * Adds a message that is being sent.
+	 *
+	 * @param sequence The sequence number of the message.
+	 * @param message The complete message, as sent.
+	 */
+	public synchronized void add( final int sequence, final String message )
+	{
+		Validate.notNull( message, "Message can not be null" );
+
+		int slot = getSlot( sequence );
+		messages[slot] = message;
+		sequences[slot] = sequence;
+		retransmitted[slot] = false;
+	}
+
+	/**
+	 * Gets a message to send again.
+	 *
+	 * @param sequence The sequence number of the message.
+	 * @param now The current time, in milliseconds.
+	 * @return The message, or <code>null</code> if it's no longer in the buffer,
+	 *         or was sent again less than the minimum interval ago.
+	 */
+	public synchronized String getRetransmit( final int sequence, final long now )
+	{
+		int slot = getSlot( sequence );
+
+		if ( messages[slot] == null || sequences[slot] != sequence )
+			return null;
+
+		if ( retransmitted[slot] && now - retransmitTimes[slot] < minInterval )
+			return null;
+
+		retransmitTimes[slot] = now;
+		retransmitted[slot] = true;
+
+		return messages[slot];
+	}
+
+	/**
+	 * Gets the max number of messages in the buffer.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity()
+	{
+		return messages.length;
+	}
+
+	/**
+	 * Finds the position of the sequence number in the ring.
+	 *
+	 * @param sequence The sequence number.
+	 * @return The position.
+	 */
+	private int getSlot( final int sequence )
+	{
+		return ( sequence & Integer.MAX_VALUE ) % messages.length;
+	}
+}
@@ -0,0 +1,109 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * This is a JMX MBean for the queue of messages to send.
+ *
+ * @author Christian Ihle
+ */
+public class SenderInformation implements SenderInformationMBean
+{
+	/** The queue to show information about. */
+	private final OutboundQueue outboundQueue;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param outboundQueue The queue to show information about.
+	 */
+	public SenderInformation( final OutboundQueue outboundQueue )
+	{
+		Validate.notNull( outboundQueue, "Outbound queue can not be null" );
+		this.outboundQueue = outboundQueue;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getQueueCapacity()
+	{
+		return outboundQueue.getCapacity();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getQueueDepth()
+	{
+		return outboundQueue.getQueueDepth();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getPeakQueueDepth()
+	{
+		return outboundQueue.getPeakQueueDepth();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getSentMessages()
+	{
+		return outboundQueue.getSentMessages();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getFailedMessages()
+	{
+		return outboundQueue.getFailedMessages();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getDroppedMessages()
+	{
+		return outboundQueue.getDroppedMessages();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getAverageQueueLatency()
+	{
+		return outboundQueue.getAverageQueueLatency();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getMaxQueueLatency()
+	{
+		return outboundQueue.getMaxQueueLatency();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void resetCounters()
+	{
+		outboundQueue.resetCounters();
+	}
+}
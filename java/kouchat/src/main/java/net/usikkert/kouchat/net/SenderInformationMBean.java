@@ -0,0 +1,92 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+/**
+ * This is the JMX MBean interface for the queue of messages to send.
+ *
+ * @author Christian Ihle
+ */
+public interface SenderInformationMBean
+{
+	/** The name of this MBean. */
+	String NAME = "Sender";
+
+	/**
+	 * Gets the maximum number of messages waiting in the queue.
+	 *
+	 * @return The queue capacity.
+	 */
+	int getQueueCapacity();
+
+	/**
+	 * Gets the number of messages waiting in the queue now.
+	 *
+	 * @return The queue depth.
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Gets the highest number of messages waiting in the queue since the last reset.
+	 *
+	 * @return The peak queue depth.
+	 */
+	int getPeakQueueDepth();
+
+	/**
+	 * Gets the number of messages sent since the last reset.
+	 *
+	 * @return The number of sent messages.
+	 */
+	long getSentMessages();
+
+	/**
+	 * Gets the number of messages the network failed to send.
+	 *
+	 * @return The number of failed messages.
+	 */
+	long getFailedMessages();
+
+	/**
+	 * Gets the number of messages dropped because the queue was full or stopped.
+	 *
+	 * @return The number of dropped messages.
+	 */
+	long getDroppedMessages();
+
+	/**
+	 * Gets the average time the messages waited in the queue.
+	 *
+	 * @return The average queue latency in microseconds.
+	 */
+	long getAverageQueueLatency();
+
+	/**
+	 * Gets the longest time a message waited in the queue.
+	 *
+	 * @return The max queue latency in microseconds.
+	 */
+	long getMaxQueueLatency();
+
+	/** Resets the peak queue depth, the message counters and the latencies. */
+	void resetCounters();
+}
@@ -0,0 +1,511 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.event.MissingMessageListener;
+import net.usikkert.kouchat.util.IntHashMap;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps track of the sequence numbers of the messages from each user,
+ * to find messages that are missing, and messages that arrive twice.
+ *
+ * <p>When a gap in the sequence numbers is found, the listener is asked to
+ * report the missing messages after a random delay. If another user reports
+ * the same message first, the report is postponed, as the message is sent
+ * again to everyone. A missing message is reported a few times before
+ * it's given up.</p>
+ *
+ * <p>The last {@link #WINDOW_SIZE} sequence numbers from each user are
+ * remembered, so messages sent again are only given to the application once.</p>
+ *
+ * @author Christian Ihle
+ */
+public class SequenceTracker
+{
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger( SequenceTracker.class.getName() );
+
+	/** The number of sequence numbers remembered from each user. */
+	public static final int WINDOW_SIZE = 64;
+
+	/** The max number of missing messages from each user. */
+	private static final int MAX_MISSING = 32;
+
+	/** The number of times to report a missing message before giving up. */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/** The number of milliseconds to wait for a missing message after it was reported. */
+	private static final int RETRY_INTERVAL = 1000;
+
+	/** The state of each user, by user code. */
+	private final IntHashMap<SenderState> senders;
+
+	/** The state of each user, for going through all of them. */
+	private final List<SenderState> senderList;
+
+	/** The listener to report missing messages to. */
+	private final MissingMessageListener listener;
+
+	/** Random numbers for the delays. */
+	private final Random random;
+
+	/** The timer that reports missing messages, or <code>null</code> to only report when asked. */
+	private final Timer timer;
+
+	/** The shortest delay before reporting a missing message. */
+	private final int minDelay;
+
+	/** The longest delay before reporting a missing message. */
+	private final int maxDelay;
+
+	/** The time of the next scheduled check, or <code>Long.MAX_VALUE</code> if none. */
+	private long nextCheckTime;
+
+	/** The number of missing messages given up. */
+	private long givenUpCount;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param listener The listener to report missing messages to.
+	 * @param random Random numbers for the delays.
+	 * @param timer The timer to check for missing messages to report with, or <code>null</code>
+	 *              if they are only checked when {@link #checkMissing(long)} is called.
+	 * @param minDelay The shortest delay before reporting a missing message, in milliseconds.
+	 * @param maxDelay The longest delay before reporting a missing message, in milliseconds.
+	 */
+	public SequenceTracker( final MissingMessageListener listener, final Random random, final Timer timer,
+			final int minDelay, final int maxDelay )
+	{
+		Validate.notNull( listener, "Listener can not be null" );
+		Validate.notNull( random, "Random can not be null" );
+		Validate.isTrue( minDelay >= 0 && maxDelay >= minDelay, "Invalid delay" );
+
+		this.listener = listener;
+		this.random = random;
+		this.timer = timer;
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		senders = new IntHashMap<SenderState>();
+		senderList = new ArrayList<SenderState>();
+		nextCheckTime = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Registers a message with a sequence number. New gaps in the sequence
+	 * numbers are scheduled to be reported.
+	 *
+	 * <p>The first message from a user only sets the starting point, as there is
+	 * no way to know what came before. A sequence number far behind the last one
+	 * means the user started counting again, so it's used as a new starting point.</p>
+	 *
+	 * @param userCode The user code of the sender.
+	 * @param sequence The sequence number of the message.
+	 * @param now The current time, in milliseconds.
+	 * @return If this is the first time the message arrived.
+	 */
+	public synchronized boolean messageArrived( final int userCode, final int sequence, final long now )
+	{
+		SenderState sender = senders.get( userCode );
+
+		if ( sender == null )
+		{
+			addSender( userCode, sequence );
+			return true;
+		}
+
+		int distance = sequence - sender.highest;
+
+		if ( distance > 0 )
+		{
+			sender.advance( sequence, distance );
+			int firstMissing = Math.max( sequence - distance + 1, sequence - MAX_MISSING );
+
+			for ( int missing = firstMissing; missing < sequence; missing++ )
+			{
+				sender.addMissing( missing, now + getDelay() );
+			}
+
+			if ( distance > 1 )
+				scheduleCheck( now + maxDelay );
+
+			return true;
+		}
+
+		if ( -distance >= WINDOW_SIZE * 2 )
+		{
+			LOG.log( Level.FINE, "Starting over with " + sequence + " from " + userCode );
+			removeSender( userCode );
+			addSender( userCode, sequence );
+			return true;
+		}
+
+		if ( -distance >= WINDOW_SIZE || sender.isReceived( -distance ) )
+			return false;
+
+		sender.setReceived( -distance );
+		sender.removeMissing( sequence );
+
+		return true;
+	}
+
+	/**
+	 * Registers that another user reported a message as missing. The message
+	 * will be sent again to everyone, so our own report is postponed.
+	 *
+	 * @param userCode The user code of the user who sent the missing message.
+	 * @param sequence The sequence number of the missing message.
+	 * @param now The current time, in milliseconds.
+	 */
+	public synchronized void missingReported( final int userCode, final int sequence, final long now )
+	{
+		SenderState sender = senders.get( userCode );
+
+		if ( sender == null )
+			return;
+
+		MissingMessage missing = sender.getMissing( sequence );
+
+		if ( missing != null )
+		{
+			missing.attempts++;
+			missing.dueTime = now + RETRY_INTERVAL + getDelay();
+		}
+	}
+
+	/**
+	 * Reports the missing messages whose delay is over to the listener,
+	 * and gives up messages reported too many times.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	public void checkMissing( final long now )
+	{
+		List<MissingMessage> dueMessages = new ArrayList<MissingMessage>();
+
+		synchronized ( this )
+		{
+			long nextDueTime = Long.MAX_VALUE;
+
+			for ( SenderState sender : senderList )
+			{
+				Iterator<MissingMessage> missingIterator = sender.missingMessages.iterator();
+
+				while ( missingIterator.hasNext() )
+				{
+					MissingMessage missing = missingIterator.next();
+
+					if ( missing.dueTime <= now )
+					{
+						if ( missing.attempts >= MAX_ATTEMPTS )
+						{
+							LOG.log( Level.FINE, "Giving up " + missing.sequence + " from " + missing.userCode );
+							missingIterator.remove();
+							givenUpCount++;
+							continue;
+						}
+
+						missing.attempts++;
+						missing.dueTime = now + RETRY_INTERVAL + getDelay();
+						dueMessages.add( missing );
+					}
+
+					nextDueTime = Math.min( nextDueTime, missing.dueTime );
+				}
+			}
+
+			nextCheckTime = Long.MAX_VALUE;
+
+			if ( nextDueTime != Long.MAX_VALUE )
+				scheduleCheck( nextDueTime );
+		}
+
+		for ( MissingMessage missing : dueMessages )
+		{
+			listener.messageMissing( missing.userCode, missing.sequence );
+		}
+	}
+
+	/**
+	 * Forgets a user, like when the user logs off.
+	 *
+	 * @param userCode The user code of the user.
+	 */
+	public synchronized void removeSender( final int userCode )
+	{
+		SenderState sender = senders.remove( userCode );
+
+		if ( sender != null )
+			senderList.remove( sender );
+	}
+
+	/**
+	 * Gets the number of messages missing from all the users.
+	 *
+	 * @return The number of missing messages.
+	 */
+	public synchronized int getMissingCount()
+	{
+		int count = 0;
+
+		for ( SenderState sender : senderList )
+		{
+			count += sender.missingMessages.size();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the number of missing messages that were given up,
+	 * after being reported too many times.
+	 *
+	 * @return The number of messages given up.
+	 */
+	public synchronized long getGivenUpCount()
+	{
+		return givenUpCount;
+	}
+
+	/**
+	 * Starts keeping track of a new user.
+	 *
+	 * @param userCode The user code of the user.
+	 * @param sequence The first sequence number received.
+	 */
+	private void addSender( final int userCode, final int sequence )
+	{
+		SenderState sender = new SenderState( userCode, sequence );
+		senders.put( userCode, sender );
+		senderList.add( sender );
+	}
+
+	/**
+	 * Gets a random delay before reporting a missing message.
+	 *
+	 * @return The delay, in milliseconds.
+	 */
+	private int getDelay()
+	{
+		return minDelay + random.nextInt( maxDelay - minDelay + 1 );
+	}
+
+	/**
+	 * Schedules a check for missing messages to report, unless
+	 * a check is already scheduled before the time.
+	 *
+	 * @param checkTime When to check.
+	 */
+	private void scheduleCheck( final long checkTime )
+	{
+		if ( timer == null || checkTime >= nextCheckTime )
+			return;
+
+		nextCheckTime = checkTime;
+
+		timer.schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				// Don't stop the shared timer
+				try
+				{
+					checkMissing( System.currentTimeMillis() );
+				}
+
+				catch ( final RuntimeException e )
+				{
+					LOG.log( Level.SEVERE, e.toString(), e );
+				}
+			}
+		}, Math.max( 0, checkTime - System.currentTimeMillis() ) );
+	}
+
+	/**
+	 * The sequence numbers from one user.
+	 */
+	private static final class SenderState
+	{
+		/** The user code of the user. */
+		private final int userCode;
+
+		/** The highest sequence number received. */
+		private int highest;
+
+		/**
+		 * The sequence numbers received, as bits. The lowest bit is the
+		 * highest sequence number, and the next bit the one before.
+		 */
+		private long receivedMask;
+
+		/** The messages missing, oldest first. */
+		private final List<MissingMessage> missingMessages;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param userCode The user code of the user.
+		 * @param sequence The first sequence number received.
+		 */
+		private SenderState( final int userCode, final int sequence )
+		{
+			this.userCode = userCode;
+			highest = sequence;
+			receivedMask = 1;
+			missingMessages = new ArrayList<MissingMessage>();
+		}
+
+		/**
+		 * Moves the highest sequence number forward. Sequence numbers that
+		 * fall out of the window are no longer missing.
+		 *
+		 * @param sequence The new highest sequence number.
+		 * @param distance How far forward the sequence number moved.
+		 */
+		private void advance( final int sequence, final int distance )
+		{
+			highest = sequence;
+
+			if ( distance >= WINDOW_SIZE )
+				receivedMask = 1;
+			else
+				receivedMask = ( receivedMask << distance ) | 1;
+
+			Iterator<MissingMessage> missingIterator = missingMessages.iterator();
+
+			while ( missingIterator.hasNext() )
+			{
+				if ( sequence - missingIterator.next().sequence >= WINDOW_SIZE )
+					missingIterator.remove();
+			}
+		}
+
+		/**
+		 * Checks if the sequence number this far behind the highest was received.
+		 *
+		 * @param behind How far behind the highest.
+		 * @return If it was received.
+		 */
+		private boolean isReceived( final int behind )
+		{
+			return ( receivedMask & ( 1L << behind ) ) != 0;
+		}
+
+		/**
+		 * Marks the sequence number this far behind the highest as received.
+		 *
+		 * @param behind How far behind the highest.
+		 */
+		private void setReceived( final int behind )
+		{
+			receivedMask |= 1L << behind;
+		}
+
+		/**
+		 * Adds a missing message. The oldest missing message is dropped
+		 * when there are too many.
+		 *
+		 * @param sequence The sequence number of the missing message.
+		 * @param dueTime When to report the message.
+		 */
+		private void addMissing( final int sequence, final long dueTime )
+		{
+			if ( missingMessages.size() >= MAX_MISSING )
+				missingMessages.remove( 0 );
+
+			missingMessages.add( new MissingMessage( userCode, sequence, dueTime ) );
+		}
+
+		/**
+		 * Finds a missing message.
+		 *
+		 * @param sequence The sequence number of the message.
+		 * @return The missing message, or <code>null</code> if not missing.
+		 */
+		private MissingMessage getMissing( final int sequence )
+		{
+			for ( MissingMessage missing : missingMessages )
+			{
+				if ( missing.sequence == sequence )
+					return missing;
+			}
+
+			return null;
+		}
+
+		/**
+		 * Removes a missing message that arrived.
+		 *
+		 * @param sequence The sequence number of the message.
+		 */
+		private void removeMissing( final int sequence )
+		{
+			MissingMessage missing = getMissing( sequence );
+
+			if ( missing != null )
+				missingMessages.remove( missing );
+		}
+	}
+
+	/**
+	 * A message that has not arrived.
+	 */
+	private static final class MissingMessage
+	{
+		/** The user code of the user who sent the message. */
+		private final int userCode;
+
+		/** The sequence number of the message. */
+		private final int sequence;
+
+		/** When to report the message. */
+		private long dueTime;
+
+		/** The number of times the message was reported. */
+		private int attempts;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param userCode The user code of the user who sent the message.
+		 * @param sequence The sequence number of the message.
+		 * @param dueTime When to report the message.
+		 */
+		private MissingMessage( final int userCode, final int sequence, final long dueTime )
+		{
+			this.userCode = userCode;
+			this.sequence = sequence;
+			this.dueTime = dueTime;
+		}
+	}
+}
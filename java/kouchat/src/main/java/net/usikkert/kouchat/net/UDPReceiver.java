@@ -22,73 +22,98 @@
 package net.usikkert.kouchat.net;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DatagramListener;
 import net.usikkert.kouchat.event.ReceiverListener;
 import net.usikkert.kouchat.misc.ErrorHandler;
 import net.usikkert.kouchat.misc.Settings;
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * Receives UDP packets sent directly to the IP address
  * of this machine.
  *
+ * <p>The datagram channel is served by the {@link ChannelSelector},
+ * so no thread of its own is needed.</p>
+ *
  * @author Christian Ihle
  */
-public class UDPReceiver implements Runnable
+public class UDPReceiver implements ChannelHandler
 {
 	/** The logger. */
 	private static final Logger LOG = Logger.getLogger( UDPReceiver.class.getName() );
 
-	/** The datagram socket used for receiving messages. */
-	private DatagramSocket udpSocket;
+	/** The datagram channel used for receiving messages. */
+	private DatagramChannel udpChannel;
 
 	/** The listener getting all the messages received here. */
 	private ReceiverListener listener;
 
+	/** The listener getting the raw bytes of all the messages received here. */
+	private DatagramListener datagramListener;
+
 	/** If connected to the network or not. */
 	private boolean connected;
 
-	/** The background thread watching for messages from the network. */
-	private Thread worker;
+	/** The selector watching the channel for new packets. */
+	private final ChannelSelector channelSelector;
 
 	/** The error handler for registering important messages. */
 	private final ErrorHandler errorHandler;
 
+	/** The buffer every packet is received into. */
+	private final byte[] buffer;
+
+	/** The buffer every packet is received into, as a byte buffer. */
+	private final ByteBuffer byteBuffer;
+
+	/** Decodes the messages in the received packets. */
+	private final DatagramDecoder decoder;
+
 	/**
-	 * Default constructor.
+	 * Constructor.
+	 *
+	 * @param channelSelector The selector to register the channel with.
 	 */
-	public UDPReceiver()
+	public UDPReceiver( final ChannelSelector channelSelector )
 	{
+		Validate.notNull( channelSelector, "Channel selector can not be null" );
+		this.channelSelector = channelSelector;
 		errorHandler = ErrorHandler.getErrorHandler();
+		buffer = new byte[Constants.NETWORK_PACKET_SIZE];
+		byteBuffer = ByteBuffer.wrap( buffer );
+		decoder = new DatagramDecoder( buffer );
 	}
 
 	/**
-	 * The run() method of this thread. Checks for new packets,
+	 * Reads all the packets waiting in the channel,
 	 * extracts the message and IP address, and notifies the listener.
+	 *
+	 * <p>Errors while receiving are logged, and the channel is kept,
+	 * so one bad packet does not stop the private chat.</p>
+	 *
+	 * @param key The selection key of the channel.
 	 */
-	public void run()
+	@Override
+	public void channelReady( final SelectionKey key )
 	{
 		while ( connected )
 		{
+			byteBuffer.clear();
+			InetSocketAddress address = null;
+
 			try
 			{
-				DatagramPacket packet = new DatagramPacket(
-						new byte[Constants.NETWORK_PACKET_SIZE], Constants.NETWORK_PACKET_SIZE );
-
-				udpSocket.receive( packet );
-				String ip = packet.getAddress().getHostAddress();
-				String message = new String( packet.getData(), Constants.MESSAGE_CHARSET ).trim();
-				LOG.log( Level.FINE, "Message arrived from " + ip + ": " + message );
-
-				if ( listener != null )
-					listener.messageArrived( message, ip );
+				address = (InetSocketAddress) udpChannel.receive( byteBuffer );
 			}
 
-			// Happens when socket is closed, or network is down
 			catch ( final IOException e )
 			{
 				if ( connected )
@@ -96,12 +121,43 @@ public class UDPReceiver implements Runnable
 				else
 					LOG.log( Level.FINE, e.toString() );
 			}
+
+			if ( address == null )
+				break;
+
+			String ip = decoder.decodeIpAddress( address.getAddress() );
+			notifyListener( byteBuffer.position(), ip );
+		}
+	}
+
+	/**
+	 * Gives the received message to the datagram listener if registered,
+	 * or else decodes the message for the normal listener.
+	 *
+	 * @param length The number of bytes received.
+	 * @param ip The ip address of the sender.
+	 */
+	private void notifyListener( final int length, final String ip )
+	{
+		if ( datagramListener != null )
+		{
+			datagramListener.datagramArrived( buffer, 0, length, ip );
+		}
+
+		else if ( listener != null )
+		{
+			String message = decoder.decodeMessage( length );
+
+			if ( LOG.isLoggable( Level.FINE ) )
+				LOG.log( Level.FINE, "Message arrived from " + ip + ": " + message );
+
+			listener.messageArrived( message, ip );
 		}
 	}
 
 	/**
-	 * Creates a new UDP socket, and starts a thread listening
-	 * on the UDP port. If the UDP port is in use, a new port will be
+	 * Creates a new UDP channel, and registers it with the selector to
+	 * listen on the UDP port. If the UDP port is in use, a new port will be
 	 * tried instead.
 	 */
 	public void startReceiver()
@@ -122,10 +178,10 @@ public class UDPReceiver implements Runnable
 			{
 				try
 				{
-					udpSocket = new DatagramSocket( port );
+					udpChannel = DatagramChannel.open();
+					udpChannel.socket().bind( new InetSocketAddress( port ) );
 					connected = true;
-					worker = new Thread( this, "UDPReceiverWorker" );
-					worker.start();
+					channelSelector.register( udpChannel, SelectionKey.OP_READ, this );
 					Settings.getSettings().getMe().setPrivateChatPort( port );
 					LOG.log( Level.FINE, "Connected." );
 				}
@@ -134,6 +190,8 @@ public class UDPReceiver implements Runnable
 				{
 					LOG.log( Level.SEVERE, e.toString() + " " + port );
 
+					connected = false;
+					closeChannel();
 					counter++;
 					port++;
 					Settings.getSettings().getMe().setPrivateChatPort( 0 );
@@ -154,7 +212,7 @@ public class UDPReceiver implements Runnable
 	}
 
 	/**
-	 * Closes the UDP socket, and stops the thread.
+	 * Unregisters and closes the UDP channel.
 	 */
 	public void stopReceiver()
 	{
@@ -168,13 +226,26 @@ public class UDPReceiver implements Runnable
 		else
 		{
 			connected = false;
+			channelSelector.unregister( udpChannel );
+			closeChannel();
+			LOG.log( Level.FINE, "Disconnected." );
+		}
+	}
 
-			if ( udpSocket != null && !udpSocket.isClosed() )
-			{
-				udpSocket.close();
-			}
+	/**
+	 * Closes the UDP channel, if open.
+	 */
+	private void closeChannel()
+	{
+		try
+		{
+			if ( udpChannel != null && udpChannel.isOpen() )
+				udpChannel.close();
+		}
 
-			LOG.log( Level.FINE, "Disconnected." );
+		catch ( final IOException e )
+		{
+			LOG.log( Level.WARNING, e.toString() );
 		}
 	}
 
@@ -188,4 +259,15 @@ public class UDPReceiver implements Runnable
 	{
 		this.listener = listener;
 	}
+
+	/**
+	 * Registers as the listener to receive the raw bytes of all the messages
+	 * from the network. The bytes are not decoded when this listener is registered.
+	 *
+	 * @param datagramListener The listener to register.
+	 */
+	public void registerDatagramListener( final DatagramListener datagramListener )
+	{
+		this.datagramListener = datagramListener;
+	}
 }
@@ -28,13 +28,15 @@ import java.net.InetAddress;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.misc.ErrorHandler;
 
 /**
  * Sends UDP packets directly to a user. Useful for private chat,
  * where not everyone should get the packets.
  *
+ * <p>The addresses of the users are resolved once, and kept in a
+ * {@link PeerAddressCache} for the next messages.</p>
+ *
  * @author Christian Ihle
  */
 public class UDPSender
@@ -42,6 +44,9 @@ public class UDPSender
 	/** The logger. */
 	private static final Logger LOG = Logger.getLogger( UDPSender.class.getName() );
 
+	/** The number of user addresses to keep resolved. */
+	private static final int PEER_CACHE_SIZE = 64;
+
 	/** The datagram socket used for sending messages. */
 	private DatagramSocket udpSocket;
 
@@ -51,41 +56,57 @@ public class UDPSender
 	/** The error handler for registering important messages. */
 	private final ErrorHandler errorHandler;
 
+	/** Encodes the messages into the reused send buffer. */
+	private final DatagramEncoder encoder;
+
+	/** The packet used for every message. */
+	private final DatagramPacket packet;
+
+	/** The resolved addresses of the users last sent to. */
+	private final PeerAddressCache addressCache;
+
 	/**
 	 * Default constructor.
 	 */
 	public UDPSender()
 	{
 		errorHandler = ErrorHandler.getErrorHandler();
+		encoder = new DatagramEncoder();
+		packet = new DatagramPacket( encoder.getBuffer(), 0 );
+		addressCache = new PeerAddressCache( PEER_CACHE_SIZE );
 	}
 
 	/**
 	 * Sends a packet with a message to a user.
+	 * The message is encoded into a send buffer that is reused for every packet.
 	 *
 	 * @param message The message to send.
 	 * @param ip The ip address of the user.
 	 * @param port The port to send the message to.
 	 * @return If the message was sent or not.
 	 */
-	public boolean send( final String message, final String ip, final int port )
+	public synchronized boolean send( final String message, final String ip, final int port )
 	{
 		if ( connected )
 		{
 			try
 			{
-				InetAddress address = InetAddress.getByName( ip );
-				byte[] encodedMsg = message.getBytes( Constants.MESSAGE_CHARSET );
-				int size = encodedMsg.length;
+				InetAddress address = addressCache.getAddress( ip );
+				int size = encoder.encode( message );
 
-				if ( size > Constants.NETWORK_PACKET_SIZE )
+				if ( encoder.isTruncated() )
 				{
-					LOG.log( Level.WARNING, "Message was " + size + " bytes, which is too large.\n"
-							+ " The receiver might not get the complete message.\n'" + message + "'" );
+					LOG.log( Level.WARNING, "Message was too large, and was cut to " + size + " bytes.\n'"
+							+ message + "'" );
 				}
 
-				DatagramPacket packet = new DatagramPacket( encodedMsg, size, address, port );
+				packet.setData( encoder.getBuffer(), 0, size );
+				packet.setAddress( address );
+				packet.setPort( port );
 				udpSocket.send( packet );
-				LOG.log( Level.FINE, "Sent message: " + message );
+
+				if ( LOG.isLoggable( Level.FINE ) )
+					LOG.log( Level.FINE, "Sent message: " + message );
 
 				return true;
 			}
@@ -100,7 +121,7 @@ public class UDPSender
 	}
 
 	/**
-	 * Closes the UDP socket.
+	 * Closes the UDP socket, and forgets the resolved addresses.
 	 */
 	public void stopSender()
 	{
@@ -120,6 +141,11 @@ public class UDPSender
 				udpSocket.close();
 			}
 
+			synchronized ( this )
+			{
+				addressCache.clear();
+			}
+
 			LOG.log( Level.FINE, "Disconnected." );
 		}
 	}
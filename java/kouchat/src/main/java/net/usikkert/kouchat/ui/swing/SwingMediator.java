@@ -817,10 +817,8 @@ public class SwingMediator implements Mediator, UserInterface
 	{
 		final UserList list = controller.getUserList();
 
-		for ( int i = 0; i < list.size(); i++ )
+		for ( final User user : list )
 		{
-			final User user = list.get( i );
-
 			if ( user.getPrivchat() != null )
 			{
 				if ( !user.isAway() )
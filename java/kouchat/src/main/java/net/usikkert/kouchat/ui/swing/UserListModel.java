@@ -21,8 +21,12 @@
 
 package net.usikkert.kouchat.ui.swing;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
 import javax.swing.AbstractListModel;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.misc.User;
@@ -32,6 +36,10 @@ import net.usikkert.kouchat.misc.UserList;
  * This is the list model for the user list. It's just a facade above
  * the real list containing the users, so it can deliver events on changes.
  *
+ * <p>Changes to users, like when they start and stop writing, are collected
+ * for a short while and delivered as one event, so a busy chat doesn't
+ * repaint the list for every change.</p>
+ *
  * @author Christian Ihle
  */
 public class UserListModel extends AbstractListModel implements UserListListener
@@ -39,9 +47,24 @@ public class UserListModel extends AbstractListModel implements UserListListener
 	/** Default serial version UID. */
 	private static final long serialVersionUID = 1L;
 
+	/** The number of milliseconds to collect changes to users before delivering them. */
+	private static final int CHANGE_DELAY = 40;
+
 	/** The real list of users. */
 	private final UserList userList;
 
+	/** The timer delivering the collected changes. */
+	private final Timer changeTimer;
+
+	/** Lock for the collected changes. */
+	private final Object changeLock;
+
+	/** The first position with changes not delivered yet, or -1 if none. */
+	private int firstChanged;
+
+	/** The last position with changes not delivered yet, or -1 if none. */
+	private int lastChanged;
+
 	/**
 	 * Constructor. Adds this list model as a listener for events
 	 * from the real user list.
@@ -51,9 +74,44 @@ public class UserListModel extends AbstractListModel implements UserListListener
 	public UserListModel( final UserList userList )
 	{
 		this.userList = userList;
+		changeLock = new Object();
+		firstChanged = -1;
+		lastChanged = -1;
+
+		changeTimer = new Timer( CHANGE_DELAY, new ActionListener()
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				fireCollectedChanges();
+			}
+		} );
+
+		changeTimer.setRepeats( false );
 		userList.addUserListListener( this );
 	}
 
+	/**
+	 * Sends a fireContentsChanged() event for the positions changed
+	 * since the last time.
+	 */
+	private void fireCollectedChanges()
+	{
+		int first;
+		int last;
+
+		synchronized ( changeLock )
+		{
+			first = firstChanged;
+			last = Math.min( lastChanged, getSize() - 1 );
+			firstChanged = -1;
+			lastChanged = -1;
+		}
+
+		if ( first != -1 && first <= last )
+			fireContentsChanged( this, first, last );
+	}
+
 	/**
 	 * Returns the user at the specified index position.
 	 *
@@ -82,7 +140,7 @@ public class UserListModel extends AbstractListModel implements UserListListener
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void userAdded( final int pos )
+	public void userAdded( final int pos, final User user )
 	{
 		SwingUtilities.invokeLater( new Runnable()
 		{
@@ -95,19 +153,46 @@ public class UserListModel extends AbstractListModel implements UserListListener
 	}
 
 	/**
-	 * Sends a fireContentsChanged() event.
+	 * Collects the change, and sends a fireContentsChanged() event
+	 * for all the changes when the timer is done.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void userChanged( final int pos, final User user )
+	{
+		synchronized ( changeLock )
+		{
+			if ( firstChanged == -1 )
+			{
+				firstChanged = pos;
+				lastChanged = pos;
+				changeTimer.restart();
+			}
+
+			else
+			{
+				firstChanged = Math.min( firstChanged, pos );
+				lastChanged = Math.max( lastChanged, pos );
+			}
+		}
+	}
+
+	/**
+	 * Sends a fireContentsChanged() event for the positions
+	 * between where the user was and where the user is now.
 	 *
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void userChanged( final int pos )
+	public void userMoved( final int fromPos, final int toPos, final User user )
 	{
 		SwingUtilities.invokeLater( new Runnable()
 		{
 			@Override
 			public void run()
 			{
-				fireContentsChanged( this, pos, pos );
+				fireContentsChanged( this, Math.min( fromPos, toPos ), Math.max( fromPos, toPos ) );
 			}
 		} );
 	}
@@ -118,7 +203,7 @@ public class UserListModel extends AbstractListModel implements UserListListener
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void userRemoved( final int pos )
+	public void userRemoved( final int pos, final User user )
 	{
 		SwingUtilities.invokeLater( new Runnable()
 		{
@@ -0,0 +1,129 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps direct byte buffers for reuse, as they are expensive
+ * to allocate and slow to be freed.
+ *
+ * <p>Buffers are given out with {@link #acquire(int)}, and should be given
+ * back with {@link #release(ByteBuffer)} when done. Only buffers with the asked
+ * capacity are reused, so buffers of an old size are replaced after a while
+ * if the size changes. When the pool is full, the oldest buffer is dropped.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+public class BufferPool
+{
+	/** The highest number of buffers to keep. */
+	private final int maxBuffers;
+
+	/** The buffers not in use, oldest first. */
+	private final LinkedList<ByteBuffer> buffers;
+
+	/** The number of buffers allocated, because none could be reused. */
+	private long allocatedBuffers;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxBuffers The highest number of buffers to keep.
+	 */
+	public BufferPool( final int maxBuffers )
+	{
+		Validate.isTrue( maxBuffers > 0, "Max buffers must be positive" );
+
+		this.maxBuffers = maxBuffers;
+		buffers = new LinkedList<ByteBuffer>();
+	}
+
+	/**
+	 * Gets a cleared direct buffer with the capacity, from the pool if possible.
+	 *
+	 * @param capacity The number of bytes the buffer should have room for.
+	 * @return A buffer ready for use.
+	 */
+	public synchronized ByteBuffer acquire( final int capacity )
+	{
+		Validate.isTrue( capacity > 0, "Capacity must be positive" );
+
+		Iterator<ByteBuffer> iterator = buffers.iterator();
+
+		while ( iterator.hasNext() )
+		{
+			ByteBuffer buffer = iterator.next();
+
+			if ( buffer.capacity() == capacity )
+			{
+				iterator.remove();
+				buffer.clear();
+
+				return buffer;
+			}
+		}
+
+		allocatedBuffers++;
+
+		return ByteBuffer.allocateDirect( capacity );
+	}
+
+	/**
+	 * Gives back a buffer for reuse.
+	 *
+	 * @param buffer The buffer that is no longer in use.
+	 */
+	public synchronized void release( final ByteBuffer buffer )
+	{
+		Validate.notNull( buffer, "Buffer can not be null" );
+
+		if ( buffers.size() >= maxBuffers )
+			buffers.removeFirst();
+
+		buffers.addLast( buffer );
+	}
+
+	/**
+	 * Gets the number of buffers in the pool, not in use.
+	 *
+	 * @return The number of pooled buffers.
+	 */
+	public synchronized int getPooledBuffers()
+	{
+		return buffers.size();
+	}
+
+	/**
+	 * Gets the number of buffers allocated, because none could be reused.
+	 *
+	 * @return The number of allocated buffers.
+	 */
+	public synchronized long getAllocatedBuffers()
+	{
+		return allocatedBuffers;
+	}
+}
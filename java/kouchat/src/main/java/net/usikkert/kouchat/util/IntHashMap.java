@@ -0,0 +1,231 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+/**
+ * A hash map with primitive <code>int</code> keys, to avoid creating an
+ * <code>Integer</code> for every lookup.
+ *
+ * <p>Uses open addressing with linear probing. <code>null</code>
+ * values are not supported.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ *
+ * @author Christian Ihle
+ * @param <V> The type of the values.
+ */
+public class IntHashMap<V>
+{
+	/** The default number of slots. */
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/** The keys. */
+	private int[] keys;
+
+	/** The values, <code>null</code> for free slots. */
+	private Object[] values;
+
+	/** The number of values in the map. */
+	private int size;
+
+	/**
+	 * Constructor.
+	 */
+	public IntHashMap()
+	{
+		keys = new int[DEFAULT_CAPACITY];
+		values = new Object[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key The key.
+	 * @return The value, or <code>null</code> if the key is not in the map.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V get( final int key )
+	{
+		int slot = findSlot( key );
+
+		return (V) values[slot];
+	}
+
+	/**
+	 * Checks if the key is in the map.
+	 *
+	 * @param key The key.
+	 * @return If the key is in the map.
+	 */
+	public boolean containsKey( final int key )
+	{
+		return values[findSlot( key )] != null;
+	}
+
+	/**
+	 * Puts a value in the map, replacing any value with the same key.
+	 *
+	 * @param key The key.
+	 * @param value The value, can not be <code>null</code>.
+	 * @return The previous value of the key, or <code>null</code>.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V put( final int key, final V value )
+	{
+		Validate.notNull( value, "Value can not be null" );
+
+		int slot = findSlot( key );
+		V oldValue = (V) values[slot];
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if ( oldValue == null )
+		{
+			size++;
+
+			// Keep at least half the slots free, so the probe sequences stay short
+			if ( size * 2 > keys.length )
+				resize( keys.length * 2 );
+		}
+
+		return oldValue;
+	}
+
+	/**
+	 * Removes a key from the map.
+	 *
+	 * @param key The key.
+	 * @return The value of the removed key, or <code>null</code> if the key was not in the map.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V remove( final int key )
+	{
+		int slot = findSlot( key );
+		V oldValue = (V) values[slot];
+
+		if ( oldValue == null )
+			return null;
+
+		values[slot] = null;
+		size--;
+
+		// Move back the following keys that would not be found after the free slot
+		int mask = keys.length - 1;
+		int free = slot;
+		int next = ( slot + 1 ) & mask;
+
+		while ( values[next] != null )
+		{
+			int home = hash( keys[next] ) & mask;
+
+			if ( ( ( next - home ) & mask ) >= ( ( next - free ) & mask ) )
+			{
+				keys[free] = keys[next];
+				values[free] = values[next];
+				values[next] = null;
+				free = next;
+			}
+
+			next = ( next + 1 ) & mask;
+		}
+
+		return oldValue;
+	}
+
+	/**
+	 * Gets the number of values in the map.
+	 *
+	 * @return The number of values.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes all the values in the map.
+	 */
+	public void clear()
+	{
+		for ( int i = 0; i < values.length; i++ )
+		{
+			values[i] = null;
+		}
+
+		size = 0;
+	}
+
+	/**
+	 * Finds the slot with the key, or the free slot where the key should be.
+	 *
+	 * @param key The key.
+	 * @return The slot.
+	 */
+	private int findSlot( final int key )
+	{
+		int mask = keys.length - 1;
+		int slot = hash( key ) & mask;
+
+		while ( values[slot] != null && keys[slot] != key )
+			slot = ( slot + 1 ) & mask;
+
+		return slot;
+	}
+
+	/**
+	 * Moves all the values to new arrays with the specified number of slots.
+	 *
+	 * @param capacity The new number of slots, must be a power of 2.
+	 */
+	private void resize( final int capacity )
+	{
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		keys = new int[capacity];
+		values = new Object[capacity];
+
+		for ( int i = 0; i < oldKeys.length; i++ )
+		{
+			if ( oldValues[i] != null )
+			{
+				int slot = findSlot( oldKeys[i] );
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of the key, as similar keys are common.
+	 *
+	 * @param key The key.
+	 * @return The hash of the key.
+	 */
+	private static int hash( final int key )
+	{
+		int hash = key * 0x9E3779B9;
+
+		return hash ^ ( hash >>> 16 );
+	}
+}
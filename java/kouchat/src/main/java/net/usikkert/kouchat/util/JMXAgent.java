@@ -39,8 +39,14 @@ import net.usikkert.kouchat.misc.ControllerInformationMBean;
 import net.usikkert.kouchat.misc.GeneralInformation;
 import net.usikkert.kouchat.misc.GeneralInformationMBean;
 import net.usikkert.kouchat.net.ConnectionWorker;
+import net.usikkert.kouchat.net.DispatcherInformation;
+import net.usikkert.kouchat.net.DispatcherInformationMBean;
+import net.usikkert.kouchat.net.MessageDispatcher;
 import net.usikkert.kouchat.net.NetworkInformation;
 import net.usikkert.kouchat.net.NetworkInformationMBean;
+import net.usikkert.kouchat.net.OutboundQueue;
+import net.usikkert.kouchat.net.SenderInformation;
+import net.usikkert.kouchat.net.SenderInformationMBean;
 
 /**
  * Registers JMX MBeans.
@@ -53,6 +59,9 @@ import net.usikkert.kouchat.net.NetworkInformationMBean;
  * <ul>
  *   <li>{@link NetworkInformation}</li>
  *   <li>{@link ControllerInformation}</li>
+ *   <li>{@link GeneralInformation}</li>
+ *   <li>{@link DispatcherInformation}</li>
+ *   <li>{@link SenderInformation}</li>
  * </ul>
  *
  * @author Christian Ihle
@@ -64,8 +73,11 @@ public class JMXAgent
 	 *
 	 * @param controller The controller.
 	 * @param connectionWorker The connection worker.
+	 * @param messageDispatcher The message dispatcher.
+	 * @param outboundQueue The queue of messages to send.
 	 */
-	public JMXAgent( final Controller controller, final ConnectionWorker connectionWorker )
+	public JMXAgent( final Controller controller, final ConnectionWorker connectionWorker,
+			final MessageDispatcher messageDispatcher, final OutboundQueue outboundQueue )
 	{
 		Logger log = Logger.getLogger( JMXAgent.class.getName() );
 		MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
@@ -89,6 +101,18 @@ public class JMXAgent
 					Constants.APP_NAME + ":name=" + GeneralInformationMBean.NAME );
 			platformMBeanServer.registerMBean(
 					new GeneralInformation(), generalInfoName );
+
+			// DispatcherInformation MBean
+			ObjectName dispatcherInfoName = new ObjectName(
+					Constants.APP_NAME + ":name=" + DispatcherInformationMBean.NAME );
+			platformMBeanServer.registerMBean(
+					new DispatcherInformation( messageDispatcher ), dispatcherInfoName );
+
+			// SenderInformation MBean
+			ObjectName senderInfoName = new ObjectName(
+					Constants.APP_NAME + ":name=" + SenderInformationMBean.NAME );
+			platformMBeanServer.registerMBean(
+					new SenderInformation( outboundQueue ), senderInfoName );
 		}
 
 		catch ( final MalformedObjectNameException e )
@@ -21,7 +21,6 @@
 
 package net.usikkert.kouchat.util;
 
-import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -218,23 +217,68 @@ public final class Tools
 	}
 
 	/**
-	 * Returns the number of bytes a String consists of.
+	 * Returns the number of bytes a String consists of, when encoded
+	 * with the message charset, UTF-8.
+	 *
+	 * <p>The bytes are counted from the characters, without encoding the text,
+	 * so the text is only encoded once, when it's sent. Characters that can't
+	 * be encoded are counted as one byte, as they are replaced
+	 * with a question mark.</p>
 	 *
 	 * @param text The text to count the bytes in.
 	 * @return Number of bytes found in the text.
+	 * @see Constants#MESSAGE_CHARSET
 	 */
 	public static int getBytes( final String text )
 	{
-		try
+		int bytes = 0;
+		int length = text.length();
+		int i = 0;
+
+		while ( i < length )
 		{
-			return text.getBytes( Constants.MESSAGE_CHARSET ).length;
+			int charBytes = getCharBytes( text, i );
+			bytes += charBytes;
+			i += charBytes == 4 ? 2 : 1;
 		}
 
-		catch ( final UnsupportedEncodingException e )
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of bytes the character at the index consists of,
+	 * when encoded with the message charset, UTF-8.
+	 *
+	 * <p>A surrogate pair is counted as one character of 4 bytes, and
+	 * a lone surrogate as 1 byte, like in {@link #getBytes(String)}.
+	 * The next character is 2 positions ahead if the result is 4,
+	 * and 1 position ahead otherwise.</p>
+	 *
+	 * @param text The text containing the character.
+	 * @param index The position of the character in the text.
+	 * @return Number of bytes in the character.
+	 */
+	public static int getCharBytes( final String text, final int index )
+	{
+		char c = text.charAt( index );
+
+		if ( c < 0x80 )
+			return 1;
+		else if ( c < 0x800 )
+			return 2;
+
+		else if ( Character.isHighSurrogate( c ) )
 		{
-			LOG.log( Level.SEVERE, e.toString(), e );
-			return 0;
+			if ( index + 1 < text.length() && Character.isLowSurrogate( text.charAt( index + 1 ) ) )
+				return 4;
+			else
+				return 1;
 		}
+
+		else if ( Character.isLowSurrogate( c ) )
+			return 1;
+		else
+			return 3;
 	}
 
 	/**
@@ -0,0 +1,98 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.autocomplete;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.usikkert.kouchat.misc.SortedUserList;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link UserAutoCompleteList}.
+ *
+ * @author Christian Ihle
+ */
+public class UserAutoCompleteListTest
+{
+	/**
+	 * Tests that the word list follows the user list through a long
+	 * random sequence of added, changed and removed users.
+	 */
+	@Test
+	public void testWordListFollowsUserList()
+	{
+		UserList userList = new SortedUserList();
+		userList.add( new User( "Existing", 0 ) );
+		UserAutoCompleteList autoCompleteList = new UserAutoCompleteList( userList );
+		List<User> users = new ArrayList<User>();
+		Random random = new Random( 42 );
+
+		for ( int i = 1; i < 2000; i++ )
+		{
+			int action = random.nextInt( 3 );
+
+			if ( action == 0 || users.isEmpty() )
+			{
+				User user = new User( "User" + random.nextInt( 100 ), i );
+				users.add( user );
+				userList.add( user );
+			}
+
+			else if ( action == 1 )
+			{
+				User user = users.get( random.nextInt( users.size() ) );
+				user.setNick( "User" + random.nextInt( 100 ) );
+				userList.set( userList.indexOf( user ), user );
+			}
+
+			else
+			{
+				userList.remove( users.remove( random.nextInt( users.size() ) ) );
+			}
+
+			assertWordList( userList, autoCompleteList.getWordList() );
+		}
+	}
+
+	/**
+	 * Checks that the word list has the same nick names as the user list.
+	 *
+	 * @param userList The user list.
+	 * @param wordList The word list from the auto complete list.
+	 */
+	private void assertWordList( final UserList userList, final String[] wordList )
+	{
+		assertEquals( userList.size(), wordList.length );
+
+		for ( int i = 0; i < userList.size(); i++ )
+		{
+			assertEquals( userList.get( i ).getNick(), wordList[i] );
+		}
+	}
+}
@@ -0,0 +1,48 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link IdleThread}.
+ *
+ * @author Christian Ihle
+ */
+public class IdleThreadTest
+{
+	/**
+	 * Tests that the idle interval grows with the number of users,
+	 * between the shortest and longest interval.
+	 */
+	@Test
+	public void testIdleInterval()
+	{
+		assertEquals( 15000, IdleThread.getIdleInterval( 1 ) );
+		assertEquals( 15000, IdleThread.getIdleInterval( 20 ) );
+		assertEquals( 30000, IdleThread.getIdleInterval( 40 ) );
+		assertEquals( 45000, IdleThread.getIdleInterval( 60 ) );
+		assertEquals( 50000, IdleThread.getIdleInterval( 1000 ) );
+	}
+}
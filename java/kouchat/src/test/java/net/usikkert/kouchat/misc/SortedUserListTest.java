@@ -0,0 +1,423 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.usikkert.kouchat.autocomplete.UserAutoCompleteList;
+import net.usikkert.kouchat.event.UserListListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link SortedUserList}.
+ *
+ * @author Christian Ihle
+ */
+public class SortedUserListTest implements UserListListener
+{
+	/** The list being tested. */
+	private SortedUserList userList;
+
+	/** The events received from the list. */
+	private List<String> events;
+
+	/**
+	 * Creates an empty list, with this test as listener.
+	 */
+	@Before
+	public void setUp()
+	{
+		userList = new SortedUserList();
+		userList.addUserListListener( this );
+		events = new ArrayList<String>();
+	}
+
+	/**
+	 * Tests that users are added in sorted position, and that
+	 * users with the same nick name are kept in the order they were added.
+	 */
+	@Test
+	public void testAddKeepsSortOrder()
+	{
+		User kurt = new User( "Kurt", 1 );
+		User anna = new User( "anna", 2 );
+		User zed = new User( "Zed", 3 );
+		User kurt2 = new User( "kurt", 4 );
+
+		userList.add( kurt );
+		userList.add( anna );
+		userList.add( zed );
+		userList.add( kurt2 );
+
+		assertSame( anna, userList.get( 0 ) );
+		assertSame( kurt, userList.get( 1 ) );
+		assertSame( kurt2, userList.get( 2 ) );
+		assertSame( zed, userList.get( 3 ) );
+
+		assertEquals( "added 0 Kurt", events.get( 0 ) );
+		assertEquals( "added 0 anna", events.get( 1 ) );
+		assertEquals( "added 2 Zed", events.get( 2 ) );
+		assertEquals( "added 2 kurt", events.get( 3 ) );
+	}
+
+	/**
+	 * Tests that a change that doesn't affect the sorting gives a change event.
+	 */
+	@Test
+	public void testSetWithoutMove()
+	{
+		User anna = new User( "Anna", 1 );
+		User kurt = new User( "Kurt", 2 );
+		userList.add( anna );
+		userList.add( kurt );
+		events.clear();
+
+		kurt.setAway( true );
+		userList.set( 1, kurt );
+
+		assertEquals( 1, events.size() );
+		assertEquals( "changed 1 Kurt", events.get( 0 ) );
+		assertSame( kurt, userList.get( 1 ) );
+	}
+
+	/**
+	 * Tests that a nick name change moves the user, and gives a move event
+	 * with the old and the new position.
+	 */
+	@Test
+	public void testSetWithMove()
+	{
+		User anna = new User( "Anna", 1 );
+		User kurt = new User( "Kurt", 2 );
+		User zed = new User( "Zed", 3 );
+		userList.add( anna );
+		userList.add( kurt );
+		userList.add( zed );
+		events.clear();
+
+		anna.setNick( "Zoe" );
+		userList.set( 0, anna );
+
+		assertEquals( 1, events.size() );
+		assertEquals( "moved 0 2 Zoe", events.get( 0 ) );
+		assertSame( kurt, userList.get( 0 ) );
+		assertSame( zed, userList.get( 1 ) );
+		assertSame( anna, userList.get( 2 ) );
+
+		anna.setNick( "Adam" );
+		userList.set( 2, anna );
+
+		assertEquals( "moved 2 0 Adam", events.get( 1 ) );
+		assertSame( anna, userList.get( 0 ) );
+	}
+
+	/**
+	 * Tests that set without a position finds the user among users with
+	 * the same nick name, also after the nick name of the user has changed.
+	 */
+	@Test
+	public void testSetWithoutPosition()
+	{
+		User anna = new User( "Anna", 1 );
+		User kurt = new User( "Kurt", 2 );
+		User kurt2 = new User( "kurt", 3 );
+		User zed = new User( "Zed", 4 );
+		userList.add( anna );
+		userList.add( kurt );
+		userList.add( kurt2 );
+		userList.add( zed );
+		events.clear();
+
+		kurt2.setAway( true );
+		assertTrue( userList.set( kurt2 ) );
+		assertEquals( "changed 2 kurt", events.get( 0 ) );
+
+		kurt.setNick( "Zoe" );
+		assertTrue( userList.set( kurt ) );
+		assertEquals( "moved 1 3 Zoe", events.get( 1 ) );
+		assertSame( kurt, userList.get( 3 ) );
+
+		kurt.setAway( true );
+		assertTrue( userList.set( kurt ) );
+		assertEquals( "changed 3 Zoe", events.get( 2 ) );
+
+		assertTrue( userList.remove( kurt2 ) );
+		assertFalse( userList.set( kurt2 ) );
+		assertFalse( userList.set( new User( "Anna", 5 ) ) );
+		assertEquals( 4, events.size() );
+	}
+
+	/**
+	 * Tests that removing a user not in the list gives no event.
+	 */
+	@Test
+	public void testRemoveUnknownUser()
+	{
+		userList.add( new User( "Anna", 1 ) );
+		events.clear();
+
+		assertFalse( userList.remove( new User( "Kurt", 2 ) ) );
+		assertEquals( 0, events.size() );
+	}
+
+	/**
+	 * Tests that an iterator keeps going through the users from when it
+	 * was created, even if the list is changed.
+	 */
+	@Test
+	public void testIteratorIsNotAffectedByChanges()
+	{
+		User anna = new User( "Anna", 1 );
+		User kurt = new User( "Kurt", 2 );
+		userList.add( anna );
+		userList.add( kurt );
+
+		Iterator<User> iterator = userList.iterator();
+		userList.remove( anna );
+		userList.add( new User( "Bob", 3 ) );
+
+		assertSame( anna, iterator.next() );
+		assertSame( kurt, iterator.next() );
+		assertFalse( iterator.hasNext() );
+		assertNull( userList.get( 5 ) );
+	}
+
+	/**
+	 * Tests that set finds the user at the current position if the
+	 * position given is out of date.
+	 */
+	@Test
+	public void testSetWithOutdatedPosition()
+	{
+		User anna = new User( "Anna", 1 );
+		User kurt = new User( "Kurt", 2 );
+		userList.add( anna );
+		userList.add( kurt );
+		userList.add( new User( "Bob", 3 ) );
+		events.clear();
+
+		kurt.setAway( true );
+		userList.set( 1, kurt );
+
+		assertEquals( "changed 2 Kurt", events.get( 0 ) );
+		assertSame( kurt, userList.get( 2 ) );
+		assertEquals( 3, userList.size() );
+	}
+
+	/**
+	 * Adds, changes and removes users from several threads while other threads
+	 * iterate over the list. Checks that there are no exceptions, that the
+	 * list is sorted at the end, and that a listener that keeps its own copy
+	 * of the list from the events ends up with the same users.
+	 *
+	 * @throws Exception If the test fails.
+	 */
+	@Test
+	public void testConcurrentChangesAndIteration() throws Exception
+	{
+		final int writers = 4;
+		final int readers = 4;
+		final int rounds = 2000;
+
+		final UserAutoCompleteList mirror = new UserAutoCompleteList( userList );
+		userList.removeUserListListener( this );
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicInteger writersLeft = new AtomicInteger( writers );
+		final CountDownLatch start = new CountDownLatch( 1 );
+		final CountDownLatch done = new CountDownLatch( writers + readers );
+
+		for ( int w = 0; w < writers; w++ )
+		{
+			final int writer = w;
+
+			startThread( start, done, failure, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Random random = new Random( writer );
+					List<User> own = new ArrayList<User>();
+
+					for ( int i = 0; i < rounds; i++ )
+					{
+						int action = random.nextInt( 3 );
+
+						if ( action == 0 || own.isEmpty() )
+						{
+							User user = new User( "User" + random.nextInt( 50 ), writer * rounds + i );
+							own.add( user );
+							userList.add( user );
+						}
+
+						else if ( action == 1 )
+						{
+							User user = own.get( random.nextInt( own.size() ) );
+
+							user.setNick( "User" + random.nextInt( 50 ) );
+							userList.set( Math.max( 0, userList.indexOf( user ) ), user );
+						}
+
+						else
+						{
+							assertTrue( userList.remove( own.remove( random.nextInt( own.size() ) ) ) );
+						}
+					}
+
+					writersLeft.decrementAndGet();
+				}
+			} );
+		}
+
+		for ( int r = 0; r < readers; r++ )
+		{
+			startThread( start, done, failure, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					while ( writersLeft.get() > 0 )
+					{
+						for ( User user : userList )
+						{
+							assertTrue( user.getNick().startsWith( "User" ) );
+						}
+
+						for ( int i = 0; i < userList.size(); i++ )
+						{
+							userList.get( i );
+						}
+					}
+				}
+			} );
+		}
+
+		start.countDown();
+		done.await();
+
+		if ( failure.get() != null )
+			throw new AssertionError( failure.get() );
+
+		String[] words = mirror.getWordList();
+		List<String> nicks = new ArrayList<String>();
+		assertEquals( userList.size(), words.length );
+
+		for ( int i = 0; i < words.length; i++ )
+		{
+			assertEquals( userList.get( i ).getNick(), words[i] );
+			nicks.add( words[i] );
+		}
+
+		assertSortedNicks( nicks );
+	}
+
+	/**
+	 * Starts a thread that waits for the start signal, runs the task,
+	 * and records any failure.
+	 *
+	 * @param start The start signal.
+	 * @param done Counted down when the task is finished.
+	 * @param failure Where to record a failure.
+	 * @param task The task to run.
+	 */
+	private void startThread( final CountDownLatch start, final CountDownLatch done,
+			final AtomicReference<Throwable> failure, final Runnable task )
+	{
+		new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					start.await();
+					task.run();
+				}
+
+				catch ( final Throwable e )
+				{
+					failure.compareAndSet( null, e );
+				}
+
+				finally
+				{
+					done.countDown();
+				}
+			}
+		} ).start();
+	}
+
+	/**
+	 * Checks that the nick names are sorted, ignoring case.
+	 *
+	 * @param nicks The nick names to check.
+	 */
+	private static void assertSortedNicks( final List<String> nicks )
+	{
+		List<String> sorted = new ArrayList<String>( nicks );
+		Collections.sort( sorted, String.CASE_INSENSITIVE_ORDER );
+		assertEquals( sorted, nicks );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void userAdded( final int pos, final User user )
+	{
+		events.add( "added " + pos + " " + user.getNick() );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void userChanged( final int pos, final User user )
+	{
+		events.add( "changed " + pos + " " + user.getNick() );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void userMoved( final int fromPos, final int toPos, final User user )
+	{
+		events.add( "moved " + fromPos + " " + toPos + " " + user.getNick() );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void userRemoved( final int pos, final User user )
+	{
+		events.add( "removed " + pos + " " + user.getNick() );
+	}
+}
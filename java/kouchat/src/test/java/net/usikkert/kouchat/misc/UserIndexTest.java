@@ -0,0 +1,153 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link UserIndex}.
+ *
+ * @author Christian Ihle
+ */
+public class UserIndexTest
+{
+	/** The user list being indexed. */
+	private UserList userList;
+
+	/** The index being tested. */
+	private UserIndex userIndex;
+
+	/**
+	 * Creates an index of an empty user list.
+	 */
+	@Before
+	public void setUp()
+	{
+		userList = new SortedUserList();
+		userIndex = new UserIndex( userList );
+	}
+
+	/**
+	 * Tests that users already in the list when the index is created are found.
+	 */
+	@Test
+	public void testExistingUsersAreIndexed()
+	{
+		UserList list = new SortedUserList();
+		User user = new User( "Peter", 100 );
+		list.add( user );
+
+		UserIndex index = new UserIndex( list );
+
+		assertSame( user, index.getUser( 100 ) );
+		assertSame( user, index.getUser( "peter" ) );
+	}
+
+	/**
+	 * Tests finding added users by code and nick name, ignoring case.
+	 */
+	@Test
+	public void testGetUser()
+	{
+		User peter = new User( "Peter", 100 );
+		User anna = new User( "Anna", 200 );
+		userList.add( peter );
+		userList.add( anna );
+
+		assertSame( peter, userIndex.getUser( 100 ) );
+		assertSame( anna, userIndex.getUser( 200 ) );
+		assertSame( peter, userIndex.getUser( "PETER" ) );
+		assertSame( anna, userIndex.getUser( "anna" ) );
+		assertNull( userIndex.getUser( 300 ) );
+		assertNull( userIndex.getUser( "Jens" ) );
+	}
+
+	/**
+	 * Tests that removed users are no longer found.
+	 */
+	@Test
+	public void testRemovedUserIsNotFound()
+	{
+		User peter = new User( "Peter", 100 );
+		userList.add( peter );
+		userList.remove( peter );
+
+		assertNull( userIndex.getUser( 100 ) );
+		assertNull( userIndex.getUser( "Peter" ) );
+	}
+
+	/**
+	 * Tests that a user is found by the new nick name after a nick name change.
+	 */
+	@Test
+	public void testNickNameChange()
+	{
+		User peter = new User( "Peter", 100 );
+		userList.add( peter );
+
+		peter.setNick( "Pan" );
+		userList.set( userList.indexOf( peter ), peter );
+
+		assertNull( userIndex.getUser( "Peter" ) );
+		assertSame( peter, userIndex.getUser( "pan" ) );
+		assertSame( peter, userIndex.getUser( 100 ) );
+	}
+
+	/**
+	 * Tests that the nick name of the application user is not reported as in use.
+	 */
+	@Test
+	public void testIsNickNameInUse()
+	{
+		User me = new User( "Me", 100 );
+		me.setMe( true );
+		userList.add( me );
+		userList.add( new User( "Other", 200 ) );
+
+		assertFalse( userIndex.isNickNameInUse( "me" ) );
+		assertTrue( userIndex.isNickNameInUse( "other" ) );
+		assertFalse( userIndex.isNickNameInUse( "nobody" ) );
+	}
+
+	/**
+	 * Tests that two users with the same nick name are both indexed,
+	 * and the nick name is still found after one of them leaves.
+	 */
+	@Test
+	public void testSameNickName()
+	{
+		User first = new User( "Peter", 100 );
+		User second = new User( "Peter", 200 );
+		userList.add( first );
+		userList.add( second );
+		userList.remove( first );
+
+		assertSame( second, userIndex.getUser( "Peter" ) );
+		assertTrue( userIndex.isNickNameInUse( "Peter" ) );
+	}
+}
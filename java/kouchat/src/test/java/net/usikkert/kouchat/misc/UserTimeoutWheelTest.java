@@ -0,0 +1,191 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link UserTimeoutWheel}.
+ *
+ * @author Christian Ihle
+ */
+public class UserTimeoutWheelTest
+{
+	/** Timeout used in the tests. */
+	private static final long TIMEOUT = 10000;
+
+	/** Tick length used in the tests. */
+	private static final long TICK = 1000;
+
+	/** The user list. */
+	private UserList userList;
+
+	/** The wheel being tested. */
+	private UserTimeoutWheel wheel;
+
+	/** The time when the test started. */
+	private long start;
+
+	/**
+	 * Creates an empty user list and a wheel.
+	 */
+	@Before
+	public void setUp()
+	{
+		start = System.currentTimeMillis();
+		userList = new SortedUserList();
+		wheel = new UserTimeoutWheel( userList, TIMEOUT, TICK );
+	}
+
+	/**
+	 * Tests that a user times out when the deadline is due, and not before.
+	 */
+	@Test
+	public void testUserTimesOutAtDeadline()
+	{
+		User user = createUser( "Peter", 100, start );
+
+		assertEquals( 0, wheel.expireUsers( start + TIMEOUT - TICK ).size() );
+
+		List<User> expired = wheel.expireUsers( start + TIMEOUT + TICK );
+		assertEquals( 1, expired.size() );
+		assertSame( user, expired.get( 0 ) );
+		assertEquals( 0, wheel.size() );
+	}
+
+	/**
+	 * Tests that a user that sent an idle message is moved to a new
+	 * deadline instead of timing out.
+	 */
+	@Test
+	public void testIdleMessageMovesDeadline()
+	{
+		User user = createUser( "Peter", 100, start );
+		user.setLastIdle( start + 5000 );
+
+		assertEquals( 0, wheel.expireUsers( start + TIMEOUT + TICK ).size() );
+		assertEquals( 1, wheel.size() );
+		assertTrue( wheel.getNextCheckTime() <= start + 5000 + TIMEOUT + TICK );
+
+		assertEquals( 1, wheel.expireUsers( start + 5000 + TIMEOUT + TICK ).size() );
+	}
+
+	/**
+	 * Tests that removed users and the application user are not tracked.
+	 */
+	@Test
+	public void testRemovedUserAndMeAreNotTracked()
+	{
+		User me = new User( "Me", 1 );
+		me.setMe( true );
+		me.setLastIdle( start );
+		userList.add( me );
+
+		User user = createUser( "Peter", 100, start );
+		userList.remove( user );
+
+		assertEquals( 0, wheel.size() );
+		assertEquals( 0, wheel.expireUsers( start + TIMEOUT * 2 ).size() );
+	}
+
+	/**
+	 * Tests that all users are found after a pause longer than the whole wheel.
+	 */
+	@Test
+	public void testLongPause()
+	{
+		createUser( "Peter", 100, start );
+		createUser( "Anna", 200, start + 3000 );
+
+		assertEquals( 2, wheel.expireUsers( start + TIMEOUT * 5 ).size() );
+		assertEquals( Long.MAX_VALUE, wheel.getNextCheckTime() );
+	}
+
+	/**
+	 * Tests that a user that was added with an old idle time
+	 * times out at the next check.
+	 */
+	@Test
+	public void testOldIdleTime()
+	{
+		createUser( "Peter", 100, start - TIMEOUT * 2 );
+
+		assertEquals( 1, wheel.expireUsers( start + TICK ).size() );
+	}
+
+	/**
+	 * Tests that users advertising a long idle interval get a longer timeout,
+	 * and that the timeout is never shorter than the default.
+	 */
+	@Test
+	public void testTimeoutFromIdleInterval()
+	{
+		UserList otherList = new SortedUserList();
+		UserTimeoutWheel intervalWheel = new UserTimeoutWheel( otherList, TIMEOUT, TICK, 4 );
+
+		User slow = new User( "Slow", 100 );
+		slow.setLastIdle( start );
+		slow.setIdleInterval( 5000 );
+		otherList.add( slow );
+
+		User fast = new User( "Fast", 200 );
+		fast.setLastIdle( start );
+		fast.setIdleInterval( 1000 );
+		otherList.add( fast );
+
+		User old = new User( "Old", 300 );
+		old.setLastIdle( start );
+		otherList.add( old );
+
+		List<User> expired = intervalWheel.expireUsers( start + TIMEOUT + TICK );
+		assertEquals( 2, expired.size() );
+		assertTrue( expired.contains( fast ) );
+		assertTrue( expired.contains( old ) );
+
+		assertEquals( 0, intervalWheel.expireUsers( start + 5000 * 4 - TICK ).size() );
+		assertEquals( 1, intervalWheel.expireUsers( start + 5000 * 4 + TICK ).size() );
+	}
+
+	/**
+	 * Creates a user and adds it to the user list.
+	 *
+	 * @param nick The nick name.
+	 * @param code The user code.
+	 * @param lastIdle The last idle time.
+	 * @return The new user.
+	 */
+	private User createUser( final String nick, final int code, final long lastIdle )
+	{
+		User user = new User( nick, code );
+		user.setLastIdle( lastIdle );
+		userList.add( user );
+
+		return user;
+	}
+}
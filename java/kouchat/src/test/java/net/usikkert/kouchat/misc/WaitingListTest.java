@@ -0,0 +1,154 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link WaitingList}.
+ *
+ * @author Christian Ihle
+ */
+public class WaitingListTest
+{
+	/** The messages delivered by the waiting list. */
+	private final List<String> delivered = new ArrayList<String>();
+
+	/**
+	 * Tests that a user is only added once.
+	 */
+	@Test
+	public void testAddWaitingUser()
+	{
+		WaitingList waitingList = new WaitingList();
+
+		assertFalse( waitingList.isWaitingUser( 100 ) );
+		assertTrue( waitingList.addWaitingUser( 100 ) );
+		assertFalse( waitingList.addWaitingUser( 100 ) );
+		assertTrue( waitingList.isWaitingUser( 100 ) );
+	}
+
+	/**
+	 * Tests that messages are held back until the user is removed,
+	 * and then delivered in the same order as they arrived.
+	 */
+	@Test
+	public void testMessagesDeliveredInOrderWhenRemoved()
+	{
+		WaitingList waitingList = new WaitingList();
+		waitingList.addWaitingUser( 100 );
+		waitingList.addWaitingUser( 200 );
+
+		assertTrue( waitingList.addPendingMessage( 100, message( "first" ) ) );
+		assertTrue( waitingList.addPendingMessage( 200, message( "other user" ) ) );
+		assertTrue( waitingList.addPendingMessage( 100, message( "second" ) ) );
+		assertEquals( 0, delivered.size() );
+
+		waitingList.removeWaitingUser( 100 );
+
+		assertEquals( 2, delivered.size() );
+		assertEquals( "first", delivered.get( 0 ) );
+		assertEquals( "second", delivered.get( 1 ) );
+		assertFalse( waitingList.isWaitingUser( 100 ) );
+		assertTrue( waitingList.isWaitingUser( 200 ) );
+	}
+
+	/**
+	 * Tests that messages from users that are not waiting are not held back.
+	 */
+	@Test
+	public void testMessageFromUserNotWaiting()
+	{
+		WaitingList waitingList = new WaitingList();
+
+		assertFalse( waitingList.addPendingMessage( 100, message( "message" ) ) );
+		waitingList.removeWaitingUser( 100 );
+
+		assertEquals( 0, delivered.size() );
+	}
+
+	/**
+	 * Tests that users who never identify are removed after the timeout,
+	 * and their messages dropped.
+	 *
+	 * @throws InterruptedException If interrupted while sleeping.
+	 */
+	@Test
+	public void testTimeout() throws InterruptedException
+	{
+		WaitingList waitingList = new WaitingList( 50 );
+		waitingList.addWaitingUser( 100 );
+		waitingList.addPendingMessage( 100, message( "message" ) );
+		assertEquals( 0, waitingList.expireWaitingUsers() );
+
+		Thread.sleep( 100 );
+
+		assertEquals( 1, waitingList.expireWaitingUsers() );
+		assertFalse( waitingList.isWaitingUser( 100 ) );
+
+		waitingList.removeWaitingUser( 100 );
+		assertEquals( 0, delivered.size() );
+	}
+
+	/**
+	 * Tests that the number of messages held back for each user is limited.
+	 */
+	@Test
+	public void testMaxPendingMessages()
+	{
+		WaitingList waitingList = new WaitingList();
+		waitingList.addWaitingUser( 100 );
+
+		for ( int i = 0; i < WaitingList.MAX_PENDING_MESSAGES + 10; i++ )
+		{
+			waitingList.addPendingMessage( 100, message( "message " + i ) );
+		}
+
+		waitingList.removeWaitingUser( 100 );
+		assertEquals( WaitingList.MAX_PENDING_MESSAGES, delivered.size() );
+	}
+
+	/**
+	 * Creates a message that is added to the delivered list when run.
+	 *
+	 * @param text The text of the message.
+	 * @return The message.
+	 */
+	private Runnable message( final String text )
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				delivered.add( text );
+			}
+		};
+	}
+}
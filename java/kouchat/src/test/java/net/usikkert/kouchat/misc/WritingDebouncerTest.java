@@ -0,0 +1,138 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+import net.usikkert.kouchat.net.Messages;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link WritingDebouncer}.
+ *
+ * @author Christian Ihle
+ */
+public class WritingDebouncerTest
+{
+	/** The dwell time used in the tests. */
+	private static final int DWELL_TIME = 1000;
+
+	/** Mocked messages, to see what is sent. */
+	private Messages messages;
+
+	/** The debouncer tested here. */
+	private WritingDebouncer debouncer;
+
+	/**
+	 * Creates a debouncer without a timer.
+	 */
+	@Before
+	public void setUp()
+	{
+		messages = mock( Messages.class );
+		debouncer = new WritingDebouncer( messages, DWELL_TIME, null );
+	}
+
+	/**
+	 * Tests that the first change is sent at once.
+	 */
+	@Test
+	public void testFirstChangeIsSentAtOnce()
+	{
+		debouncer.writingChanged( true, 5000 );
+		verify( messages ).sendWritingMessage();
+
+		debouncer.writingChanged( false, 6000 );
+		verify( messages ).sendStoppedWritingMessage();
+	}
+
+	/**
+	 * Tests that a change within the dwell time is sent when the dwell time is over.
+	 */
+	@Test
+	public void testChangeWithinDwellTimeIsHeldBack()
+	{
+		debouncer.writingChanged( true, 5000 );
+		debouncer.writingChanged( false, 5100 );
+		verify( messages, never() ).sendStoppedWritingMessage();
+
+		debouncer.sendDueChange( 5999 );
+		verify( messages, never() ).sendStoppedWritingMessage();
+
+		debouncer.sendDueChange( 6000 );
+		verify( messages ).sendStoppedWritingMessage();
+		verify( messages ).sendWritingMessage();
+	}
+
+	/**
+	 * Tests that changes back and forth within the dwell time are not sent at all.
+	 */
+	@Test
+	public void testFlippingBackIsNotSent()
+	{
+		debouncer.writingChanged( true, 5000 );
+		debouncer.writingChanged( false, 5100 );
+		debouncer.writingChanged( true, 5200 );
+		debouncer.writingChanged( false, 5300 );
+		debouncer.writingChanged( true, 5400 );
+		debouncer.sendDueChange( 6000 );
+
+		verify( messages ).sendWritingMessage();
+		verify( messages, never() ).sendStoppedWritingMessage();
+		assertEquals( 4, debouncer.getSkippedChanges() );
+	}
+
+	/**
+	 * Tests that repeating the same status does nothing.
+	 */
+	@Test
+	public void testSameStatusIsNotSentAgain()
+	{
+		debouncer.writingChanged( false, 5000 );
+		debouncer.writingChanged( true, 5000 );
+		debouncer.writingChanged( true, 7000 );
+
+		verify( messages ).sendWritingMessage();
+		verifyNoMoreInteractions( messages );
+	}
+
+	/**
+	 * Tests that reset forgets the held back change.
+	 */
+	@Test
+	public void testReset()
+	{
+		debouncer.writingChanged( true, 5000 );
+		debouncer.writingChanged( false, 5100 );
+		debouncer.reset();
+		debouncer.sendDueChange( 6000 );
+
+		verify( messages ).sendWritingMessage();
+		verifyNoMoreInteractions( messages );
+
+		debouncer.writingChanged( true, 6100 );
+		verify( messages, times( 2 ) ).sendWritingMessage();
+	}
+}
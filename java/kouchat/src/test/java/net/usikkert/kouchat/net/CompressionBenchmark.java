@@ -0,0 +1,348 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.util.Tools;
+
+/**
+ * Measures the bytes and packets saved by compressing the body of messages
+ * with {@link PayloadCompressor}, against the time spent compressing
+ * and decompressing.
+ *
+ * <p>The messages are sent the same way as by {@link Messages}: bodies
+ * above the threshold are compressed if the result is smaller and fits in
+ * one packet. Chat messages too large for one packet are otherwise
+ * compressed and sent as fragments.</p>
+ *
+ * <p>This is not a unit test, and is not run by the build.
+ * Run the <code>main()</code> method to see the results.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class CompressionBenchmark
+{
+	/** The number of times to compress each corpus in each round. */
+	private static final int REPEATS = 200;
+
+	/** The number of rounds to run, the first ones are warmup. */
+	private static final int ROUNDS = 4;
+
+	/** A typical message header, like <code>12345678!MSG#Christian:</code>. */
+	private static final String HEADER = "12345678!MSG#Christian:";
+
+	/** A typical fragment header, without the text. */
+	private static final String FRAGMENT_HEADER = "12345678!MSGPART#Christian:(12)[0]{3}<-15987646>";
+
+	/** A typical compressed fragment header, without the text. */
+	private static final String COMPRESSED_FRAGMENT_HEADER =
+		"12345678!MSGPART" + PayloadCompressor.TYPE_FLAG + "#Christian:(12)[0]{3}<-15987646>";
+
+	/** The charset used for the messages. */
+	private static final Charset UTF8 = Charset.forName( Constants.MESSAGE_CHARSET );
+
+	/** Everyday chat lines. */
+	private static final String[] CHAT_LINES = {
+		"hi", "morning!", "lunch?", "brb", "anyone seen the new build?",
+		"the build is broken again, who checked in last?",
+		"I'll take a look at it after the meeting",
+		"Skal vi ta en kaffe? Kantina har vafler i dag \u00e6\u00f8\u00e5",
+		"Has anyone tried the new version of the file transfer? It seems a lot faster on the wireless.",
+		"Remember the release meeting at 14:00 in the big room, bring your status reports please",
+		"ok", "thanks :)", "lol", "yes, the server will be down from 18:00 to 20:00 tonight for maintenance",
+		"Could someone send me the slides from yesterday? I can't find them on the share."
+	};
+
+	/**
+	 * Private constructor.
+	 */
+	private CompressionBenchmark()
+	{
+
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args Not in use.
+	 */
+	public static void main( final String[] args )
+	{
+		Random random = new Random( 1234 );
+
+		runCorpus( "Short chat lines", createChatLines( random ) );
+		runCorpus( "Long chat lines", createLongLines( random ) );
+		runCorpus( "Topics and away messages", createTopics( random ) );
+		runCorpus( "Pasted stack traces", createStackTraces( random ) );
+	}
+
+	/**
+	 * Prints the bytes and packets on the wire for a corpus, with and without
+	 * compression, and the time spent compressing and decompressing.
+	 *
+	 * @param name The name of the corpus.
+	 * @param bodies The message bodies in the corpus.
+	 */
+	private static void runCorpus( final String name, final List<String> bodies )
+	{
+		PayloadCompressor compressor = new PayloadCompressor();
+		String compressedHeader = "12345678!MSG" + PayloadCompressor.TYPE_FLAG + "#Christian:";
+		int maxCompressed = Constants.NETWORK_PACKET_SIZE - Tools.getBytes( compressedHeader );
+
+		long plainBytes = 0;
+		long plainPackets = 0;
+		long compressedBytes = 0;
+		long compressedPackets = 0;
+		List<String> compressedBodies = new ArrayList<String>();
+
+		for ( String body : bodies )
+		{
+			int bodyBytes = Tools.getBytes( body );
+			String text = body.substring( body.indexOf( ']' ) + 1 );
+			boolean fragmented = Tools.getBytes( text ) > Constants.MESSAGE_MAX_BYTES;
+			long[] plain;
+
+			if ( fragmented )
+				plain = fragmentsOnWire( text, FRAGMENT_HEADER );
+			else
+				plain = new long[] { Tools.getBytes( HEADER ) + bodyBytes, 1 };
+
+			plainBytes += plain[0];
+			plainPackets += plain[1];
+
+			String compressed = null;
+			long[] onWire = plain;
+
+			if ( bodyBytes > Constants.MESSAGE_COMPRESSION_THRESHOLD )
+			{
+				compressed = compressor.compress( body, Math.min( bodyBytes - 1, maxCompressed ) );
+
+				if ( compressed != null )
+				{
+					onWire = new long[] { Tools.getBytes( compressedHeader ) + compressed.length(), 1 };
+				}
+
+				else if ( fragmented )
+				{
+					compressed = compressor.compress( text, Tools.getBytes( text ) - 1 );
+
+					if ( compressed != null )
+						onWire = fragmentsOnWire( compressed, COMPRESSED_FRAGMENT_HEADER );
+				}
+			}
+
+			if ( compressed != null )
+				compressedBodies.add( compressed );
+
+			compressedBytes += onWire[0];
+			compressedPackets += onWire[1];
+		}
+
+		System.out.println( name + ": " + bodies.size() + " messages, "
+				+ compressedBodies.size() + " compressed" );
+		System.out.println( "  Plain:      " + plainPackets + " packets, " + plainBytes + " bytes" );
+		System.out.println( "  Compressed: " + compressedPackets + " packets, " + compressedBytes + " bytes, "
+				+ Tools.decimalFormat( "0.0", Tools.percent( plainBytes - compressedBytes, plainBytes ) ) + "% saved" );
+
+		if ( compressedBodies.isEmpty() )
+			return;
+
+		byte[][] datagrams = new byte[compressedBodies.size()][];
+
+		for ( int i = 0; i < datagrams.length; i++ )
+		{
+			datagrams[i] = compressedBodies.get( i ).getBytes( UTF8 );
+		}
+
+		byte[] out = new byte[Constants.MESSAGE_MAX_CHAT_BYTES + Constants.NETWORK_PACKET_SIZE];
+		long checksum = 0;
+
+		for ( int round = 1; round <= ROUNDS; round++ )
+		{
+			long start = System.nanoTime();
+
+			for ( int i = 0; i < REPEATS; i++ )
+			{
+				for ( String body : bodies )
+				{
+					if ( Tools.getBytes( body ) > Constants.MESSAGE_COMPRESSION_THRESHOLD )
+					{
+						String compressed = compressor.compress( body, Constants.MESSAGE_MAX_CHAT_BYTES );
+
+						if ( compressed != null )
+							checksum += compressed.length();
+					}
+				}
+			}
+
+			long compressNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+
+			for ( int i = 0; i < REPEATS; i++ )
+			{
+				for ( byte[] datagram : datagrams )
+				{
+					checksum += compressor.decompress( datagram, 0, datagram.length, out, 0, out.length );
+				}
+			}
+
+			long decompressNanos = System.nanoTime() - start;
+
+			System.out.println( "  Round " + round + ": "
+					+ ( compressNanos / ( (long) REPEATS * bodies.size() ) ) + " ns/message to compress, "
+					+ ( decompressNanos / ( (long) REPEATS * datagrams.length ) ) + " ns/message to decompress" );
+		}
+
+		System.out.println( "  Checksum: " + checksum );
+	}
+
+	/**
+	 * Finds the bytes and packets used to send a chat message text as fragments.
+	 *
+	 * @param text The text to send, without the color field.
+	 * @param header The header of each packet, including the fields.
+	 * @return The number of bytes and the number of packets.
+	 */
+	private static long[] fragmentsOnWire( final String text, final String header )
+	{
+		List<String> fragments = Messages.splitMessage( text, Constants.MESSAGE_FRAGMENT_BYTES );
+		long bytes = 0;
+
+		for ( String fragment : fragments )
+		{
+			bytes += Tools.getBytes( header ) + Tools.getBytes( fragment );
+		}
+
+		return new long[] { bytes, fragments.size() };
+	}
+
+	/**
+	 * Creates a corpus of everyday chat lines.
+	 *
+	 * @param random The random generator to use.
+	 * @return The message bodies.
+	 */
+	private static List<String> createChatLines( final Random random )
+	{
+		List<String> bodies = new ArrayList<String>();
+
+		for ( int i = 0; i < 500; i++ )
+		{
+			bodies.add( "[-15987646]" + CHAT_LINES[random.nextInt( CHAT_LINES.length )] );
+		}
+
+		return bodies;
+	}
+
+	/**
+	 * Creates a corpus of long chat lines, of several sentences.
+	 *
+	 * @param random The random generator to use.
+	 * @return The message bodies.
+	 */
+	private static List<String> createLongLines( final Random random )
+	{
+		List<String> bodies = new ArrayList<String>();
+
+		for ( int i = 0; i < 200; i++ )
+		{
+			StringBuilder line = new StringBuilder( "[-15987646]" );
+			int sentences = 2 + random.nextInt( 4 );
+
+			for ( int j = 0; j < sentences; j++ )
+			{
+				line.append( CHAT_LINES[random.nextInt( CHAT_LINES.length )] ).append( ' ' );
+			}
+
+			bodies.add( line.toString().trim() );
+		}
+
+		return bodies;
+	}
+
+	/**
+	 * Creates a corpus of topics and away messages.
+	 *
+	 * @param random The random generator to use.
+	 * @return The message bodies.
+	 */
+	private static List<String> createTopics( final Random random )
+	{
+		String[] topics = {
+			"Release 1.1 is out! Download it from the usual place, and report bugs to the list",
+			"Gone home for the day, call me on the mobile if the server goes down again",
+			"In meetings until 15:00, send me a private message if it's urgent",
+			"Sprint 14: file transfer, private chat fixes and the new settings dialog. Demo on friday."
+		};
+
+		List<String> bodies = new ArrayList<String>();
+
+		for ( int i = 0; i < 100; i++ )
+		{
+			bodies.add( "(Christian)[1234567890123]" + topics[random.nextInt( topics.length )] );
+		}
+
+		return bodies;
+	}
+
+	/**
+	 * Creates a corpus of pasted stack traces, from 5 to 80 lines.
+	 *
+	 * @param random The random generator to use.
+	 * @return The message bodies.
+	 */
+	private static List<String> createStackTraces( final Random random )
+	{
+		String[] frames = {
+			"net.usikkert.kouchat.net.MessageParser.datagramArrived(MessageParser.java:",
+			"net.usikkert.kouchat.net.MessageDispatcher.run(MessageDispatcher.java:",
+			"net.usikkert.kouchat.misc.Controller.sendChatMessage(Controller.java:",
+			"net.usikkert.kouchat.ui.swing.SwingMediator.write(SwingMediator.java:",
+			"javax.swing.JTextField.fireActionPerformed(JTextField.java:",
+			"java.awt.EventDispatchThread.pumpOneEventForFilters(EventDispatchThread.java:",
+			"java.lang.Thread.run(Thread.java:"
+		};
+
+		List<String> bodies = new ArrayList<String>();
+
+		for ( int i = 0; i < 50; i++ )
+		{
+			StringBuilder trace = new StringBuilder( "[-15987646]java.lang.NullPointerException" );
+			int lines = 5 + random.nextInt( 76 );
+
+			for ( int j = 0; j < lines && trace.length() < Constants.MESSAGE_MAX_CHAT_BYTES - 100; j++ )
+			{
+				trace.append( " at " ).append( frames[random.nextInt( frames.length )] )
+					.append( 10 + random.nextInt( 700 ) ).append( ')' );
+			}
+
+			bodies.add( trace.toString() );
+		}
+
+		return bodies;
+	}
+}
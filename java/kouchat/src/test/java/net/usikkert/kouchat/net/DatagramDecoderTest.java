@@ -0,0 +1,240 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import net.usikkert.kouchat.Constants;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link DatagramDecoder}.
+ *
+ * @author Christian Ihle
+ */
+public class DatagramDecoderTest
+{
+	/** Number of datagrams to receive in the allocation test. */
+	private static final int DATAGRAMS = 20000;
+
+	/** The receive buffer. */
+	private byte[] buffer;
+
+	/** The reused packet. */
+	private DatagramPacket packet;
+
+	/** The decoder being tested. */
+	private DatagramDecoder decoder;
+
+	/**
+	 * Creates a new receive buffer and decoder before each test.
+	 */
+	@Before
+	public void createDecoder()
+	{
+		buffer = new byte[Constants.NETWORK_PACKET_SIZE];
+		packet = new DatagramPacket( buffer, buffer.length );
+		decoder = new DatagramDecoder( buffer );
+	}
+
+	/**
+	 * Tests that only the received bytes are decoded, even if the
+	 * buffer contains data from a previous and longer message.
+	 *
+	 * @throws Exception In case of encoding errors.
+	 */
+	@Test
+	public void testOnlyReceivedLengthIsDecoded() throws Exception
+	{
+		receive( "11515687!MSG#Christian:[-15987646]A long message from before" );
+		assertEquals( "11515687!MSG#Christian:[-15987646]A long message from before",
+				decoder.decodeMessage( packet.getLength() ) );
+
+		receive( "11515687!IDLE#Christian:" );
+		assertEquals( "11515687!IDLE#Christian:", decoder.decodeMessage( packet.getLength() ) );
+	}
+
+	/**
+	 * Tests that whitespace is trimmed, like it was when the whole buffer was decoded.
+	 *
+	 * @throws Exception In case of encoding errors.
+	 */
+	@Test
+	public void testMessageIsTrimmed() throws Exception
+	{
+		receive( "  11515687!AWAY#Christian:gone \n" );
+		assertEquals( "11515687!AWAY#Christian:gone", decoder.decodeMessage( packet.getLength() ) );
+
+		receive( " \t " );
+		assertEquals( "", decoder.decodeMessage( packet.getLength() ) );
+	}
+
+	/**
+	 * Tests that multi byte characters are decoded correctly.
+	 *
+	 * @throws Exception In case of encoding errors.
+	 */
+	@Test
+	public void testMultiByteCharacters() throws Exception
+	{
+		receive( "11515687!MSG#Christian:[-15987646]Bl\u00e5b\u00e6rsyltet\u00f8y \u20ac \ud834\udd1e" );
+		assertEquals( "11515687!MSG#Christian:[-15987646]Bl\u00e5b\u00e6rsyltet\u00f8y \u20ac \ud834\udd1e",
+				decoder.decodeMessage( packet.getLength() ) );
+	}
+
+	/**
+	 * Tests that a message cut in the middle of a character is decoded
+	 * with a replacement character instead of failing.
+	 *
+	 * @throws Exception In case of encoding errors.
+	 */
+	@Test
+	public void testTruncatedCharacterIsReplaced() throws Exception
+	{
+		receive( "abc\u00f8" );
+		assertEquals( "abc\ufffd", decoder.decodeMessage( packet.getLength() - 1 ) );
+
+		receive( "abc" );
+		assertEquals( "abc", decoder.decodeMessage( packet.getLength() ) );
+	}
+
+	/**
+	 * Tests decoding of a message at an offset in the buffer.
+	 *
+	 * @throws Exception In case of encoding errors.
+	 */
+	@Test
+	public void testDecodeWithOffset() throws Exception
+	{
+		receive( "xxxx11515687!BACK#Christian:" );
+		assertEquals( "11515687!BACK#Christian:", decoder.decodeMessage( 4, packet.getLength() - 4 ) );
+	}
+
+	/**
+	 * Tests that the ip address string is reused for the same address,
+	 * and updated when the address changes.
+	 *
+	 * @throws UnknownHostException If the addresses are invalid.
+	 */
+	@Test
+	public void testIpAddressIsCached() throws UnknownHostException
+	{
+		String ip1 = decoder.decodeIpAddress( InetAddress.getByName( "192.168.1.2" ) );
+		String ip2 = decoder.decodeIpAddress( InetAddress.getByName( "192.168.1.2" ) );
+		String ip3 = decoder.decodeIpAddress( InetAddress.getByName( "192.168.1.3" ) );
+
+		assertEquals( "192.168.1.2", ip1 );
+		assertSame( ip1, ip2 );
+		assertEquals( "192.168.1.3", ip3 );
+	}
+
+	/**
+	 * Tests that the steady state receive loop, with a reused packet,
+	 * allocates no more memory per datagram than the delivered message itself.
+	 *
+	 * @throws Exception In case of encoding errors.
+	 */
+	@Test
+	public void testNoAllocationBeyondDeliveredMessage() throws Exception
+	{
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue( threadBean instanceof com.sun.management.ThreadMXBean );
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue( allocationBean.isThreadAllocatedMemorySupported() );
+		allocationBean.setThreadAllocatedMemoryEnabled( true );
+
+		byte[] datagram = "11515687!MSG#Christian:[-15987646]Hello there, how are you?".getBytes( Constants.MESSAGE_CHARSET );
+		char[] expected = new String( datagram, Constants.MESSAGE_CHARSET ).toCharArray();
+		String[] sink = new String[1];
+
+		// Warm up, so the measurements are of compiled code
+		for ( int i = 0; i < DATAGRAMS; i++ )
+		{
+			sink[0] = new String( expected, 0, expected.length );
+			receiveLoop( datagram, sink );
+		}
+
+		long threadId = Thread.currentThread().getId();
+
+		long before = allocationBean.getThreadAllocatedBytes( threadId );
+
+		for ( int i = 0; i < DATAGRAMS; i++ )
+		{
+			sink[0] = new String( expected, 0, expected.length );
+		}
+
+		long messageOnly = allocationBean.getThreadAllocatedBytes( threadId ) - before;
+
+		before = allocationBean.getThreadAllocatedBytes( threadId );
+
+		for ( int i = 0; i < DATAGRAMS; i++ )
+		{
+			receiveLoop( datagram, sink );
+		}
+
+		long receiveLoop = allocationBean.getThreadAllocatedBytes( threadId ) - before;
+
+		assertEquals( new String( expected ), sink[0] );
+
+		// Allow a few bytes per datagram for the measurement itself
+		long perDatagramOverhead = ( receiveLoop - messageOnly ) / DATAGRAMS;
+		assertTrue( "Allocated " + perDatagramOverhead + " extra bytes per datagram", perDatagramOverhead <= 2 );
+	}
+
+	/**
+	 * One iteration of the receive loop, with the network replaced by a copy
+	 * of the datagram into the reused packet.
+	 *
+	 * @param datagram The datagram to receive.
+	 * @param sink Where to store the delivered message.
+	 */
+	private void receiveLoop( final byte[] datagram, final String[] sink )
+	{
+		packet.setLength( buffer.length );
+		System.arraycopy( datagram, 0, packet.getData(), 0, datagram.length );
+		packet.setLength( datagram.length );
+		sink[0] = decoder.decodeMessage( packet.getLength() );
+	}
+
+	/**
+	 * Simulates receiving a message into the reused packet.
+	 *
+	 * @param message The message to receive.
+	 * @throws Exception In case of encoding errors.
+	 */
+	private void receive( final String message ) throws Exception
+	{
+		byte[] bytes = message.getBytes( Constants.MESSAGE_CHARSET );
+		packet.setLength( buffer.length );
+		System.arraycopy( bytes, 0, packet.getData(), 0, bytes.length );
+		packet.setLength( bytes.length );
+	}
+}
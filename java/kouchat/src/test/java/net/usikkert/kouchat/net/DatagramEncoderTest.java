@@ -0,0 +1,118 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+
+import net.usikkert.kouchat.Constants;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link DatagramEncoder}.
+ *
+ * @author Christian Ihle
+ */
+public class DatagramEncoderTest
+{
+	/**
+	 * Tests that messages are encoded into the same buffer, with the same
+	 * bytes as {@link String#getBytes(String)}.
+	 *
+	 * @throws UnsupportedEncodingException If the charset is missing.
+	 */
+	@Test
+	public void testEncodeReusesBuffer() throws UnsupportedEncodingException
+	{
+		DatagramEncoder encoder = new DatagramEncoder();
+		byte[] buffer = encoder.getBuffer();
+
+		assertEncoded( encoder, "123!IDLE#nick:" );
+		assertEncoded( encoder, "123!MSG#nick:[-1]bl\u00e5b\u00e6r \u20ac \ud83d\ude00" );
+		assertEncoded( encoder, "" );
+
+		assertSame( buffer, encoder.getBuffer() );
+	}
+
+	/**
+	 * Tests that messages larger than a packet are cut after the last
+	 * whole character that fits.
+	 *
+	 * @throws UnsupportedEncodingException If the charset is missing.
+	 */
+	@Test
+	public void testEncodeLargeMessage() throws UnsupportedEncodingException
+	{
+		DatagramEncoder encoder = new DatagramEncoder();
+		StringBuilder message = new StringBuilder();
+
+		// 3 bytes each, and the packet size is not divisible by 3
+		while ( message.length() < Constants.NETWORK_PACKET_SIZE )
+		{
+			message.append( "\u20ac" );
+		}
+
+		int fits = Constants.NETWORK_PACKET_SIZE / 3;
+		int length = encoder.encode( message.toString() );
+
+		assertTrue( encoder.isTruncated() );
+		assertEquals( fits * 3, length );
+		assertEquals( message.substring( 0, fits ),
+				new String( encoder.getBuffer(), 0, length, Constants.MESSAGE_CHARSET ) );
+
+		// A surrogate pair is never split
+		String pairs = "a" + message.toString().replace( "\u20ac", "\ud83d\ude00" );
+		length = encoder.encode( pairs );
+
+		assertTrue( encoder.isTruncated() );
+		assertEquals( 1 + ( Constants.NETWORK_PACKET_SIZE - 1 ) / 4 * 4, length );
+
+		assertEncoded( encoder, "short" );
+		assertFalse( encoder.isTruncated() );
+	}
+
+	/**
+	 * Checks that the encoder gives the same bytes as {@link String#getBytes(String)}.
+	 *
+	 * @param encoder The encoder to test.
+	 * @param message The message to encode.
+	 * @throws UnsupportedEncodingException If the charset is missing.
+	 */
+	private void assertEncoded( final DatagramEncoder encoder, final String message )
+		throws UnsupportedEncodingException
+	{
+		byte[] expected = message.getBytes( Constants.MESSAGE_CHARSET );
+		int length = encoder.encode( message );
+
+		assertEquals( expected.length, length );
+
+		for ( int i = 0; i < length; i++ )
+		{
+			assertEquals( expected[i], encoder.getBuffer()[i] );
+		}
+	}
+}
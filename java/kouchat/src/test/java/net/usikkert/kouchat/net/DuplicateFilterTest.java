@@ -0,0 +1,146 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link DuplicateFilter}.
+ *
+ * @author Christian Ihle
+ */
+public class DuplicateFilterTest
+{
+	/** The number of milliseconds each generation lasts. */
+	private static final int WINDOW = 200;
+
+	/** The filter tested here. */
+	private DuplicateFilter filter;
+
+	/**
+	 * Creates a new filter.
+	 */
+	@Before
+	public void setUp()
+	{
+		filter = new DuplicateFilter( 16, WINDOW );
+	}
+
+	/**
+	 * Tests that repeats are found, and that only the bytes
+	 * of the datagram are compared.
+	 */
+	@Test
+	public void testRepeatIsFound()
+	{
+		assertFalse( isDuplicate( "xx1234!MSG#Nick:[0]Hello", 2, 10000 ) );
+		assertTrue( isDuplicate( "1234!MSG#Nick:[0]Hello", 0, 10001 ) );
+		assertFalse( isDuplicate( "1234!MSG#Nick:[0]Hello!", 0, 10002 ) );
+		assertFalse( isDuplicate( "1234!MSG#Nick:[0]Hell", 0, 10003 ) );
+	}
+
+	/**
+	 * Tests that repeats are found in the previous generation, and
+	 * forgotten after that.
+	 */
+	@Test
+	public void testRepeatsExpire()
+	{
+		assertFalse( isDuplicate( "1234!IDLE#Nick:", 0, 10000 ) );
+		assertTrue( isDuplicate( "1234!IDLE#Nick:", 0, 10000 + WINDOW + 10 ) );
+		assertFalse( isDuplicate( "1234!IDLE#Nick:", 0, 10000 + WINDOW * 3 ) );
+		assertFalse( isDuplicate( "1234!IDLE#Nick:", 0, 10000 + WINDOW * 5 ) );
+		assertTrue( isDuplicate( "1234!IDLE#Nick:", 0, 10000 + WINDOW * 5 + 1 ) );
+	}
+
+	/**
+	 * Tests that a full generation is replaced, so the memory used stays the same,
+	 * and the latest datagrams are still found.
+	 */
+	@Test
+	public void testFullGeneration()
+	{
+		for ( int i = 0; i < 100; i++ )
+		{
+			assertFalse( isDuplicate( "1234!IDLE#Nick" + i + ":", 0, 10000 ) );
+		}
+
+		assertTrue( isDuplicate( "1234!IDLE#Nick99:", 0, 10000 ) );
+		assertTrue( isDuplicate( "1234!IDLE#Nick90:", 0, 10000 ) );
+		assertFalse( isDuplicate( "1234!IDLE#Nick0:", 0, 10000 ) );
+	}
+
+	/**
+	 * Tests that the same message from different ip addresses is not a repeat.
+	 */
+	@Test
+	public void testDifferentSenders()
+	{
+		assertFalse( isDuplicate( "10.0.0.1", "1234!WRITING#Nick:", 10000 ) );
+		assertFalse( isDuplicate( "10.0.0.2", "1234!WRITING#Nick:", 10001 ) );
+		assertTrue( isDuplicate( "10.0.0.1", "1234!WRITING#Nick:", 10002 ) );
+		assertFalse( isDuplicate( "10.0.0.11", "234!WRITING#Nick:", 10003 ) );
+	}
+
+	/**
+	 * Tests that everything is forgotten if the clock goes backwards.
+	 */
+	@Test
+	public void testClockGoesBackwards()
+	{
+		assertFalse( isDuplicate( "1234!IDLE#Nick:", 0, 10000 ) );
+		assertFalse( isDuplicate( "1234!IDLE#Nick:", 0, 5000 ) );
+		assertTrue( isDuplicate( "1234!IDLE#Nick:", 0, 5000 ) );
+	}
+
+	/**
+	 * Checks if the message is a duplicate.
+	 *
+	 * @param message The message, as a datagram.
+	 * @param offset Where in the datagram the message starts.
+	 * @param now The current time, in milliseconds.
+	 * @return If the message is a duplicate.
+	 */
+	private boolean isDuplicate( final String message, final int offset, final long now )
+	{
+		byte[] data = message.getBytes();
+		return filter.isDuplicate( "10.0.0.1", data, offset, data.length - offset, now );
+	}
+
+	/**
+	 * Checks if the message from the ip address is a duplicate.
+	 *
+	 * @param ipAddress The ip address of the sender.
+	 * @param message The message, as a datagram.
+	 * @param now The current time, in milliseconds.
+	 * @return If the message is a duplicate.
+	 */
+	private boolean isDuplicate( final String ipAddress, final String message, final long now )
+	{
+		byte[] data = message.getBytes();
+		return filter.isDuplicate( ipAddress, data, 0, data.length, now );
+	}
+}
@@ -0,0 +1,343 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import net.usikkert.kouchat.event.FileTransferListener;
+import net.usikkert.kouchat.event.TransferDoneListener;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.Tools;
+
+/**
+ * Measures the throughput of sending a file over the loopback interface
+ * with {@link FileSender}, against the old way of copying the file
+ * through a 1024 byte array.
+ *
+ * <p>A thread on the other end reads and throws away everything it gets,
+ * and the time is taken when it has read the whole file.</p>
+ *
+ * <p>This is not a unit test, and is not run by the build.
+ * Run the <code>main()</code> method to see the results.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class FileSenderBenchmark
+{
+	/** The size of the file to send. */
+	private static final long FILE_SIZE = 256L * 1024 * 1024;
+
+	/** The number of rounds to run, the first ones are warmup. */
+	private static final int ROUNDS = 4;
+
+	/** The selector serving the connection of the file sender. */
+	private static final ChannelSelector CHANNEL_SELECTOR = new ChannelSelector();
+
+	/** The address of the loopback interface. */
+	private static InetAddress loopback;
+
+	/**
+	 * Private constructor.
+	 */
+	private FileSenderBenchmark()
+	{
+
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args Not in use.
+	 * @throws Exception If the benchmark fails.
+	 */
+	public static void main( final String[] args ) throws Exception
+	{
+		loopback = InetAddress.getByName( "127.0.0.1" );
+		File file = File.createTempFile( "kouchat-benchmark", ".bin" );
+		file.deleteOnExit();
+
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		raf.setLength( FILE_SIZE );
+		raf.close();
+
+		System.out.println( "Sending " + FILE_SIZE / ( 1024 * 1024 ) + " MB over " + loopback );
+
+		for ( int round = 1; round <= ROUNDS; round++ )
+		{
+			long streamTime = sendWithStream( file );
+			long channelTime = sendWithFileSender( file );
+
+			System.out.println( "Round " + round + ":" );
+			System.out.println( "  1024 byte stream copy: " + format( streamTime ) );
+			System.out.println( "  FileSender transferTo: " + format( channelTime ) );
+		}
+
+		file.delete();
+	}
+
+	/**
+	 * Sends the file the way it was done before, through a 1024 byte array.
+	 *
+	 * @param file The file to send.
+	 * @return The number of nanoseconds until the whole file was read at the other end.
+	 * @throws Exception If the sending fails.
+	 */
+	private static long sendWithStream( final File file ) throws Exception
+	{
+		ServerSocket server = new ServerSocket( 0, 1, loopback );
+		Drainer drainer = new Drainer( server );
+		drainer.start();
+
+		Socket socket = new Socket( loopback, server.getLocalPort() );
+		long start = System.nanoTime();
+		InputStream is = new FileInputStream( file );
+		OutputStream os = socket.getOutputStream();
+		byte[] b = new byte[1024];
+		int read = 0;
+
+		while ( ( read = is.read( b ) ) != -1 )
+		{
+			os.write( b, 0, read );
+		}
+
+		os.flush();
+		is.close();
+		socket.close();
+
+		return drainer.waitFor( file.length() ) - start;
+	}
+
+	/**
+	 * Sends the file with {@link FileSender}.
+	 *
+	 * @param file The file to send.
+	 * @return The number of nanoseconds until the whole file was read at the other end.
+	 * @throws Exception If the sending fails.
+	 */
+	private static long sendWithFileSender( final File file ) throws Exception
+	{
+		ServerSocket server = new ServerSocket( 0, 1, loopback );
+		Drainer drainer = new Drainer( server );
+		drainer.start();
+
+		User user = new User( "Benchmark", 1234 );
+		user.setIpAddress( loopback.getHostAddress() );
+
+		FileSender sender = new FileSender( user, file, CHANNEL_SELECTOR, null );
+		TimingListener listener = new TimingListener();
+		sender.registerListener( listener );
+		sender.transfer( server.getLocalPort(), 0, listener );
+		long endTime = drainer.waitFor( file.length() );
+
+		if ( !listener.waitForResult() )
+			throw new IOException( "The file was not sent" );
+
+		return endTime - listener.startTime;
+	}
+
+	/**
+	 * Formats the time and the throughput.
+	 *
+	 * @param nanos The number of nanoseconds spent sending the file.
+	 * @return The formatted result.
+	 */
+	private static String format( final long nanos )
+	{
+		double seconds = nanos / 1000000000.0;
+		double megabytes = FILE_SIZE / ( 1024.0 * 1024.0 );
+
+		return Tools.decimalFormat( "0", nanos / 1000000.0 ) + " ms, "
+				+ Tools.decimalFormat( "0.0", megabytes / seconds ) + " MB/s";
+	}
+
+	/**
+	 * Accepts one connection, and reads and throws away everything it gets.
+	 */
+	private static final class Drainer extends Thread
+	{
+		/** The server socket to accept the connection from. */
+		private final ServerSocket server;
+
+		/** The number of bytes read. */
+		private long received;
+
+		/** When the last byte was read, in nanoseconds. */
+		private long endTime;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param server The server socket to accept the connection from.
+		 */
+		Drainer( final ServerSocket server )
+		{
+			super( "BenchmarkDrainer" );
+			this.server = server;
+			setDaemon( true );
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void run()
+		{
+			try
+			{
+				Socket socket = server.accept();
+				InputStream is = socket.getInputStream();
+				byte[] b = new byte[64 * 1024];
+				long count = 0;
+				int read = 0;
+
+				while ( ( read = is.read( b ) ) != -1 )
+				{
+					count += read;
+				}
+
+				long end = System.nanoTime();
+				socket.close();
+				server.close();
+
+				synchronized ( this )
+				{
+					received = count;
+					endTime = end;
+				}
+			}
+
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Waits until the other end is closed.
+		 *
+		 * @param expected The number of bytes that should have been read.
+		 * @return When the last byte was read, in nanoseconds.
+		 * @throws Exception If not all the bytes were read.
+		 */
+		long waitFor( final long expected ) throws Exception
+		{
+			join();
+
+			synchronized ( this )
+			{
+				if ( received != expected )
+					throw new IOException( "Received " + received + " of " + expected + " bytes" );
+
+				return endTime;
+			}
+		}
+	}
+
+	/**
+	 * A file transfer listener that notes when the transfer starts, and if it was successful.
+	 * The sender waits a little after connecting, so the time starts here.
+	 */
+	private static final class TimingListener implements FileTransferListener, TransferDoneListener
+	{
+		/** When the transfer started, in nanoseconds. */
+		private long startTime;
+
+		/** If the sender is done. */
+		private boolean done;
+
+		/** If the file was sent. */
+		private boolean successful;
+
+		/**
+		 * Waits until the sender is done.
+		 *
+		 * @return If the file was sent.
+		 * @throws InterruptedException If interrupted while waiting.
+		 */
+		synchronized boolean waitForResult() throws InterruptedException
+		{
+			while ( !done )
+			{
+				wait();
+			}
+
+			return successful;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public synchronized void transferDone( final boolean successful )
+		{
+			this.successful = successful;
+			done = true;
+			notifyAll();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void statusWaiting()
+		{
+
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void statusConnecting()
+		{
+
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void statusTransferring()
+		{
+			startTime = System.nanoTime();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void statusCompleted()
+		{
+
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void statusFailed()
+		{
+
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void transferUpdate()
+		{
+
+		}
+	}
+}
@@ -0,0 +1,147 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageAssembler}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageAssemblerTest
+{
+	/** Timeout used in the tests. */
+	private static final long TIMEOUT = 10000;
+
+	/** Max number of characters waiting in the tests. */
+	private static final int MAX_CHARS = 20;
+
+	/** The assembler being tested. */
+	private MessageAssembler assembler;
+
+	/**
+	 * Creates a new assembler.
+	 */
+	@Before
+	public void setUp()
+	{
+		assembler = new MessageAssembler( TIMEOUT, MAX_CHARS );
+	}
+
+	/**
+	 * Tests that the message is returned when the last fragment arrives,
+	 * and that duplicate fragments are ignored.
+	 */
+	@Test
+	public void testFragmentsOutOfOrder()
+	{
+		assertNull( assembler.addFragment( 1, 5, 2, 3, "c", 0 ) );
+		assertNull( assembler.addFragment( 1, 5, 0, 3, "a", 0 ) );
+		assertNull( assembler.addFragment( 1, 5, 0, 3, "x", 0 ) );
+		assertEquals( 1, assembler.getWaitingCount() );
+		assertEquals( 2, assembler.getWaitingChars() );
+
+		assertEquals( "abc", assembler.addFragment( 1, 5, 1, 3, "b", 0 ) );
+		assertEquals( 0, assembler.getWaitingCount() );
+		assertEquals( 0, assembler.getWaitingChars() );
+	}
+
+	/**
+	 * Tests that a message with only one fragment is returned at once.
+	 */
+	@Test
+	public void testSingleFragment()
+	{
+		assertEquals( "abc", assembler.addFragment( 1, 5, 0, 1, "abc", 0 ) );
+		assertEquals( 0, assembler.getWaitingCount() );
+	}
+
+	/**
+	 * Tests that messages with the same id from different users are kept apart.
+	 */
+	@Test
+	public void testSameIdFromDifferentUsers()
+	{
+		assertNull( assembler.addFragment( 1, 5, 0, 2, "a", 0 ) );
+		assertNull( assembler.addFragment( 2, 5, 0, 2, "x", 0 ) );
+		assertEquals( "ab", assembler.addFragment( 1, 5, 1, 2, "b", 0 ) );
+		assertEquals( "xy", assembler.addFragment( 2, 5, 1, 2, "y", 0 ) );
+	}
+
+	/**
+	 * Tests that fragments with invalid positions are ignored.
+	 */
+	@Test
+	public void testInvalidFragments()
+	{
+		assertNull( assembler.addFragment( 1, 5, 3, 3, "a", 0 ) );
+		assertNull( assembler.addFragment( 1, 5, -1, 3, "a", 0 ) );
+		assertNull( assembler.addFragment( 1, 5, 0, 0, "a", 0 ) );
+		assertNull( assembler.addFragment( 1, 5, 0, MessageAssembler.MAX_FRAGMENTS + 1, "a", 0 ) );
+		assertEquals( 0, assembler.getWaitingCount() );
+
+		assertNull( assembler.addFragment( 1, 5, 0, 2, "a", 0 ) );
+		assertNull( assembler.addFragment( 1, 5, 2, 3, "c", 0 ) );
+		assertEquals( 1, assembler.getWaitingChars() );
+	}
+
+	/**
+	 * Tests that messages missing fragments are dropped after the timeout.
+	 */
+	@Test
+	public void testTimeout()
+	{
+		assertNull( assembler.addFragment( 1, 5, 0, 2, "a", 0 ) );
+		assertNull( assembler.addFragment( 1, 6, 0, 2, "x", 5000 ) );
+
+		assertNull( assembler.addFragment( 1, 5, 1, 2, "b", TIMEOUT ) );
+		assertEquals( 1, assembler.getDroppedCount() );
+
+		assertEquals( "xy", assembler.addFragment( 1, 6, 1, 2, "y", TIMEOUT ) );
+		assertEquals( 1, assembler.getWaitingCount() );
+		assertEquals( 1, assembler.getWaitingChars() );
+	}
+
+	/**
+	 * Tests that the oldest messages are dropped when too many characters are waiting.
+	 */
+	@Test
+	public void testMaxChars()
+	{
+		assertNull( assembler.addFragment( 1, 5, 0, 2, "aaaaaaaaaa", 0 ) );
+		assertNull( assembler.addFragment( 1, 6, 0, 2, "bbbbbbbbbb", 0 ) );
+		assertEquals( 2, assembler.getWaitingCount() );
+
+		assertNull( assembler.addFragment( 1, 7, 0, 2, "c", 0 ) );
+		assertEquals( 2, assembler.getWaitingCount() );
+		assertEquals( 11, assembler.getWaitingChars() );
+		assertEquals( 1, assembler.getDroppedCount() );
+
+		assertNull( assembler.addFragment( 1, 5, 1, 2, "a", 0 ) );
+		assertEquals( "bbbbbbbbbbb", assembler.addFragment( 1, 6, 1, 2, "b", 0 ) );
+	}
+}
@@ -0,0 +1,438 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import net.usikkert.kouchat.event.DatagramListener;
+import net.usikkert.kouchat.event.ReceiverListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageDispatcher}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageDispatcherTest
+{
+	/** A chat message. */
+	private static final String CHAT = "1234!MSG#Christian:[0]Hello";
+
+	/** A private chat message. */
+	private static final String PRIVATE_CHAT = "1234!PRIVMSG#Christian:(5678)[0]Hello";
+
+	/** A control message. */
+	private static final String CONTROL = "1234!IDLE#Christian:";
+
+	/** Saves the messages given to the listener. */
+	private RecordingListener listener;
+
+	/**
+	 * Creates a new listener.
+	 */
+	@Before
+	public void setUp()
+	{
+		listener = new RecordingListener();
+	}
+
+	/**
+	 * Tests that chat messages are recognized.
+	 */
+	@Test
+	public void testIsChatMessage()
+	{
+		assertTrue( isChatMessage( CHAT ) );
+		assertTrue( isChatMessage( PRIVATE_CHAT ) );
+		assertFalse( isChatMessage( CONTROL ) );
+		assertFalse( isChatMessage( "1234!MSGX#Christian:" ) );
+		assertTrue( isChatMessage( "1234!MSG+z#Christian:abc" ) );
+		assertFalse( isChatMessage( "1234!TOPIC+z#Christian:abc" ) );
+		assertFalse( isChatMessage( "1234!MSG" ) );
+		assertFalse( isChatMessage( "" ) );
+	}
+
+	/**
+	 * Tests that queued messages are given to the listener in the same order
+	 * they arrived, after the dispatcher is started.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the messages.
+	 */
+	@Test
+	public void testMessagesAreDispatchedInOrder() throws InterruptedException
+	{
+		MessageDispatcher dispatcher = new MessageDispatcher( 4, OverflowPolicy.DROP_OLDEST );
+		dispatch( dispatcher, "1234!IDLE#One:" );
+		dispatch( dispatcher, "1234!IDLE#Two:" );
+		assertEquals( 2, dispatcher.getQueueDepth() );
+
+		dispatcher.start();
+		listener.waitForMessages( 2 );
+		dispatcher.stop();
+
+		assertEquals( "1234!IDLE#One:", listener.messages.get( 0 ) );
+		assertEquals( "1234!IDLE#Two:", listener.messages.get( 1 ) );
+		assertEquals( "10.0.0.1", listener.ipAddresses.get( 0 ) );
+		assertEquals( 0, dispatcher.getQueueDepth() );
+		assertEquals( 2, dispatcher.getPeakQueueDepth() );
+		assertEquals( 2, dispatcher.getDispatchedMessages() );
+	}
+
+	/**
+	 * Tests that listeners wanting strings get the decoded message,
+	 * without the surrounding whitespace.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the messages.
+	 */
+	@Test
+	public void testDecodingListener() throws InterruptedException
+	{
+		MessageDispatcher dispatcher = new MessageDispatcher( 4, OverflowPolicy.DROP_OLDEST );
+		DatagramListener receiverListener = dispatcher.createListener( (ReceiverListener) listener );
+		byte[] data = ( "  " + CHAT + "\n" ).getBytes();
+		receiverListener.datagramArrived( data, 0, data.length, "10.0.0.2" );
+
+		dispatcher.start();
+		listener.waitForMessages( 1 );
+		dispatcher.stop();
+
+		assertEquals( CHAT, listener.messages.get( 0 ) );
+		assertEquals( "10.0.0.2", listener.ipAddresses.get( 0 ) );
+	}
+
+	/**
+	 * Tests that the oldest message is dropped with the
+	 * {@link OverflowPolicy#DROP_OLDEST} policy.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the messages.
+	 */
+	@Test
+	public void testDropOldest() throws InterruptedException
+	{
+		MessageDispatcher dispatcher = new MessageDispatcher( 2, OverflowPolicy.DROP_OLDEST );
+		assertTrue( dispatch( dispatcher, CHAT ) );
+		assertTrue( dispatch( dispatcher, CONTROL ) );
+		assertTrue( dispatch( dispatcher, "1234!IDLE#Last:" ) );
+
+		assertEquals( 2, dispatcher.getQueueDepth() );
+		assertEquals( 1, dispatcher.getDroppedMessages() );
+		assertEquals( 1, dispatcher.getDroppedChatMessages() );
+
+		dispatcher.start();
+		listener.waitForMessages( 2 );
+		dispatcher.stop();
+
+		assertEquals( CONTROL, listener.messages.get( 0 ) );
+		assertEquals( "1234!IDLE#Last:", listener.messages.get( 1 ) );
+	}
+
+	/**
+	 * Tests that chat messages are dropped before control messages with the
+	 * {@link OverflowPolicy#DROP_CHAT_KEEP_CONTROL} policy.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the messages.
+	 */
+	@Test
+	public void testDropChatKeepControl() throws InterruptedException
+	{
+		MessageDispatcher dispatcher = new MessageDispatcher( 3, OverflowPolicy.DROP_CHAT_KEEP_CONTROL );
+		assertTrue( dispatch( dispatcher, CONTROL ) );
+		assertTrue( dispatch( dispatcher, CHAT ) );
+		assertTrue( dispatch( dispatcher, "1234!IDLE#Second:" ) );
+
+		// A new chat message is dropped when the queue is full
+		assertFalse( dispatch( dispatcher, PRIVATE_CHAT ) );
+		assertEquals( 1, dispatcher.getDroppedChatMessages() );
+
+		// A new control message replaces the oldest chat message
+		assertTrue( dispatch( dispatcher, "1234!IDLE#Third:" ) );
+		assertEquals( 2, dispatcher.getDroppedChatMessages() );
+
+		// Only control messages left, so the oldest is dropped
+		assertTrue( dispatch( dispatcher, "1234!IDLE#Fourth:" ) );
+		assertEquals( 3, dispatcher.getDroppedMessages() );
+		assertEquals( 2, dispatcher.getDroppedChatMessages() );
+
+		dispatcher.start();
+		listener.waitForMessages( 3 );
+		dispatcher.stop();
+
+		assertEquals( "1234!IDLE#Second:", listener.messages.get( 0 ) );
+		assertEquals( "1234!IDLE#Third:", listener.messages.get( 1 ) );
+		assertEquals( "1234!IDLE#Fourth:", listener.messages.get( 2 ) );
+	}
+
+	/**
+	 * Tests that the receiver waits for room in the queue with the
+	 * {@link OverflowPolicy#BLOCK} policy, and that nothing is dropped.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the messages.
+	 */
+	@Test
+	public void testBlock() throws InterruptedException
+	{
+		final MessageDispatcher dispatcher = new MessageDispatcher( 2, OverflowPolicy.BLOCK );
+		dispatcher.start();
+
+		for ( int i = 0; i < 100; i++ )
+		{
+			assertTrue( dispatch( dispatcher, "1234!IDLE#User" + i + ":" ) );
+		}
+
+		listener.waitForMessages( 100 );
+		dispatcher.stop();
+
+		assertEquals( 0, dispatcher.getDroppedMessages() );
+		assertEquals( "1234!IDLE#User99:", listener.messages.get( 99 ) );
+	}
+
+	/**
+	 * Tests that receivers that must not block get chat messages dropped
+	 * instead of waiting, with the {@link OverflowPolicy#BLOCK} policy.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the dispatcher.
+	 */
+	@Test
+	public void testBlockWithNonBlockingReceiver() throws InterruptedException
+	{
+		final CountDownLatch busy = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+
+		DatagramListener slowListener = new DatagramListener()
+		{
+			@Override
+			public void datagramArrived( final byte[] data, final int offset, final int length, final String ipAddress )
+			{
+				busy.countDown();
+
+				try
+				{
+					release.await();
+				}
+
+				catch ( final InterruptedException e )
+				{
+					// Stopped
+				}
+			}
+		};
+
+		MessageDispatcher dispatcher = new MessageDispatcher( 1, OverflowPolicy.BLOCK );
+		DatagramListener receiverListener = dispatcher.createListener( slowListener, false );
+		dispatcher.start();
+
+		datagramArrived( receiverListener, "1234!IDLE#First:" );
+		busy.await();
+		datagramArrived( receiverListener, CHAT );
+
+		// Replaces the chat message instead of waiting for the busy listener
+		datagramArrived( receiverListener, CONTROL );
+		assertEquals( 1, dispatcher.getDroppedChatMessages() );
+
+		datagramArrived( receiverListener, PRIVATE_CHAT );
+		assertEquals( 2, dispatcher.getDroppedChatMessages() );
+		assertEquals( 1, dispatcher.getQueueDepth() );
+
+		release.countDown();
+		dispatcher.stop();
+	}
+
+	/**
+	 * Tests that the receiver is not blocked when the dispatcher is stopped,
+	 * and that the counters can be reset.
+	 */
+	@Test
+	public void testBlockWhenStoppedDropsMessage()
+	{
+		MessageDispatcher dispatcher = new MessageDispatcher( 1, OverflowPolicy.BLOCK );
+		assertTrue( dispatch( dispatcher, CONTROL ) );
+		assertFalse( dispatch( dispatcher, CHAT ) );
+		assertEquals( 1, dispatcher.getDroppedMessages() );
+
+		dispatcher.resetCounters();
+		assertEquals( 0, dispatcher.getDroppedMessages() );
+		assertEquals( 1, dispatcher.getPeakQueueDepth() );
+	}
+
+	/**
+	 * Tests that a message arriving twice is only given to the listener once,
+	 * and that the suppressed duplicates are counted.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the messages.
+	 */
+	@Test
+	public void testDuplicatesAreSuppressed() throws InterruptedException
+	{
+		MessageDispatcher dispatcher = new MessageDispatcher( 4, OverflowPolicy.DROP_OLDEST );
+		assertTrue( dispatch( dispatcher, CHAT ) );
+		assertFalse( dispatch( dispatcher, CHAT ) );
+		assertTrue( dispatch( dispatcher, CONTROL ) );
+		assertEquals( 1, dispatcher.getSuppressedDuplicates() );
+		assertEquals( 0, dispatcher.getDroppedMessages() );
+
+		dispatcher.start();
+		listener.waitForMessages( 2 );
+		dispatcher.stop();
+
+		assertEquals( 2, listener.messages.size() );
+		assertEquals( CHAT, listener.messages.get( 0 ) );
+
+		dispatcher.resetCounters();
+		assertEquals( 0, dispatcher.getSuppressedDuplicates() );
+	}
+
+	/**
+	 * Tests that messages with a sequence number, and messages
+	 * from different ip addresses, are never taken for repeats.
+	 */
+	@Test
+	public void testSequencedAndOtherSendersAreNotSuppressed()
+	{
+		MessageDispatcher dispatcher = new MessageDispatcher( 4, OverflowPolicy.DROP_OLDEST );
+		byte[] data = "1234!WRITING#Christian:".getBytes();
+
+		assertTrue( dispatch( dispatcher, "1234!MSG+s5#Christian:[-1]Hi" ) );
+		assertTrue( dispatch( dispatcher, "1234!MSG+s5#Christian:[-1]Hi" ) );
+		assertTrue( dispatcher.dispatch( data, 0, data.length, "10.0.0.1", listener, true ) );
+		assertTrue( dispatcher.dispatch( data, 0, data.length, "10.0.0.2", listener, true ) );
+		assertEquals( 0, dispatcher.getSuppressedDuplicates() );
+	}
+
+	/**
+	 * Tests that the sequence flag is only found between the type and the nick name.
+	 */
+	@Test
+	public void testIsSequenced()
+	{
+		assertTrue( isSequenced( "1234!MSG+s5#Christian:[-1]Hi" ) );
+		assertTrue( isSequenced( "1234!TOPIC+z+s6#Christian:abc" ) );
+		assertFalse( isSequenced( "1234!MSG+z#Christian:+s" ) );
+		assertFalse( isSequenced( "1234!MSG#+sChristian:[-1]Hi" ) );
+		assertFalse( isSequenced( "1234!MSG+" ) );
+		assertFalse( isSequenced( "" ) );
+	}
+
+	/**
+	 * Puts a message in the queue.
+	 *
+	 * @param dispatcher The dispatcher to use.
+	 * @param message The message to put in the queue.
+	 * @return If the message was added to the queue.
+	 */
+	private boolean dispatch( final MessageDispatcher dispatcher, final String message )
+	{
+		byte[] data = ( "xx" + message ).getBytes();
+		return dispatcher.dispatch( data, 2, data.length - 2, "10.0.0.1", listener, true );
+	}
+
+	/**
+	 * Gives a message to a listener created by the dispatcher, like a receiver does.
+	 *
+	 * @param receiverListener The listener to give the message to.
+	 * @param message The message.
+	 */
+	private void datagramArrived( final DatagramListener receiverListener, final String message )
+	{
+		byte[] data = message.getBytes();
+		receiverListener.datagramArrived( data, 0, data.length, "10.0.0.1" );
+	}
+
+	/**
+	 * Checks if the message has a sequence number, with bytes around it
+	 * that are not part of the message.
+	 *
+	 * @param message The message to check.
+	 * @return If it has a sequence number.
+	 */
+	private boolean isSequenced( final String message )
+	{
+		byte[] data = ( "xx" + message + "yy" ).getBytes();
+
+		return MessageDispatcher.isSequenced( data, 2, data.length - 4 );
+	}
+
+	/**
+	 * Checks if the message is a chat message.
+	 *
+	 * @param message The message to check.
+	 * @return If it's a chat message.
+	 */
+	private boolean isChatMessage( final String message )
+	{
+		byte[] data = message.getBytes();
+		return MessageDispatcher.isChatMessage( data, 0, data.length );
+	}
+
+	/**
+	 * A listener that saves all the messages it gets, as strings.
+	 */
+	private static class RecordingListener implements ReceiverListener, DatagramListener
+	{
+		/** The messages. */
+		private final List<String> messages = new ArrayList<String>();
+
+		/** The ip addresses. */
+		private final List<String> ipAddresses = new ArrayList<String>();
+
+		/** {@inheritDoc} */
+		@Override
+		public synchronized void messageArrived( final String message, final String ipAddress )
+		{
+			messages.add( message );
+			ipAddresses.add( ipAddress );
+			notifyAll();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void datagramArrived( final byte[] data, final int offset, final int length, final String ipAddress )
+		{
+			messageArrived( new String( data, offset, length ), ipAddress );
+		}
+
+		/**
+		 * Waits until the listener has got the number of messages, or fails after 5 seconds.
+		 *
+		 * @param number The number of messages to wait for.
+		 * @throws InterruptedException If interrupted while waiting.
+		 */
+		public synchronized void waitForMessages( final int number ) throws InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while ( messages.size() < number && System.currentTimeMillis() < deadline )
+			{
+				wait( 100 );
+			}
+
+			assertEquals( number, messages.size() );
+		}
+	}
+}
@@ -0,0 +1,594 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.misc.Settings;
+import net.usikkert.kouchat.misc.User;
+
+/**
+ * Compares the speed and memory use of {@link MessageParser} with the
+ * old parser, which decoded the whole message into a string and used
+ * <code>indexOf()</code> and <code>substring()</code> to find the fields.
+ *
+ * <p>This is not a unit test, and is not run by the build.
+ * Run the <code>main()</code> method to see the results.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class MessageParserBenchmark
+{
+	/** The number of messages to parse in each round. */
+	private static final int MESSAGES = 1000000;
+
+	/** The number of rounds to run, the first ones are warmup. */
+	private static final int ROUNDS = 6;
+
+	/** The user code of the other user sending the messages. */
+	private static final int OTHER_CODE = 12345678;
+
+	/** The ip address of the other user. */
+	private static final String IP_ADDRESS = "192.168.1.2";
+
+	/**
+	 * Private constructor.
+	 */
+	private MessageParserBenchmark()
+	{
+
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args Not in use.
+	 */
+	public static void main( final String[] args )
+	{
+		User me = Settings.getSettings().getMe();
+		String[] messages = {
+			OTHER_CODE + "!IDLE#Other:",
+			OTHER_CODE + "!MSG#Other:[-15987646]Hello, this is a normal chat message of average length",
+			OTHER_CODE + "!WRITING#Other:",
+			OTHER_CODE + "!STOPPEDWRITING#Other:",
+			OTHER_CODE + "!IDLE#Other:",
+			OTHER_CODE + "!TOPIC#Other:(Someone)[1234567890123]The topic of the day",
+			OTHER_CODE + "!CLIENT#Other:(KouChat v1.0)[5000]{Linux}<40656>",
+			OTHER_CODE + "!EXPOSING#Other:"
+		};
+
+		byte[][] datagrams = new byte[messages.length][];
+
+		for ( int i = 0; i < messages.length; i++ )
+		{
+			datagrams[i] = messages[i].getBytes( Charset.forName( "UTF-8" ) );
+		}
+
+		CountingResponder responder = new CountingResponder();
+
+		MessageParser parser = new MessageParser( responder );
+		byte[] logon = ( me.getCode() + "!LOGON#" + me.getNick() + ":" ).getBytes();
+		parser.datagramArrived( logon, 0, logon.length, IP_ADDRESS );
+
+		StringMessageParser stringParser = new StringMessageParser( responder );
+		stringParser.messageArrived( new String( logon ), IP_ADDRESS );
+
+		// The old parser got the message decoded from the receive buffer
+		byte[] buffer = new byte[512];
+		DatagramDecoder decoder = new DatagramDecoder( buffer );
+
+		for ( int round = 1; round <= ROUNDS; round++ )
+		{
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+
+			for ( int i = 0; i < MESSAGES; i++ )
+			{
+				byte[] datagram = datagrams[i % datagrams.length];
+				System.arraycopy( datagram, 0, buffer, 0, datagram.length );
+				stringParser.messageArrived( decoder.decodeMessage( datagram.length ), IP_ADDRESS );
+			}
+
+			print( "String parser", round, System.nanoTime() - start, allocatedBytes() - allocated );
+
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+
+			for ( int i = 0; i < MESSAGES; i++ )
+			{
+				byte[] datagram = datagrams[i % datagrams.length];
+				System.arraycopy( datagram, 0, buffer, 0, datagram.length );
+				parser.datagramArrived( buffer, 0, datagram.length, IP_ADDRESS );
+			}
+
+			print( "Byte parser  ", round, System.nanoTime() - start, allocatedBytes() - allocated );
+		}
+
+		System.out.println( "Checksum: " + responder.checksum );
+	}
+
+	/**
+	 * Prints the result of a round.
+	 *
+	 * @param name The name of the parser.
+	 * @param round The round number.
+	 * @param nanos The time used.
+	 * @param allocated The bytes allocated, or a negative number if unknown.
+	 */
+	private static void print( final String name, final int round, final long nanos, final long allocated )
+	{
+		System.out.println( name + " round " + round + ": "
+				+ ( nanos / MESSAGES ) + " ns/message, "
+				+ ( allocated < 0 ? "?" : String.valueOf( allocated / MESSAGES ) ) + " bytes/message" );
+	}
+
+	/**
+	 * Gets the number of bytes allocated by this thread, if supported by the JVM.
+	 *
+	 * @return The allocated bytes, or -1 if not supported.
+	 */
+	private static long allocatedBytes()
+	{
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+		if ( threadBean instanceof com.sun.management.ThreadMXBean )
+		{
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+
+			if ( allocationBean.isThreadAllocatedMemorySupported() )
+				return allocationBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+		}
+
+		return -1;
+	}
+
+	/**
+	 * The old parser, kept here for comparison.
+	 */
+	private static final class StringMessageParser
+	{
+		/** The logger. */
+		private static final Logger LOG = Logger.getLogger( StringMessageParser.class.getName() );
+
+		/** To handle the different kind of messages parsed here. */
+		private final MessageResponder responder;
+
+		/** The application settings. */
+		private final Settings settings;
+
+		/** If logged on to the chat or not. */
+		private boolean loggedOn;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param responder To handle the different kind of messages parsed here.
+		 */
+		private StringMessageParser( final MessageResponder responder )
+		{
+			this.responder = responder;
+			settings = Settings.getSettings();
+		}
+
+		/**
+		 * Parses the message with <code>indexOf()</code> and <code>substring()</code>.
+		 *
+		 * @param message The raw message to parse.
+		 * @param ipAddress The IP address of the user who sent the message.
+		 */
+		private void messageArrived( final String message, final String ipAddress )
+		{
+			try
+			{
+				int exclamation = message.indexOf( "!" );
+				int hash = message.indexOf( "#" );
+				int colon = message.indexOf( ":" );
+
+				int msgCode = Integer.parseInt( message.substring( 0, exclamation ) );
+				String type = message.substring( exclamation + 1, hash );
+				String msgNick = message.substring( hash + 1, colon );
+				String msg = message.substring( colon + 1, message.length() );
+
+				User tempme = settings.getMe();
+
+				if ( msgCode != tempme.getCode() && loggedOn )
+				{
+					if ( type.equals( "MSG" ) )
+					{
+						int leftBracket = msg.indexOf( "[" );
+						int rightBracket = msg.indexOf( "]" );
+						int rgb = Integer.parseInt( msg.substring( leftBracket + 1, rightBracket ) );
+
+						responder.messageArrived( msgCode, msg.substring( rightBracket + 1, msg.length() ), rgb );
+					}
+
+					else if ( type.equals( "LOGON" ) )
+					{
+						User newUser = new User( msgNick, msgCode );
+						newUser.setIpAddress( ipAddress );
+						newUser.setLastIdle( System.currentTimeMillis() );
+						newUser.setLogonTime( System.currentTimeMillis() );
+
+						responder.userLogOn( newUser );
+					}
+
+					else if ( type.equals( "EXPOSING" ) )
+					{
+						User user = new User( msgNick, msgCode );
+						user.setIpAddress( ipAddress );
+						user.setAwayMsg( msg );
+
+						if ( msg.length() > 0 )
+							user.setAway( true );
+
+						user.setLastIdle( System.currentTimeMillis() );
+						user.setLogonTime( System.currentTimeMillis() );
+
+						responder.userExposing( user );
+					}
+
+					else if ( type.equals( "LOGOFF" ) )
+					{
+						responder.userLogOff( msgCode );
+					}
+
+					else if ( type.equals( "AWAY" ) )
+					{
+						responder.awayChanged( msgCode, true, msg );
+					}
+
+					else if ( type.equals( "BACK" ) )
+					{
+						responder.awayChanged( msgCode, false, "" );
+					}
+
+					else if ( type.equals( "EXPOSE" ) )
+					{
+						responder.exposeRequested();
+					}
+
+					else if ( type.equals( "NICKCRASH" ) )
+					{
+						if ( tempme.getNick().equals( msg ) )
+						{
+							responder.nickCrash();
+						}
+					}
+
+					else if ( type.equals( "WRITING" ) )
+					{
+						responder.writingChanged( msgCode, true );
+					}
+
+					else if ( type.equals( "STOPPEDWRITING" ) )
+					{
+						responder.writingChanged( msgCode, false );
+					}
+
+					else if ( type.equals( "GETTOPIC" ) )
+					{
+						responder.topicRequested();
+					}
+
+					else if ( type.equals( "TOPIC" ) )
+					{
+						int leftBracket = msg.indexOf( "[" );
+						int rightBracket = msg.indexOf( "]" );
+						int leftPara = msg.indexOf( "(" );
+						int rightPara = msg.indexOf( ")" );
+
+						if ( rightBracket != -1 && leftBracket != -1 )
+						{
+							String theNick = msg.substring( leftPara + 1, rightPara );
+							long theTime = Long.parseLong( msg.substring( leftBracket + 1, rightBracket ) );
+							String theTopic = null;
+
+							if ( msg.length() > rightBracket + 1 )
+							{
+								theTopic = msg.substring( rightBracket + 1, msg.length() );
+							}
+
+							responder.topicChanged( msgCode, theTopic, theNick, theTime );
+						}
+					}
+
+					else if ( type.equals( "NICK" ) )
+					{
+						responder.nickChanged( msgCode, msgNick );
+					}
+
+					else if ( type.equals( "IDLE" ) )
+					{
+						responder.userIdle( msgCode, ipAddress, 0 );
+					}
+
+					else if ( type.equals( "SENDFILEACCEPT" ) )
+					{
+						int leftPara = msg.indexOf( "(" );
+						int rightPara = msg.indexOf( ")" );
+						int fileCode = Integer.parseInt( msg.substring( leftPara + 1, rightPara ) );
+
+						if ( fileCode == tempme.getCode() )
+						{
+							int leftCurly = msg.indexOf( "{" );
+							int rightCurly = msg.indexOf( "}" );
+							int leftBracket = msg.indexOf( "[" );
+							int rightBracket = msg.indexOf( "]" );
+							int port = Integer.parseInt( msg.substring( leftBracket + 1, rightBracket ) );
+							int fileHash = Integer.parseInt( msg.substring( leftCurly + 1, rightCurly ) );
+							String fileName = msg.substring( rightCurly + 1, msg.length() );
+
+							responder.fileSendAccepted( msgCode, fileName, fileHash, port, 0 );
+						}
+					}
+
+					else if ( type.equals( "SENDFILEABORT" ) )
+					{
+						int leftPara = msg.indexOf( "(" );
+						int rightPara = msg.indexOf( ")" );
+						int fileCode = Integer.parseInt( msg.substring( leftPara + 1, rightPara ) );
+
+						if ( fileCode == tempme.getCode() )
+						{
+							int leftCurly = msg.indexOf( "{" );
+							int rightCurly = msg.indexOf( "}" );
+							String fileName = msg.substring( rightCurly + 1, msg.length() );
+							int fileHash = Integer.parseInt( msg.substring( leftCurly + 1, rightCurly ) );
+
+							responder.fileSendAborted( msgCode, fileName, fileHash );
+						}
+					}
+
+					else if ( type.equals( "SENDFILE" ) )
+					{
+						int leftPara = msg.indexOf( "(" );
+						int rightPara = msg.indexOf( ")" );
+						int fileCode = Integer.parseInt( msg.substring( leftPara + 1, rightPara ) );
+
+						if ( fileCode == tempme.getCode() )
+						{
+							int leftCurly = msg.indexOf( "{" );
+							int rightCurly = msg.indexOf( "}" );
+							int leftBracket = msg.indexOf( "[" );
+							int rightBracket = msg.indexOf( "]" );
+							long byteSize = Long.parseLong( msg.substring( leftBracket + 1, rightBracket ) );
+							String fileName = msg.substring( rightCurly + 1, msg.length() );
+							int fileHash = Integer.parseInt( msg.substring( leftCurly + 1, rightCurly ) );
+
+							responder.fileSend( msgCode, byteSize, fileName, msgNick, fileHash );
+						}
+					}
+
+					else if ( type.equals( "CLIENT" ) )
+					{
+						int leftPara = msg.indexOf( "(" );
+						int rightPara = msg.indexOf( ")" );
+						int leftBracket = msg.indexOf( "[" );
+						int rightBracket = msg.indexOf( "]" );
+						int leftCurly = msg.indexOf( "{" );
+						int rightCurly = msg.indexOf( "}" );
+						int lessThan = msg.indexOf( "<" );
+						int greaterThan = msg.indexOf( ">" );
+
+						String client = msg.substring( leftPara + 1, rightPara );
+						long timeSinceLogon = Long.parseLong( msg.substring( leftBracket + 1, rightBracket ) );
+						String operatingSystem = msg.substring( leftCurly + 1, rightCurly );
+
+						int privateChatPort = 0;
+
+						try
+						{
+							privateChatPort = Integer.parseInt( msg.substring( lessThan + 1, greaterThan ) );
+						}
+
+						catch ( final NumberFormatException e )
+						{
+							LOG.log( Level.WARNING, e.toString() );
+						}
+
+						responder.clientInfo( msgCode, client, timeSinceLogon, operatingSystem, privateChatPort, false, false, false, false );
+					}
+				}
+
+				else if ( msgCode == tempme.getCode() && type.equals( "LOGON" ) )
+				{
+					responder.meLogOn( ipAddress );
+					loggedOn = true;
+				}
+
+				else if ( msgCode == tempme.getCode() && type.equals( "IDLE" ) && loggedOn )
+				{
+					responder.meIdle( ipAddress );
+				}
+			}
+
+			catch ( final StringIndexOutOfBoundsException e )
+			{
+				LOG.log( Level.SEVERE, e.toString(), e );
+			}
+
+			catch ( final NumberFormatException e )
+			{
+				LOG.log( Level.SEVERE, e.toString(), e );
+			}
+		}
+	}
+
+	/**
+	 * A responder that only uses the values it gets, so the work
+	 * is not optimized away.
+	 */
+	private static final class CountingResponder implements MessageResponder
+	{
+		/** A sum of the values received. */
+		private long checksum;
+
+		/** {@inheritDoc} */
+		@Override
+		public void messageArrived( final int userCode, final String msg, final int color )
+		{
+			checksum += userCode + msg.length() + color;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void topicChanged( final int userCode, final String newTopic, final String nick, final long time )
+		{
+			checksum += userCode + newTopic.length() + nick.length() + time;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void topicRequested()
+		{
+			checksum++;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void awayChanged( final int userCode, final boolean away, final String awayMsg )
+		{
+			checksum += userCode + awayMsg.length();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void nickChanged( final int userCode, final String newNick )
+		{
+			checksum += userCode + newNick.length();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void nickCrash()
+		{
+			checksum++;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void meLogOn( final String ipAddress )
+		{
+			checksum++;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void userLogOn( final User newUser )
+		{
+			checksum += newUser.getCode();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void userLogOff( final int userCode )
+		{
+			checksum += userCode;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void userExposing( final User user )
+		{
+			checksum += user.getCode();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void exposeRequested()
+		{
+			checksum++;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void writingChanged( final int userCode, final boolean writing )
+		{
+			checksum += userCode;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void meIdle( final String ipAddress )
+		{
+			checksum++;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void userIdle( final int userCode, final String ipAddress, final int idleInterval )
+		{
+			checksum += userCode + ipAddress.length() + idleInterval;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void fileSend( final int userCode, final long byteSize, final String fileName,
+				final String user, final int fileHash )
+		{
+			checksum += userCode + byteSize + fileName.length() + user.length() + fileHash;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void fileSendAborted( final int userCode, final String fileName, final int fileHash )
+		{
+			checksum += userCode + fileName.length() + fileHash;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void fileSendAccepted( final int userCode, final String fileName, final int fileHash, final int port,
+				final long resumeOffset )
+		{
+			checksum += userCode + fileName.length() + fileHash + port + resumeOffset;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void clientInfo( final int userCode, final String client, final long timeSinceLogon,
+				final String operatingSystem, final int privateChatPort, final boolean compressionSupported,
+				final boolean sequencingSupported, final boolean acknowledgingSupported, final boolean resumingSupported )
+		{
+			checksum += userCode + client.length() + timeSinceLogon + operatingSystem.length() + privateChatPort;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void resendRequested( final int sequence )
+		{
+			checksum += sequence;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void messageMissing( final int userCode, final int sequence )
+		{
+			checksum += userCode + sequence;
+		}
+	}
+}
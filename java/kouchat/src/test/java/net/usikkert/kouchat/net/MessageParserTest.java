@@ -0,0 +1,339 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.mockito.Mockito.*;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.usikkert.kouchat.misc.Settings;
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageParser}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageParserTest
+{
+	/** The user code of the other user sending the messages. */
+	private static final int OTHER_CODE = 12345678;
+
+	/** The ip address of the other user. */
+	private static final String IP_ADDRESS = "192.168.1.2";
+
+	/** The application user. */
+	private User me;
+
+	/** Mocked responder getting the parsed messages. */
+	private MessageResponder responder;
+
+	/** The parser tested here. */
+	private MessageParser parser;
+
+	/**
+	 * Creates a parser that is logged on.
+	 */
+	@Before
+	public void setUp()
+	{
+		me = Settings.getSettings().getMe();
+		responder = mock( MessageResponder.class );
+		parser = new MessageParser( responder );
+
+		parse( me.getCode() + "!LOGON#" + me.getNick() + ":" );
+		verify( responder ).meLogOn( IP_ADDRESS );
+	}
+
+	/**
+	 * Tests that messages from other users are ignored before logon.
+	 */
+	@Test
+	public void testMessagesIgnoredBeforeLogon()
+	{
+		MessageResponder otherResponder = mock( MessageResponder.class );
+		MessageParser otherParser = new MessageParser( otherResponder );
+		byte[] data = ( OTHER_CODE + "!EXPOSE#Other:" ).getBytes();
+		otherParser.datagramArrived( data, 0, data.length, IP_ADDRESS );
+
+		verifyZeroInteractions( otherResponder );
+	}
+
+	/**
+	 * Tests parsing of a chat message with non-ascii characters and brackets in the text.
+	 */
+	@Test
+	public void testChatMessage()
+	{
+		parse( OTHER_CODE + "!MSG#Other:[-15987646]Hello [\u00e6\u00f8\u00e5] \u20ac!" );
+		verify( responder ).messageArrived( OTHER_CODE, "Hello [\u00e6\u00f8\u00e5] \u20ac!", -15987646 );
+	}
+
+	/**
+	 * Tests that a chat message sent as fragments is given to the responder
+	 * once, after the last fragment, even if the fragments arrive out of order.
+	 */
+	@Test
+	public void testChatMessageFragments()
+	{
+		parse( OTHER_CODE + "!MSGPART#Other:(7)[1]{3}<-15987646> [second]" );
+		parse( OTHER_CODE + "!MSGPART#Other:(7)[0]{3}<-15987646>First" );
+		verify( responder, never() ).messageArrived( anyInt(), anyString(), anyInt() );
+
+		parse( OTHER_CODE + "!MSGPART#Other:(7)[2]{3}<-15987646> third \u20ac" );
+		verify( responder ).messageArrived( OTHER_CODE, "First [second] third \u20ac", -15987646 );
+	}
+
+	/**
+	 * Tests that the terminator after fragments of only whitespace is removed,
+	 * and that the whitespace is kept.
+	 */
+	@Test
+	public void testChatMessageFragmentWithTerminator()
+	{
+		parse( OTHER_CODE + "!MSGPART#Other:(8)[0]{3}<-15987646>First" );
+		parse( OTHER_CODE + "!MSGPART+t#Other:(8)[1]{3}<-15987646>   ." );
+		parse( OTHER_CODE + "!MSGPART#Other:(8)[2]{3}<-15987646> last" );
+		verify( responder ).messageArrived( OTHER_CODE, "First    last", -15987646 );
+	}
+
+	/**
+	 * Tests that the surrounding whitespace is removed, but not
+	 * the whitespace inside the message.
+	 */
+	@Test
+	public void testAwayMessageIsTrimmed()
+	{
+		parse( " \t" + OTHER_CODE + "!AWAY#Other:Gone  fishing \n" );
+		verify( responder ).awayChanged( OTHER_CODE, true, "Gone  fishing" );
+	}
+
+	/**
+	 * Tests parsing of a topic, with and without topic text.
+	 */
+	@Test
+	public void testTopic()
+	{
+		parse( OTHER_CODE + "!TOPIC#Other:(Someone)[1234567890123]The (new) topic" );
+		verify( responder ).topicChanged( OTHER_CODE, "The (new) topic", "Someone", 1234567890123L );
+
+		parse( OTHER_CODE + "!TOPIC#Other:(Someone)[1234567890124]" );
+		verify( responder ).topicChanged( OTHER_CODE, null, "Someone", 1234567890124L );
+	}
+
+	/**
+	 * Tests that a message with a sequence number is only given
+	 * to the responder once, even if it's sent again.
+	 */
+	@Test
+	public void testSequencedMessageArrivingTwice()
+	{
+		parse( OTHER_CODE + "!MSG+s1#Other:[-15987646]First" );
+		parse( OTHER_CODE + "!MSG+s1#Other:[-15987646]First" );
+		parse( OTHER_CODE + "!AWAY+z+s2#Other:"
+				+ new PayloadCompressor().compress( "Gone fishing, back in a few hours. Gone fishing, back in a few hours.", 500 ) );
+		parse( OTHER_CODE + "!MSG+s1#Other:[-15987646]First" );
+
+		verify( responder ).messageArrived( OTHER_CODE, "First", -15987646 );
+		verify( responder ).awayChanged( OTHER_CODE, true,
+				"Gone fishing, back in a few hours. Gone fishing, back in a few hours." );
+	}
+
+	/**
+	 * Tests parsing of idle messages, with and without the idle interval.
+	 */
+	@Test
+	public void testIdle()
+	{
+		parse( OTHER_CODE + "!IDLE#Other:" );
+		verify( responder ).userIdle( OTHER_CODE, IP_ADDRESS, 0 );
+
+		parse( OTHER_CODE + "!IDLE#Other:[45000]" );
+		verify( responder ).userIdle( OTHER_CODE, IP_ADDRESS, 45000 );
+	}
+
+	/**
+	 * Tests that a report of a missing message from the application
+	 * user asks for the message to be sent again.
+	 */
+	@Test
+	public void testNackToMe()
+	{
+		parse( OTHER_CODE + "!NACK#Other:(" + me.getCode() + ")[42]" );
+		verify( responder ).resendRequested( 42 );
+	}
+
+	/**
+	 * Tests that a report of a missing message from another user is not
+	 * given to the responder.
+	 */
+	@Test
+	public void testNackToOtherUser()
+	{
+		parse( OTHER_CODE + "!NACK#Other:(" + ( me.getCode() + 1 ) + ")[42]" );
+		verify( responder, never() ).resendRequested( anyInt() );
+		verify( responder, never() ).messageMissing( anyInt(), anyInt() );
+	}
+
+	/**
+	 * Tests parsing of a file transfer request to this user.
+	 */
+	@Test
+	public void testSendFile()
+	{
+		parse( OTHER_CODE + "!SENDFILE#Other:(" + me.getCode() + ")[4096]{-765}a [b].txt" );
+		verify( responder ).fileSend( OTHER_CODE, 4096, "a [b].txt", "Other", -765 );
+	}
+
+	/**
+	 * Tests that file transfer requests to other users are ignored.
+	 */
+	@Test
+	public void testSendFileToOtherUser()
+	{
+		parse( OTHER_CODE + "!SENDFILE#Other:(" + ( me.getCode() + 1 ) + ")[4096]{-765}a.txt" );
+		verify( responder, never() ).fileSend( anyInt(), anyLong(), anyString(), anyString(), anyInt() );
+	}
+
+	/**
+	 * Tests parsing of accepted file transfers, with and without a resume offset.
+	 */
+	@Test
+	public void testSendFileAccept()
+	{
+		parse( OTHER_CODE + "!SENDFILEACCEPT#Other:(" + me.getCode() + ")[40756]{-765}a.txt" );
+		verify( responder ).fileSendAccepted( OTHER_CODE, "a.txt", -765, 40756, 0 );
+
+		parse( OTHER_CODE + "!SENDFILEACCEPT+r5000000000#Other:(" + me.getCode() + ")[40757]{-765}a.txt" );
+		verify( responder ).fileSendAccepted( OTHER_CODE, "a.txt", -765, 40757, 5000000000L );
+	}
+
+	/**
+	 * Tests parsing of client information from an old client without the private chat port.
+	 */
+	@Test
+	public void testClientWithInvalidPort()
+	{
+		parse( OTHER_CODE + "!CLIENT#Other:(KouChat v1.0)[5000]{Linux}<>" );
+		verify( responder ).clientInfo( OTHER_CODE, "KouChat v1.0", 5000, "Linux", 0, false, false, false, false );
+	}
+
+	/**
+	 * Tests parsing of client information with the supported features.
+	 */
+	@Test
+	public void testClientWithFeatures()
+	{
+		parse( OTHER_CODE + "!CLIENT#Other:(KouChat v1.1)[5000]{Linux}<40656>" );
+		verify( responder ).clientInfo( OTHER_CODE, "KouChat v1.1", 5000, "Linux", 40656, false, false, false, false );
+
+		parse( OTHER_CODE + "!CLIENT#Other:(KouChat v1.1)[6000]{Linux}<40656>other deflate" );
+		verify( responder ).clientInfo( OTHER_CODE, "KouChat v1.1", 6000, "Linux", 40656, true, false, false, false );
+
+		parse( OTHER_CODE + "!CLIENT#Other:(KouChat v1.1)[7000]{Linux}<40656>deflate seq" );
+		verify( responder ).clientInfo( OTHER_CODE, "KouChat v1.1", 7000, "Linux", 40656, true, true, false, false );
+
+		parse( OTHER_CODE + "!CLIENT#Other:(KouChat v1.1)[8000]{Linux}<40656>deflate seq ack" );
+		verify( responder ).clientInfo( OTHER_CODE, "KouChat v1.1", 8000, "Linux", 40656, true, true, true, false );
+
+		parse( OTHER_CODE + "!CLIENT#Other:(KouChat v1.1)[9000]{Linux}<40656>deflate seq ack resume" );
+		verify( responder ).clientInfo( OTHER_CODE, "KouChat v1.1", 9000, "Linux", 40656, true, true, true, true );
+	}
+
+	/**
+	 * Tests that a chat message sent as compressed fragments
+	 * is decompressed after the fragments are put together.
+	 */
+	@Test
+	public void testCompressedChatMessageFragments()
+	{
+		String text = "A long chat message that is repeated. A long chat message that is repeated.";
+		String compressed = new PayloadCompressor().compress( text, 500 );
+		int middle = compressed.length() / 2;
+
+		parse( OTHER_CODE + "!MSGPART+z#Other:(3)[0]{2}<-15987646>" + compressed.substring( 0, middle ) );
+		parse( OTHER_CODE + "!MSGPART+z#Other:(3)[1]{2}<-15987646>" + compressed.substring( middle ) );
+		verify( responder ).messageArrived( OTHER_CODE, text, -15987646 );
+	}
+
+	/**
+	 * Tests that a chat message with a compressed body is decompressed.
+	 */
+	@Test
+	public void testCompressedChatMessage()
+	{
+		String body = "[-15987646]A long chat message that is repeated. A long chat message that is repeated.";
+		String compressed = new PayloadCompressor().compress( body, 500 );
+
+		parse( OTHER_CODE + "!MSG+z#Other:" + compressed );
+		verify( responder ).messageArrived( OTHER_CODE,
+				"A long chat message that is repeated. A long chat message that is repeated.", -15987646 );
+	}
+
+	/**
+	 * Tests that nick names are decoded.
+	 */
+	@Test
+	public void testNickChanged()
+	{
+		parse( OTHER_CODE + "!NICK#NewNick:" );
+		verify( responder ).nickChanged( OTHER_CODE, "NewNick" );
+	}
+
+	/**
+	 * Tests that unknown message types and malformed messages are ignored.
+	 */
+	@Test
+	public void testUnknownAndMalformedMessages()
+	{
+		parse( OTHER_CODE + "!UNKNOWN#Other:" );
+		parse( OTHER_CODE + "!MSG#Other" );
+		parse( OTHER_CODE + "MSG#Other:[0]Hello" );
+		parse( "abc!MSG#Other:[0]Hello" );
+		parse( OTHER_CODE + "!MSG#Other:[red]Hello" );
+		parse( OTHER_CODE + "!MSG#Other:Hello" );
+		parse( OTHER_CODE + "!SENDFILE#Other:[4096]{-765}a.txt" );
+		parse( "" );
+
+		verifyNoMoreInteractions( responder );
+	}
+
+	/**
+	 * Gives the message to the parser, surrounded by other data
+	 * in the buffer.
+	 *
+	 * @param message The message to parse.
+	 */
+	private void parse( final String message )
+	{
+		byte[] messageBytes = message.getBytes( Charset.forName( "UTF-8" ) );
+		byte[] data = new byte[messageBytes.length + 10];
+		Arrays.fill( data, (byte) '#' );
+		System.arraycopy( messageBytes, 0, data, 5, messageBytes.length );
+
+		parser.datagramArrived( data, 5, messageBytes.length, IP_ADDRESS );
+	}
+}
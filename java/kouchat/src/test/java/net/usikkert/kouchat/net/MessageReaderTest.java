@@ -0,0 +1,389 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageReader}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageReaderTest
+{
+	/** The reader tested here. */
+	private MessageReader reader;
+
+	/**
+	 * Creates a new reader.
+	 */
+	@Before
+	public void setUp()
+	{
+		reader = new MessageReader();
+	}
+
+	/**
+	 * Tests that the header fields are found.
+	 */
+	@Test
+	public void testHeader()
+	{
+		read( "-1234!SENDFILEABORT#Nick:body" );
+
+		assertEquals( -1234, reader.getCode() );
+		assertEquals( MessageType.SENDFILEABORT, reader.getType() );
+		assertEquals( "Nick", reader.getNick() );
+		assertEquals( 4, reader.getBodyLength() );
+		assertEquals( "body", reader.getString( 0 ) );
+	}
+
+	/**
+	 * Tests that unknown types give <code>null</code>.
+	 */
+	@Test
+	public void testUnknownType()
+	{
+		read( "1!SENDFIL#Nick:" );
+		assertNull( reader.getType() );
+
+		read( "1!#Nick:" );
+		assertNull( reader.getType() );
+
+		read( "1!THIS_TYPE_IS_LONGER_THAN_ALL_THE_OTHERS#Nick:" );
+		assertNull( reader.getType() );
+	}
+
+	/**
+	 * Tests that compressed bodies are decompressed, and that the reader
+	 * goes back to the original data for the next message.
+	 */
+	@Test
+	public void testCompressedBody()
+	{
+		String body = "(nick)[123]Some text (with brackets) and \u00e6\u00f8\u00e5, some text, some text";
+		read( "1!TOPIC+z#Nick:" + new PayloadCompressor().compress( body, 500 ) );
+
+		assertTrue( reader.isCompressed() );
+		assertEquals( MessageType.TOPIC, reader.getType() );
+		assertEquals( "Nick", reader.getNick() );
+		assertEquals( 1, reader.getCode() );
+		assertEquals( body.indexOf( ']' ), reader.indexOf( ']' ) );
+		assertEquals( "nick", reader.getString( 1, reader.indexOf( ')' ) ) );
+		assertEquals( body.substring( body.indexOf( ']' ) + 1 ), reader.getString( reader.indexOf( ']' ) + 1 ) );
+
+		read( "2!MSG#Other:[1]plain" );
+
+		assertFalse( reader.isCompressed() );
+		assertEquals( "Other", reader.getNick() );
+		assertEquals( "[1]plain", reader.getString( 0 ) );
+	}
+
+	/**
+	 * Tests that messages with an invalid compressed body or an unknown flag get an unknown type.
+	 */
+	@Test
+	public void testInvalidCompressedBody()
+	{
+		read( "1!MSG+z#Nick:not base64!" );
+		assertNull( reader.getType() );
+
+		read( "1!MSG+z#Nick:AAAA" );
+		assertNull( reader.getType() );
+
+		read( "1!MSG+x#Nick:" + new PayloadCompressor().compress( "[1]some text, some text, some text", 500 ) );
+		assertNull( reader.getType() );
+	}
+
+	/**
+	 * Tests that the sequence number is read, alone and together with the compression flag.
+	 */
+	@Test
+	public void testSequence()
+	{
+		read( "1!MSG+s42#Nick:[1]text" );
+
+		assertEquals( MessageType.MSG, reader.getType() );
+		assertEquals( 42, reader.getSequence() );
+		assertFalse( reader.isCompressed() );
+		assertEquals( "[1]text", reader.getString( 0 ) );
+
+		String body = "(nick)[123]Some text, some text, some text, some text, some text";
+		read( "1!TOPIC+z+s2147483647#Nick:" + new PayloadCompressor().compress( body, 500 ) );
+
+		assertEquals( MessageType.TOPIC, reader.getType() );
+		assertEquals( Integer.MAX_VALUE, reader.getSequence() );
+		assertTrue( reader.isCompressed() );
+		assertEquals( body, reader.getString( 0 ) );
+
+		read( "1!MSG#Nick:[1]text" );
+		assertEquals( -1, reader.getSequence() );
+	}
+
+	/**
+	 * Tests that the base of private messages is read together with the sequence number.
+	 */
+	@Test
+	public void testBase()
+	{
+		read( "1!PRIVMSG+s12+b10#Nick:(2)[1]text" );
+
+		assertEquals( MessageType.PRIVMSG, reader.getType() );
+		assertEquals( 12, reader.getSequence() );
+		assertEquals( 10, reader.getBase() );
+		assertEquals( "(2)[1]text", reader.getString( 0 ) );
+
+		read( "1!PRIVMSG+s12#Nick:(2)[1]text" );
+		assertEquals( -1, reader.getBase() );
+	}
+
+	/**
+	 * Tests that the resume offset of accepted file transfers is read.
+	 */
+	@Test
+	public void testResumeOffset()
+	{
+		read( "1!SENDFILEACCEPT+r9223372036854775807#Nick:(2)[40756]{3}a.txt" );
+
+		assertEquals( MessageType.SENDFILEACCEPT, reader.getType() );
+		assertEquals( Long.MAX_VALUE, reader.getResumeOffset() );
+		assertEquals( "(2)[40756]{3}a.txt", reader.getString( 0 ) );
+
+		read( "1!SENDFILEACCEPT#Nick:(2)[40756]{3}a.txt" );
+		assertEquals( -1, reader.getResumeOffset() );
+	}
+
+	/**
+	 * Tests that the terminator flag of message fragments is read.
+	 */
+	@Test
+	public void testTerminated()
+	{
+		read( "1!MSGPART+s4+t#Nick:(2)[0]{2}<5>   ." );
+
+		assertEquals( MessageType.MSGPART, reader.getType() );
+		assertTrue( reader.isTerminated() );
+		assertEquals( 4, reader.getSequence() );
+
+		read( "1!MSGPART#Nick:(2)[0]{2}<5>text" );
+		assertFalse( reader.isTerminated() );
+
+		read( "1!MSGPART+tx#Nick:(2)[0]{2}<5>text" );
+		assertNull( reader.getType() );
+	}
+
+	/**
+	 * Tests that invalid sequence numbers are not accepted.
+	 */
+	@Test
+	public void testInvalidSequence()
+	{
+		read( "1!MSG+s#Nick:[1]text" );
+		assertNull( reader.getType() );
+
+		try
+		{
+			read( "1!MSG+s-5#Nick:[1]text" );
+			fail( "Expected NumberFormatException" );
+		}
+
+		catch ( final NumberFormatException e )
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests that positions in the body are the same as with <code>indexOf()</code>.
+	 */
+	@Test
+	public void testIndexOf()
+	{
+		String body = "(a)[b]{c}<d>[e]x!#";
+		read( "1!MSG#Nick:" + body );
+
+		for ( char character : "()[]{}<>x!#z".toCharArray() )
+		{
+			assertEquals( String.valueOf( character ), body.indexOf( character ), reader.indexOf( character ) );
+		}
+	}
+
+	/**
+	 * Tests that positions count bytes, and that fields are decoded as UTF-8.
+	 */
+	@Test
+	public void testMultiByteCharacters()
+	{
+		read( "1!MSG#\u00c5se:\u00e6[12]\u20ac" );
+
+		assertEquals( "\u00c5se", reader.getNick() );
+		assertEquals( 2, reader.indexOf( '[' ) );
+		assertEquals( 12, reader.getInt( 3, 5 ) );
+		assertEquals( "\u20ac", reader.getString( 6 ) );
+	}
+
+	/**
+	 * Tests the limits of the numbers.
+	 */
+	@Test
+	public void testNumbers()
+	{
+		read( "1!MSG#Nick:2147483647 -2147483648 9223372036854775807 -9223372036854775808" );
+
+		assertEquals( Integer.MAX_VALUE, reader.getInt( 0, 10 ) );
+		assertEquals( Integer.MIN_VALUE, reader.getInt( 11, 22 ) );
+		assertEquals( Long.MAX_VALUE, reader.getLong( 23, 42 ) );
+		assertEquals( Long.MIN_VALUE, reader.getLong( 43, 63 ) );
+	}
+
+	/**
+	 * Tests that invalid numbers fail like <code>Long.parseLong()</code>.
+	 */
+	@Test
+	public void testInvalidNumbers()
+	{
+		read( "1!MSG#Nick:2147483648 -2147483649 9223372036854775808 - 1a +1 " );
+
+		assertInvalidInt( 0, 10 );
+		assertInvalidInt( 11, 22 );
+		assertInvalidInt( 42, 43 );
+		assertInvalidInt( 44, 46 );
+		assertInvalidInt( 47, 49 );
+		assertInvalidInt( 0, 0 );
+
+		try
+		{
+			reader.getLong( 23, 42 );
+			fail( "Should fail" );
+		}
+
+		catch ( final NumberFormatException e )
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests that invalid positions fail like <code>substring()</code>.
+	 */
+	@Test
+	public void testInvalidRange()
+	{
+		read( "1!MSG#Nick:[1]" );
+
+		assertInvalidRange( -1, 2 );
+		assertInvalidRange( 2, 1 );
+		assertInvalidRange( 0, 4 );
+	}
+
+	/**
+	 * Tests that messages without all the separators fail.
+	 */
+	@Test
+	public void testMissingSeparators()
+	{
+		assertInvalidMessage( "1MSG#Nick:" );
+		assertInvalidMessage( "1!MSGNick:" );
+		assertInvalidMessage( "1!MSG#Nick" );
+		assertInvalidMessage( "1:MSG#Nick!" );
+		assertInvalidMessage( "" );
+	}
+
+	/**
+	 * Reads the message.
+	 *
+	 * @param message The message to read.
+	 */
+	private void read( final String message )
+	{
+		byte[] data = message.getBytes( Charset.forName( "UTF-8" ) );
+		reader.read( data, 0, data.length );
+	}
+
+	/**
+	 * Checks that the number at the position is invalid.
+	 *
+	 * @param from The position in the body to start from.
+	 * @param to The position in the body to stop before.
+	 */
+	private void assertInvalidInt( final int from, final int to )
+	{
+		try
+		{
+			reader.getInt( from, to );
+			fail( "Should fail: " + from + "-" + to );
+		}
+
+		catch ( final NumberFormatException e )
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Checks that the position is invalid.
+	 *
+	 * @param from The position in the body to start from.
+	 * @param to The position in the body to stop before.
+	 */
+	private void assertInvalidRange( final int from, final int to )
+	{
+		try
+		{
+			reader.getString( from, to );
+			fail( "Should fail: " + from + "-" + to );
+		}
+
+		catch ( final StringIndexOutOfBoundsException e )
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Checks that the message can not be read.
+	 *
+	 * @param message The message to read.
+	 */
+	private void assertInvalidMessage( final String message )
+	{
+		try
+		{
+			read( message );
+			fail( "Should fail: " + message );
+		}
+
+		catch ( final StringIndexOutOfBoundsException e )
+		{
+			// Expected
+		}
+	}
+}
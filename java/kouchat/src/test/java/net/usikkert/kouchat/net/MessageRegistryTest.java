@@ -0,0 +1,130 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageRegistry}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageRegistryTest
+{
+	/** The registry tested here. */
+	private MessageRegistry registry;
+
+	/**
+	 * Creates a new registry.
+	 */
+	@Before
+	public void setUp()
+	{
+		registry = new MessageRegistry();
+	}
+
+	/**
+	 * Tests that all the message types have an encoder, and no handler.
+	 */
+	@Test
+	public void testDefaultRegistrations()
+	{
+		for ( MessageType type : MessageType.values() )
+		{
+			assertNotNull( type.name(), registry.getEncoder( type ) );
+			assertNull( type.name(), registry.getHandler( type ) );
+		}
+	}
+
+	/**
+	 * Tests the bodies created by the default encoders.
+	 */
+	@Test
+	public void testDefaultEncoders()
+	{
+		assertEquals( "", registry.encode( MessageType.LOGON ) );
+		assertEquals( "[15000]", registry.encode( MessageType.IDLE, 15000 ) );
+		assertEquals( "I am away", registry.encode( MessageType.AWAY, "I am away" ) );
+		assertEquals( "[-123]Hello", registry.encode( MessageType.MSG, -123, "Hello" ) );
+		assertEquals( "(Nick)[1000]The topic", registry.encode( MessageType.TOPIC, "Nick", 1000L, "The topic" ) );
+		assertEquals( "(5)[40000]{77}a.txt", registry.encode( MessageType.SENDFILEACCEPT, 5, 40000, 77, "a.txt" ) );
+		assertEquals( "(5){77}a.txt", registry.encode( MessageType.SENDFILEABORT, 5, 77, "a.txt" ) );
+		assertEquals( "(KouChat)[10]{Linux}<40656>deflate",
+				registry.encode( MessageType.CLIENT, "KouChat", 10L, "Linux", 40656, "deflate" ) );
+	}
+
+	/**
+	 * Tests that the wrong number of fields fails.
+	 */
+	@Test( expected = IllegalArgumentException.class )
+	public void testEncodeWithWrongNumberOfFields()
+	{
+		registry.encode( MessageType.MSG, "Hello" );
+	}
+
+	/**
+	 * Tests that registered encoders replace the default encoders.
+	 */
+	@Test
+	public void testRegisterEncoder()
+	{
+		MessageEncoder encoder = new FieldEncoder( "<>", false );
+		registry.registerEncoder( MessageType.IDLE, encoder );
+
+		assertSame( encoder, registry.getEncoder( MessageType.IDLE ) );
+		assertEquals( "<60>", registry.encode( MessageType.IDLE, 60 ) );
+	}
+
+	/**
+	 * Tests that messages are given to the handler of the message type.
+	 */
+	@Test
+	public void testHandle()
+	{
+		MessageHandler handler = mock( MessageHandler.class );
+		registry.registerHandler( MessageType.WRITING, handler );
+		MessageReader reader = new MessageReader();
+
+		byte[] data = "1!WRITING#Nick:".getBytes();
+		reader.read( data, 0, data.length );
+		assertTrue( registry.handle( reader, "10.0.0.1" ) );
+		verify( handler ).messageArrived( reader, "10.0.0.1" );
+
+		data = "1!STOPPEDWRITING#Nick:".getBytes();
+		reader.read( data, 0, data.length );
+		assertFalse( registry.handle( reader, "10.0.0.1" ) );
+
+		data = "1!UNKNOWN#Nick:".getBytes();
+		reader.read( data, 0, data.length );
+		assertFalse( registry.handle( reader, "10.0.0.1" ) );
+	}
+}
@@ -21,16 +21,24 @@
 
 package net.usikkert.kouchat.net;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
+import java.util.List;
 
+import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Settings;
+import net.usikkert.kouchat.misc.SortedUserList;
 import net.usikkert.kouchat.misc.Topic;
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+import net.usikkert.kouchat.util.Tools;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 /**
  * Test of {@link Messages}.
@@ -104,17 +112,276 @@ public class MessagesTest
 		verify( service ).sendMulticastMsg( createMessage( "MSG" ) + "[" + settings.getOwnColor() + "]" + msg );
 	}
 
+	/**
+	 * Tests sendChatMessage() with a message too large for one packet.
+	 *
+	 * Expects: 16899115!MSGPART#Christian:(1)[0]{3}<-15987646>aaa...
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendLargeChatMessage() throws CommandException
+	{
+		StringBuilder msg = new StringBuilder();
+
+		while ( msg.length() < Constants.MESSAGE_FRAGMENT_BYTES * 2 + 10 )
+		{
+			msg.append( 'a' );
+		}
+
+		messages.sendChatMessage( msg.toString() );
+
+		String fields = "{3}<" + settings.getOwnColor() + ">";
+		verify( service, times( 3 ) ).sendMulticastMsg( startsWith( createMessage( "MSGPART" ) ) );
+		verify( service ).sendMulticastMsg( matches( ".+\\(\\d+\\)\\[0\\]\\{3\\}.+" ) );
+		verify( service ).sendMulticastMsg( matches( ".+\\(\\d+\\)\\[2\\]\\{3\\}.+" ) );
+		verify( service, times( 3 ) ).sendMulticastMsg( contains( fields ) );
+		verify( service, never() ).sendMulticastMsg( startsWith( createMessage( "MSG" ) ) );
+	}
+
+	/**
+	 * Tests that messages are split at character boundaries, and before
+	 * whitespace at the end of a fragment.
+	 */
+	@Test
+	public void testSplitMessage()
+	{
+		String euros = "\u20ac\u20ac\u20ac\u20ac";
+		List<String> fragments = Messages.splitMessage( euros, 7 );
+		assertEquals( 2, fragments.size() );
+		assertEquals( "\u20ac\u20ac", fragments.get( 0 ) );
+		assertEquals( "\u20ac\u20ac", fragments.get( 1 ) );
+
+		String surrogates = "a\ud834\udd1e\ud834\udd1e";
+		fragments = Messages.splitMessage( surrogates, 6 );
+		assertEquals( 2, fragments.size() );
+		assertEquals( "a\ud834\udd1e", fragments.get( 0 ) );
+		assertEquals( "\ud834\udd1e", fragments.get( 1 ) );
+
+		fragments = Messages.splitMessage( "one two three", 8 );
+		assertEquals( 2, fragments.size() );
+		assertEquals( "one two", fragments.get( 0 ) );
+		assertEquals( " three", fragments.get( 1 ) );
+
+		String text = "Some \u00e6\u00f8\u00e5 text to split \u20ac and put back together";
+		StringBuilder joined = new StringBuilder();
+
+		for ( String fragment : Messages.splitMessage( text, 5 ) )
+		{
+			assertTrue( Tools.getBytes( fragment ) <= 5 );
+			joined.append( fragment );
+		}
+
+		assertEquals( text, joined.toString() );
+	}
+
+	/**
+	 * Tests that a fragment of only whitespace is sent with a terminator,
+	 * so the whitespace is not removed by the receivers.
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendChatMessageWithLongWhitespace() throws CommandException
+	{
+		StringBuilder msg = new StringBuilder( "start" );
+
+		while ( msg.length() < Constants.MESSAGE_FRAGMENT_BYTES + 100 )
+		{
+			msg.append( ' ' );
+		}
+
+		msg.append( "end" );
+		messages.sendChatMessage( msg.toString() );
+
+		verify( service ).sendMulticastMsg( matches( ".+!MSGPART#.+\\[0\\]\\{3\\}<-?\\d+>start" ) );
+		verify( service ).sendMulticastMsg( matches( ".+!MSGPART\\+t#.+\\[1\\]\\{3\\}<-?\\d+> +\\." ) );
+		verify( service ).sendMulticastMsg( matches( ".+!MSGPART#.+\\[2\\]\\{3\\}<-?\\d+> +end" ) );
+	}
+
+	/**
+	 * Tests that large chat messages are compressed when all the other users
+	 * support compression, and sent as plain text otherwise.
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendCompressedChatMessage() throws CommandException
+	{
+		UserList userList = new SortedUserList();
+		userList.add( me );
+		User other = new User( "Other", 1234 );
+		other.setCompressionSupported( true );
+		userList.add( other );
+
+		Messages compressingMessages = new Messages( service, new MessageRegistry(), userList );
+		String msg = "A chat message long enough to be compressed, a chat message long enough to be compressed, "
+			+ "a chat message long enough to be compressed, a chat message long enough to be compressed";
+		String body = "[" + settings.getOwnColor() + "]" + msg;
+
+		compressingMessages.sendChatMessage( msg );
+		verify( service ).sendMulticastMsg( me.getCode() + "!MSG+z#" + me.getNick() + ":"
+				+ new PayloadCompressor().compress( body, 500 ) );
+
+		compressingMessages.sendChatMessage( "Short message" );
+		verify( service ).sendMulticastMsg( createMessage( "MSG" ) + "[" + settings.getOwnColor() + "]Short message" );
+
+		userList.add( new User( "Old", 5678 ) );
+		compressingMessages.sendChatMessage( msg );
+		verify( service ).sendMulticastMsg( createMessage( "MSG" ) + body );
+	}
+
+	/**
+	 * Tests that a chat message too large for one packet is sent as one
+	 * compressed message when it can be compressed into one packet.
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendLargeCompressedChatMessage() throws CommandException
+	{
+		UserList userList = new SortedUserList();
+		Messages compressingMessages = new Messages( service, new MessageRegistry(), userList );
+		StringBuilder msg = new StringBuilder();
+
+		while ( msg.length() < Constants.MESSAGE_MAX_BYTES * 3 )
+		{
+			msg.append( "at net.usikkert.kouchat.net.Messages.sendChatMessage(Messages.java:" )
+				.append( msg.length() ).append( ")\n" );
+		}
+
+		compressingMessages.sendChatMessage( msg.toString() );
+		verify( service ).sendMulticastMsg( startsWith( me.getCode() + "!MSG+z" ) );
+		verify( service, never() ).sendMulticastMsg( contains( "!MSGPART#" ) );
+	}
+
+	/**
+	 * Tests that chat messages, topics and away messages get a sequence number
+	 * when all the other users support it, and can be sent again unchanged.
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendSequencedMessages() throws CommandException
+	{
+		UserList userList = new SortedUserList();
+		userList.add( me );
+		User other = new User( "Other", 1234 );
+		other.setSequencingSupported( true );
+		userList.add( other );
+
+		Messages sequencingMessages = new Messages( service, new MessageRegistry(), userList );
+		String chatMsg = me.getCode() + "!MSG+s1#" + me.getNick() + ":[" + settings.getOwnColor() + "]Hello";
+
+		sequencingMessages.sendChatMessage( "Hello" );
+		verify( service ).sendMulticastMsg( chatMsg );
+
+		sequencingMessages.sendAwayMessage( "Gone" );
+		verify( service ).sendMulticastMsg( me.getCode() + "!AWAY+s2#" + me.getNick() + ":Gone" );
+
+		sequencingMessages.sendExposeMessage();
+		verify( service ).sendMulticastMsg( createMessage( "EXPOSE" ) );
+
+		sequencingMessages.resendMessage( 1 );
+		verify( service, times( 2 ) ).sendMulticastMsg( chatMsg );
+
+		// Already sent again just now
+		sequencingMessages.resendMessage( 1 );
+		verify( service, times( 2 ) ).sendMulticastMsg( chatMsg );
+
+		// Never sent
+		sequencingMessages.resendMessage( 3 );
+		verify( service, times( 4 ) ).sendMulticastMsg( anyString() );
+
+		userList.add( new User( "Old", 5678 ) );
+		sequencingMessages.sendChatMessage( "Hello" );
+		verify( service ).sendMulticastMsg( createMessage( "MSG" ) + "[" + settings.getOwnColor() + "]Hello" );
+	}
+
+	/**
+	 * Tests that a message the send queue rejects is not sent again, and
+	 * that its sequence number is given to the next message instead.
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testRejectedSequencedMessageIsNotKept() throws CommandException
+	{
+		UserList userList = new SortedUserList();
+		userList.add( me );
+		User other = new User( "Other", 1234 );
+		other.setSequencingSupported( true );
+		userList.add( other );
+
+		Messages sequencingMessages = new Messages( service, new MessageRegistry(), userList );
+		String awayMsg = me.getCode() + "!AWAY+s1#" + me.getNick() + ":Gone";
+		when( service.sendMulticastMsg( awayMsg ) ).thenReturn( false );
+
+		sequencingMessages.sendAwayMessage( "Gone" );
+		sequencingMessages.resendMessage( 1 );
+		verify( service, times( 1 ) ).sendMulticastMsg( awayMsg );
+
+		when( service.sendMulticastMsg( awayMsg ) ).thenReturn( true );
+		sequencingMessages.sendAwayMessage( "Gone" );
+		sequencingMessages.resendMessage( 1 );
+		verify( service, times( 3 ) ).sendMulticastMsg( awayMsg );
+	}
+
+	/**
+	 * Tests sendNackMessage().
+	 *
+	 * Expects: 13132531!NACK#Christian:(1234)[42]
+	 */
+	@Test
+	public void testSendNackMessage()
+	{
+		messages.sendNackMessage( 1234, 42 );
+		verify( service ).sendMulticastMsg( createMessage( "NACK" ) + "(1234)[42]" );
+	}
+
+	/**
+	 * Tests that the sequence number is added after the type and the other flags.
+	 */
+	@Test
+	public void testAddSequence()
+	{
+		assertEquals( "1!MSG+s5#nick:[1]#text", Messages.addSequence( "1!MSG#nick:[1]#text", 5 ) );
+		assertEquals( "1!TOPIC+z+s6#nick:abc", Messages.addSequence( "1!TOPIC+z#nick:abc", 6 ) );
+	}
+
+	/**
+	 * Tests that private messages are compressed if the receiver supports it.
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendCompressedPrivateMessage() throws CommandException
+	{
+		User user = new User( "TestUser", 435435 );
+		user.setPrivateChatPort( 12345 );
+		user.setIpAddress( "192.168.5.155" );
+		user.setCompressionSupported( true );
+
+		String privmsg = "A private message long enough to be compressed, long enough to be compressed, "
+			+ "long enough to be compressed, long enough to be compressed";
+		messages.sendPrivateMessage( privmsg, user );
+
+		String body = "(435435)[" + settings.getOwnColor() + "]" + privmsg;
+		verify( service ).sendUDPMsg( me.getCode() + "!PRIVMSG+z#" + me.getNick() + ":"
+				+ new PayloadCompressor().compress( body, 500 ), "192.168.5.155", 12345 );
+	}
+
 	/**
 	 * Tests sendClient().
 	 *
-	 * Expects: 13132531!CLIENT#Christian:(KouChat v0.9.9-dev null)[134]{Linux}<0>
+	 * Expects: 13132531!CLIENT#Christian:(KouChat v0.9.9-dev null)[134]{Linux}<0>deflate seq ack resume
 	 */
 	@Test
 	public void testSendClientMessage()
 	{
 		String startsWith = "(" + me.getClient() + ")[";
 		String middle = ".+\\)\\[\\d+\\]\\{.+"; // like: )[134[{
-		String endsWidth = "]{" + me.getOperatingSystem() + "}<" + me.getPrivateChatPort() + ">";
+		String endsWidth = "]{" + me.getOperatingSystem() + "}<" + me.getPrivateChatPort() + ">deflate seq ack resume";
 
 		messages.sendClient();
 
@@ -221,10 +488,27 @@ public class MessagesTest
 
 		User user = new User( "TestUser", userCode );
 
-		messages.sendFileAccept( user, port, fileHash, fileName );
+		messages.sendFileAccept( user, port, fileHash, fileName, 0 );
 		verify( service ).sendMulticastMsg( createMessage( "SENDFILEACCEPT" ) + info );
 	}
 
+	/**
+	 * Tests sendFileAccept() with a resume offset.
+	 *
+	 * Expects: 17247198!SENDFILEACCEPT+r1048576#Christian:(4321)[20103]{8578765}some_file.txt
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendFileAcceptMessageWithResumeOffset() throws CommandException
+	{
+		User user = new User( "TestUser", 4321 );
+
+		messages.sendFileAccept( user, 20103, 8578765, "some_file.txt", 1048576 );
+		verify( service ).sendMulticastMsg( createMessage( "SENDFILEACCEPT+r1048576" )
+				+ "(4321)[20103]{8578765}some_file.txt" );
+	}
+
 	/**
 	 * Tests sendGetTopicMessage().
 	 *
@@ -249,6 +533,51 @@ public class MessagesTest
 		verify( service ).sendMulticastMsg( createMessage( "IDLE" ) );
 	}
 
+	/**
+	 * Tests that the idle interval is sent when it's known.
+	 *
+	 * Expects: 10223997!IDLE#Christian:[15000]
+	 */
+	@Test
+	public void testSendIdleMessageWithInterval()
+	{
+		try
+		{
+			me.setIdleInterval( 15000 );
+			messages.sendIdleMessage();
+			verify( service ).sendMulticastMsg( createMessage( "IDLE" ) + "[15000]" );
+		}
+
+		finally
+		{
+			me.setIdleInterval( 0 );
+		}
+	}
+
+	/**
+	 * Tests that the cached message headers get the new nick name
+	 * after the nick name changes.
+	 */
+	@Test
+	public void testHeaderUpdatedAfterNickChange()
+	{
+		String originalNick = me.getNick();
+		messages.sendIdleMessage();
+		verify( service ).sendMulticastMsg( createMessage( "IDLE" ) );
+
+		try
+		{
+			me.setNick( "Newnick" );
+			messages.sendIdleMessage();
+			verify( service ).sendMulticastMsg( createMessage( "IDLE", "Newnick" ) );
+		}
+
+		finally
+		{
+			me.setNick( originalNick );
+		}
+	}
+
 	/**
 	 * Tests sendLogoffMessage().
 	 *
@@ -326,6 +655,63 @@ public class MessagesTest
 		verify( service ).sendUDPMsg( createMessage( "PRIVMSG" ) + message, userIP, userPort );
 	}
 
+	/**
+	 * Tests sendPrivateMessage() to a user that acknowledges private messages.
+	 * The first sequence number is random.
+	 *
+	 * Expects: 10897608!PRIVMSG+s&lt;first&gt;+b&lt;first&gt;#Christian:(435435)[-15987646]first
+	 *
+	 * @throws CommandException In case the message could not be sent.
+	 */
+	@Test
+	public void testSendAcknowledgedPrivateMessage() throws CommandException
+	{
+		String userIP = "192.168.5.155";
+		int userPort = 12345;
+		int userCode = 435436;
+		String body = "(" + userCode + ")[" + settings.getOwnColor() + "]";
+		String header = createMessage( "PRIVMSG" );
+		int hash = header.indexOf( '#' );
+
+		User user = new User( "TestUser", userCode );
+		user.setPrivateChatPort( userPort );
+		user.setIpAddress( userIP );
+		user.setAcknowledgingSupported( true );
+
+		messages.sendPrivateMessage( "first", user );
+		ArgumentCaptor<String> firstMsg = ArgumentCaptor.forClass( String.class );
+		verify( service ).sendUDPMsg( firstMsg.capture(), eq( userIP ), eq( userPort ) );
+		String sent = firstMsg.getValue();
+		int first = Integer.parseInt( sent.substring( sent.indexOf( "+s" ) + 2, sent.indexOf( "+b" ) ) );
+
+		messages.sendPrivateMessage( "second", user );
+		verify( service ).sendUDPMsg( header.substring( 0, hash ) + "+s" + first + "+b" + first
+				+ header.substring( hash ) + body + "first", userIP, userPort );
+		verify( service ).sendUDPMsg( header.substring( 0, hash ) + "+s" + ( first + 1 ) + "+b" + first
+				+ header.substring( hash ) + body + "second", userIP, userPort );
+
+		messages.privateMessagesAcknowledged( userCode, first );
+		messages.sendPrivateMessage( "third", user );
+		verify( service ).sendUDPMsg( header.substring( 0, hash ) + "+s" + ( first + 2 ) + "+b" + ( first + 1 )
+				+ header.substring( hash ) + body + "third", userIP, userPort );
+	}
+
+	/**
+	 * Tests sendPrivateAckMessage().
+	 *
+	 * Expects: 10897608!PRIVACK#Christian:(435435)[7]
+	 */
+	@Test
+	public void testSendPrivateAckMessage()
+	{
+		User user = new User( "TestUser", 435435 );
+		user.setPrivateChatPort( 12345 );
+		user.setIpAddress( "192.168.5.155" );
+
+		messages.sendPrivateAckMessage( user, 7 );
+		verify( service ).sendUDPMsg( createMessage( "PRIVACK" ) + "(435435)[7]", "192.168.5.155", 12345 );
+	}
+
 	/**
 	 * Tests sendStoppedWritingMessage().
 	 *
@@ -0,0 +1,350 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.usikkert.kouchat.event.SendFailureListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test of {@link OutboundQueue}.
+ *
+ * @author Christian Ihle
+ */
+public class OutboundQueueTest
+{
+	/** A control message that blocks the sender until released. */
+	private static final String BLOCKING_MESSAGE = "1!IDLE#block:";
+
+	/** The messages sent, in order. */
+	private final List<String> sentMessages = Collections.synchronizedList( new ArrayList<String>() );
+
+	/** Released to let the blocking message finish sending. */
+	private final CountDownLatch release = new CountDownLatch( 1 );
+
+	/** Counted down when the blocking message is being sent. */
+	private final CountDownLatch blocked = new CountDownLatch( 1 );
+
+	/** The queue being tested. */
+	private OutboundQueue queue;
+
+	/** The mocked multicast sender. */
+	private MessageSender messageSender;
+
+	/** The mocked udp sender. */
+	private UDPSender udpSender;
+
+	/**
+	 * Creates a queue with mocked senders that record the messages.
+	 */
+	@Before
+	public void setUp()
+	{
+		messageSender = mock( MessageSender.class );
+		udpSender = mock( UDPSender.class );
+		when( messageSender.send( anyString() ) ).thenAnswer( new RecordingAnswer() );
+		when( udpSender.send( anyString(), anyString(), anyInt() ) ).thenAnswer( new RecordingAnswer() );
+		queue = new OutboundQueue( messageSender, udpSender, 3 );
+	}
+
+	/**
+	 * Stops the queue.
+	 */
+	@After
+	public void tearDown()
+	{
+		release.countDown();
+		queue.stop( 0 );
+	}
+
+	/**
+	 * Tests that messages are rejected before the queue is started.
+	 */
+	@Test
+	public void testRejectedWhenNotStarted()
+	{
+		assertFalse( queue.sendMulticast( "1!IDLE#nick:" ) );
+		assertEquals( 1, queue.getDroppedMessages() );
+	}
+
+	/**
+	 * Tests that control messages are sent before bulk messages
+	 * that were queued earlier.
+	 *
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testControlMessagesFirst() throws InterruptedException
+	{
+		queue.start();
+		blockSender();
+
+		assertTrue( queue.sendMulticast( "1!MSG#nick:[-1]first" ) );
+		assertTrue( queue.sendUDP( "1!PRIVMSG#nick:(2)[-1]second", "127.0.0.1", 5000 ) );
+		assertTrue( queue.sendMulticast( "1!AWAY#nick:gone" ) );
+		release.countDown();
+		queue.stop( 5000 );
+
+		assertEquals( 4, sentMessages.size() );
+		assertEquals( BLOCKING_MESSAGE, sentMessages.get( 0 ) );
+		assertEquals( "1!AWAY#nick:gone", sentMessages.get( 1 ) );
+		assertEquals( "1!MSG#nick:[-1]first", sentMessages.get( 2 ) );
+		assertEquals( "1!PRIVMSG#nick:(2)[-1]second", sentMessages.get( 3 ) );
+		assertEquals( 4, queue.getSentMessages() );
+		assertEquals( 0, queue.getQueueDepth() );
+	}
+
+	/**
+	 * Tests that a full queue rejects bulk messages, and drops
+	 * the oldest bulk message to make room for a control message.
+	 *
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testFullQueue() throws InterruptedException
+	{
+		queue.start();
+		blockSender();
+
+		assertTrue( queue.sendMulticast( "1!MSG#nick:[-1]one" ) );
+		assertTrue( queue.sendMulticast( "1!MSG#nick:[-1]two" ) );
+		assertTrue( queue.sendMulticast( "1!MSG#nick:[-1]three" ) );
+		assertFalse( queue.sendMulticast( "1!MSG#nick:[-1]four" ) );
+		assertTrue( queue.sendMulticast( "1!BACK#nick:" ) );
+
+		assertEquals( 3, queue.getQueueDepth() );
+		assertEquals( 2, queue.getDroppedMessages() );
+
+		release.countDown();
+		queue.stop( 5000 );
+
+		assertEquals( "1!BACK#nick:", sentMessages.get( 1 ) );
+		assertEquals( "1!MSG#nick:[-1]two", sentMessages.get( 2 ) );
+		assertEquals( "1!MSG#nick:[-1]three", sentMessages.get( 3 ) );
+	}
+
+	/**
+	 * Tests that control messages with a sequence number are sent after
+	 * the bulk messages queued earlier, and are kept when making room.
+	 *
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testSequencedControlMessagesKeepOrder() throws InterruptedException
+	{
+		queue.start();
+		blockSender();
+
+		assertTrue( queue.sendMulticast( "1!MSG+s1#nick:[-1]one" ) );
+		assertTrue( queue.sendMulticast( "1!AWAY+s2#nick:gone" ) );
+		assertTrue( queue.sendMulticast( "1!MSG+s3#nick:[-1]three" ) );
+		assertTrue( queue.sendMulticast( "1!IDLE#nick:" ) );
+		assertTrue( queue.sendMulticast( "1!BACK+s4#nick:" ) );
+		assertFalse( queue.sendMulticast( "1!IDLE#other:" ) );
+		assertEquals( 3, queue.getDroppedMessages() );
+
+		release.countDown();
+		queue.stop( 5000 );
+
+		assertEquals( 4, sentMessages.size() );
+		assertEquals( "1!IDLE#nick:", sentMessages.get( 1 ) );
+		assertEquals( "1!AWAY+s2#nick:gone", sentMessages.get( 2 ) );
+		assertEquals( "1!BACK+s4#nick:", sentMessages.get( 3 ) );
+	}
+
+	/**
+	 * Tests that logoff and nick messages are sent after the chat messages
+	 * queued earlier, while other control messages are sent first.
+	 *
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testLogoffAfterQueuedChat() throws InterruptedException
+	{
+		queue.start();
+		blockSender();
+
+		assertTrue( queue.sendMulticast( "1!MSG#nick:[-1]first" ) );
+		assertTrue( queue.sendMulticast( "1!NICK#newnick:" ) );
+		assertTrue( queue.sendMulticast( "1!LOGOFF#newnick:" ) );
+		release.countDown();
+		queue.stop( 5000 );
+
+		assertEquals( 4, sentMessages.size() );
+		assertEquals( "1!MSG#nick:[-1]first", sentMessages.get( 1 ) );
+		assertEquals( "1!NICK#newnick:", sentMessages.get( 2 ) );
+		assertEquals( "1!LOGOFF#newnick:", sentMessages.get( 3 ) );
+	}
+
+	/**
+	 * Tests that the listener is notified from the sender thread
+	 * when a message fails to send.
+	 *
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testSendFailureIsReported() throws InterruptedException
+	{
+		final List<String> failed = Collections.synchronizedList( new ArrayList<String>() );
+		final CountDownLatch reported = new CountDownLatch( 1 );
+
+		queue.setSendFailureListener( new SendFailureListener()
+		{
+			@Override
+			public void sendFailed( final String message )
+			{
+				failed.add( message );
+				reported.countDown();
+			}
+		} );
+
+		when( messageSender.send( "1!IDLE#nick:" ) ).thenReturn( false );
+		queue.start();
+
+		assertTrue( queue.sendMulticast( "1!IDLE#nick:" ) );
+		assertTrue( reported.await( 5, TimeUnit.SECONDS ) );
+		assertEquals( "1!IDLE#nick:", failed.get( 0 ) );
+		assertEquals( 1, queue.getFailedMessages() );
+	}
+
+	/**
+	 * Tests that messages are rejected after the queue is stopped.
+	 */
+	@Test
+	public void testRejectedWhenStopped()
+	{
+		queue.start();
+		queue.stop( 5000 );
+
+		assertFalse( queue.sendMulticast( "1!IDLE#nick:" ) );
+	}
+
+	/**
+	 * Tests finding the bulk messages from the message type.
+	 */
+	@Test
+	public void testIsBulkMessage()
+	{
+		assertTrue( OutboundQueue.isBulkMessage( "1!MSG#nick:[-1]hello" ) );
+		assertTrue( OutboundQueue.isBulkMessage( "1!PRIVMSG#nick:(2)[-1]hello" ) );
+		assertTrue( OutboundQueue.isBulkMessage( "1!WRITING#nick:" ) );
+		assertTrue( OutboundQueue.isBulkMessage( "1!STOPPEDWRITING#nick:" ) );
+		assertTrue( OutboundQueue.isBulkMessage( "1!MSG+z#nick:abc" ) );
+		assertTrue( OutboundQueue.isBulkMessage( "1!MSGPART#nick:(1)[0]{2}<-1>hello" ) );
+		assertFalse( OutboundQueue.isBulkMessage( "1!IDLE#nick:" ) );
+		assertFalse( OutboundQueue.isBulkMessage( "1!MSGX#nick:" ) );
+		assertFalse( OutboundQueue.isBulkMessage( "1!LOGON#MSG:" ) );
+		assertFalse( OutboundQueue.isBulkMessage( "1!TOPIC+z#nick:abc" ) );
+		assertFalse( OutboundQueue.isBulkMessage( "no header" ) );
+	}
+
+	/**
+	 * Tests that only messages with the sequence flag after the type are sequenced.
+	 */
+	@Test
+	public void testIsSequencedMessage()
+	{
+		assertTrue( OutboundQueue.isSequencedMessage( "1!TOPIC+s5#nick:(2)[3]topic" ) );
+		assertTrue( OutboundQueue.isSequencedMessage( "1!MSG+z+s5#nick:abc" ) );
+		assertFalse( OutboundQueue.isSequencedMessage( "1!TOPIC#nick:(2)[3]a+s" ) );
+		assertFalse( OutboundQueue.isSequencedMessage( "1!IDLE#ni+sck:" ) );
+		assertFalse( OutboundQueue.isSequencedMessage( "no header" ) );
+	}
+
+	/**
+	 * Tests that sequenced messages, and logoff and nick messages, are ordered.
+	 */
+	@Test
+	public void testIsOrderedMessage()
+	{
+		assertTrue( OutboundQueue.isOrderedMessage( "1!LOGOFF#nick:" ) );
+		assertTrue( OutboundQueue.isOrderedMessage( "1!NICK#newnick:" ) );
+		assertTrue( OutboundQueue.isOrderedMessage( "1!AWAY+s3#nick:gone" ) );
+		assertFalse( OutboundQueue.isOrderedMessage( "1!AWAY#nick:gone" ) );
+		assertFalse( OutboundQueue.isOrderedMessage( "1!IDLE#nick:" ) );
+		assertFalse( OutboundQueue.isOrderedMessage( "1!NICKCRASH#nick:" ) );
+	}
+
+	/**
+	 * Tests that the type of a message is found without the flags, for logging.
+	 */
+	@Test
+	public void testGetType()
+	{
+		assertEquals( "PRIVMSG", OutboundQueue.getType( "1!PRIVMSG#nick:(2)[3]secret" ) );
+		assertEquals( "MSG", OutboundQueue.getType( "1!MSG+z+s5#nick:abc" ) );
+		assertEquals( "", OutboundQueue.getType( "no header" ) );
+		assertEquals( "", OutboundQueue.getType( "1#nick!MSG:" ) );
+	}
+
+	/**
+	 * Sends a message that blocks the sender thread until released,
+	 * and waits until the sender thread is blocked.
+	 *
+	 * @throws InterruptedException If interrupted.
+	 */
+	private void blockSender() throws InterruptedException
+	{
+		assertTrue( queue.sendMulticast( BLOCKING_MESSAGE ) );
+		assertTrue( blocked.await( 5, TimeUnit.SECONDS ) );
+	}
+
+	/**
+	 * Records the sent messages, and blocks on the blocking message.
+	 */
+	private class RecordingAnswer implements Answer<Boolean>
+	{
+		/** {@inheritDoc} */
+		@Override
+		public Boolean answer( final InvocationOnMock invocation ) throws Throwable
+		{
+			String message = (String) invocation.getArguments()[0];
+			sentMessages.add( message );
+
+			if ( message.equals( BLOCKING_MESSAGE ) )
+			{
+				blocked.countDown();
+				release.await();
+			}
+
+			return true;
+		}
+	}
+}
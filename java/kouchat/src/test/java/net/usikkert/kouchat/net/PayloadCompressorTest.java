@@ -0,0 +1,149 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link PayloadCompressor}.
+ *
+ * @author Christian Ihle
+ */
+public class PayloadCompressorTest
+{
+	/** The charset used for the messages. */
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	/** The compressor tested here. */
+	private PayloadCompressor compressor;
+
+	/**
+	 * Creates a new compressor.
+	 */
+	@Before
+	public void setUp()
+	{
+		compressor = new PayloadCompressor();
+	}
+
+	/**
+	 * Tests that compressed texts of different lengths come back the same
+	 * after decompression, and that only base64 characters are used.
+	 */
+	@Test
+	public void testCompressAndDecompress()
+	{
+		Random random = new Random( 42 );
+		String words = "chat message \u00e6\u00f8\u00e5 \u20ac topic away ";
+
+		for ( int i = 1; i < 300; i++ )
+		{
+			StringBuilder text = new StringBuilder();
+
+			while ( text.length() < i )
+			{
+				text.append( words.charAt( random.nextInt( words.length() ) ) );
+			}
+
+			String compressed = compressor.compress( text.toString(), 1000 );
+			assertNotNull( compressed );
+			assertTrue( compressed, compressed.matches( "[A-Za-z0-9+/]*" ) );
+
+			assertEquals( text.toString(), decompress( compressed, 1000 ) );
+		}
+	}
+
+	/**
+	 * Tests that nothing is returned if the compressed text is too large.
+	 */
+	@Test
+	public void testCompressTooLarge()
+	{
+		String text = "Some text that does not compress very well";
+		String compressed = compressor.compress( text, 1000 );
+
+		assertEquals( compressed, compressor.compress( text, compressed.length() ) );
+		assertNull( compressor.compress( text, compressed.length() - 4 ) );
+		assertNull( compressor.compress( text, 0 ) );
+	}
+
+	/**
+	 * Tests that texts that are too large when decompressed are rejected.
+	 */
+	@Test
+	public void testDecompressTooLarge()
+	{
+		StringBuilder text = new StringBuilder();
+
+		for ( int i = 0; i < 5000; i++ )
+		{
+			text.append( 'a' );
+		}
+
+		String compressed = compressor.compress( text.toString(), 500 );
+
+		assertEquals( text.toString(), decompress( compressed, 5000 ) );
+		assertNull( decompress( compressed, 4999 ) );
+	}
+
+	/**
+	 * Tests that invalid data is rejected.
+	 */
+	@Test
+	public void testDecompressInvalid()
+	{
+		assertNull( decompress( "abc!", 1000 ) );
+		assertNull( decompress( "abcde", 1000 ) );
+		assertNull( decompress( "AAAA", 1000 ) );
+
+		String compressed = compressor.compress( "Some text, some text, some text", 1000 );
+		assertNull( decompress( compressed.substring( 0, compressed.length() - 4 ), 1000 ) );
+	}
+
+	/**
+	 * Decompresses the text.
+	 *
+	 * @param compressed The compressed text.
+	 * @param maxLength Max number of bytes in the decompressed text.
+	 * @return The decompressed text, or <code>null</code> if it failed.
+	 */
+	private String decompress( final String compressed, final int maxLength )
+	{
+		byte[] data = compressed.getBytes( UTF8 );
+		byte[] out = new byte[maxLength + 10];
+		int length = compressor.decompress( data, 0, data.length, out, 5, maxLength );
+
+		if ( length == -1 )
+			return null;
+		else
+			return new String( out, 5, length, UTF8 );
+	}
+}
@@ -0,0 +1,117 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link PeerAddressCache}.
+ *
+ * @author Christian Ihle
+ */
+public class PeerAddressCacheTest
+{
+	/** The cache tested here. */
+	private PeerAddressCache cache;
+
+	/**
+	 * Creates a cache with room for 2 addresses.
+	 */
+	@Before
+	public void setUp()
+	{
+		cache = new PeerAddressCache( 2 );
+	}
+
+	/**
+	 * Tests that an address is only resolved the first time.
+	 *
+	 * @throws UnknownHostException In case of errors.
+	 */
+	@Test
+	public void testAddressIsCached() throws UnknownHostException
+	{
+		InetAddress address = cache.getAddress( "10.0.0.1" );
+		assertEquals( "10.0.0.1", address.getHostAddress() );
+
+		assertSame( address, cache.getAddress( "10.0.0.1" ) );
+		assertEquals( 1, cache.getResolvedAddresses() );
+	}
+
+	/**
+	 * Tests that a new ip address is resolved.
+	 *
+	 * @throws UnknownHostException In case of errors.
+	 */
+	@Test
+	public void testNewIpAddressIsResolved() throws UnknownHostException
+	{
+		cache.getAddress( "10.0.0.1" );
+		assertEquals( "10.0.0.2", cache.getAddress( "10.0.0.2" ).getHostAddress() );
+		assertEquals( 2, cache.getResolvedAddresses() );
+	}
+
+	/**
+	 * Tests that the address used the longest time ago is removed when the cache is full.
+	 *
+	 * @throws UnknownHostException In case of errors.
+	 */
+	@Test
+	public void testOldestAddressIsRemoved() throws UnknownHostException
+	{
+		cache.getAddress( "10.0.0.1" );
+		cache.getAddress( "10.0.0.2" );
+		cache.getAddress( "10.0.0.1" );
+		cache.getAddress( "10.0.0.3" );
+		assertEquals( 2, cache.getCachedAddresses() );
+		assertEquals( 3, cache.getResolvedAddresses() );
+
+		cache.getAddress( "10.0.0.1" );
+		assertEquals( 3, cache.getResolvedAddresses() );
+
+		cache.getAddress( "10.0.0.2" );
+		assertEquals( 4, cache.getResolvedAddresses() );
+	}
+
+	/**
+	 * Tests that clear removes all the addresses.
+	 *
+	 * @throws UnknownHostException In case of errors.
+	 */
+	@Test
+	public void testClear() throws UnknownHostException
+	{
+		cache.getAddress( "10.0.0.1" );
+		cache.clear();
+		assertEquals( 0, cache.getCachedAddresses() );
+
+		cache.getAddress( "10.0.0.1" );
+		assertEquals( 2, cache.getResolvedAddresses() );
+	}
+}
@@ -0,0 +1,168 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link PrivateReceiveWindow}.
+ *
+ * @author Christian Ihle
+ */
+public class PrivateReceiveWindowTest
+{
+	/** The code of the user sending the messages. */
+	private static final int CODE = 1234;
+
+	/** The texts given to the responder, in order. */
+	private List<String> texts;
+
+	/** The window tested here, with room for 4 messages. */
+	private PrivateReceiveWindow window;
+
+	/**
+	 * Creates a new window.
+	 */
+	@Before
+	public void setUp()
+	{
+		texts = new ArrayList<String>();
+
+		PrivateMessageResponder responder = new PrivateMessageResponder()
+		{
+			@Override
+			public void messageArrived( final int userCode, final String msg, final int color )
+			{
+				assertEquals( CODE, userCode );
+				texts.add( msg + color );
+			}
+
+			@Override
+			public void messagesReceived( final int userCode, final int sequence )
+			{
+				// Not used by the window
+			}
+
+			@Override
+			public void messagesAcknowledged( final int userCode, final int sequence )
+			{
+				// Not used by the window
+			}
+		};
+
+		window = new PrivateReceiveWindow( CODE, responder, 4 );
+	}
+
+	/**
+	 * Tests that messages in order are given to the responder at once.
+	 */
+	@Test
+	public void testMessagesInOrder()
+	{
+		assertEquals( 5, window.messageArrived( 5, 5, "a", 1 ) );
+		assertEquals( 6, window.messageArrived( 6, 5, "b", 2 ) );
+
+		assertEquals( "[a1, b2]", texts.toString() );
+	}
+
+	/**
+	 * Tests that early messages wait for the missing message.
+	 */
+	@Test
+	public void testEarlyMessagesWait()
+	{
+		assertEquals( -1, window.messageArrived( 1, 0, "b", 1 ) );
+		assertEquals( -1, window.messageArrived( 2, 0, "c", 1 ) );
+		assertEquals( 0, texts.size() );
+
+		assertEquals( 2, window.messageArrived( 0, 0, "a", 1 ) );
+
+		assertEquals( "[a1, b1, c1]", texts.toString() );
+	}
+
+	/**
+	 * Tests that messages arriving again are not given to the responder again,
+	 * but still acknowledged.
+	 */
+	@Test
+	public void testDuplicates()
+	{
+		window.messageArrived( 0, 0, "a", 1 );
+		window.messageArrived( 2, 0, "c", 1 );
+
+		assertEquals( 0, window.messageArrived( 0, 0, "a", 1 ) );
+		assertEquals( 0, window.messageArrived( 2, 0, "c", 1 ) );
+		assertEquals( 2, window.getDuplicates() );
+		assertEquals( "[a1]", texts.toString() );
+	}
+
+	/**
+	 * Tests that messages given up by the sender are skipped.
+	 */
+	@Test
+	public void testSkipsMessagesBeforeBase()
+	{
+		window.messageArrived( 0, 0, "a", 1 );
+		window.messageArrived( 2, 1, "c", 1 );
+		assertEquals( 3, window.messageArrived( 3, 2, "d", 1 ) );
+
+		assertEquals( "[a1, c1, d1]", texts.toString() );
+	}
+
+	/**
+	 * Tests that a base more than a window behind is taken as a new
+	 * conversation, while a base within the window is not.
+	 */
+	@Test
+	public void testSenderStartsOver()
+	{
+		window.messageArrived( 10, 10, "a", 1 );
+		window.messageArrived( 12, 10, "c", 1 );
+
+		assertEquals( 10, window.messageArrived( 7, 7, "x", 1 ) );
+		assertEquals( 1, window.getDuplicates() );
+
+		assertEquals( 5, window.messageArrived( 5, 5, "b", 1 ) );
+		assertEquals( 6, window.messageArrived( 6, 5, "d", 1 ) );
+		assertEquals( "[a1, b1, d1]", texts.toString() );
+	}
+
+	/**
+	 * Tests that messages too far ahead of the missing message are dropped.
+	 */
+	@Test
+	public void testMessagesOutsideWindow()
+	{
+		window.messageArrived( 0, 0, "a", 1 );
+		assertEquals( 0, window.messageArrived( 5, 1, "f", 1 ) );
+		assertEquals( 0, window.messageArrived( 2, 1, "c", 1 ) );
+		assertEquals( 2, window.messageArrived( 1, 1, "b", 1 ) );
+
+		assertEquals( "[a1, b1, c1]", texts.toString() );
+	}
+}
@@ -0,0 +1,143 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link PrivateSendWindow}.
+ *
+ * @author Christian Ihle
+ */
+public class PrivateSendWindowTest
+{
+	/** The retransmit timeout used in the tests. */
+	private static final int TIMEOUT = 500;
+
+	/** The window tested here, with room for 2 messages. */
+	private PrivateSendWindow window;
+
+	/**
+	 * Creates a new window.
+	 */
+	@Before
+	public void setUp()
+	{
+		window = new PrivateSendWindow( new User( "Test", 1234 ), 0, 2, TIMEOUT, 3, 3 );
+	}
+
+	/**
+	 * Tests that the messages get sequence numbers, and wait for room in the window.
+	 */
+	@Test
+	public void testMessagesWaitForRoomInWindow()
+	{
+		assertTrue( window.add( "1!PRIVMSG#Nick:a", "a" ) );
+		assertTrue( window.add( "1!PRIVMSG#Nick:b", "b" ) );
+		assertTrue( window.add( "1!PRIVMSG#Nick:c", "c" ) );
+
+		List<String> transmits = window.getTransmits( 1000 );
+		assertEquals( 2, transmits.size() );
+		assertEquals( "1!PRIVMSG+s0+b0#Nick:a", transmits.get( 0 ) );
+		assertEquals( "1!PRIVMSG+s1+b0#Nick:b", transmits.get( 1 ) );
+		assertEquals( 1, window.getPendingCount() );
+
+		window.acknowledged( 0 );
+		transmits = window.getTransmits( 1100 );
+		assertEquals( 1, transmits.size() );
+		assertEquals( "1!PRIVMSG+s2+b1#Nick:c", transmits.get( 0 ) );
+		assertEquals( 2, window.getUnacknowledgedCount() );
+
+		window.acknowledged( 2 );
+		assertTrue( window.isIdle() );
+	}
+
+	/**
+	 * Tests that too many waiting messages are not accepted.
+	 */
+	@Test
+	public void testTooManyWaiting()
+	{
+		assertTrue( window.add( "1!PRIVMSG#Nick:a", "a" ) );
+		assertTrue( window.add( "1!PRIVMSG#Nick:b", "b" ) );
+		assertTrue( window.add( "1!PRIVMSG#Nick:c", "c" ) );
+		assertFalse( window.add( "1!PRIVMSG#Nick:d", "d" ) );
+	}
+
+	/**
+	 * Tests that messages are sent again when not acknowledged in time,
+	 * and given up after too many attempts.
+	 */
+	@Test
+	public void testRetransmitAndGiveUp()
+	{
+		window.add( "1!PRIVMSG#Nick:a", "a" );
+		window.add( "1!PRIVMSG#Nick:b", "b" );
+		window.getTransmits( 1000 );
+		window.acknowledged( 0 );
+
+		assertTrue( window.getTransmits( 1000 + TIMEOUT - 1 ).isEmpty() );
+
+		List<String> transmits = window.getTransmits( 1000 + TIMEOUT );
+		assertEquals( 1, transmits.size() );
+		assertEquals( "1!PRIVMSG+s1+b1#Nick:b", transmits.get( 0 ) );
+
+		assertEquals( 1, window.getTransmits( 1000 + 2 * TIMEOUT ).size() );
+		assertTrue( window.takeFailed().isEmpty() );
+
+		assertTrue( window.getTransmits( 1000 + 3 * TIMEOUT ).isEmpty() );
+		List<String> failed = window.takeFailed();
+		assertEquals( 1, failed.size() );
+		assertEquals( "b", failed.get( 0 ) );
+		assertTrue( window.isIdle() );
+
+		window.add( "1!PRIVMSG#Nick:c", "c" );
+		assertEquals( "1!PRIVMSG+s2+b2#Nick:c", window.getTransmits( 5000 ).get( 0 ) );
+	}
+
+	/**
+	 * Tests that acknowledgements outside the window are ignored.
+	 */
+	@Test
+	public void testInvalidAcknowledgements()
+	{
+		window.add( "1!PRIVMSG#Nick:a", "a" );
+		window.getTransmits( 1000 );
+
+		window.acknowledged( 5 );
+		window.acknowledged( -1 );
+		assertEquals( 1, window.getUnacknowledgedCount() );
+
+		window.acknowledged( 0 );
+		window.acknowledged( 0 );
+		assertTrue( window.isIdle() );
+	}
+}
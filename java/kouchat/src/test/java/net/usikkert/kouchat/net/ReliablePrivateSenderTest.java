@@ -0,0 +1,166 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.Random;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.DeliveryFailureListener;
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link ReliablePrivateSender}.
+ *
+ * @author Christian Ihle
+ */
+public class ReliablePrivateSenderTest
+{
+	/** Mocked network service, to see what is sent. */
+	private NetworkService service;
+
+	/** The user to send to. */
+	private User user;
+
+	/** The sender tested here. */
+	private ReliablePrivateSender sender;
+
+	/**
+	 * Creates a sender without a timer, that starts the sequence numbers at 0.
+	 */
+	@Before
+	public void setUp()
+	{
+		service = mock( NetworkService.class );
+		user = new User( "Test", 1234 );
+		user.setIpAddress( "10.0.0.2" );
+		user.setPrivateChatPort( 40000 );
+		sender = new ReliablePrivateSender( service, mock( Random.class ), null );
+	}
+
+	/**
+	 * Tests that a full window of messages is sent without waiting,
+	 * and the rest when acknowledged.
+	 */
+	@Test
+	public void testPipelinedMessages()
+	{
+		int windowSize = Constants.NETWORK_PRIVATE_WINDOW_SIZE;
+
+		for ( int i = 0; i <= windowSize; i++ )
+		{
+			assertTrue( sender.send( user, "1!PRIVMSG#Nick:" + i, "" + i, 1000 ) );
+		}
+
+		verify( service, times( windowSize ) ).sendUDPMsg( anyString(), eq( "10.0.0.2" ), eq( 40000 ) );
+		assertEquals( windowSize, sender.getUnacknowledgedCount( 1234 ) );
+
+		sender.acknowledged( 1234, 0, 1010 );
+		verify( service ).sendUDPMsg( "1!PRIVMSG+s" + windowSize + "+b1#Nick:" + windowSize, "10.0.0.2", 40000 );
+
+		sender.acknowledged( 1234, windowSize, 1020 );
+		assertEquals( 0, sender.getUnacknowledgedCount( 1234 ) );
+	}
+
+	/**
+	 * Tests that messages are sent again, and the listener told when they are given up.
+	 */
+	@Test
+	public void testMessageNotDelivered()
+	{
+		DeliveryFailureListener listener = mock( DeliveryFailureListener.class );
+		sender.registerDeliveryFailureListener( listener );
+		sender.send( user, "1!PRIVMSG#Nick:text", "text", 1000 );
+
+		long time = 1000;
+
+		for ( int i = 1; i < Constants.NETWORK_PRIVATE_MAX_ATTEMPTS; i++ )
+		{
+			time += Constants.NETWORK_PRIVATE_RETRANSMIT_TIMEOUT;
+			sender.sendDueMessages( time );
+		}
+
+		verify( service, times( Constants.NETWORK_PRIVATE_MAX_ATTEMPTS ) ).sendUDPMsg(
+				"1!PRIVMSG+s0+b0#Nick:text", "10.0.0.2", 40000 );
+		verify( listener, never() ).messageNotDelivered( user, "text" );
+
+		sender.sendDueMessages( time + Constants.NETWORK_PRIVATE_RETRANSMIT_TIMEOUT );
+		verify( listener ).messageNotDelivered( user, "text" );
+		assertEquals( 0, sender.getUnacknowledgedCount( 1234 ) );
+	}
+
+	/**
+	 * Tests that acknowledged messages are not sent again.
+	 */
+	@Test
+	public void testAcknowledgedMessageIsNotSentAgain()
+	{
+		sender.send( user, "1!PRIVMSG#Nick:text", "text", 1000 );
+		sender.acknowledged( 1234, 0, 1100 );
+		sender.sendDueMessages( 5000 );
+
+		verify( service ).sendUDPMsg( "1!PRIVMSG+s0+b0#Nick:text", "10.0.0.2", 40000 );
+		assertFalse( sender.getUnacknowledgedCount( 1234 ) > 0 );
+	}
+
+	/**
+	 * Tests that the messages waiting for an acknowledgement are sent to
+	 * the new address of a user that came back as a new user object.
+	 */
+	@Test
+	public void testUserWithNewAddress()
+	{
+		sender.send( user, "1!PRIVMSG#Nick:first", "first", 1000 );
+
+		User newUser = new User( "Test", 1234 );
+		newUser.setIpAddress( "10.0.0.3" );
+		newUser.setPrivateChatPort( 40001 );
+		sender.send( newUser, "1!PRIVMSG#Nick:second", "second", 1100 );
+		sender.sendDueMessages( 1000 + Constants.NETWORK_PRIVATE_RETRANSMIT_TIMEOUT );
+
+		verify( service ).sendUDPMsg( "1!PRIVMSG+s0+b0#Nick:first", "10.0.0.2", 40000 );
+		verify( service ).sendUDPMsg( "1!PRIVMSG+s1+b0#Nick:second", "10.0.0.3", 40001 );
+		verify( service ).sendUDPMsg( "1!PRIVMSG+s0+b0#Nick:first", "10.0.0.3", 40001 );
+	}
+
+	/**
+	 * Tests that the window of a removed user is dropped, and
+	 * the messages not acknowledged are not sent again.
+	 */
+	@Test
+	public void testRemovedUser()
+	{
+		sender.send( user, "1!PRIVMSG#Nick:text", "text", 1000 );
+		sender.userRemoved( 0, user );
+
+		assertEquals( 0, sender.getUnacknowledgedCount( 1234 ) );
+		sender.sendDueMessages( 1000 + Constants.NETWORK_PRIVATE_RETRANSMIT_TIMEOUT );
+		verify( service, times( 1 ) ).sendUDPMsg( anyString(), anyString(), anyInt() );
+	}
+}
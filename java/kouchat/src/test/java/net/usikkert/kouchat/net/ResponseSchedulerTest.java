@@ -0,0 +1,153 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.Random;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.Topic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link ResponseScheduler}.
+ *
+ * @author Christian Ihle
+ */
+public class ResponseSchedulerTest
+{
+	/** The time the requests arrive. */
+	private static final long NOW = 100000;
+
+	/** Mocked controller sending the answers. */
+	private Controller controller;
+
+	/** The scheduler tested here. */
+	private ResponseScheduler scheduler;
+
+	/**
+	 * Creates a scheduler without a timer.
+	 */
+	@Before
+	public void setUp()
+	{
+		controller = mock( Controller.class );
+		when( controller.getTopic() ).thenReturn( new Topic( "The topic", "Someone", 1234 ) );
+		scheduler = new ResponseScheduler( controller, new Random(), null );
+	}
+
+	/**
+	 * Tests that the topic is sent after the delay, and only once for several requests.
+	 */
+	@Test
+	public void testTopicIsSentAfterDelay()
+	{
+		scheduler.topicRequested( NOW );
+		scheduler.topicRequested( NOW + 10 );
+
+		scheduler.sendDueResponses( NOW + 19 );
+		verify( controller, never() ).sendTopicRequestedMessage();
+
+		scheduler.sendDueResponses( NOW + 120 );
+		scheduler.sendDueResponses( NOW + 500 );
+		verify( controller ).sendTopicRequestedMessage();
+	}
+
+	/**
+	 * Tests that the topic is not sent if another user sends the same topic first,
+	 * but is sent if the other user sends a different topic.
+	 */
+	@Test
+	public void testSameTopicFromOtherUserIsSuppressed()
+	{
+		scheduler.topicRequested( NOW );
+		scheduler.topicHeard( "The topic", "Someone", 1233 );
+		scheduler.topicHeard( "Other topic", "Someone", 1234 );
+		scheduler.sendDueResponses( NOW + 120 );
+		verify( controller ).sendTopicRequestedMessage();
+
+		scheduler.topicRequested( NOW + 1000 );
+		scheduler.topicHeard( "The topic", "Someone", 1234 );
+		scheduler.sendDueResponses( NOW + 1120 );
+		verify( controller ).sendTopicRequestedMessage();
+		assertEquals( 1, scheduler.getSuppressedTopics() );
+	}
+
+	/**
+	 * Tests that an empty topic from another user suppresses our empty topic.
+	 */
+	@Test
+	public void testEmptyTopic()
+	{
+		when( controller.getTopic() ).thenReturn( new Topic() );
+
+		scheduler.topicRequested( NOW );
+		scheduler.topicHeard( null, "", 0 );
+		scheduler.sendDueResponses( NOW + 120 );
+		verify( controller, never() ).sendTopicRequestedMessage();
+	}
+
+	/**
+	 * Tests that the information about this client is sent within the window,
+	 * and only once for several requests.
+	 */
+	@Test
+	public void testExposingIsSentWithinWindow()
+	{
+		scheduler.exposeRequested( 200, NOW );
+		scheduler.exposeRequested( 200, NOW + 10 );
+
+		scheduler.sendDueResponses( NOW + ResponseScheduler.getExposingWindow( 200 ) );
+		verify( controller ).sendExposingMessage();
+		verify( controller ).sendClientInfo();
+		verify( controller, never() ).sendTopicRequestedMessage();
+	}
+
+	/**
+	 * Tests that the exposing window grows with the number of users, within the limits.
+	 */
+	@Test
+	public void testExposingWindow()
+	{
+		assertEquals( 100, ResponseScheduler.getExposingWindow( 2 ) );
+		assertEquals( 500, ResponseScheduler.getExposingWindow( 100 ) );
+		assertEquals( 1000, ResponseScheduler.getExposingWindow( 200 ) );
+		assertEquals( 1000, ResponseScheduler.getExposingWindow( 1000 ) );
+	}
+
+	/**
+	 * Tests that the answers from all the users can arrive before the logon
+	 * delay is over, with at least half a second to spare for the network.
+	 */
+	@Test
+	public void testExposingWindowIsBelowLogonDelay()
+	{
+		assertTrue( ResponseScheduler.getExposingWindow( Integer.MAX_VALUE )
+				<= Constants.NETWORK_LOGON_DELAY - 500 );
+	}
+}
@@ -0,0 +1,286 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link ResumeHandshake}.
+ *
+ * @author Christian Ihle
+ */
+public class ResumeHandshakeTest
+{
+	/** A file like the file being sent. */
+	private File file;
+
+	/** A file like a partial file at the receiver. */
+	private File partialFile;
+
+	/**
+	 * Creates the temporary files.
+	 *
+	 * @throws IOException In case of errors.
+	 */
+	@Before
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile( "kouchat", ".tmp" );
+		partialFile = File.createTempFile( "kouchat", ".tmp" );
+	}
+
+	/**
+	 * Deletes the temporary files.
+	 */
+	@After
+	public void tearDown()
+	{
+		file.delete();
+		partialFile.delete();
+	}
+
+	/**
+	 * Tests that only files smaller than the file being sent are resumed.
+	 *
+	 * @throws IOException In case of errors.
+	 */
+	@Test
+	public void testGetResumeOffset() throws IOException
+	{
+		assertEquals( 0, ResumeHandshake.getResumeOffset( partialFile, 1000 ) );
+
+		write( partialFile, new byte[600] );
+		assertEquals( 600, ResumeHandshake.getResumeOffset( partialFile, 1000 ) );
+		assertEquals( 0, ResumeHandshake.getResumeOffset( partialFile, 600 ) );
+		assertEquals( 0, ResumeHandshake.getResumeOffset( partialFile, 500 ) );
+
+		partialFile.delete();
+		assertFalse( partialFile.exists() );
+		assertEquals( 0, ResumeHandshake.getResumeOffset( partialFile, 1000 ) );
+	}
+
+	/**
+	 * Tests that the flag is added after the type.
+	 */
+	@Test
+	public void testAddFlag()
+	{
+		assertEquals( "1!SENDFILEACCEPT+r5000#Nick:(2)[3]{4}a.txt",
+				ResumeHandshake.addFlag( "1!SENDFILEACCEPT#Nick:(2)[3]{4}a.txt", 5000 ) );
+	}
+
+	/**
+	 * Tests that the checksum only depends on the bytes just before the offset.
+	 *
+	 * @throws IOException In case of errors.
+	 */
+	@Test
+	public void testChecksumOfTail() throws IOException
+	{
+		byte[] data = createData( ResumeHandshake.VERIFY_BYTES * 3 );
+		write( file, data );
+
+		int offset = ResumeHandshake.VERIFY_BYTES * 2;
+		byte[] partialData = new byte[offset];
+		System.arraycopy( data, 0, partialData, 0, offset );
+		partialData[0]++;
+		write( partialFile, partialData );
+
+		assertEquals( checksum( file, offset ), checksum( partialFile, offset ) );
+
+		partialData[offset - 1]++;
+		write( partialFile, partialData );
+
+		assertFalse( checksum( file, offset ) == checksum( partialFile, offset ) );
+	}
+
+	/**
+	 * Tests the checksum of an offset smaller than the bytes to verify.
+	 *
+	 * @throws IOException In case of errors.
+	 */
+	@Test
+	public void testChecksumOfShortFile() throws IOException
+	{
+		write( file, createData( 100 ) );
+		write( partialFile, createData( 10 ) );
+
+		assertEquals( checksum( file, 10 ), checksum( partialFile, 10 ) );
+		assertFalse( checksum( file, 11 ) == checksum( partialFile, 10 ) );
+	}
+
+	/**
+	 * Tests that the checksum fails if the file is shorter than the offset.
+	 *
+	 * @throws IOException In case of errors.
+	 */
+	@Test( expected = EOFException.class )
+	public void testChecksumAfterEndOfFile() throws IOException
+	{
+		write( file, createData( 100 ) );
+		checksum( file, 101 );
+	}
+
+	/**
+	 * Tests that numbers written can be read at the other end.
+	 *
+	 * @throws IOException In case of errors.
+	 */
+	@Test
+	public void testWriteAndReadLong() throws IOException
+	{
+		Pipe pipe = Pipe.open();
+
+		assertTrue( ResumeHandshake.writeLong( pipe.sink(), ResumeHandshake.wrapLong( Long.MIN_VALUE ) ) );
+		assertTrue( ResumeHandshake.writeLong( pipe.sink(), ResumeHandshake.wrapLong( 5000000000L ) ) );
+		pipe.sink().close();
+
+		ByteBuffer buffer = ByteBuffer.allocate( ResumeHandshake.LONG_SIZE );
+		assertTrue( ResumeHandshake.readLong( pipe.source(), buffer ) );
+		assertEquals( Long.MIN_VALUE, buffer.getLong( 0 ) );
+
+		buffer.clear();
+		assertTrue( ResumeHandshake.readLong( pipe.source(), buffer ) );
+		assertEquals( 5000000000L, buffer.getLong( 0 ) );
+
+		try
+		{
+			buffer.clear();
+			ResumeHandshake.readLong( pipe.source(), buffer );
+			fail( "Expected EOFException" );
+		}
+
+		catch ( final EOFException e )
+		{
+			// Expected
+		}
+
+		pipe.source().close();
+	}
+
+	/**
+	 * Tests that a number is collected over several reads, without waiting
+	 * for the rest of it.
+	 *
+	 * @throws IOException In case of errors.
+	 */
+	@Test
+	public void testReadLongInParts() throws IOException
+	{
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking( false );
+		ByteBuffer number = ResumeHandshake.wrapLong( 1234567890123L );
+		ByteBuffer buffer = ByteBuffer.allocate( ResumeHandshake.LONG_SIZE );
+
+		assertFalse( ResumeHandshake.readLong( pipe.source(), buffer ) );
+
+		number.limit( 3 );
+		pipe.sink().write( number );
+		assertFalse( ResumeHandshake.readLong( pipe.source(), buffer ) );
+
+		number.limit( ResumeHandshake.LONG_SIZE );
+		pipe.sink().write( number );
+		assertTrue( ResumeHandshake.readLong( pipe.source(), buffer ) );
+		assertEquals( 1234567890123L, buffer.getLong( 0 ) );
+
+		pipe.sink().close();
+		pipe.source().close();
+	}
+
+	/**
+	 * Creates some data that is different at every position within the bytes to verify.
+	 *
+	 * @param length The number of bytes.
+	 * @return The data.
+	 */
+	private byte[] createData( final int length )
+	{
+		byte[] data = new byte[length];
+
+		for ( int i = 0; i < length; i++ )
+		{
+			data[i] = (byte) ( i * 31 + i / 256 );
+		}
+
+		return data;
+	}
+
+	/**
+	 * Replaces the contents of the file.
+	 *
+	 * @param target The file to write to.
+	 * @param data The new contents.
+	 * @throws IOException In case of errors.
+	 */
+	private void write( final File target, final byte[] data ) throws IOException
+	{
+		FileOutputStream fos = new FileOutputStream( target );
+
+		try
+		{
+			fos.write( data );
+		}
+
+		finally
+		{
+			fos.close();
+		}
+	}
+
+	/**
+	 * Calculates the checksum before the offset in the file.
+	 *
+	 * @param target The file to read from.
+	 * @param offset Where to stop reading.
+	 * @return The checksum.
+	 * @throws IOException In case of errors.
+	 */
+	private long checksum( final File target, final long offset ) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile( target, "r" );
+
+		try
+		{
+			return ResumeHandshake.checksum( raf.getChannel(), offset );
+		}
+
+		finally
+		{
+			raf.close();
+		}
+	}
+}
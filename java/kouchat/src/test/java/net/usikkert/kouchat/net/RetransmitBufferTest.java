@@ -0,0 +1,115 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link RetransmitBuffer}.
+ *
+ * @author Christian Ihle
+ */
+public class RetransmitBufferTest
+{
+	/**
+	 * Tests that the sequence numbers start at 1, and count up.
+	 */
+	@Test
+	public void testNextSequence()
+	{
+		RetransmitBuffer buffer = new RetransmitBuffer( 4, 250 );
+
+		assertEquals( 1, buffer.nextSequence() );
+		assertEquals( 2, buffer.nextSequence() );
+		assertEquals( 3, buffer.nextSequence() );
+	}
+
+	/**
+	 * Tests that a sequence number given back is given out again,
+	 * but only if it was the last one.
+	 */
+	@Test
+	public void testReleaseSequence()
+	{
+		RetransmitBuffer buffer = new RetransmitBuffer( 4, 250 );
+
+		assertEquals( 1, buffer.nextSequence() );
+		assertEquals( 2, buffer.nextSequence() );
+		buffer.releaseSequence( 2 );
+		assertEquals( 2, buffer.nextSequence() );
+		buffer.releaseSequence( 1 );
+		assertEquals( 3, buffer.nextSequence() );
+	}
+
+	/**
+	 * Tests that messages are found by sequence number, and that
+	 * old messages are replaced when the buffer is full.
+	 */
+	@Test
+	public void testOldMessagesAreReplaced()
+	{
+		RetransmitBuffer buffer = new RetransmitBuffer( 4, 250 );
+
+		for ( int i = 1; i <= 6; i++ )
+		{
+			buffer.add( i, "message " + i );
+		}
+
+		assertNull( buffer.getRetransmit( 1, 1000 ) );
+		assertNull( buffer.getRetransmit( 2, 1000 ) );
+		assertEquals( "message 3", buffer.getRetransmit( 3, 1000 ) );
+		assertEquals( "message 6", buffer.getRetransmit( 6, 1000 ) );
+		assertNull( buffer.getRetransmit( 7, 1000 ) );
+	}
+
+	/**
+	 * Tests that the same message is only sent again once within the minimum interval.
+	 */
+	@Test
+	public void testMinimumInterval()
+	{
+		RetransmitBuffer buffer = new RetransmitBuffer( 4, 250 );
+		buffer.add( 1, "message" );
+
+		assertEquals( "message", buffer.getRetransmit( 1, 1000 ) );
+		assertNull( buffer.getRetransmit( 1, 1100 ) );
+		assertNull( buffer.getRetransmit( 1, 1249 ) );
+		assertEquals( "message", buffer.getRetransmit( 1, 1250 ) );
+	}
+
+	/**
+	 * Tests that a new message in the same place in the buffer can be sent again at once.
+	 */
+	@Test
+	public void testNewMessageInSamePlace()
+	{
+		RetransmitBuffer buffer = new RetransmitBuffer( 2, 250 );
+		buffer.add( 1, "first" );
+		assertEquals( "first", buffer.getRetransmit( 1, 1000 ) );
+
+		buffer.add( 3, "third" );
+		assertEquals( "third", buffer.getRetransmit( 3, 1000 ) );
+	}
+}
@@ -0,0 +1,189 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.Random;
+
+import net.usikkert.kouchat.event.MissingMessageListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link SequenceTracker}.
+ *
+ * @author Christian Ihle
+ */
+public class SequenceTrackerTest
+{
+	/** The user code of the user sending the messages. */
+	private static final int CODE = 12345678;
+
+	/** The delay before reporting missing messages. Always the same, to get the same results. */
+	private static final int DELAY = 100;
+
+	/** Mocked listener getting the missing messages. */
+	private MissingMessageListener listener;
+
+	/** The tracker tested here. */
+	private SequenceTracker tracker;
+
+	/**
+	 * Creates a new tracker without a timer.
+	 */
+	@Before
+	public void setUp()
+	{
+		listener = mock( MissingMessageListener.class );
+		tracker = new SequenceTracker( listener, new Random(), null, DELAY, DELAY );
+	}
+
+	/**
+	 * Tests that messages arriving twice are found.
+	 */
+	@Test
+	public void testDuplicates()
+	{
+		assertTrue( tracker.messageArrived( CODE, 10, 0 ) );
+		assertFalse( tracker.messageArrived( CODE, 10, 0 ) );
+		assertTrue( tracker.messageArrived( CODE, 11, 0 ) );
+		assertFalse( tracker.messageArrived( CODE, 10, 0 ) );
+		assertTrue( tracker.messageArrived( CODE + 1, 10, 0 ) );
+		assertEquals( 0, tracker.getMissingCount() );
+	}
+
+	/**
+	 * Tests that missing messages are reported after the delay, until they arrive.
+	 */
+	@Test
+	public void testMissingMessagesAreReported()
+	{
+		tracker.messageArrived( CODE, 1, 0 );
+		tracker.messageArrived( CODE, 4, 1000 );
+		assertEquals( 2, tracker.getMissingCount() );
+
+		tracker.checkMissing( 1000 + DELAY - 1 );
+		verifyZeroInteractions( listener );
+
+		tracker.checkMissing( 1000 + DELAY );
+		verify( listener ).messageMissing( CODE, 2 );
+		verify( listener ).messageMissing( CODE, 3 );
+
+		assertTrue( tracker.messageArrived( CODE, 2, 1200 ) );
+		assertFalse( tracker.messageArrived( CODE, 2, 1200 ) );
+		assertEquals( 1, tracker.getMissingCount() );
+
+		tracker.checkMissing( 5000 );
+		verify( listener ).messageMissing( CODE, 2 );
+		verify( listener, times( 2 ) ).messageMissing( CODE, 3 );
+	}
+
+	/**
+	 * Tests that a missing message is given up after being reported too many times.
+	 */
+	@Test
+	public void testMissingMessageGivenUp()
+	{
+		tracker.messageArrived( CODE, 1, 0 );
+		tracker.messageArrived( CODE, 3, 0 );
+
+		for ( int i = 1; i <= 5; i++ )
+		{
+			tracker.checkMissing( i * 10000 );
+		}
+
+		verify( listener, times( 3 ) ).messageMissing( CODE, 2 );
+		assertEquals( 0, tracker.getMissingCount() );
+		assertEquals( 1, tracker.getGivenUpCount() );
+	}
+
+	/**
+	 * Tests that a report of the same missing message from another
+	 * user postpones our own report.
+	 */
+	@Test
+	public void testReportFromOtherUserPostpones()
+	{
+		tracker.messageArrived( CODE, 1, 0 );
+		tracker.messageArrived( CODE, 3, 0 );
+
+		tracker.missingReported( CODE, 2, 50 );
+		tracker.checkMissing( DELAY );
+		verifyZeroInteractions( listener );
+
+		assertTrue( tracker.messageArrived( CODE, 2, 200 ) );
+		tracker.checkMissing( 10000 );
+		verifyZeroInteractions( listener );
+	}
+
+	/**
+	 * Tests that only the last missing messages are kept after a large gap.
+	 */
+	@Test
+	public void testLargeGap()
+	{
+		tracker.messageArrived( CODE, 1, 0 );
+		tracker.messageArrived( CODE, 1000, 0 );
+		assertEquals( 32, tracker.getMissingCount() );
+
+		tracker.checkMissing( DELAY );
+		verify( listener ).messageMissing( CODE, 999 );
+		verify( listener ).messageMissing( CODE, 968 );
+		verify( listener, never() ).messageMissing( CODE, 967 );
+	}
+
+	/**
+	 * Tests that a sequence number far behind the last one starts over.
+	 */
+	@Test
+	public void testStartOver()
+	{
+		tracker.messageArrived( CODE, 500, 0 );
+		assertFalse( tracker.messageArrived( CODE, 500 - SequenceTracker.WINDOW_SIZE, 0 ) );
+
+		assertTrue( tracker.messageArrived( CODE, 1, 0 ) );
+		assertTrue( tracker.messageArrived( CODE, 2, 0 ) );
+		assertFalse( tracker.messageArrived( CODE, 1, 0 ) );
+	}
+
+	/**
+	 * Tests that missing messages from users that logged off are forgotten.
+	 */
+	@Test
+	public void testRemoveSender()
+	{
+		tracker.messageArrived( CODE, 1, 0 );
+		tracker.messageArrived( CODE, 3, 0 );
+		tracker.removeSender( CODE );
+
+		assertEquals( 0, tracker.getMissingCount() );
+		tracker.checkMissing( 10000 );
+		verifyZeroInteractions( listener );
+
+		assertTrue( tracker.messageArrived( CODE, 3, 0 ) );
+	}
+}
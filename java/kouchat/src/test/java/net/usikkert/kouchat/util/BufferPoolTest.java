@@ -0,0 +1,108 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link BufferPool}.
+ *
+ * @author Christian Ihle
+ */
+public class BufferPoolTest
+{
+	/** The pool tested here, with room for 2 buffers. */
+	private BufferPool pool;
+
+	/**
+	 * Creates a new pool.
+	 */
+	@Before
+	public void setUp()
+	{
+		pool = new BufferPool( 2 );
+	}
+
+	/**
+	 * Tests that released buffers are reused, and cleared.
+	 */
+	@Test
+	public void testBuffersAreReused()
+	{
+		ByteBuffer buffer = pool.acquire( 1024 );
+		assertTrue( buffer.isDirect() );
+		assertEquals( 1024, buffer.capacity() );
+
+		buffer.put( (byte) 1 ).flip();
+		pool.release( buffer );
+
+		ByteBuffer reused = pool.acquire( 1024 );
+		assertSame( buffer, reused );
+		assertEquals( 0, reused.position() );
+		assertEquals( 1024, reused.limit() );
+		assertEquals( 1, pool.getAllocatedBuffers() );
+		assertEquals( 0, pool.getPooledBuffers() );
+	}
+
+	/**
+	 * Tests that only buffers with the same capacity are reused.
+	 */
+	@Test
+	public void testOtherCapacityIsNotReused()
+	{
+		ByteBuffer buffer = pool.acquire( 1024 );
+		pool.release( buffer );
+
+		assertNotSame( buffer, pool.acquire( 2048 ) );
+		assertEquals( 2, pool.getAllocatedBuffers() );
+		assertEquals( 1, pool.getPooledBuffers() );
+	}
+
+	/**
+	 * Tests that the oldest buffer is dropped when the pool is full.
+	 */
+	@Test
+	public void testOldestBufferIsDropped()
+	{
+		ByteBuffer first = pool.acquire( 1024 );
+		ByteBuffer second = pool.acquire( 1024 );
+		ByteBuffer third = pool.acquire( 1024 );
+
+		pool.release( first );
+		pool.release( second );
+		pool.release( third );
+		assertEquals( 2, pool.getPooledBuffers() );
+
+		assertSame( second, pool.acquire( 1024 ) );
+		assertSame( third, pool.acquire( 1024 ) );
+		pool.acquire( 1024 );
+		assertEquals( 4, pool.getAllocatedBuffers() );
+	}
+}
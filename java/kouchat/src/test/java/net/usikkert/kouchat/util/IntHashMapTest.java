@@ -0,0 +1,107 @@
+
+/***************************************************************************
+ *   Copyright 2006-2009 by Christian Ihle                                 *
+ *   kontakt@usikkert.net                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link IntHashMap}.
+ *
+ * @author Christian Ihle
+ */
+public class IntHashMapTest
+{
+	/**
+	 * Tests put, get and remove of a few keys, including negative ones.
+	 */
+	@Test
+	public void testPutGetRemove()
+	{
+		IntHashMap<String> map = new IntHashMap<String>();
+
+		assertNull( map.put( 1, "one" ) );
+		assertNull( map.put( -5, "minus five" ) );
+		assertEquals( "one", map.put( 1, "uno" ) );
+
+		assertEquals( 2, map.size() );
+		assertEquals( "uno", map.get( 1 ) );
+		assertEquals( "minus five", map.get( -5 ) );
+		assertTrue( map.containsKey( -5 ) );
+		assertFalse( map.containsKey( 2 ) );
+
+		assertEquals( "uno", map.remove( 1 ) );
+		assertNull( map.remove( 1 ) );
+		assertNull( map.get( 1 ) );
+		assertEquals( 1, map.size() );
+
+		map.clear();
+		assertEquals( 0, map.size() );
+		assertNull( map.get( -5 ) );
+	}
+
+	/**
+	 * Tests that null values are rejected.
+	 */
+	@Test( expected = IllegalArgumentException.class )
+	public void testNullValueNotAllowed()
+	{
+		new IntHashMap<String>().put( 1, null );
+	}
+
+	/**
+	 * Compares a long random sequence of operations with {@link HashMap},
+	 * to cover resizing and removal from the middle of probe chains.
+	 */
+	@Test
+	public void testRandomOperationsMatchHashMap()
+	{
+		IntHashMap<Integer> map = new IntHashMap<Integer>();
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		Random random = new Random( 42 );
+
+		for ( int i = 0; i < 100000; i++ )
+		{
+			int key = random.nextInt( 500 ) * 16;
+
+			if ( random.nextInt( 3 ) == 0 )
+				assertEquals( expected.remove( key ), map.remove( key ) );
+			else
+				assertEquals( expected.put( key, i ), map.put( key, i ) );
+
+			assertEquals( expected.size(), map.size() );
+		}
+
+		for ( int key = 0; key < 500 * 16; key++ )
+		{
+			assertEquals( expected.get( key ), map.get( key ) );
+		}
+	}
+}
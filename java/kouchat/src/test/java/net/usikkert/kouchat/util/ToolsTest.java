@@ -24,6 +24,11 @@ package net.usikkert.kouchat.util;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import net.usikkert.kouchat.Constants;
+
 import org.junit.Test;
 
 /**
@@ -118,4 +123,36 @@ public class ToolsTest
 		assertEquals( 10, Tools.percentOf( 100, 10 ), 10 );
 		assertEquals( 60, Tools.percentOf( 200, 30 ), 10 );
 	}
+
+	/**
+	 * Tests that counting the bytes gives the same result as encoding the text,
+	 * for random text with characters from all the ranges that are encoded
+	 * differently, including surrogate pairs and lone surrogates.
+	 *
+	 * @throws UnsupportedEncodingException If the charset is missing.
+	 */
+	@Test
+	public void testGetBytes() throws UnsupportedEncodingException
+	{
+		assertEquals( 0, Tools.getBytes( "" ) );
+		assertEquals( 5, Tools.getBytes( "hello" ) );
+		assertEquals( 8, Tools.getBytes( "bl\u00e5b\u00e6r" ) );
+		assertEquals( 7, Tools.getBytes( "\u20ac\ud83d\ude00" ) );
+
+		char[] samples = { 'a', '\u00e5', '\u07ff', '\u0800', '\u20ac', '\uffff', '\ud83d', '\ude00' };
+		Random random = new Random( 42 );
+
+		for ( int i = 0; i < 2000; i++ )
+		{
+			char[] chars = new char[random.nextInt( 20 )];
+
+			for ( int j = 0; j < chars.length; j++ )
+			{
+				chars[j] = samples[random.nextInt( samples.length )];
+			}
+
+			String text = new String( chars );
+			assertEquals( text.getBytes( Constants.MESSAGE_CHARSET ).length, Tools.getBytes( text ) );
+		}
+	}
 }